@@ -44,6 +44,12 @@ grammar Java;
     public void reportError(String msg) {
         errors.add(msg);
     }
+
+    // Clears state left behind by a previous parse so a pooled parser can be reused
+    public void resetState() {
+        errors.clear();
+        symbolTable = new SymbolTable();
+    }
     
     
 }
@@ -67,17 +73,16 @@ memberDecl:
     varDecl ';' | functionDecl;
 
 // FUNCTIONS
-functionDecl: 
-    (PUBLIC | PRIVATE | PROTECTED)? (STATIC)? type ID '(' (parameter (',' parameter)*)? ')' 
+// The scope opens before the parameters, so that they belong to this function and not to the class
+functionDecl
+@init { symbolTable.enterScope(); }
+    : (PUBLIC | PRIVATE | PROTECTED)? (STATIC)? type ID '(' (parameter (',' parameter)*)? ')' 
 
     {
-        symbolTable.enterScope();
         symbolTable.addFunction($ID.text, $type.ctx);
     }
-    '{' statement* '}' 
-    {
-        symbolTable.exitScope();
-    };
+    '{' statement* '}';
+    finally { symbolTable.exitScope(); }
 
 parameter: type ID { symbolTable.addVariable($ID.text, $type.ctx); };
 
@@ -97,7 +102,12 @@ statement:
     ;
 
 ifStmt: 'if' '(' expr ')' statement ('else' statement)?;
-forStmt: 'for' '(' (varDecl | expr)? ';' expr? ';' expr? ')' statement;
+// Blocks and for loops are scopes, so sibling loops can each declare their own i. The scope is
+// closed in finally, a syntax error that ends the rule early would otherwise leave it open
+forStmt
+@init { symbolTable.enterScope(); }
+    : 'for' '(' (varDecl | expr)? ';' expr? ';' expr? ')' statement;
+    finally { symbolTable.exitScope(); }
 whileStmt: 'while' '(' expr ')' statement;
 returnStmt: 'return' expr?;
 varDecl: type ID ('=' expr { 
@@ -116,7 +126,10 @@ varDecl: type ID ('=' expr {
 })?;
 
 
-block: '{' statement* '}';
+block
+@init { symbolTable.enterScope(); }
+    : '{' statement* '}';
+    finally { symbolTable.exitScope(); }
 
 
 
@@ -138,7 +151,7 @@ expr:
     | expr op=('=='|'!=') expr            # EqualityOperation
     | expr '&&' expr                      # LogicalAndOperation
     | expr '||' expr                      # LogicalOrOperation
-    | ID '=' expr  # AssignmentExpression
+    | ID op=('='|'+='|'-='|'*='|'/='|'%=') expr  # AssignmentExpression
     ;
 
 primary:
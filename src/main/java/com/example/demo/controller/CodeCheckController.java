@@ -1,36 +1,257 @@
 package com.example.demo.controller;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import com.example.demo.service.CodeParser;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import com.example.demo.grammar.diagnostics.Diagnostic;
+import com.example.demo.grammar.diagnostics.Diagnostics;
+import com.example.demo.service.BatchCheckService;
+import com.example.demo.service.DiagnosticsCache;
+import com.example.demo.service.IncrementalCodeParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 @CrossOrigin(origins = "http://localhost:8081")  // Allow frontend
 @RestController
 @RequestMapping("/api")
 public class CodeCheckController {
-    private final CodeParser codeParser;
+    private static final String NDJSON = "application/x-ndjson";
+    private static final String EVENT_STREAM = "text/event-stream";
 
-    public CodeCheckController(CodeParser codeParser) {
-        this.codeParser = codeParser;
+    private final DiagnosticsCache diagnosticsCache;
+    private final IncrementalCodeParser incrementalCodeParser;
+    private final BatchCheckService batchCheckService;
+    private final ObjectMapper objectMapper;
+
+    public CodeCheckController(DiagnosticsCache diagnosticsCache, IncrementalCodeParser incrementalCodeParser,
+                               BatchCheckService batchCheckService, ObjectMapper objectMapper) {
+        this.diagnosticsCache = diagnosticsCache;
+        this.incrementalCodeParser = incrementalCodeParser;
+        this.batchCheckService = batchCheckService;
+        this.objectMapper = objectMapper;
     }
 
+    public record BatchCheckRequest(List<BatchCheckService.NamedSource> files) {}
+
+    public record IncrementalCheckRequest(String documentId, Integer version, String code,
+                                          List<IncrementalCodeParser.TextEdit> edits) {}
+
     @PostMapping("/check")
     public Map<String, Object> checkCode(@RequestBody Map<String, String> request) {
         String code = request.get("code");
-        List<String> errors = codeParser.parse(code);
+        Diagnostics diagnostics = diagnosticsCache.parse(code);
+
+        return buildCheckResponse(diagnostics);
+    }
+
+    // Same check as /check sent as Server-Sent Events: a "diagnostic" event as soon as the lexer,
+    // parser or semantic pass reports one, then a "summary" event with the counts
+    @PostMapping("/check/stream")
+    public ResponseEntity<StreamingResponseBody> streamCheck(@RequestBody Map<String, String> request) {
+        String code = request.get("code") == null ? "" : request.get("code");
+
+        StreamingResponseBody body = out -> {
+            long startNanos = System.nanoTime();
+            EventStream events = new EventStream(out);
+            Diagnostics diagnostics;
+            try {
+                diagnostics = diagnosticsCache.stream(code, events::diagnostic);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("valid", diagnostics.isEmpty());
+            summary.put("totalErrors", diagnostics.size());
+            summary.put("stats", diagnostics.stats());
+            summary.put("elapsedMillis", (System.nanoTime() - startNanos) / 1_000_000);
+            events.send("summary", summary);
+            out.flush();
+        };
+
+        return ResponseEntity.ok()
+            .header("Content-Type", EVENT_STREAM)
+            .header("Cache-Control", "no-cache")
+            .body(body);
+    }
 
+    // Results in input order plus a summary, once every file is done
+    @PostMapping("/check/batch")
+    public Map<String, Object> checkBatch(@RequestBody BatchCheckRequest request) throws InterruptedException {
+        List<BatchCheckService.NamedSource> files = request.files() == null ? List.of() : request.files();
+        BatchSummary summary = new BatchSummary(batchCheckService.getParallelism());
+        Object[] results = new Object[files.size()];
+
+        batchCheckService.check(files, result -> results[result.index()] = summary.add(result));
+
+        return Map.of("files", Arrays.asList(results), "summary", summary.toMap());
+    }
+
+    // Same check streamed as newline-delimited JSON: one line per file as it completes, then the summary
+    @PostMapping("/check/batch/stream")
+    public ResponseEntity<StreamingResponseBody> streamBatch(@RequestBody BatchCheckRequest request) {
+        List<BatchCheckService.NamedSource> files = request.files() == null ? List.of() : request.files();
+
+        StreamingResponseBody body = out -> {
+            BatchSummary summary = new BatchSummary(batchCheckService.getParallelism());
+            try {
+                batchCheckService.check(files, result -> {
+                    try {
+                        out.write(objectMapper.writeValueAsBytes(summary.add(result)));
+                        out.write('\n');
+                        out.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            out.write(objectMapper.writeValueAsBytes(Map.of("summary", summary.toMap())));
+            out.write("\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        };
+
+        return ResponseEntity.ok().header("Content-Type", NDJSON).body(body);
+    }
+
+    @GetMapping("/check/cache")
+    public Map<String, Object> cacheStats() {
+        return diagnosticsCache.stats();
+    }
+
+    // Live editing: send "code" once to open the document, then only "edits" against "version"
+    // using the "documentId" the response gave out
+    @PostMapping("/check/incremental")
+    public Map<String, Object> checkIncremental(@RequestBody IncrementalCheckRequest request) {
+        try {
+            IncrementalCodeParser.Result result = incrementalCodeParser.update(
+                request.documentId(), request.version(), request.code(), request.edits());
+
+            Map<String, Object> response = new HashMap<>(buildCheckResponse(result.diagnostics()));
+            response.put("documentId", result.documentId());
+            response.put("version", result.version());
+            response.put("reparsedChars", result.reparsedChars());
+            return response;
+        } catch (IncrementalCodeParser.StaleDocumentException e) {
+            // Client and server copies disagree, the client has to send the full code again
+            return Map.of("valid", false, "resync", true, "error", e.getMessage());
+        }
+    }
+
+    @DeleteMapping("/check/incremental/{documentId}")
+    public Map<String, Object> closeDocument(@PathVariable String documentId) {
+        incrementalCodeParser.close(documentId);
+        return Map.of("success", true);
+    }
+
+    // "errors" keeps the plain messages for existing clients, "diagnostics" has the positions and codes.
+    // Both are formatted by Jackson while writing the response.
+    private Map<String, Object> buildCheckResponse(Diagnostics diagnostics) {
         return Map.of(
-            "valid", errors.isEmpty(),
-            "errors", errors,
-            "stats", Map.of(
-                "lexicalErrors", errors.stream().filter(e -> e.contains("Illegal character")).count(),
-                "syntaxErrors", errors.stream().filter(e -> e.contains("missing") || e.contains("extraneous")).count(),
-                "semanticErrors", errors.stream().filter(e -> e.contains("Type mismatch") || e.contains("Undefined")).count()
-            )
+            "valid", diagnostics.isEmpty(),
+            "errors", diagnostics.messages(),
+            "diagnostics", diagnostics.list(),
+            "stats", diagnostics.stats()
         );
     }
-}
 
+    // Writes SSE frames. The first diagnostic goes out at once, later ones are flushed in groups
+    // so a source with thousands of errors doesn't cost a flush each
+    private class EventStream {
+        private static final int FLUSH_EVERY = 64;
+        private static final long FLUSH_INTERVAL_NANOS = 20_000_000;
+
+        private final OutputStream out;
+        private int sent;
+        private int unflushed;
+        private long lastFlush = System.nanoTime();
+
+        EventStream(OutputStream out) {
+            this.out = out;
+        }
 
+        void diagnostic(Diagnostic diagnostic) {
+            try {
+                send("diagnostic", diagnostic);
+                long now = System.nanoTime();
+                if (sent == 1 || unflushed >= FLUSH_EVERY || now - lastFlush >= FLUSH_INTERVAL_NANOS) {
+                    out.flush();
+                    unflushed = 0;
+                    lastFlush = now;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void send(String event, Object data) throws IOException {
+            sent++;
+            unflushed++;
+            out.write(("id: " + sent + "\nevent: " + event + "\ndata: ").getBytes(StandardCharsets.UTF_8));
+            out.write(objectMapper.writeValueAsBytes(data));
+            out.write("\n\n".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    // Aggregate counters for a batch, fed on the thread that collects results
+    private class BatchSummary {
+        private final long startNanos = System.nanoTime();
+        private final int parallelism;
+        private int files;
+        private int validFiles;
+        private long totalErrors;
+        private long parseMicros;
+        private final Map<String, Long> stats = new HashMap<>();
+
+        BatchSummary(int parallelism) {
+            this.parallelism = parallelism;
+        }
+
+        Map<String, Object> add(BatchCheckService.FileResult result) {
+            Diagnostics diagnostics = result.diagnostics();
+            Map<String, Long> fileStats = diagnostics.stats();
+            files++;
+            if (diagnostics.isEmpty()) {
+                validFiles++;
+            }
+            totalErrors += diagnostics.size();
+            parseMicros += result.parseMicros();
+            fileStats.forEach((key, count) -> stats.merge(key, count, Long::sum));
+
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("name", result.name());
+            response.put("valid", diagnostics.isEmpty());
+            response.put("errors", diagnostics.messages());
+            response.put("diagnostics", diagnostics.list());
+            response.put("stats", fileStats);
+            response.put("parseMicros", result.parseMicros());
+            return response;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("files", files);
+            summary.put("validFiles", validFiles);
+            summary.put("invalidFiles", files - validFiles);
+            summary.put("totalErrors", totalErrors);
+            summary.put("stats", new HashMap<>(stats));
+            summary.put("parseMillis", parseMicros / 1_000);
+            summary.put("elapsedMillis", (System.nanoTime() - startNanos) / 1_000_000);
+            summary.put("parallelism", parallelism);
+            return summary;
+        }
+    }
+}
@@ -1,10 +1,15 @@
 package com.example.demo.controller;
 
+import com.example.demo.service.BenchmarkService;
+import com.example.demo.service.CompiledClassCache;
+import com.example.demo.service.SandboxExecutor;
 import com.example.demo.service.TimeComplexityService;
+import com.example.demo.service.WorkerPool;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -15,6 +20,18 @@ public class CodeController {
     @Autowired
     private TimeComplexityService timeComplexityService;
 
+    @Autowired
+    private CompiledClassCache compiledClassCache;
+
+    @Autowired
+    private SandboxExecutor sandboxExecutor;
+
+    @Autowired
+    private WorkerPool workerPool;
+
+    private static final int[] DEFAULT_BENCHMARK_SIZES = {10, 100, 1000};
+    private static final int MAX_BENCHMARK_SIZES = 16;
+
     @PostMapping("/analyze")
     public Map<String, Object> analyzeCode(@RequestBody Map<String, String> request) {
         String userEmail = request.get("email");
@@ -26,13 +43,27 @@ public class CodeController {
 
         try {
             // Store code and return complexity
-            String complexity = timeComplexityService.analyzeAndStoreComplexity(code, userEmail);
+            TimeComplexityService.Analysis analysis = timeComplexityService.analyzeAndStoreComplexity(code, userEmail);
             
             // Proper response structure for frontend
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
-            response.put("complexity", complexity);
-            response.put("message", "Code stored successfully!");
+            response.put("complexity", analysis.complexity());
+            response.put("confidence", analysis.confidence());
+            response.put("fitError", analysis.fitError());
+            response.put("spaceComplexity", analysis.spaceComplexity());
+            response.put("spaceConfidence", analysis.spaceConfidence());
+            response.put("status", analysis.status());
+            response.put("stoppedAt", analysis.stoppedAt());
+            response.put("source", analysis.source());
+            response.put("partial", analysis.partial());
+            response.put("operationCounts", analysis.operationCounts());
+            response.put("allocatedBytes", analysis.allocatedBytes());
+            response.put("peakHeapBytes", analysis.peakHeapBytes());
+            response.put("message", analysis.partial()
+                    ? "Code stored, measurement stopped early (" + analysis.status()
+                      + (analysis.stoppedAt() == null ? "" : " at n=" + analysis.stoppedAt()) + ")"
+                    : "Code stored successfully!");
             return response;
         } catch (Exception e) {
             // Handle any exception (e.g., parsing errors, database issues)
@@ -42,4 +73,59 @@ public class CodeController {
             return response;
         }
     }
-}
\ No newline at end of file
+
+    // Timing of the snippet per input size, nothing is stored
+    @PostMapping("/benchmark")
+    public Map<String, Object> benchmarkCode(@RequestBody Map<String, Object> request) {
+        Object code = request.get("code");
+        if (!(code instanceof String snippet) || snippet.isEmpty()) {
+            return Map.of("success", false, "error", "Code is required!");
+        }
+        int[] sizes = DEFAULT_BENCHMARK_SIZES;
+        if (request.get("sizes") instanceof List<?> requested && !requested.isEmpty()) {
+            if (requested.size() > MAX_BENCHMARK_SIZES) {
+                return Map.of("success", false, "error", "At most " + MAX_BENCHMARK_SIZES + " sizes");
+            }
+            sizes = new int[requested.size()];
+            for (int i = 0; i < sizes.length; i++) {
+                if (!(requested.get(i) instanceof Number size) || size.intValue() < 0) {
+                    return Map.of("success", false, "error", "Sizes must be non-negative integers");
+                }
+                sizes[i] = size.intValue();
+            }
+        }
+
+        try {
+            List<BenchmarkService.SizeResult> results = timeComplexityService.benchmark(snippet, sizes);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("results", results);
+            return response;
+        } catch (Exception e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("error", "Failed to benchmark code: " + e.getMessage());
+            return response;
+        }
+    }
+
+    @GetMapping("/analyze/cache")
+    public Map<String, Object> classCacheStats() {
+        return compiledClassCache.stats();
+    }
+
+    @GetMapping("/analyze/sandbox")
+    public Map<String, Object> sandboxStats() {
+        return sandboxExecutor.stats();
+    }
+
+    @GetMapping("/analyze/flights")
+    public Map<String, Object> analysisFlightStats() {
+        return timeComplexityService.flightStats();
+    }
+
+    @GetMapping("/analyze/workers")
+    public Map<String, Object> workerStats() {
+        return workerPool.stats();
+    }
+}
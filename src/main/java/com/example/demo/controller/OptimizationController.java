@@ -1,41 +1,280 @@
 package com.example.demo.controller;
 
 import com.example.demo.service.CodeOptimizationService;
+import com.example.demo.service.GeminiClient;
+import com.example.demo.service.LlmResponseCache;
+import com.example.demo.service.OptimizationJobService;
+import com.example.demo.service.OptimizationVerifier;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RestController
 @RequestMapping("/code")
 @CrossOrigin(origins = "*")
 public class OptimizationController {
 
+    @Autowired
+    private OptimizationJobService optimizationJobService;
+
+    @Autowired
+    private LlmResponseCache llmResponseCache;
+
     @Autowired
     private CodeOptimizationService codeOptimizationService;
 
+    @Autowired
+    private GeminiClient geminiClient;
+
+    @Autowired
+    private OptimizationVerifier optimizationVerifier;
+
+    // Starts the optimization and answers 202 at once, the result is polled from the Location
     @PostMapping("/optimize")
-    public Map<String, Object> optimizeCode(@RequestBody Map<String, String> request) {
+    public ResponseEntity<Map<String, Object>> optimizeCode(@RequestBody Map<String, String> request) {
+        String userEmail = request.get("email");
+        String code = request.get("code");
+
+        if (userEmail == null || code == null || userEmail.isEmpty() || code.isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("success", false, "error", "Email and Code are required!"));
+        }
+        String unknown = unknownOptimizer(request);
+        if (unknown != null) {
+            return ResponseEntity.badRequest().body(Map.of("success", false, "error", "Unknown optimizer: " + unknown));
+        }
+
+        OptimizationJobService.Job job = optimizationJobService.submit(code, userEmail, bypassCache(request), optimizers(request));
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .body(Map.of("success", false, "error", "Too many optimizations in progress, try again later"));
+        }
+        return ResponseEntity.accepted()
+                .header("Location", "/code/optimize/" + job.getId())
+                .body(jobResponse(job));
+    }
+
+    @GetMapping("/optimize/{jobId}")
+    public ResponseEntity<Map<String, Object>> optimizationJob(@PathVariable String jobId) {
+        OptimizationJobService.Job job = optimizationJobService.get(jobId);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("success", false, "error", "Unknown or expired job"));
+        }
+        return ResponseEntity.ok(jobResponse(job));
+    }
+
+    // The client lost interest: the job stops waiting, and Gemini is only left if no identical job still waits
+    @DeleteMapping("/optimize/{jobId}")
+    public ResponseEntity<Map<String, Object>> cancelOptimizationJob(@PathVariable String jobId) {
+        OptimizationJobService.Job job = optimizationJobService.cancel(jobId);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("success", false, "error", "Unknown or expired job"));
+        }
+        return ResponseEntity.ok(jobResponse(job));
+    }
+
+    // The old blocking contract for clients that can't poll. No thread waits for Gemini meanwhile,
+    // the request is completed when the result is there
+    @PostMapping("/optimize/wait")
+    public CompletableFuture<Map<String, Object>> optimizeCodeAndWait(@RequestBody Map<String, String> request) {
+        String userEmail = request.get("email");
+        String code = request.get("code");
+
+        if (userEmail == null || code == null || userEmail.isEmpty() || code.isEmpty()) {
+            return CompletableFuture.completedFuture(Map.of("success", false, "error", "Email and Code are required!"));
+        }
+        String unknown = unknownOptimizer(request);
+        if (unknown != null) {
+            return CompletableFuture.completedFuture(Map.of("success", false, "error", "Unknown optimizer: " + unknown));
+        }
+
+        CompletableFuture<CodeOptimizationService.Optimization> optimization = optimizationJobService.run(
+                code, userEmail, bypassCache(request), optimizers(request), null);
+        if (optimization == null) {
+            return CompletableFuture.completedFuture(Map.of("success", false, "error", "Too many optimizations in progress, try again later"));
+        }
+        return optimization.handle(OptimizationController::resultResponse);
+    }
+
+    /**
+     * Streams the optimization as server-sent events: "chunk" events with the optimized code as
+     * it is generated ({"text": ...}), then one "result" event shaped like /optimize/wait's
+     * response once the code is analyzed and stored. A client that goes away cancels it.
+     */
+    @PostMapping(value = "/optimize/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter optimizeCodeStreaming(@RequestBody Map<String, String> request) {
         String userEmail = request.get("email");
         String code = request.get("code");
+        SseEmitter emitter = new SseEmitter();
 
         if (userEmail == null || code == null || userEmail.isEmpty() || code.isEmpty()) {
-            return Map.of("success", false, "error", "Email and Code are required!");
+            send(emitter, "result", Map.of("success", false, "error", "Email and Code are required!"));
+            emitter.complete();
+            return emitter;
+        }
+        String unknown = unknownOptimizer(request);
+        if (unknown != null) {
+            send(emitter, "result", Map.of("success", false, "error", "Unknown optimizer: " + unknown));
+            emitter.complete();
+            return emitter;
+        }
+
+        CompletableFuture<CodeOptimizationService.Optimization> optimization = optimizationJobService.run(
+                code, userEmail, bypassCache(request), optimizers(request),
+                chunk -> send(emitter, "chunk", Map.of("text", chunk)));
+        if (optimization == null) {
+            send(emitter, "result", Map.of("success", false, "error", "Too many optimizations in progress, try again later"));
+            emitter.complete();
+            return emitter;
         }
+        // A no-op once it has completed
+        emitter.onCompletion(() -> optimization.cancel(true));
+        emitter.onTimeout(() -> optimization.cancel(true));
+        emitter.onError(e -> optimization.cancel(true));
+        optimization.whenComplete((result, e) -> {
+            if (!optimization.isCancelled()) {
+                send(emitter, "result", resultResponse(result, e));
+                emitter.complete();
+            }
+        });
+        return emitter;
+    }
+
+    @GetMapping("/optimize/cache")
+    public Map<String, Object> llmCacheStats() {
+        return llmResponseCache.stats();
+    }
+
+    @GetMapping("/optimize/upstream")
+    public Map<String, Object> upstreamStats() {
+        return geminiClient.stats();
+    }
+
+    @GetMapping("/optimize/flights")
+    public Map<String, Object> optimizationFlightStats() {
+        return codeOptimizationService.flightStats();
+    }
+
+    @GetMapping("/optimize/verification")
+    public Map<String, Object> verificationStats() {
+        return optimizationVerifier.stats();
+    }
+
+    @GetMapping("/optimize/jobs")
+    public Map<String, Object> optimizationJobStats() {
+        return optimizationJobService.stats();
+    }
 
+    // Sending fails once the client is gone, the emitter then completes and the optimization is cancelled
+    private static void send(SseEmitter emitter, String name, Object data) {
         try {
-            Map<String, String> result = codeOptimizationService.optimizeCode(code, userEmail);
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("optimizedCode", result.get("optimizedCode"));
-            response.put("complexity", result.get("complexity"));
-            response.put("message", "Code optimized and stored successfully!");
-            return response;
+            emitter.send(SseEmitter.event().name(name).data(data, MediaType.APPLICATION_JSON));
         } catch (Exception e) {
-            Map<String, Object> response = new HashMap<>();
+            emitter.completeWithError(e);
+        }
+    }
+
+    private static Map<String, Object> resultResponse(CodeOptimizationService.Optimization result, Throwable e) {
+        Map<String, Object> response = new HashMap<>();
+        if (e != null) {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
             response.put("success", false);
-            response.put("error", "Failed to optimize code: " + e.getMessage());
+            response.put("error", "Failed to optimize code: " + cause.getMessage());
             return response;
         }
+        response.put("success", true);
+        response.put("optimizedCode", result.optimizedCode());
+        response.put("complexity", result.complexity());
+        response.put("cache", result.cache());
+        response.put("optimizer", result.optimizer());
+        response.put("changes", result.changes());
+        response.put("verification", verification(result.verification()));
+        response.put("message", message(result));
+        return response;
+    }
+
+    private static String message(CodeOptimizationService.Optimization result) {
+        if ("fallback".equals(result.cache())) {
+            return "Gemini is unavailable, the code was analyzed and stored unchanged";
+        }
+        if ("none".equals(result.optimizer())) {
+            return "No optimization found, the code was analyzed and stored unchanged";
+        }
+        if (result.rejected()) {
+            return "The optimized code failed verification, the original was analyzed and stored unchanged";
+        }
+        return "Code optimized and stored successfully!";
+    }
+
+    // How the optimized code compared with the original, null when it wasn't verified
+    private static Map<String, Object> verification(OptimizationVerifier.Verification verification) {
+        if (verification == null) {
+            return null;
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("verdict", verification.verdict());
+        response.put("rejected", verification.rejected());
+        response.put("regression", verification.regression());
+        response.put("speedup", verification.speedup());
+        response.put("operationRatio", verification.operationRatio());
+        response.put("complexityChange", verification.complexityChange());
+        response.put("originalComplexity", verification.original() == null ? null : verification.original().complexity());
+        response.put("notes", verification.notes());
+        return response;
+    }
+
+    // "optimizer": "local,gemini" picks the optimizers to try, in order. Null for the configured chain
+    private static List<String> optimizers(Map<String, String> request) {
+        String optimizers = request.get("optimizer");
+        if (optimizers == null || optimizers.isBlank()) {
+            return null;
+        }
+        return Arrays.stream(optimizers.split(",")).map(String::trim).filter(name -> !name.isEmpty()).toList();
+    }
+
+    // The first optimizer the request names that doesn't exist, null if there is none
+    private String unknownOptimizer(Map<String, String> request) {
+        List<String> optimizers = optimizers(request);
+        if (optimizers == null) {
+            return null;
+        }
+        List<String> known = codeOptimizationService.optimizerNames();
+        return optimizers.stream().filter(name -> !known.contains(name)).findFirst().orElse(null);
+    }
+
+    // "bypassCache": "true" asks Gemini again even if the answer is cached, and caches the new one
+    private static boolean bypassCache(Map<String, String> request) {
+        return Boolean.parseBoolean(request.get("bypassCache"));
+    }
+
+    private static Map<String, Object> jobResponse(OptimizationJobService.Job job) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", job.getStatus() == OptimizationJobService.Status.RUNNING
+                                || job.getStatus() == OptimizationJobService.Status.COMPLETED);
+        response.put("jobId", job.getId());
+        response.put("status", job.getStatus());
+        CodeOptimizationService.Optimization result = job.getResult();
+        if (result != null) {
+            response.put("optimizedCode", result.optimizedCode());
+            response.put("complexity", result.complexity());
+            response.put("spaceComplexity", result.spaceComplexity());
+            response.put("cache", result.cache());
+            response.put("optimizer", result.optimizer());
+            response.put("changes", result.changes());
+            response.put("verification", verification(result.verification()));
+            response.put("message", message(result));
+        }
+        if (job.getError() != null) {
+            response.put("error", "Failed to optimize code: " + job.getError());
+        }
+        return response;
     }
-}
\ No newline at end of file
+}
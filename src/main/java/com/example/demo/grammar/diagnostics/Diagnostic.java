@@ -0,0 +1,81 @@
+package com.example.demo.grammar.diagnostics;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * One problem found in a source. Lines are 1-based, columns 0-based, and the span is the
+ * char offsets [startOffset, endOffset) of the offending text. Line 0 means no position.
+ *
+ * Only the code and its arguments are stored, the message text is built when it is read.
+ */
+@JsonPropertyOrder({"category", "code", "line", "column", "startOffset", "endOffset", "message"})
+public record Diagnostic(Category category, Code code, int line, int column,
+                         int startOffset, int endOffset, @JsonIgnore String... arguments) {
+
+    public enum Category {
+        LEXICAL("lexicalErrors"),
+        SYNTAX("syntaxErrors"),
+        SEMANTIC("semanticErrors"),
+        INTERNAL("internalErrors");
+
+        private final String statsKey;
+
+        Category(String statsKey) {
+            this.statsKey = statsKey;
+        }
+
+        public String getStatsKey() {
+            return statsKey;
+        }
+    }
+
+    // Templates get line and column as %1$ and %2$, the arguments from %3$ on
+    public enum Code {
+        LEXER_ERROR(Category.LEXICAL, "Lexical error at line %1$d:%2$d - %3$s"),
+        MISSING_TOKEN(Category.SYNTAX, "Syntax error at line %1$d:%2$d - %3$s (near '%4$s')"),
+        EXTRANEOUS_TOKEN(Category.SYNTAX, "Syntax error at line %1$d:%2$d - %3$s (near '%4$s')"),
+        MISMATCHED_INPUT(Category.SYNTAX, "Syntax error at line %1$d:%2$d - %3$s (near '%4$s')"),
+        NO_VIABLE_ALTERNATIVE(Category.SYNTAX, "Syntax error at line %1$d:%2$d - %3$s (near '%4$s')"),
+        SYNTAX_ERROR(Category.SYNTAX, "Syntax error at line %1$d:%2$d - %3$s (near '%4$s')"),
+        TYPE_MISMATCH(Category.SEMANTIC, "Line %1$d: Type mismatch - cannot assign %3$s to %4$s"),
+        UNDEFINED_VARIABLE(Category.SEMANTIC, "Line %1$d: Undefined variable '%3$s'"),
+        NON_NUMERIC_OPERAND(Category.SEMANTIC, "Arithmetic operation requires numeric operands"),
+        PARSE_FAILED(Category.INTERNAL, "Parsing failed: %3$s");
+
+        private final Category category;
+        private final String template;
+
+        Code(Category category, String template) {
+            this.category = category;
+            this.template = template;
+        }
+
+        public Category getCategory() {
+            return category;
+        }
+    }
+
+    public Diagnostic(Code code, int line, int column, int startOffset, int endOffset, String... arguments) {
+        this(code.getCategory(), code, line, column, startOffset, endOffset, arguments);
+    }
+
+    @JsonProperty("message")
+    public String message() {
+        Object[] values = new Object[2 + arguments.length];
+        values[0] = line;
+        values[1] = column;
+        System.arraycopy(arguments, 0, values, 2, arguments.length);
+        return String.format(code.template, values);
+    }
+
+    // Same problem after the text before it moved by lineDelta lines and offsetDelta chars
+    public Diagnostic shifted(int lineDelta, int offsetDelta) {
+        if (line == 0 || (lineDelta == 0 && offsetDelta == 0)) {
+            return this;
+        }
+        return new Diagnostic(category, code, line + lineDelta, column,
+                              startOffset + offsetDelta, endOffset + offsetDelta, arguments);
+    }
+}
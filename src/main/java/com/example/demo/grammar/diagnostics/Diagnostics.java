@@ -0,0 +1,101 @@
+package com.example.demo.grammar.diagnostics;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Diagnostics of one analysis in the order they were reported, with per-category
+ * counts kept up to date as they are added. Not modified once the analysis returns,
+ * so a finished instance can be shared between requests.
+ *
+ * A streaming instance hands every diagnostic to its sink as soon as it is added and
+ * only keeps the counts.
+ */
+public class Diagnostics {
+    private final List<Diagnostic> items;
+    private final Consumer<Diagnostic> sink;
+    private final int[] counts = new int[Diagnostic.Category.values().length];
+    private int total;
+
+    public Diagnostics() {
+        this.items = new ArrayList<>();
+        this.sink = null;
+    }
+
+    public Diagnostics(Consumer<Diagnostic> sink) {
+        this.items = null;
+        this.sink = sink;
+    }
+
+    public void add(Diagnostic diagnostic) {
+        counts[diagnostic.category().ordinal()]++;
+        total++;
+        if (sink != null) {
+            sink.accept(diagnostic);
+        } else {
+            items.add(diagnostic);
+        }
+    }
+
+    public void addAll(List<Diagnostic> diagnostics) {
+        for (Diagnostic diagnostic : diagnostics) {
+            add(diagnostic);
+        }
+    }
+
+    // Empty for a streaming instance, its diagnostics went to the sink
+    public List<Diagnostic> list() {
+        return items == null ? List.of() : Collections.unmodifiableList(items);
+    }
+
+    public int size() {
+        return total;
+    }
+
+    public boolean isEmpty() {
+        return total == 0;
+    }
+
+    public boolean isStreaming() {
+        return sink != null;
+    }
+
+    public int count(Diagnostic.Category category) {
+        return counts[category.ordinal()];
+    }
+
+    // Message texts, each one formatted only when the element is read
+    public List<String> messages() {
+        List<Diagnostic> diagnostics = list();
+        return new AbstractList<>() {
+            @Override
+            public String get(int index) {
+                return diagnostics.get(index).message();
+            }
+
+            @Override
+            public int size() {
+                return diagnostics.size();
+            }
+        };
+    }
+
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        for (Diagnostic.Category category : Diagnostic.Category.values()) {
+            stats.put(category.getStatsKey(), (long) counts[category.ordinal()]);
+        }
+        return stats;
+    }
+
+    public static Diagnostics failure(String reason) {
+        Diagnostics diagnostics = new Diagnostics();
+        diagnostics.add(new Diagnostic(Diagnostic.Code.PARSE_FAILED, 0, 0, 0, 0, reason));
+        return diagnostics;
+    }
+}
@@ -1,32 +1,36 @@
 package com.example.demo.grammar.listeners;
 
-import java.util.List;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import org.antlr.v4.runtime.ParserRuleContext;
 import com.example.demo.grammar.antlr.JavaBaseListener;
 import com.example.demo.grammar.antlr.JavaParser;
+import com.example.demo.grammar.diagnostics.Diagnostic;
+import com.example.demo.grammar.diagnostics.Diagnostics;
 import com.example.demo.grammar.symboltable.SymbolTable;
+import com.example.demo.grammar.symboltable.Type;
+import com.example.demo.grammar.symboltable.TypeRegistry;
 
 
 public class ErrorHandler extends JavaBaseListener {
     private final SymbolTable symbolTable;
-    private final List<String> errors;
+    private final Diagnostics diagnostics;
+    private final TypeRegistry types = new TypeRegistry();
+    // Inferred type of every expression visited in this walk, so a subexpression is only inferred once
+    private final Map<JavaParser.ExprContext, Type> inferredTypes = new IdentityHashMap<>();
 
-    public ErrorHandler(SymbolTable symbolTable, List<String> errors) {
+    public ErrorHandler(SymbolTable symbolTable, Diagnostics diagnostics) {
         this.symbolTable = symbolTable;
-        this.errors = errors;
+        this.diagnostics = diagnostics;
     }
 
     @Override
     public void exitVarDecl(JavaParser.VarDeclContext ctx) {
         if (ctx.expr() != null) {
-            String declaredType = ctx.type().getText();
-            String exprType = inferType(ctx.expr());
+            Type declaredType = types.of(ctx.type().getText());
+            Type exprType = inferType(ctx.expr());
             if (!typeCompatible(declaredType, exprType)) {
-                errors.add(String.format(
-                    "Line %d: Type mismatch - cannot assign %s to %s",
-                    ctx.start.getLine(),
-                    exprType,
-                    declaredType
-                ));
+                report(Diagnostic.Code.TYPE_MISMATCH, ctx, exprType.getName(), declaredType.getName());
             }
         }
     }
@@ -36,17 +40,30 @@ public class ErrorHandler extends JavaBaseListener {
     	com.example.demo.grammar.symboltable.SymbolTable.Symbol symbol = symbolTable.resolve(ctx.ID().getText());
 
         if (symbol == null) {
-            errors.add(String.format(
-                "Line %d: Undefined variable '%s'",
-                ctx.start.getLine(),
-                ctx.ID().getText()
-            ));
+            report(Diagnostic.Code.UNDEFINED_VARIABLE, ctx, ctx.ID().getText());
         }    
        }
-    private String inferType(JavaParser.ExprContext expr) {
+
+    private void report(Diagnostic.Code code, ParserRuleContext ctx, String... arguments) {
+        int end = ctx.stop != null && ctx.stop.getStopIndex() >= ctx.start.getStartIndex()
+                ? ctx.stop.getStopIndex() + 1
+                : ctx.start.getStartIndex();
+        diagnostics.add(new Diagnostic(code, ctx.start.getLine(), ctx.start.getCharPositionInLine(),
+                                       ctx.start.getStartIndex(), end, arguments));
+    }
+    private Type inferType(JavaParser.ExprContext expr) {
         if (expr == null) {
-            return "void";
+            return Type.VOID;
         }
+        Type type = inferredTypes.get(expr);
+        if (type == null) {
+            type = computeType(expr);
+            inferredTypes.put(expr, type);
+        }
+        return type;
+    }
+
+    private Type computeType(JavaParser.ExprContext expr) {
 
         // Handle primary expressions
         if (expr instanceof JavaParser.PrimaryExpressionContext) {
@@ -64,7 +81,7 @@ public class ErrorHandler extends JavaBaseListener {
         if (primary instanceof JavaParser.VariableReferenceContext) {
             String varName = ((JavaParser.VariableReferenceContext)primary).ID().getText();
             SymbolTable.Symbol symbol = symbolTable.resolve(varName);
-            return symbol != null ? symbol.getType() : "unknown";
+            return symbol != null ? types.of(symbol.getType()) : Type.UNKNOWN;
         }
         
      // Handle parentheses
@@ -83,7 +100,7 @@ public class ErrorHandler extends JavaBaseListener {
         // Handle logical operations
         if (expr instanceof JavaParser.LogicalAndOperationContext ||
             expr instanceof JavaParser.LogicalOrOperationContext) {
-            return "boolean";
+            return Type.BOOLEAN;
         }
         
         // Handle assignment
@@ -94,43 +111,43 @@ public class ErrorHandler extends JavaBaseListener {
         
         
         // Default fallback
-        return "unknown";
+        return Type.UNKNOWN;
     }
     
     
 
-    private String inferTypeFromPrimary(JavaParser.PrimaryContext primary) {
+    private Type inferTypeFromPrimary(JavaParser.PrimaryContext primary) {
         if (primary instanceof JavaParser.LiteralExpressionContext) {
             return inferTypeFromLiteral(((JavaParser.LiteralExpressionContext)primary).literal());
         }
         if (primary instanceof JavaParser.VariableReferenceContext) {
             String varName = ((JavaParser.VariableReferenceContext)primary).ID().getText();
             SymbolTable.Symbol symbol = symbolTable.resolve(varName);
-            return symbol != null ? symbol.getType() : "unknown";
+            return symbol != null ? types.of(symbol.getType()) : Type.UNKNOWN;
         }
         if (primary instanceof JavaParser.ParenthesizedExpressionContext) {
             return inferType(((JavaParser.ParenthesizedExpressionContext)primary).expr());
         }
-        return "unknown";
+        return Type.UNKNOWN;
     }
 
-    private String inferTypeFromLiteral(JavaParser.LiteralContext literal) {
+    private Type inferTypeFromLiteral(JavaParser.LiteralContext literal) {
         if (literal instanceof JavaParser.IntegerLiteralContext) {
-            return "int";
+            return Type.INT;
         }
         if (literal instanceof JavaParser.FloatLiteralContext) {
-            return "float";
+            return Type.FLOAT;
         }
         if (literal instanceof JavaParser.BooleanLiteralContext) {
-            return "boolean";
+            return Type.BOOLEAN;
         }
         if (literal instanceof JavaParser.StringLiteralContext) {
-            return "String";
+            return Type.STRING;
         }
         if (literal instanceof JavaParser.NullLiteralContext) {
-            return "null";
+            return Type.NULL;
         }
-        return "unknown";
+        return Type.UNKNOWN;
     }
 
  // CHANGE: New helper method to check if expression is a binary operation
@@ -143,24 +160,24 @@ public class ErrorHandler extends JavaBaseListener {
     
     
  // CHANGE: Completely rewritten binary operation handling
-    private String inferBinaryOperationType(JavaParser.ExprContext expr) {
-        String leftType = inferType(getLeftOperand(expr));
-        String rightType = inferType(getRightOperand(expr));
+    private Type inferBinaryOperationType(JavaParser.ExprContext expr) {
+        Type leftType = inferType(getLeftOperand(expr));
+        Type rightType = inferType(getRightOperand(expr));
         int operatorTokenType = getOperatorTokenType(expr);
         
         if (isArithmeticOp(operatorTokenType)) {
-            if (!isNumericType(leftType) || !isNumericType(rightType)) {
-                errors.add("Arithmetic operation requires numeric operands");
-                return "unknown";
+            if (!leftType.isNumeric() || !rightType.isNumeric()) {
+                report(Diagnostic.Code.NON_NUMERIC_OPERAND, expr);
+                return Type.UNKNOWN;
             }
             return handleArithmeticOperation(leftType, rightType);
         }
         
         if (isComparisonOp(operatorTokenType)) {
-            return "boolean";
+            return Type.BOOLEAN;
         }
         
-        return "unknown";
+        return Type.UNKNOWN;
     }
         
  // CHANGE: New helper methods for binary operation handling
@@ -212,39 +229,30 @@ public class ErrorHandler extends JavaBaseListener {
         return -1;
     }
 
-    private String handleArithmeticOperation(String leftType, String rightType) {
+    private Type handleArithmeticOperation(Type leftType, Type rightType) {
         // Handle string concatenation
-        if (leftType.equals("String") || rightType.equals("String")) {
-            return "String";
+        if (leftType == Type.STRING || rightType == Type.STRING) {
+            return Type.STRING;
         }
         
         // Numeric type promotion
-        if (isNumericType(leftType) && isNumericType(rightType)) {
-            return getWiderType(leftType, rightType);
-        }
-        
-        return "unknown";
+        return Type.wider(leftType, rightType);
     }
 
     
-    private boolean typeCompatible(String target, String source) {
-        if (target.equals(source)) {
+    private boolean typeCompatible(Type target, Type source) {
+        if (target == source) {
             return true;
         }
         
         // Handle primitive numeric conversions
-        if (isNumericType(target) && isNumericType(source)) {
-            return canConvertNumeric(source, target);
+        if (target.isNumeric() && source.isNumeric()) {
+            return Type.widens(source, target);
         }
         
-        // Handle null assignment to objects
-        if (target.endsWith("[]") || (!isPrimitiveType(target) && !target.equals("void"))) {
-            return source.equals("null");
-        }
-        
-        // Handle inheritance (simple case - in real implementation you'd need class hierarchy)
-        if (target.equals("Object") && !isPrimitiveType(source)) {
-            return true;
+        // Handle null assignment to objects and arrays
+        if (target.isArray() || (!target.isPrimitive() && target != Type.VOID)) {
+            return source == Type.NULL;
         }
         
         return false;
@@ -267,48 +275,5 @@ public class ErrorHandler extends JavaBaseListener {
                tokenType == JavaParser.T__35 ||  // '=='
                tokenType == JavaParser.T__36;    // '!='
     }
-
-    
-    
-    
-
-    private boolean isNumericType(String type) {
-        return type.equals("byte") || type.equals("short") || 
-               type.equals("int") || type.equals("long") ||
-               type.equals("float") || type.equals("double");
-    }
-
-    private boolean isPrimitiveType(String type) {
-        return type.equals("boolean") || isNumericType(type);
-    }
-
-    private boolean canConvertNumeric(String from, String to) {
-        // Define implicit conversion hierarchy
-        String[] numericHierarchy = {"byte", "short", "int", "long", "float", "double"};
-        int fromIndex = -1, toIndex = -1;
-        
-        for (int i = 0; i < numericHierarchy.length; i++) {
-            if (numericHierarchy[i].equals(from)) fromIndex = i;
-            if (numericHierarchy[i].equals(to)) toIndex = i;
-        }
-        
-        return fromIndex >= 0 && toIndex >= 0 && fromIndex <= toIndex;
-    }
-
-    private String getWiderType(String type1, String type2) {
-        if (!isNumericType(type1) || !isNumericType(type2)) {
-            return "unknown";
-        }
-        
-        String[] hierarchy = {"byte", "short", "int", "long", "float", "double"};
-        int index1 = -1, index2 = -1;
-        
-        for (int i = 0; i < hierarchy.length; i++) {
-            if (hierarchy[i].equals(type1)) index1 = i;
-            if (hierarchy[i].equals(type2)) index2 = i;
-        }
-        
-        return index1 > index2 ? type1 : type2;
-    }
     
 }
\ No newline at end of file
@@ -4,10 +4,39 @@ import java.util.*;
 import org.antlr.v4.runtime.ParserRuleContext;
 
 public class SymbolTable {
-    private final Stack<Map<String, Symbol>> scopes = new Stack<>();
+    // Shared results for "new int[..]" / "new float[..]", symbols are immutable
+    private static final Symbol INT_ARRAY_ALLOCATION = new Symbol("int[]", false, true, -1);
+    private static final Symbol FLOAT_ARRAY_ALLOCATION = new Symbol("float[]", false, true, -1);
+
+    // name -> innermost visible declaration; each binding links to the one it shadows,
+    // so lookups are a single hash probe however deep the nesting is
+    private final Map<String, Binding> bindings = new HashMap<>();
+
+    // Array-backed scope stack: names declared so far, and where each open scope starts in that log
+    private String[] declared = new String[32];
+    private int declaredCount;
+    private int[] scopeStarts = new int[16];
+    private int depth;
+
     private final Map<String, ClassSymbol> classes = new HashMap<>();
+    // member name -> member of the first class that declared it, replaces scanning every class
+    private final Map<String, Symbol> memberIndex = new HashMap<>();
     private final Map<String, FunctionSymbol> functions = new HashMap<>();
     private final Map<String, VariableSymbol> variables = new HashMap<>();
+    // Canonical copies of names and type strings, getText() hands out a new String every time
+    private final Map<String, String> names = new HashMap<>();
+
+    private static final class Binding {
+        final Symbol symbol;
+        final int depth;
+        final Binding shadowed;
+
+        Binding(Symbol symbol, int depth, Binding shadowed) {
+            this.symbol = symbol;
+            this.depth = depth;
+            this.shadowed = shadowed;
+        }
+    }
 
     public static class Symbol {
         public final String type;
@@ -28,15 +57,23 @@ public class SymbolTable {
 
     public static class ClassSymbol {
         private final Map<String, Symbol> members = new HashMap<>();
+        private Map<String, Symbol> memberIndex;
 
         public void addMember(String name, Symbol symbol) {
             members.put(name, symbol);
+            if (memberIndex != null) {
+                memberIndex.putIfAbsent(name, symbol);
+            }
         }
 
         public Symbol getMember(String name) {
             return members.get(name);
         }
-        
+
+        private void attach(Map<String, Symbol> index) {
+            memberIndex = index;
+            members.forEach(index::putIfAbsent);
+        }
     }
 
     public static class FunctionSymbol extends Symbol {
@@ -78,18 +115,36 @@ public class SymbolTable {
         // Add System.out.println()
         ClassSymbol systemClass = new ClassSymbol();
         systemClass.addMember("out", new Symbol("PrintStream", false, false, -1));
-        classes.put("System", systemClass);
+        registerClass("System", systemClass);
 
         // Add String class
-        classes.put("String", new ClassSymbol());
+        registerClass("String", new ClassSymbol());
     }
 
     public void enterScope() {
-        scopes.push(new HashMap<>());
+        if (depth == scopeStarts.length) {
+            scopeStarts = Arrays.copyOf(scopeStarts, depth * 2);
+        }
+        scopeStarts[depth++] = declaredCount;
     }
 
     public void exitScope() {
-        scopes.pop();
+        if (depth == 0) {
+            throw new EmptyStackException();
+        }
+        int start = scopeStarts[--depth];
+        // Unwind this scope's declarations, restoring whatever they shadowed
+        for (int i = declaredCount - 1; i >= start; i--) {
+            String name = declared[i];
+            declared[i] = null;
+            Binding shadowed = bindings.get(name).shadowed;
+            if (shadowed == null) {
+                bindings.remove(name);
+            } else {
+                bindings.put(name, shadowed);
+            }
+        }
+        declaredCount = start;
     }
 
     // Add a class to the symbol table
@@ -97,64 +152,62 @@ public class SymbolTable {
         if (classes.containsKey(className)) {
             throw new RuntimeException("Duplicate class name: " + className);
         }
-        classes.put(className, new ClassSymbol());
+        registerClass(intern(className), new ClassSymbol());
     }
 
     // Add a function to the symbol table
     public void addFunction(String functionName, ParserRuleContext typeContext) {
-        String returnType = typeContext.getText();
+        String returnType = intern(typeContext.getText());
         if (functions.containsKey(functionName)) {
             throw new RuntimeException("Duplicate function name: " + functionName);
         }
+        functionName = intern(functionName);
         FunctionSymbol func = new FunctionSymbol(returnType, typeContext);
         functions.put(functionName, func);
-        scopes.peek().put(functionName, func);
+        declare(functionName, func);
     }
 
     // Add a variable to the symbol table
     public void addVariable(String varName, ParserRuleContext typeContext) {
-        String type = typeContext.getText();
-        boolean isArray = type.contains("[]") || type.equals("int[]") || type.equals("float[]"); // Ensure arrays are detected
-        
-        if (scopes.peek().containsKey(varName)) {
+        String type = intern(typeContext.getText());
+        boolean isArray = type.contains("[]"); // Ensure arrays are detected
+
+        if (isDeclaredInCurrentScope(varName)) {
             throw new RuntimeException("Duplicate variable name: " + varName);
         }
+        varName = intern(varName);
         VariableSymbol var = new VariableSymbol(type, isArray, typeContext);
         variables.put(varName, var);
-        scopes.peek().put(varName, var);
+        declare(varName, var);
         Symbol resolvedExpr = resolve(type);
         if (resolvedExpr != null) {
             if (var.isArray && !resolvedExpr.isArray) {
-                reportTypeError(var, resolvedExpr); 
+                reportTypeError(var, resolvedExpr);
             } else {
                 validateType(var, resolvedExpr);
-            } 
+            }
         }
     }
 
     public Symbol resolve(String name) {
-    	
+
     	// If name is an array allocation like "new int[5]", return a matching Symbol
-        if (name.matches("new\\s+int\\s*\\[.*\\]")) {
-            return new Symbol("int[]", false, true, -1);
-        } else if (name.matches("new\\s+float\\s*\\[.*\\]")) {
-            return new Symbol("float[]", false, true, -1);
-        }
-    	
-        // Check current scope first
-        for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name)) {
-                return scopes.get(i).get(name);
+        if (name.startsWith("new")) {
+            if (isArrayAllocation(name, "int")) {
+                return INT_ARRAY_ALLOCATION;
+            } else if (isArrayAllocation(name, "float")) {
+                return FLOAT_ARRAY_ALLOCATION;
             }
         }
 
-        // Check class members
-        for (ClassSymbol cls : classes.values()) {
-            Symbol member = cls.getMember(name);
-            if (member != null) return member;
+        // Innermost declaration first
+        Binding binding = bindings.get(name);
+        if (binding != null) {
+            return binding.symbol;
         }
 
-        return null; // Not found
+        // Then class members
+        return memberIndex.get(name);
     }
 
     public ClassSymbol getClass(String className) {
@@ -168,25 +221,88 @@ public class SymbolTable {
     public VariableSymbol getVariable(String varName) {
         return variables.get(varName);
     }
-    
-    public void validateType(Symbol expected, Symbol actual) {  
-        if (expected == null || actual == null) {  
-            return; // Skip validation if any type is missing  
-        }  
 
-        // Check if both are arrays, and compare their base types  
-         
-            if (!expected.type.equals(actual.type)) {  
-                reportTypeError(expected, actual);  
+    public void validateType(Symbol expected, Symbol actual) {
+        if (expected == null || actual == null) {
+            return; // Skip validation if any type is missing
+        }
+
+        // Check if both are arrays, and compare their base types
+
+            if (!expected.type.equals(actual.type)) {
+                reportTypeError(expected, actual);
                 return;
-            }  
-          
-        // If expected is an array but actual is not, it's a mismatch  
-        else if (expected.isArray && !actual.isArray) {  
-            reportTypeError(expected, actual);  
-        }  
+            }
+
+        // If expected is an array but actual is not, it's a mismatch
+        else if (expected.isArray && !actual.isArray) {
+            reportTypeError(expected, actual);
+        }
+    }
+    private void reportTypeError(Symbol expected, Symbol actual) {
+        System.err.println("Type mismatch - cannot assign " + actual.type + " to " + expected.type);
+    }
+
+    private void registerClass(String className, ClassSymbol classSymbol) {
+        classes.put(className, classSymbol);
+        classSymbol.attach(memberIndex);
+    }
+
+    private boolean isDeclaredInCurrentScope(String name) {
+        Binding binding = bindings.get(name);
+        return binding != null && binding.depth == depth;
+    }
+
+    private void declare(String name, Symbol symbol) {
+        Binding previous = bindings.get(name);
+        if (previous != null && previous.depth == depth) {
+            // Redeclared in the same scope: replace it but keep what it shadowed
+            bindings.put(name, new Binding(symbol, depth, previous.shadowed));
+            return;
+        }
+        bindings.put(name, new Binding(symbol, depth, previous));
+        if (declaredCount == declared.length) {
+            declared = Arrays.copyOf(declared, declaredCount * 2);
+        }
+        declared[declaredCount++] = name;
+    }
+
+    private String intern(String name) {
+        String canonical = names.putIfAbsent(name, name);
+        return canonical != null ? canonical : name;
     }
-    private void reportTypeError(Symbol expected, Symbol actual) {  
-        System.err.println("Type mismatch - cannot assign " + actual.type + " to " + expected.type);  
+
+    // Same strings the old "new\\s+<type>\\s*\\[.*\\]" regex accepted, without compiling it per call
+    private static boolean isArrayAllocation(String name, String elementType) {
+        int i = 3; // after "new"
+        int length = name.length();
+        if (i >= length || !isRegexWhitespace(name.charAt(i))) {
+            return false;
+        }
+        while (i < length && isRegexWhitespace(name.charAt(i))) {
+            i++;
+        }
+        if (!name.startsWith(elementType, i)) {
+            return false;
+        }
+        i += elementType.length();
+        while (i < length && isRegexWhitespace(name.charAt(i))) {
+            i++;
+        }
+        if (i >= length - 1 || name.charAt(i) != '[' || name.charAt(length - 1) != ']') {
+            return false;
+        }
+        for (int j = i + 1; j < length - 1; j++) {
+            char c = name.charAt(j);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return false; // '.' doesn't match line terminators
+            }
+        }
+        return true;
+    }
+
+    // \s without UNICODE_CHARACTER_CLASS
+    private static boolean isRegexWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
     }
-}
\ No newline at end of file
+}
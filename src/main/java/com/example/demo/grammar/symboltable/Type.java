@@ -0,0 +1,88 @@
+package com.example.demo.grammar.symboltable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Canonical type instance used by the semantic pass. Built-in types are shared constants,
+ * arrays and classes are interned per analysis by {@link TypeRegistry}, so types compare
+ * with == and numeric widening is a table lookup on the primitive rank.
+ */
+public final class Type {
+
+    public enum Kind { NUMERIC, BOOLEAN, CLASS, ARRAY, NULL, VOID, UNKNOWN }
+
+    // Numeric types in widening order, the index is the rank
+    private static final String[] NUMERIC_NAMES = {"byte", "short", "int", "long", "float", "double"};
+
+    public static final Type BYTE = numeric(0);
+    public static final Type SHORT = numeric(1);
+    public static final Type INT = numeric(2);
+    public static final Type LONG = numeric(3);
+    public static final Type FLOAT = numeric(4);
+    public static final Type DOUBLE = numeric(5);
+    public static final Type BOOLEAN = new Type("boolean", Kind.BOOLEAN, -1, null);
+    public static final Type STRING = new Type("String", Kind.CLASS, -1, null);
+    public static final Type NULL = new Type("null", Kind.NULL, -1, null);
+    public static final Type VOID = new Type("void", Kind.VOID, -1, null);
+    public static final Type UNKNOWN = new Type("unknown", Kind.UNKNOWN, -1, null);
+
+    // WIDENS[from][to]: implicit numeric conversion allowed
+    private static final boolean[][] WIDENS = new boolean[NUMERIC_NAMES.length][NUMERIC_NAMES.length];
+    private static final Type[] BY_RANK = {BYTE, SHORT, INT, LONG, FLOAT, DOUBLE};
+
+    static final Map<String, Type> BUILTINS = new HashMap<>();
+
+    static {
+        for (int from = 0; from < NUMERIC_NAMES.length; from++) {
+            for (int to = from; to < NUMERIC_NAMES.length; to++) {
+                WIDENS[from][to] = true;
+            }
+        }
+        for (Type type : new Type[] {BYTE, SHORT, INT, LONG, FLOAT, DOUBLE, BOOLEAN, STRING, NULL, VOID, UNKNOWN}) {
+            BUILTINS.put(type.name, type);
+        }
+    }
+
+    private final String name;
+    private final Kind kind;
+    private final int rank;
+    private final Type elementType;
+
+    Type(String name, Kind kind, int rank, Type elementType) {
+        this.name = name;
+        this.kind = kind;
+        this.rank = rank;
+        this.elementType = elementType;
+    }
+
+    private static Type numeric(int rank) {
+        return new Type(NUMERIC_NAMES[rank], Kind.NUMERIC, rank, null);
+    }
+
+    public String getName() { return name; }
+    public Kind getKind() { return kind; }
+    public Type getElementType() { return elementType; }
+
+    public boolean isNumeric() { return kind == Kind.NUMERIC; }
+    public boolean isPrimitive() { return kind == Kind.NUMERIC || kind == Kind.BOOLEAN; }
+    public boolean isArray() { return kind == Kind.ARRAY; }
+
+    // Implicit widening byte -> short -> int -> long -> float -> double
+    public static boolean widens(Type from, Type to) {
+        return from.isNumeric() && to.isNumeric() && WIDENS[from.rank][to.rank];
+    }
+
+    // Result type of numeric promotion, UNKNOWN unless both are numeric
+    public static Type wider(Type a, Type b) {
+        if (!a.isNumeric() || !b.isNumeric()) {
+            return UNKNOWN;
+        }
+        return BY_RANK[Math.max(a.rank, b.rank)];
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
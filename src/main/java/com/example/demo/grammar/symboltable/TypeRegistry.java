@@ -0,0 +1,27 @@
+package com.example.demo.grammar.symboltable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Interns array and class types for one analysis. Kept per walk rather than global so
+ * class names from user code don't accumulate across requests.
+ */
+public class TypeRegistry {
+    private final Map<String, Type> types = new HashMap<>();
+
+    public Type of(String name) {
+        Type builtin = Type.BUILTINS.get(name);
+        if (builtin != null) {
+            return builtin;
+        }
+        Type type = types.get(name);
+        if (type == null) {
+            type = name.endsWith("[]")
+                ? new Type(name, Type.Kind.ARRAY, -1, of(name.substring(0, name.length() - 2)))
+                : new Type(name, Type.Kind.CLASS, -1, null);
+            types.put(name, type);
+        }
+        return type;
+    }
+}
@@ -11,6 +11,7 @@ public class CodeEntry {
     private String userEmail;
     private String code;
     private String complexity;
+    private String spaceComplexity;
     private String optimizedCode; 
 
     public CodeEntry(String userEmail, String code, String complexity, String optimizedCode) {
@@ -25,8 +26,10 @@ public class CodeEntry {
     public String getUserEmail() { return userEmail; }
     public String getCode() { return code; }
     public String getComplexity() { return complexity; }
+    public String getSpaceComplexity() { return spaceComplexity; }
     
     public String getOptimizedCode() { return optimizedCode; } 
     
     public void setOptimizedCode(String optimizedCode) { this.optimizedCode = optimizedCode; }
+    public void setSpaceComplexity(String spaceComplexity) { this.spaceComplexity = spaceComplexity; }
 }
@@ -0,0 +1,34 @@
+package com.example.demo.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+// A cached LLM answer, id is the prompt fingerprint. Mongo drops it via a TTL index on createdAt
+@Document(collection = "llm_responses")
+public class LlmResponse {
+
+    @Id
+    private String id;
+    private String model;
+    private String promptVersion;
+    private String response;
+    private Instant createdAt;
+
+    public LlmResponse() {}
+
+    public LlmResponse(String id, String model, String promptVersion, String response, Instant createdAt) {
+        this.id = id;
+        this.model = model;
+        this.promptVersion = promptVersion;
+        this.response = response;
+        this.createdAt = createdAt;
+    }
+
+    public String getId() { return id; }
+    public String getModel() { return model; }
+    public String getPromptVersion() { return promptVersion; }
+    public String getResponse() { return response; }
+    public Instant getCreatedAt() { return createdAt; }
+}
@@ -0,0 +1,7 @@
+package com.example.demo.repository;
+
+import com.example.demo.model.LlmResponse;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface LlmResponseRepository extends MongoRepository<LlmResponse, String> {
+}
@@ -0,0 +1,205 @@
+package com.example.demo.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrency limit for calls to an upstream that finds its own level (AIMD, like TCP
+ * congestion control). Every successful call while the limit is in use raises it by 1/limit,
+ * so about one per limit's worth of calls; every call the upstream pushed back on (429, 5xx,
+ * an error or a slow answer) cuts it by a tenth. Callers over the limit wait in a bounded
+ * queue without holding a thread, and are turned away once that is full.
+ *
+ * Slow is relative to the upstream's recent latency: slower than slowCallRatio times the
+ * median of the last successful calls, and always past slowCallMillis. The slow calls are in
+ * the window too, so when the upstream gets slower across the board the median follows and
+ * the limit only comes down while latency is still rising.
+ *
+ * Every acquire() that completes must be followed by exactly one release().
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double BACKOFF_RATIO = 0.9;
+    // Successful calls the median latency is taken over, and how many it needs to mean anything
+    private static final int LATENCY_WINDOW = 100;
+    private static final int MIN_LATENCY_SAMPLES = 20;
+
+    public enum Result {
+        // Worked, and quickly enough
+        SUCCESS,
+        // The upstream is overloaded, or looks like it
+        DROPPED,
+        // Says nothing about the upstream's load: a cancelled call, a bad request
+        IGNORED
+    }
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueue;
+    private final long slowCallMillis;
+    private final double slowCallRatio;
+
+    // Guarded by this
+    private double limit;
+    private int inFlight;
+    private final ArrayDeque<CompletableFuture<Void>> queue = new ArrayDeque<>();
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int latencySamples;
+    private int nextLatency;
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong slow = new AtomicLong();
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueue,
+                                      long slowCallMillis, double slowCallRatio) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.maxQueue = maxQueue;
+        this.slowCallMillis = slowCallMillis;
+        this.slowCallRatio = slowCallRatio;
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+    }
+
+    /**
+     * Completes once the call may start. Fails with RejectedExecutionException when the queue
+     * is full. Cancelling it while queued gives up the place in the queue.
+     */
+    public CompletableFuture<Void> acquire() {
+        synchronized (this) {
+            // Callers that gave up their place
+            while (!queue.isEmpty() && queue.peek().isDone()) {
+                queue.poll();
+            }
+            if (inFlight < (int) limit && queue.isEmpty()) {
+                inFlight++;
+                admitted.incrementAndGet();
+                return CompletableFuture.completedFuture(null);
+            }
+            if (queue.size() >= maxQueue) {
+                rejected.incrementAndGet();
+                return CompletableFuture.failedFuture(
+                        new RejectedExecutionException("Too many calls waiting for the upstream (limit " + (int) limit + ")"));
+            }
+            CompletableFuture<Void> permit = new CompletableFuture<>();
+            queue.add(permit);
+            queued.incrementAndGet();
+            return permit;
+        }
+    }
+
+    public void release(Result result) {
+        release(result, -1);
+    }
+
+    // millis is how long a SUCCESS took, a slow one counts as DROPPED
+    public void release(Result result, long millis) {
+        synchronized (this) {
+            if (result == Result.SUCCESS && millis >= 0) {
+                if (millis > slowCallMillis()) {
+                    result = Result.DROPPED;
+                    slow.incrementAndGet();
+                }
+                latencies[nextLatency] = millis;
+                nextLatency = (nextLatency + 1) % LATENCY_WINDOW;
+                latencySamples = Math.min(LATENCY_WINDOW, latencySamples + 1);
+            }
+            switch (result) {
+                case SUCCESS -> {
+                    // Only a limit that is actually used has shown it is too low
+                    if (inFlight >= limit / 2) {
+                        limit = Math.min(maxLimit, limit + 1 / limit);
+                    }
+                }
+                case DROPPED -> {
+                    limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                    dropped.incrementAndGet();
+                }
+                case IGNORED -> {
+                }
+            }
+            inFlight--;
+        }
+        grant();
+    }
+
+    // Hands free permits to the queue, completing the futures outside the lock
+    private void grant() {
+        while (true) {
+            List<CompletableFuture<Void>> granted = new ArrayList<>();
+            synchronized (this) {
+                while (inFlight < (int) limit && !queue.isEmpty()) {
+                    CompletableFuture<Void> permit = queue.poll();
+                    if (!permit.isDone()) {
+                        inFlight++;
+                        granted.add(permit);
+                    }
+                }
+            }
+            if (granted.isEmpty()) {
+                return;
+            }
+            int lost = 0;
+            for (CompletableFuture<Void> permit : granted) {
+                if (permit.complete(null)) {
+                    admitted.incrementAndGet();
+                } else {
+                    // Cancelled in between, its permit goes to the next in line
+                    lost++;
+                }
+            }
+            if (lost == 0) {
+                return;
+            }
+            synchronized (this) {
+                inFlight -= lost;
+            }
+        }
+    }
+
+    // Guarded by this
+    private long slowCallMillis() {
+        long median = medianMillis();
+        return median < 0 ? slowCallMillis : Math.min(slowCallMillis, (long) (median * slowCallRatio));
+    }
+
+    // -1 until there are enough samples
+    private long medianMillis() {
+        if (latencySamples < MIN_LATENCY_SAMPLES) {
+            return -1;
+        }
+        long[] window = Arrays.copyOf(latencies, latencySamples);
+        Arrays.sort(window);
+        return window[window.length / 2];
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("limit", Math.round(limit * 100) / 100.0);
+        stats.put("inFlight", inFlight);
+        stats.put("waiting", queue.size());
+        stats.put("admitted", admitted.get());
+        stats.put("queued", queued.get());
+        stats.put("rejected", rejected.get());
+        stats.put("dropped", dropped.get());
+        stats.put("slow", slow.get());
+        stats.put("medianMillis", medianMillis());
+        stats.put("slowCallMillis", slowCallMillis());
+        stats.put("minLimit", minLimit);
+        stats.put("maxLimit", maxLimit);
+        return stats;
+    }
+}
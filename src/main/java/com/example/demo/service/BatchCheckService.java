@@ -0,0 +1,103 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.example.demo.grammar.diagnostics.Diagnostics;
+
+/**
+ * Checks many sources at once on a fixed pool sized to the cores.
+ *
+ * Parsing is CPU bound, so more threads than cores would only add contention. Platform
+ * threads (rather than virtual ones) also keep CodeParser's per-thread lexer/parser
+ * instances alive between files.
+ */
+@Service
+public class BatchCheckService {
+
+    public record NamedSource(String name, String code) {}
+
+    public record FileResult(int index, String name, Diagnostics diagnostics, long parseMicros) {}
+
+    private final DiagnosticsCache diagnosticsCache;
+    private final int parallelism;
+    private final ExecutorService executor;
+
+    public BatchCheckService(DiagnosticsCache diagnosticsCache,
+                             @Value("${codecheck.batch.parallelism:0}") int parallelism) {
+        this.diagnosticsCache = diagnosticsCache;
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.executor = Executors.newFixedThreadPool(this.parallelism, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "batch-check-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Parses every file and hands each result to onResult, on the calling thread,
+     * in completion order.
+     */
+    public void check(List<NamedSource> files, Consumer<FileResult> onResult) throws InterruptedException {
+        CompletionService<FileResult> completion = new ExecutorCompletionService<>(executor);
+        List<Future<FileResult>> futures = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            int index = i;
+            NamedSource file = files.get(i);
+            futures.add(completion.submit(() -> checkFile(index, file)));
+        }
+
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                try {
+                    onResult.accept(completion.take().get());
+                } catch (ExecutionException e) {
+                    // checkFile catches everything itself, this is only a safety net
+                    throw new IllegalStateException("Batch check failed", e.getCause());
+                }
+            }
+        } finally {
+            // Stop the rest if the client went away or the callback failed
+            for (Future<FileResult> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private FileResult checkFile(int index, NamedSource file) {
+        long start = System.nanoTime();
+        Diagnostics diagnostics;
+        try {
+            diagnostics = diagnosticsCache.parse(file.code() == null ? "" : file.code());
+        } catch (Exception e) {
+            diagnostics = Diagnostics.failure(e.getMessage());
+        }
+        return new FileResult(index, file.name(), diagnostics, (System.nanoTime() - start) / 1_000);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
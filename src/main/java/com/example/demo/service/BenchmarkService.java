@@ -0,0 +1,164 @@
+package com.example.demo.service;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Wall-clock benchmark of a snippet's execute(n), for comparing code rather than
+ * classifying it.
+ *
+ * Each size is first run once instrumented in the sandbox, which proves it finishes within
+ * the limits and gives its operation count. Timing then uses a plain compile of the same
+ * source so counting doesn't skew it: warmup samples until the JIT has settled, then a
+ * fixed number of measured samples. A sample calls execute(n) as often as fits in the
+ * sample time and is a sandbox run of its own, so the limits still apply. Samples more
+ * than three interquartile ranges out (a GC or a compile landing in them) are dropped.
+ */
+@Service
+public class BenchmarkService {
+
+    private static final int MIN_WARMUP_SAMPLES = 5;
+    private static final long MAX_BATCH = 1 << 24;
+
+    public record Timing(int samples, int outliers, long batchSize, double meanNanos, double p50Nanos,
+                         double p99Nanos, double minNanos, double maxNanos, double allocatedBytesPerOp) {}
+
+    // timing is null when the size didn't get through the sandbox
+    public record SizeResult(int n, SandboxExecutor.Status status, long operations, Timing timing) {}
+
+    private final CompiledClassCache compiledClassCache;
+    private final SandboxExecutor sandboxExecutor;
+    private final long warmupNanos;
+    private final int iterations;
+    private final long sampleNanos;
+    private final com.sun.management.ThreadMXBean threads;
+
+    public BenchmarkService(CompiledClassCache compiledClassCache, SandboxExecutor sandboxExecutor,
+                            @Value("${codeanalysis.benchmark.warmup-millis:200}") long warmupMillis,
+                            @Value("${codeanalysis.benchmark.iterations:20}") int iterations,
+                            @Value("${codeanalysis.benchmark.sample-millis:2}") long sampleMillis) {
+        this.compiledClassCache = compiledClassCache;
+        this.sandboxExecutor = sandboxExecutor;
+        this.warmupNanos = warmupMillis * 1_000_000;
+        this.iterations = Math.max(1, iterations);
+        this.sampleNanos = sampleMillis * 1_000_000;
+        this.threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    }
+
+    /**
+     * Benchmarks the sizes in increasing order. The first size that doesn't get through the
+     * sandbox is reported with its status and the larger ones are left out.
+     */
+    public List<SizeResult> benchmark(String code, int[] sizes) throws Exception {
+        return benchmark(TimeComplexityService.generateFullCode(TimeComplexityService.CLASS_NAME, code),
+                         TimeComplexityService.CLASS_NAME, sizes);
+    }
+
+    // Same for source as generated by TimeComplexityService.generateFullCode()
+    public List<SizeResult> benchmark(String source, String className, int[] sizes) throws Exception {
+        Class<?> instrumented = compiledClassCache.load(source, className);
+        Class<?> plain = compiledClassCache.load(source, className, false);
+        MethodHandle execute = MethodHandles.publicLookup()
+                .findStatic(plain, "execute", MethodType.methodType(int.class, int.class));
+
+        int[] ordered = Arrays.stream(sizes).distinct().sorted().toArray();
+        List<SizeResult> results = new ArrayList<>();
+        for (int n : ordered) {
+            SandboxExecutor.Run check = sandboxExecutor.run(instrumented, n);
+            if (check.status() == SandboxExecutor.Status.FAILED) {
+                throw new IllegalStateException("execute(" + n + ") threw " + check.error());
+            }
+            if (!check.completed()) {
+                results.add(new SizeResult(n, check.status(), check.operationCount(), null));
+                break;
+            }
+
+            SandboxExecutor.Run failed = null;
+            long batch = 1;
+            long warmupEnd = System.nanoTime() + warmupNanos;
+            for (int warmups = 0; warmups < MIN_WARMUP_SAMPLES || System.nanoTime() < warmupEnd; warmups++) {
+                SandboxExecutor.Run run = sample(execute, n, batch);
+                if (!run.completed()) {
+                    failed = run;
+                    break;
+                }
+                // Size the batch so that a sample takes about sampleNanos at the current speed
+                double nanosPerOp = Math.max(1, ((long[]) run.result())[0] / (double) batch);
+                batch = Math.max(1, Math.min(MAX_BATCH, (long) (sampleNanos / nanosPerOp)));
+            }
+
+            double[] perOp = new double[iterations];
+            long allocated = 0;
+            for (int i = 0; i < iterations && failed == null; i++) {
+                SandboxExecutor.Run run = sample(execute, n, batch);
+                if (!run.completed()) {
+                    failed = run;
+                    break;
+                }
+                long[] sample = (long[]) run.result();
+                perOp[i] = sample[0] / (double) batch;
+                allocated += sample[1];
+            }
+
+            if (failed != null) {
+                results.add(new SizeResult(n, failed.status(), check.operationCount(), null));
+                break;
+            }
+            results.add(new SizeResult(n, SandboxExecutor.Status.COMPLETED, check.operationCount(),
+                                       timing(perOp, batch, allocated / (double) (iterations * batch))));
+        }
+        return results;
+    }
+
+    // One sample on a sandbox worker, result is {nanos, allocated bytes}
+    private SandboxExecutor.Run sample(MethodHandle execute, int n, long batch) throws InterruptedException {
+        return sandboxExecutor.run(() -> {
+            OperationCounter counter = OperationCounter.current();
+            long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            try {
+                for (long i = 0; i < batch; i++) {
+                    int result = (int) execute.invokeExact(n);
+                    Blackhole.consume(result);
+                    // The plain class has no checks of its own
+                    if ((i & 1023) == 1023) {
+                        counter.checkpoint();
+                    }
+                }
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+            long nanos = System.nanoTime() - start;
+            return new long[] {nanos, threads.getCurrentThreadAllocatedBytes() - allocatedBefore};
+        });
+    }
+
+    private static Timing timing(double[] perOp, long batch, double allocatedBytesPerOp) {
+        double[] sorted = perOp.clone();
+        Arrays.sort(sorted);
+        double q1 = percentile(sorted, 25);
+        double q3 = percentile(sorted, 75);
+        double fence = 3 * (q3 - q1);
+        double[] kept = Arrays.stream(sorted).filter(v -> v >= q1 - fence && v <= q3 + fence).toArray();
+
+        return new Timing(kept.length, sorted.length - kept.length, batch,
+                          Arrays.stream(kept).average().orElse(0),
+                          percentile(kept, 50), percentile(kept, 99),
+                          kept[0], kept[kept.length - 1], allocatedBytesPerOp);
+    }
+
+    // Nearest rank on sorted values
+    private static double percentile(double[] sorted, double percentile) {
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+}
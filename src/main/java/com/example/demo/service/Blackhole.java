@@ -0,0 +1,22 @@
+package com.example.demo.service;
+
+/**
+ * Keeps values alive while benchmarking, so the JIT can't drop the code computing them.
+ * Writes to static fields can't be eliminated and cost next to nothing.
+ */
+public final class Blackhole {
+
+    private static long longSink;
+    private static Object objectSink;
+
+    private Blackhole() {
+    }
+
+    public static void consume(long value) {
+        longSink ^= value;
+    }
+
+    public static void consume(Object value) {
+        objectSink = value;
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.demo.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stops calls to an upstream that keeps failing. After failure-threshold failures in a row
+ * it opens and refuses calls for open-millis (or as long as the upstream's Retry-After asked,
+ * if that is longer). Then it lets a single trial call through: if that works it closes
+ * again, if not it opens for another round. Only the trial call decides: calls that were let
+ * through before the circuit opened and answer late are counted, but don't close or reopen it.
+ *
+ * Every permit tryAcquire() hands out must be given back to exactly one of onSuccess(),
+ * onFailure() or onIgnored().
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    // A call tryAcquire() let through, trial when it was the half-open circuit's one trial call
+    public record Permit(boolean trial) {}
+
+    private static final Permit CALL = new Permit(false);
+    private static final Permit TRIAL = new Permit(true);
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    // Guarded by this
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openUntil;
+    private boolean trialInFlight;
+
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+    }
+
+    // Whether tryAcquire() would let a call through now, without claiming the trial call
+    public synchronized boolean allowsCalls() {
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> System.currentTimeMillis() >= openUntil;
+            case HALF_OPEN -> !trialInFlight;
+        };
+    }
+
+    // Null when the call is refused
+    public synchronized Permit tryAcquire() {
+        if (state == State.OPEN && System.currentTimeMillis() >= openUntil) {
+            state = State.HALF_OPEN;
+        }
+        if (state == State.CLOSED) {
+            return CALL;
+        }
+        if (state == State.HALF_OPEN && !trialInFlight) {
+            trialInFlight = true;
+            return TRIAL;
+        }
+        refused.incrementAndGet();
+        return null;
+    }
+
+    public synchronized void onSuccess(Permit permit) {
+        consecutiveFailures = 0;
+        if (permit.trial()) {
+            trialInFlight = false;
+            state = State.CLOSED;
+        }
+    }
+
+    // retryAfterMillis is how long the upstream asked to be left alone, 0 if it didn't say
+    public synchronized void onFailure(Permit permit, long retryAfterMillis) {
+        consecutiveFailures++;
+        if (permit.trial()) {
+            trialInFlight = false;
+        }
+        if (permit.trial() || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openUntil = System.currentTimeMillis() + Math.max(openMillis, retryAfterMillis);
+            opened.incrementAndGet();
+            System.err.println("Circuit opened after " + consecutiveFailures + " failures in a row");
+        }
+    }
+
+    // Neither a success nor a failure, e.g. the call was cancelled. A trial call has to be made again
+    public synchronized void onIgnored(Permit permit) {
+        if (permit.trial()) {
+            trialInFlight = false;
+        }
+    }
+
+    // How long calls will still be refused, 0 when they aren't
+    public synchronized long remainingOpenMillis() {
+        return state == State.OPEN ? Math.max(0, openUntil - System.currentTimeMillis()) : 0;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("state", state);
+        stats.put("consecutiveFailures", consecutiveFailures);
+        stats.put("remainingOpenMillis", remainingOpenMillis());
+        stats.put("opened", opened.get());
+        stats.put("refused", refused.get());
+        stats.put("failureThreshold", failureThreshold);
+        stats.put("openMillis", openMillis);
+        return stats;
+    }
+}
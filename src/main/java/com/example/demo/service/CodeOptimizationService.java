@@ -2,17 +2,19 @@ package com.example.demo.service;
 
 import com.example.demo.model.CodeEntry;
 import com.example.demo.repository.CodeRepository;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 @Service
 public class CodeOptimizationService {
@@ -23,85 +25,151 @@ public class CodeOptimizationService {
     @Autowired
     private TimeComplexityService timeComplexityService;
 
-    // ✅ Use Gemini 2.0 Pro Experimental model
-    private static final String GEMINI_API_KEY = "";
-    private static final String GEMINI_ENDPOINT =
-            "https://generativelanguage.googleapis.com/v1beta/models/gemini-2.0-pro-exp:generateContent?key=" + GEMINI_API_KEY;
-
-    public Map<String, String> optimizeCode(String code, String userEmail) {
-        Map<String, String> result = new HashMap<>();
+    @Autowired
+    private GeminiOptimizer geminiOptimizer;
 
-        try {
-            String escapedCode = code.replace("\"", "\\\"");
-
-            System.out.println("📤 Preparing Gemini Pro prompt...");
-
-            // ✅ Payload format for Gemini Pro
-            String requestBody = """
-                {
-                  "contents": [{
-                    "parts": [{
-                      "text": "You are a Java assistant. Optimize this code and return only the Java code:\\n\\n%s"
-                    }]
-                  }]
-                }
-            """.formatted(escapedCode);
+    @Autowired
+    private OptimizationVerifier optimizationVerifier;
 
-            System.out.println("📡 Sending request to Gemini Pro...");
+    // Every Optimizer bean, looked up by name
+    @Autowired
+    private List<Optimizer> optimizers;
+
+    // Optimizers to try in order, the first one that finds something wins. The default asks
+    // Gemini only when the local rewrites find nothing
+    @Value("${codeoptimize.optimizer.chain:local,gemini}")
+    private List<String> defaultChain = List.of("local", "gemini");
+
+    /**
+     * What was stored. cache and optimizer say where the code came from, changes what the
+     * optimizer rewrote (empty when it can't tell). verification is null when the code wasn't
+     * verified, because verification is disabled or nothing was changed.
+     */
+    public record Optimization(String optimizedCode, String complexity, String spaceComplexity, String cache,
+                               String optimizer, List<String> changes, OptimizationVerifier.Verification verification) {
+        public boolean rejected() {
+            return verification != null && verification.rejected();
+        }
+    }
 
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(GEMINI_ENDPOINT))
-                    .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(requestBody))
-                    .build();
+    // The complexity analysis and the save block, they run here rather than on the HTTP client's threads
+    private final ExecutorService blockingExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Optimizes code with the optimizers of chain (null for codeoptimize.optimizer.chain), then
+     * analyzes and stores the result. Returns at once, no thread waits while Gemini works. The
+     * future fails if the optimizer does. onChunk, unless null, gets the optimized code as it is
+     * produced, and the analysis starts once it is complete. Code no optimizer could improve is
+     * analyzed and stored as it is.
+     */
+    public CompletableFuture<Optimization> optimizeCode(String code, String userEmail, boolean bypassCache,
+                                                        List<String> chain, Consumer<String> onChunk) {
+        List<Optimizer> route;
+        try {
+            route = route(chain == null ? defaultChain : chain);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<Optimizer.Result> optimized = firstResult(route, 0, new Optimizer.Request(code, bypassCache, onChunk));
+        CompletableFuture<Optimization> result = optimized
+                .thenApplyAsync(r -> analyzeAndStore(code, r != null ? r : new Optimizer.Result(code, "none", "none", List.of()),
+                                                     userEmail), blockingExecutor)
+                .whenComplete((r, e) -> {
+                    if (e != null) {
+                        System.err.println("🚨 Exception during optimization: " + e.getMessage());
+                    }
+                });
+        // Cancelling the optimization leaves a shared Gemini call, the last one to leave cancels it
+        Futures.propagateCancellation(result, optimized);
+        return result;
+    }
 
-            HttpClient client = HttpClient.newHttpClient();
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+    // Names of the optimizers a chain may list
+    public List<String> optimizerNames() {
+        return optimizers.stream().map(Optimizer::name).toList();
+    }
 
-            System.out.println("✅ Gemini responded with status code: " + response.statusCode());
-            System.out.println("📦 Gemini raw response:\n" + response.body());
+    public Map<String, Object> flightStats() {
+        return geminiOptimizer.flightStats();
+    }
 
-            if (response.statusCode() != 200) {
-                throw new RuntimeException("❌ Gemini API call failed: HTTP " + response.statusCode());
-            }
+    private List<Optimizer> route(List<String> chain) {
+        List<Optimizer> route = new ArrayList<>();
+        for (String name : chain) {
+            Optimizer optimizer = optimizers.stream().filter(o -> o.name().equals(name.trim())).findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("Unknown optimizer: " + name));
+            route.add(optimizer);
+        }
+        return route;
+    }
 
-            // ✅ Parse response for Gemini Pro
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode root = mapper.readTree(response.body());
-            String optimizedCode = root
-                    .path("candidates").get(0)
-                    .path("content")
-                    .path("parts").get(0)
-                    .path("text").asText();
+    // The result of the first optimizer in route from index on that finds something, null if none does
+    private CompletableFuture<Optimizer.Result> firstResult(List<Optimizer> route, int index, Optimizer.Request request) {
+        if (index == route.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return Futures.composeCancellable(route.get(index).optimize(request),
+                                          result -> result != null ? CompletableFuture.completedFuture(result)
+                                                                   : firstResult(route, index + 1, request));
+    }
 
-            // ✅ Clean up markdown formatting
-            optimizedCode = optimizedCode.replaceAll("(?s)(?:java)?\\s*", "").replaceAll("", "").trim();
+    private Optimization analyzeAndStore(String code, Optimizer.Result optimized, String userEmail) {
+        String optimizedCode = optimized.code();
 
-            System.out.println("🧠 Optimized code before complexity analysis:\n" + optimizedCode);
+        System.out.println("🧠 Optimized code (" + optimized.optimizer() + ") before complexity analysis:\n" + optimizedCode);
 
-            // ✅ Analyze time complexity
-            String complexity;
+        // ✅ Check it against the original, which also analyzes both
+        OptimizationVerifier.Verification verification = null;
+        if (optimizationVerifier.isEnabled() && !optimizedCode.equals(code)) {
             try {
-                complexity = timeComplexityService.analyzeAndStoreComplexity(optimizedCode, userEmail);
-            } catch (Exception e) {
-                e.printStackTrace();
-                complexity = "Error analyzing complexity";
+                verification = optimizationVerifier.verify(code, optimizedCode);
+                System.out.println("🔬 Verification: " + verification.verdict() + ", " + verification.notes());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
             }
+            if (verification.rejected()) {
+                System.out.println("⛔ Optimization rejected, storing the original code");
+                optimizedCode = code;
+                // Or the same wrong answer would come back from the cache until it expires
+                optimizers.stream().filter(o -> o.name().equals(optimized.optimizer())).findFirst()
+                        .ifPresent(o -> o.rejected(code, optimized));
+            }
+        }
 
-            // ✅ Save to MongoDB
-            CodeEntry entry = new CodeEntry(userEmail, code, complexity, optimizedCode);
-            codeRepository.save(entry);
-
-            result.put("optimizedCode", optimizedCode);
-            result.put("complexity", complexity);
-
+        // ✅ Analyze time complexity
+        String complexity;
+        String spaceComplexity;
+        try {
+            TimeComplexityService.Analysis analysis;
+            if (verification == null) {
+                analysis = timeComplexityService.analyzeAndStoreComplexity(optimizedCode, userEmail);
+            } else {
+                analysis = verification.rejected() ? verification.original() : verification.optimized();
+                if (analysis == null) {
+                    throw new IllegalStateException("Complexity analysis failed: " + verification.notes());
+                }
+                timeComplexityService.storeAnalysis(optimizedCode, userEmail, analysis);
+            }
+            complexity = analysis.complexity();
+            spaceComplexity = analysis.spaceComplexity();
         } catch (Exception e) {
-            System.err.println("🚨 Exception during optimization: " + e.getMessage());
             e.printStackTrace();
-            result.put("optimizedCode", "Error during optimization");
-            result.put("complexity", "Error");
+            complexity = "Error analyzing complexity";
+            spaceComplexity = complexity;
         }
 
-        return result;
+        // ✅ Save to MongoDB
+        CodeEntry entry = new CodeEntry(userEmail, code, complexity, optimizedCode);
+        entry.setSpaceComplexity(spaceComplexity);
+        codeRepository.save(entry);
+
+        return new Optimization(optimizedCode, complexity, spaceComplexity, optimized.cache(), optimized.optimizer(),
+                                optimized.changes(), verification);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        blockingExecutor.shutdownNow();
     }
 }
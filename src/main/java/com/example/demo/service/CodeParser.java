@@ -1,93 +1,432 @@
 package com.example.demo.service;
 
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
 import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.antlr.v4.runtime.tree.TerminalNode;
 import org.springframework.stereotype.Service;
 
 import com.example.demo.grammar.antlr.JavaLexer;
 import com.example.demo.grammar.antlr.JavaParser;
+import com.example.demo.grammar.diagnostics.Diagnostic;
+import com.example.demo.grammar.diagnostics.Diagnostics;
 import com.example.demo.grammar.symboltable.SymbolTable;
 import com.example.demo.grammar.listeners.ErrorHandler;
 
 @Service
 public class CodeParser {
-    
-    public List<String> parse(String code) {
-        List<String> errors = new ArrayList<>();
-        
-        // 1. LEXER PHASE
-        JavaLexer lexer = new JavaLexer(CharStreams.fromString(code));
-        lexer.removeErrorListeners(); // Remove default listeners
-        lexer.addErrorListener(new LexerErrorListener(errors)); // Add our listener
-        
-        // 2. TOKEN STREAM
-        CommonTokenStream tokens = new CommonTokenStream(lexer);
-        
-        // 3. PARSER PHASE
-        JavaParser parser = new JavaParser(tokens);
-        parser.removeErrorListeners(); // Remove default listeners
-        parser.addErrorListener(new ParserErrorListener(errors)); // Add our listener
-        
-        // 4. SYMBOL TABLE
+
+    // Lexer and parser are not thread safe, so every request thread keeps its own reusable set
+    private static final ThreadLocal<ParserSession> SESSIONS = ThreadLocal.withInitial(ParserSession::new);
+
+    public Diagnostics parse(String code) {
+        return parse(code, new Diagnostics());
+    }
+
+    // Reports into the given collector, which may stream each diagnostic out as it is found
+    public Diagnostics parse(String code, Diagnostics diagnostics) {
+        ParserSession session = SESSIONS.get();
+
+        // 1. LEXER + TOKEN STREAM (pooled instances are rewound onto the new input)
+        session.begin(code, diagnostics, 1, 0, false);
+
+        // 2. SYMBOL TABLE
         SymbolTable symbolTable = new SymbolTable();
-        
+
         try {
-            // 5. PARSE TREE CONSTRUCTION
-            JavaParser.CompilationUnitContext tree = parser.compilationUnit();
-            
-            // 6. SEMANTIC ANALYSIS
-            ParseTreeWalker walker = new ParseTreeWalker();
-            walker.walk(new ErrorHandler(symbolTable, errors), tree);
-            
+            if (diagnostics.isStreaming()) {
+                // 3 + 4. Semantic pass over each top-level node as soon as it is parsed, so its
+                // errors go out before the rest of the source has been read
+                EagerWalker walker = new EagerWalker(symbolTable, diagnostics);
+                session.parseCompilationUnit(walker);
+                walker.finish();
+            } else {
+                // 3. PARSE TREE CONSTRUCTION (SLL first, LL only if SLL gives up)
+                JavaParser.CompilationUnitContext tree = session.parseCompilationUnit(null);
+
+                // 4. SEMANTIC ANALYSIS
+                ParseTreeWalker.DEFAULT.walk(new ErrorHandler(symbolTable, diagnostics), tree);
+            }
+
+        } catch (UncheckedIOException e) {
+            // A streaming client went away, stop instead of reporting into a closed connection
+            throw e;
         } catch (Exception e) {
-            errors.add("Parsing failed: " + e.getMessage());
+            diagnostics.add(new Diagnostic(Diagnostic.Code.PARSE_FAILED, 0, 0, 0, 0, e.getMessage()));
+        } finally {
+            session.end();
+        }
+
+        return diagnostics;
+    }
+
+    // Parse tree alone, without the semantic pass. Syntax errors go into diagnostics
+    JavaParser.CompilationUnitContext parseTree(String code, Diagnostics diagnostics) {
+        ParserSession session = SESSIONS.get();
+        session.begin(code, diagnostics, 1, 0, false);
+        try {
+            return session.parseCompilationUnit(null);
+        } finally {
+            session.end();
+        }
+    }
+
+    // A top-level classDecl/functionDecl/statement of a parsed fragment. lexedTo is how far
+    // into the fragment the lexer had read once it produced the node's first token.
+    record TopLevelNode(int startIndex, int line, int column, int lexedTo, Diagnostics semanticErrors) {}
+
+    // failed means the parse threw. openEnded means a comment or string ran into the end of the
+    // fragment unterminated, so text after the fragment could change how it is tokenized.
+    record Fragment(Diagnostics syntaxErrors, List<TopLevelNode> nodes, boolean failed, boolean openEnded) {}
+
+    // Parses a slice of a larger document. The lexer is seeded with the slice's line/column
+    // so reported lines and columns are absolute, offsets stay relative to the slice.
+    // Semantic errors are kept per top-level node.
+    Fragment parseFragment(String text, int line, int column) {
+        Diagnostics syntaxErrors = new Diagnostics();
+        List<TopLevelNode> nodes = new ArrayList<>();
+        boolean failed = false;
+        boolean openEnded = false;
+        ParserSession session = SESSIONS.get();
+        session.begin(text, syntaxErrors, line, column, true);
+        SymbolTable symbolTable = new SymbolTable();
+
+        try {
+            JavaParser.CompilationUnitContext tree = session.parseCompilationUnit(null);
+            for (ParseTree child : tree.children == null ? List.<ParseTree>of() : tree.children) {
+                if (child instanceof ParserRuleContext node && node.start.getType() != Token.EOF) {
+                    Diagnostics semanticErrors = new Diagnostics();
+                    ParseTreeWalker.DEFAULT.walk(new ErrorHandler(symbolTable, semanticErrors), node);
+                    nodes.add(new TopLevelNode(node.start.getStartIndex(), node.start.getLine(),
+                                               node.start.getCharPositionInLine(),
+                                               session.lexedTo(node.start.getTokenIndex()), semanticErrors));
+                }
+            }
+        } catch (Exception e) {
+            syntaxErrors.add(new Diagnostic(Diagnostic.Code.PARSE_FAILED, 0, 0, 0, 0, e.getMessage()));
+            failed = true;
+        } finally {
+            openEnded = session.isOpenEnded();
+            session.end();
+        }
+
+        return new Fragment(syntaxErrors, nodes, failed, openEnded);
+    }
+
+    // Per-thread lexer/parser pair with listeners installed once
+    private static class ParserSession {
+        private static final CharStream EMPTY_INPUT = CharStreams.fromString("");
+
+        private final LexerErrorListener lexerListener = new LexerErrorListener();
+        private final ParserErrorListener parserListener = new ParserErrorListener();
+        private final BailErrorStrategy bailStrategy = new SilentBailErrorStrategy();
+        private final DefaultErrorStrategy recoveringStrategy = new DefaultErrorStrategy();
+        private final JavaLexer lexer;
+        private final CommonTokenStream tokens;
+        private final JavaParser parser;
+
+        // Only for fragments: furthest char read when each token was handed out, by token index
+        private LookaheadTrackingCharStream trackedInput;
+        private int[] tokenReach = new int[256];
+
+        ParserSession() {
+            lexer = new JavaLexer(EMPTY_INPUT) {
+                @Override
+                public Token nextToken() {
+                    Token token = super.nextToken();
+                    if (trackedInput != null) {
+                        int index = tokens.size(); // the stream numbers the token once this returns
+                        if (index >= tokenReach.length) {
+                            tokenReach = Arrays.copyOf(tokenReach, Math.max(index + 1, tokenReach.length * 2));
+                        }
+                        tokenReach[index] = trackedInput.reach;
+                    }
+                    return token;
+                }
+            };
+            lexer.removeErrorListeners(); // Remove default listeners
+            lexer.addErrorListener(lexerListener);
+
+            tokens = new CommonTokenStream(lexer);
+
+            parser = new JavaParser(tokens);
+            parser.removeErrorListeners(); // Remove default listeners
+            parser.addErrorListener(parserListener);
+        }
+
+        void begin(String code, Diagnostics diagnostics, int line, int column, boolean trackReach) {
+            lexerListener.diagnostics = diagnostics;
+            parserListener.diagnostics = diagnostics;
+            CharStream input = CharStreams.fromString(code);
+            trackedInput = trackReach ? new LookaheadTrackingCharStream(input, lexer) : null;
+            lexer.setInputStream(trackReach ? trackedInput : input);
+            lexer.setLine(line);
+            lexer.setCharPositionInLine(column);
+            tokens.setTokenSource(lexer);
+            parser.setInputStream(tokens);
+        }
+
+        int lexedTo(int tokenIndex) {
+            return tokenReach[tokenIndex];
+        }
+
+        boolean isOpenEnded() {
+            return trackedInput != null && trackedInput.openEnded;
+        }
+
+        JavaParser.CompilationUnitContext parseCompilationUnit(EagerWalker walker) {
+            if (walker != null) {
+                parser.addParseListener(walker);
+            }
+            try {
+                // Stage 1: SLL prediction, bail out on the first error instead of recovering
+                parser.setErrorHandler(bailStrategy);
+                parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+                parser.reset();
+                parser.resetState();
+                try {
+                    return parser.compilationUnit();
+                } catch (ParseCancellationException e) {
+                    // Stage 2: real syntax error or an SLL conflict, re-parse from the buffered
+                    // tokens with full LL and normal error recovery/reporting
+                    parser.setErrorHandler(recoveringStrategy);
+                    parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+                    parser.reset();
+                    parser.resetState();
+                    if (walker != null) {
+                        walker.restart();
+                    }
+                    return parser.compilationUnit();
+                }
+            } finally {
+                if (walker != null) {
+                    parser.removeParseListener(walker);
+                }
+            }
+        }
+
+        void end() {
+            // Don't let an idle thread pin the last submitted source and its tokens
+            lexerListener.diagnostics = null;
+            parserListener.diagnostics = null;
+            trackedInput = null;
+            lexer.setInputStream(EMPTY_INPUT);
+            tokens.setTokenSource(lexer);
+        }
+    }
+
+    // Runs the semantic pass on every top-level node the moment the parser exits it. When the
+    // LL stage re-parses after SLL gave up, nodes that come out over the same tokens as before
+    // were already walked and are skipped. The last node SLL finished is held back: LL error
+    // recovery at the start of the next node can still change where it ends.
+    private static class EagerWalker implements ParseTreeListener {
+        private final Diagnostics diagnostics;
+        private final List<Diagnostic> pending = new ArrayList<>();
+        private final ErrorHandler handler;
+        // Token range (start << 32 | stop) of every node walked so far, in order
+        private final List<Long> walked = new ArrayList<>();
+        private int position;
+        private boolean finalStage;
+
+        EagerWalker(SymbolTable symbolTable, Diagnostics diagnostics) {
+            this.diagnostics = diagnostics;
+            this.handler = new ErrorHandler(symbolTable, new Diagnostics(pending::add));
+        }
+
+        // SLL gave up, the LL stage starts over from the first token
+        void restart() {
+            if (!walked.isEmpty()) {
+                walked.remove(walked.size() - 1);
+            }
+            pending.clear();
+            position = 0;
+            finalStage = true;
+        }
+
+        void finish() {
+            flush();
+        }
+
+        private void flush() {
+            diagnostics.addAll(pending);
+            pending.clear();
+        }
+
+        @Override
+        public void exitEveryRule(ParserRuleContext ctx) {
+            if (!(ctx.getParent() instanceof JavaParser.CompilationUnitContext) || ctx.start.getType() == Token.EOF) {
+                return;
+            }
+            long range = ((long) ctx.start.getTokenIndex() << 32) | (ctx.stop.getTokenIndex() & 0xffffffffL);
+            if (position < walked.size()) {
+                if (walked.get(position) == range) {
+                    position++;
+                    return;
+                }
+                // LL split the source differently from here, what SLL already reported stays
+                walked.subList(position, walked.size()).clear();
+            }
+            flush();
+            walked.add(range);
+            position++;
+            ParseTreeWalker.DEFAULT.walk(handler, ctx);
+            if (finalStage) {
+                flush();
+            }
+        }
+
+        @Override
+        public void enterEveryRule(ParserRuleContext ctx) {
+        }
+
+        @Override
+        public void visitTerminal(TerminalNode node) {
+        }
+
+        @Override
+        public void visitErrorNode(ErrorNode node) {
+        }
+    }
+
+    // Remembers the furthest char the lexer has looked at. An unterminated comment or string
+    // makes the lexer read on to the end before it falls back to shorter tokens, that shows
+    // up as a token starting after the first one that looked past the end.
+    private static class LookaheadTrackingCharStream implements CharStream {
+        private final CharStream input;
+        private final Lexer lexer;
+        private int reach;
+        private int pastEndFrom = -1;
+        private boolean openEnded;
+
+        LookaheadTrackingCharStream(CharStream input, Lexer lexer) {
+            this.input = input;
+            this.lexer = lexer;
+        }
+
+        @Override
+        public int LA(int i) {
+            if (i > 0) {
+                int end = input.index() + i;
+                int tokenStart = lexer._tokenStartCharIndex;
+                if (end > input.size() && pastEndFrom < 0) {
+                    pastEndFrom = tokenStart;
+                } else if (pastEndFrom >= 0 && tokenStart > pastEndFrom && tokenStart < input.size()) {
+                    openEnded = true;
+                }
+                reach = Math.max(reach, Math.min(end, input.size()));
+            }
+            return input.LA(i);
+        }
+
+        @Override
+        public void consume() {
+            input.consume();
+        }
+
+        @Override
+        public int mark() {
+            return input.mark();
+        }
+
+        @Override
+        public void release(int marker) {
+            input.release(marker);
+        }
+
+        @Override
+        public int index() {
+            return input.index();
+        }
+
+        @Override
+        public void seek(int index) {
+            input.seek(index);
+        }
+
+        @Override
+        public int size() {
+            return input.size();
+        }
+
+        @Override
+        public String getSourceName() {
+            return input.getSourceName();
+        }
+
+        @Override
+        public String getText(Interval interval) {
+            return input.getText(interval);
+        }
+    }
+
+    // Bails like BailErrorStrategy but keeps quiet, the LL pass reports the real errors
+    private static class SilentBailErrorStrategy extends BailErrorStrategy {
+        @Override
+        public void reportError(Parser recognizer, RecognitionException e) {
         }
-        
-        return errors;
     }
 
     // Custom Lexer Error Listener
     private static class LexerErrorListener extends BaseErrorListener {
-        private final List<String> errors;
-        
-        public LexerErrorListener(List<String> errors) {
-            this.errors = errors;
-        }
-        
+        private Diagnostics diagnostics;
+
         @Override
         public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol,
                               int line, int charPositionInLine,
                               String msg, RecognitionException e) {
-            errors.add(String.format("Lexical error at line %d:%d - %s", 
-                                  line, charPositionInLine, msg));
+            Lexer lexer = (Lexer)recognizer;
+            int start = lexer._tokenStartCharIndex;
+            int end = Math.max(start + 1, lexer.getInputStream().index());
+            diagnostics.add(new Diagnostic(Diagnostic.Code.LEXER_ERROR, line, charPositionInLine,
+                                           start, end, msg));
         }
     }
 
     // Custom Parser Error Listener
     private static class ParserErrorListener extends BaseErrorListener {
-        private final List<String> errors;
-        
-        public ParserErrorListener(List<String> errors) {
-            this.errors = errors;
-        }
-        
+        private Diagnostics diagnostics;
+
         @Override
         public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol,
                               int line, int charPositionInLine,
                               String msg, RecognitionException e) {
             Token token = (Token)offendingSymbol;
-            errors.add(String.format("Syntax error at line %d:%d - %s (near '%s')", 
-                                  line, charPositionInLine, 
-                                  cleanErrorMessage(msg), 
-                                  token.getText()));
+            int end = Math.max(token.getStartIndex(), token.getStopIndex() + 1);
+            diagnostics.add(new Diagnostic(syntaxErrorCode(msg, e), line, charPositionInLine,
+                                           token.getStartIndex(), end,
+                                           cleanErrorMessage(msg), token.getText()));
         }
-        
+
+        // DefaultErrorStrategy reports missing/extraneous tokens without an exception
+        private Diagnostic.Code syntaxErrorCode(String msg, RecognitionException e) {
+            if (e instanceof NoViableAltException) {
+                return Diagnostic.Code.NO_VIABLE_ALTERNATIVE;
+            }
+            if (e instanceof InputMismatchException) {
+                return Diagnostic.Code.MISMATCHED_INPUT;
+            }
+            if (e == null && msg.startsWith("missing")) {
+                return Diagnostic.Code.MISSING_TOKEN;
+            }
+            if (e == null && msg.startsWith("extraneous")) {
+                return Diagnostic.Code.EXTRANEOUS_TOKEN;
+            }
+            return Diagnostic.Code.SYNTAX_ERROR;
+        }
+
         private String cleanErrorMessage(String msg) {
             return msg.replace("input", "code")
                      .replace("mismatched input", "unexpected token")
                      .replace("extraneous input", "unexpected token");
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,181 @@
+package com.example.demo.service;
+
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.codehaus.janino.SimpleCompiler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Janino compilation cache keyed by SHA-256 of the generated source. Classes come out
+ * of it instrumented by OperationCountInstrumenter, unless asked for a plain copy (for
+ * timing, where counting would skew the numbers).
+ *
+ * Every source gets its own class loader, and the cache only holds the compiled class
+ * through a soft reference, so a class plus its loader can be unloaded once it's evicted
+ * (least recently used past the entry limit) or the collector clears it under memory
+ * pressure. Nothing else keeps generated classes alive after an analysis returns.
+ */
+@Service
+public class CompiledClassCache {
+
+    private final int maxEntries;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReferenceQueue<Class<?>> cleared = new ReferenceQueue<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong compileNanos = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong collected = new AtomicLong();
+
+    private static class Entry extends SoftReference<Class<?>> {
+        private final String key;
+
+        Entry(String key, Class<?> compiledClass, ReferenceQueue<Class<?>> queue) {
+            super(compiledClass, queue);
+            this.key = key;
+        }
+    }
+
+    // Defines the classes of one compilation
+    private static class BytecodeClassLoader extends ClassLoader {
+        private final Map<String, byte[]> bytecodes;
+
+        BytecodeClassLoader(Map<String, byte[]> bytecodes, ClassLoader parent) {
+            super(parent);
+            this.bytecodes = bytecodes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytecode = bytecodes.get(name);
+            if (bytecode == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytecode, 0, bytecode.length);
+        }
+    }
+
+    public CompiledClassCache(@Value("${codeanalysis.class-cache.max-entries:256}") int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns className from source, compiling it only if the same source isn't cached.
+     */
+    public Class<?> load(String source, String className) throws Exception {
+        return load(source, className, true);
+    }
+
+    public Class<?> load(String source, String className, boolean instrumented) throws Exception {
+        String key = instrumented ? key(source) : key(source) + ":plain";
+        synchronized (this) {
+            expungeCleared();
+            Entry entry = entries.get(key);
+            Class<?> cached = entry == null ? null : entry.get();
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached;
+            }
+        }
+        misses.incrementAndGet();
+
+        // Compile outside the lock, two threads racing on the same new source just both compile it
+        long start = System.nanoTime();
+        // Parent is the application loader, not whatever context loader the request thread has
+        ClassLoader parent = CompiledClassCache.class.getClassLoader();
+        SimpleCompiler compiler = new SimpleCompiler();
+        compiler.setParentClassLoader(parent);
+        compiler.cook(source);
+        Map<String, byte[]> bytecodes = instrumented
+                ? OperationCountInstrumenter.instrument(compiler.getBytecodes(), parent)
+                : compiler.getBytecodes();
+        Class<?> compiledClass = new BytecodeClassLoader(bytecodes, parent).loadClass(className);
+        compileNanos.addAndGet(System.nanoTime() - start);
+
+        synchronized (this) {
+            entries.put(key, new Entry(key, compiledClass, cleared));
+            evictToLimit();
+        }
+        return compiledClass;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized Map<String, Object> stats() {
+        expungeCleared();
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        long total = hitCount + missCount;
+        ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRate", total == 0 ? 0.0 : (double) hitCount / total);
+        stats.put("compileMillis", compileNanos.get() / 1_000_000);
+        stats.put("evictions", evictions.get());
+        stats.put("collected", collected.get());
+        stats.put("entries", entries.size());
+        stats.put("maxEntries", maxEntries);
+        stats.put("loadedClasses", classLoading.getLoadedClassCount());
+        stats.put("unloadedClasses", classLoading.getUnloadedClassCount());
+        stats.put("metaspaceUsedBytes", metaspaceUsed());
+        return stats;
+    }
+
+    private void evictToLimit() {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > maxEntries && eldest.hasNext()) {
+            eldest.next().clear();
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    // Drop entries whose class the collector already reclaimed
+    private void expungeCleared() {
+        Reference<? extends Class<?>> reference;
+        while ((reference = cleared.poll()) != null) {
+            Entry entry = (Entry) reference;
+            if (entries.get(entry.key) == entry) {
+                entries.remove(entry.key);
+                collected.incrementAndGet();
+            }
+        }
+    }
+
+    private static long metaspaceUsed() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if ("Metaspace".equals(pool.getName())) {
+                return pool.getUsage().getUsed();
+            }
+        }
+        return -1;
+    }
+
+    private static String key(String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(source.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
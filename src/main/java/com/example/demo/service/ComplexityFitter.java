@@ -0,0 +1,189 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Picks the growth model that best explains measured operation counts.
+ *
+ * Every candidate is fitted as count = a * f(n) + b by least squares on relative error
+ * (weights 1/count^2), so small sizes matter as much as large ones and the constant b
+ * soaks up fixed setup work. The exponential is fitted as count = c * base^n with a free
+ * base instead, so that fib-like growth (1.618^n) is recognised as well. The simplest
+ * model within a hair of the best error wins.
+ * Confidence says how clearly it beat the runner-up and how well it fits at all.
+ */
+public final class ComplexityFitter {
+
+    // Fewer points than this can't tell two-parameter models apart
+    public static final int MIN_POINTS = 3;
+
+    public enum Model {
+        CONSTANT("O(1)"),
+        LOG("O(log n)"),
+        LINEAR("O(n)"),
+        N_LOG_N("O(n log n)"),
+        QUADRATIC("O(n^2)"),
+        CUBIC("O(n^3)"),
+        EXPONENTIAL("O(2^n)");
+
+        private final String label;
+
+        Model(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        double apply(double n) {
+            return switch (this) {
+                case CONSTANT -> 1;
+                case LOG -> Math.log(n);
+                case LINEAR -> n;
+                case N_LOG_N -> n * Math.log(n);
+                case QUADRATIC -> n * n;
+                case CUBIC -> n * n * n;
+                case EXPONENTIAL -> Math.pow(2, n); // not used for fitting, see exponentialError
+            };
+        }
+    }
+
+    /**
+     * error is the root mean square relative error of the chosen model, confidence is in [0, 1].
+     */
+    public record Fit(Model model, double error, double confidence) {}
+
+    private record Candidate(Model model, double error) {}
+
+    private ComplexityFitter() {
+    }
+
+    // Null when there are too few points
+    public static Fit fit(SortedMap<Integer, Long> counts) {
+        return fit(counts, 0);
+    }
+
+    /**
+     * Like fit(counts), but counts that all lie within noiseFloor of each other are taken as
+     * constant: for measurements with some absolute jitter, where any slope through that is noise.
+     */
+    public static Fit fit(SortedMap<Integer, Long> counts, long noiseFloor) {
+        if (counts.size() < MIN_POINTS) {
+            return null;
+        }
+        long min = counts.values().stream().mapToLong(Long::longValue).min().orElse(0);
+        long max = counts.values().stream().mapToLong(Long::longValue).max().orElse(0);
+        if (max - min < noiseFloor) {
+            return new Fit(Model.CONSTANT, 0, 1);
+        }
+        double[] n = new double[counts.size()];
+        double[] y = new double[counts.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Long> entry : counts.entrySet()) {
+            n[i] = entry.getKey();
+            y[i] = Math.max(1, entry.getValue());
+            i++;
+        }
+
+        List<Candidate> candidates = new ArrayList<>();
+        double bestError = Double.MAX_VALUE;
+        for (Model model : Model.values()) {
+            double error = relativeError(model, n, y);
+            if (Double.isFinite(error)) {
+                candidates.add(new Candidate(model, error));
+                bestError = Math.min(bestError, error);
+            }
+        }
+
+        // Candidates are in order of simplicity, take the first that is about as good as the best
+        Candidate chosen = null;
+        double runnerUp = Double.MAX_VALUE;
+        for (Candidate candidate : candidates) {
+            if (chosen == null && candidate.error() <= bestError * 1.1 + 0.001) {
+                chosen = candidate;
+            } else {
+                runnerUp = Math.min(runnerUp, candidate.error());
+            }
+        }
+
+        double separation = runnerUp == Double.MAX_VALUE ? 1
+                : 1 - (chosen.error() + 0.001) / (runnerUp + 0.001);
+        double confidence = Math.max(0, separation) * Math.max(0, 1 - chosen.error());
+        return new Fit(chosen.model(), chosen.error(), Math.round(confidence * 1000) / 1000.0);
+    }
+
+    // RMS relative error of count = a * f(n) + b with a > 0 and b >= 0, NaN if the model doesn't apply
+    private static double relativeError(Model model, double[] n, double[] y) {
+        if (model == Model.EXPONENTIAL) {
+            return exponentialError(n, y);
+        }
+        double sw = 0, sf = 0, sy = 0, sff = 0, sfy = 0;
+        double[] f = new double[n.length];
+        for (int i = 0; i < n.length; i++) {
+            f[i] = model.apply(n[i]);
+            double w = 1 / (y[i] * y[i]);
+            sw += w;
+            sf += w * f[i];
+            sy += w * y[i];
+            sff += w * f[i] * f[i];
+            sfy += w * f[i] * y[i];
+        }
+        if (!Double.isFinite(sff)) {
+            return Double.NaN;
+        }
+
+        double a;
+        double b;
+        if (model == Model.CONSTANT) {
+            a = 0;
+            b = sy / sw;
+        } else {
+            double det = sw * sff - sf * sf;
+            a = (sw * sfy - sf * sy) / det;
+            b = (sff * sy - sf * sfy) / det;
+            if (b < 0 || !Double.isFinite(b)) {
+                b = 0;
+                a = sfy / sff;
+            }
+            // A term that barely moves over the whole range is just the constant model again
+            if (!(a > 0) || a * (f[n.length - 1] - f[0]) < 0.01 * y[n.length - 1]) {
+                return Double.NaN;
+            }
+        }
+
+        double sum = 0;
+        for (int i = 0; i < n.length; i++) {
+            double residual = (y[i] - a * f[i] - b) / y[i];
+            sum += residual * residual;
+        }
+        return Math.sqrt(sum / n.length);
+    }
+
+    // count = c * base^n, a straight line through (n, ln count), so relative error again
+    private static double exponentialError(double[] n, double[] y) {
+        double sn = 0, sl = 0, snn = 0, snl = 0;
+        for (int i = 0; i < n.length; i++) {
+            double logY = Math.log(y[i]);
+            sn += n[i];
+            sl += logY;
+            snn += n[i] * n[i];
+            snl += n[i] * logY;
+        }
+        double slope = (n.length * snl - sn * sl) / (n.length * snn - sn * sn);
+        double intercept = (sl - slope * sn) / n.length;
+        if (!(slope > 0)) {
+            return Double.NaN;
+        }
+
+        double sum = 0;
+        for (int i = 0; i < n.length; i++) {
+            double residual = (y[i] - Math.exp(intercept + slope * n[i])) / y[i];
+            sum += residual * residual;
+        }
+        return Math.sqrt(sum / n.length);
+    }
+}
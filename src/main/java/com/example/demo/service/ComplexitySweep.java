@@ -0,0 +1,146 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The input size sweep behind /code/analyze: runs a compiled snippet for growing n in the
+ * sandbox and records operations and allocation per size. Runs in the server when there
+ * are no worker JVMs, otherwise in MeasurementWorker.
+ */
+public class ComplexitySweep {
+
+    public record Settings(int trials, int minN, int maxN, double growth, long maxOperations,
+                           long timeBudgetMillis, long maxAllocatedBytes) {}
+
+    // status is the sandbox status of the run that ended the sweep early, if one did, stoppedAt
+    // the n of that run (null when the sweep wasn't cut short)
+    public record Measurement(SandboxExecutor.Status status, Integer stoppedAt, SortedMap<Integer, Long> operationCounts,
+                              SortedMap<Integer, Long> allocatedBytes, SortedMap<Integer, Long> peakHeapBytes) {
+        static Measurement empty(SandboxExecutor.Status status) {
+            return new Measurement(status, null, new TreeMap<>(), new TreeMap<>(), new TreeMap<>());
+        }
+    }
+
+    // The run that cut the sweep short, null if none did
+    private record Stop(SandboxExecutor.Status status, int n) {}
+
+    private final SandboxExecutor sandboxExecutor;
+    private final Settings settings;
+
+    public ComplexitySweep(SandboxExecutor sandboxExecutor, Settings settings) {
+        this.sandboxExecutor = sandboxExecutor;
+        this.settings = settings;
+    }
+
+    /**
+     * Sweeps n upwards geometrically, a batch of sizes at a time in parallel, for as long as
+     * the budgets allow. Stops before a size whose predicted count or allocation is over its
+     * budget, once the time budget is spent, or when a larger n does less work (an int
+     * overflowed, or the code doesn't depend on n that way).
+     */
+    public Measurement measure(Class<?> clazz) throws Exception {
+        SortedMap<Integer, Long> counts = new TreeMap<>();
+        SortedMap<Integer, Long> allocated = new TreeMap<>();
+        SortedMap<Integer, Long> peakHeap = new TreeMap<>();
+        Stop stop = sweep(clazz, counts, allocated, peakHeap);
+        return stop == null ? new Measurement(SandboxExecutor.Status.COMPLETED, null, counts, allocated, peakHeap)
+                            : new Measurement(stop.status(), stop.n(), counts, allocated, peakHeap);
+    }
+
+    private Stop sweep(Class<?> clazz, SortedMap<Integer, Long> counts,
+                                         SortedMap<Integer, Long> allocated,
+                                         SortedMap<Integer, Long> peakHeap) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.timeBudgetMillis());
+        int trials = settings.trials();
+        int batchSize = Math.max(1, sandboxExecutor.getThreads() / trials);
+        int n = settings.minN();
+
+        // The first run of a class also pays for its static init and reflection setup, throw it away
+        SandboxExecutor.Run first = sandboxExecutor.run(clazz, n);
+        if (first.status() == SandboxExecutor.Status.FAILED) {
+            throw new IllegalStateException("execute(" + n + ") threw " + first.error());
+        }
+        if (!first.completed()) {
+            return new Stop(first.status(), n);
+        }
+
+        while (n <= settings.maxN() && System.nanoTime() < deadline) {
+            List<Integer> sizes = new ArrayList<>();
+            for (int next = n; sizes.size() < batchSize && next <= settings.maxN()
+                    && predictedCount(counts, next) <= settings.maxOperations()
+                    && predictedCount(allocated, next) <= settings.maxAllocatedBytes(); next = grow(next)) {
+                sizes.add(next);
+            }
+            if (sizes.isEmpty()) {
+                break;
+            }
+
+            // Every run counts into its own counter, so all sizes and trials of a batch run at once
+            int[] runSizes = new int[sizes.size() * trials];
+            for (int i = 0; i < runSizes.length; i++) {
+                runSizes[i] = sizes.get(i / trials);
+            }
+            List<SandboxExecutor.Run> runs = sandboxExecutor.runAll(clazz, runSizes);
+
+            for (int i = 0; i < sizes.size(); i++) {
+                int size = sizes.get(i);
+                long[] sizeCounts = new long[trials];
+                long[] sizeAllocated = new long[trials];
+                long[] sizePeakHeap = new long[trials];
+                for (int t = 0; t < trials; t++) {
+                    SandboxExecutor.Run run = runs.get(i * trials + t);
+                    if (run.status() == SandboxExecutor.Status.FAILED) {
+                        throw new IllegalStateException("execute(" + size + ") threw " + run.error());
+                    }
+                    if (!run.completed()) {
+                        // Keep the sizes below the first one that didn't finish
+                        return new Stop(run.status(), size);
+                    }
+                    sizeCounts[t] = run.operationCount();
+                    sizeAllocated[t] = run.allocatedBytes();
+                    sizePeakHeap[t] = run.peakHeapBytes();
+                }
+                // Medians, in case the snippet is randomized
+                long count = median(sizeCounts);
+                if (!counts.isEmpty() && count < counts.get(counts.lastKey())) {
+                    return null;
+                }
+                counts.put(size, count);
+                allocated.put(size, median(sizeAllocated));
+                peakHeap.put(size, median(sizePeakHeap));
+                if (count > settings.maxOperations() || allocated.get(size) > settings.maxAllocatedBytes()) {
+                    return null;
+                }
+            }
+            n = grow(sizes.get(sizes.size() - 1));
+        }
+
+        return null;
+    }
+
+    private static long median(long[] values) {
+        Arrays.sort(values);
+        return values[values.length / 2];
+    }
+
+    private int grow(int n) {
+        return Math.max(n + 1, (int) Math.round(n * settings.growth()));
+    }
+
+    // Extrapolates the growth of a series between its last two sizes, 0 while there aren't two yet
+    private static double predictedCount(SortedMap<Integer, Long> counts, int n) {
+        if (counts.size() < 2) {
+            return 0;
+        }
+        int last = counts.lastKey();
+        int previous = counts.headMap(last).lastKey();
+        double lastCount = Math.max(1, counts.get(last));
+        double exponent = Math.log(lastCount / Math.max(1, counts.get(previous))) / Math.log((double) last / previous);
+        return lastCount * Math.pow((double) n / last, exponent);
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.demo.service;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.example.demo.grammar.antlr.JavaLexer;
+import com.example.demo.grammar.antlr.JavaParser;
+import com.example.demo.grammar.diagnostics.Diagnostic;
+import com.example.demo.grammar.diagnostics.Diagnostics;
+import com.example.demo.grammar.listeners.ErrorHandler;
+import com.example.demo.grammar.listeners.SyntaxErrorListener;
+import com.example.demo.grammar.symboltable.Symbol;
+import com.example.demo.grammar.symboltable.SymbolTable;
+import com.example.demo.grammar.symboltable.Type;
+import com.example.demo.grammar.symboltable.TypeRegistry;
+
+/**
+ * Content-addressed cache of CodeParser diagnostics.
+ *
+ * Keys are SHA-256 of the analyzer fingerprint plus the normalized source, so a
+ * grammar or analyzer change produces new keys and old entries are never served.
+ * Entries are evicted least-recently-used once the total weight is over budget,
+ * and expire after the TTL.
+ */
+@Service
+public class DiagnosticsCache {
+
+    private final CodeParser codeParser;
+    private final long maxWeight;
+    private final long ttlMillis;
+    private final byte[] analyzerFingerprint;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    private record Entry(Diagnostics diagnostics, long weight, long expiresAt) {}
+
+    public DiagnosticsCache(CodeParser codeParser,
+                            @Value("${codecheck.cache.max-weight-bytes:16777216}") long maxWeight,
+                            @Value("${codecheck.cache.ttl-minutes:60}") long ttlMinutes) {
+        this.codeParser = codeParser;
+        this.maxWeight = maxWeight;
+        this.ttlMillis = ttlMinutes * 60_000;
+        this.analyzerFingerprint = computeAnalyzerFingerprint();
+    }
+
+    public Diagnostics parse(String code) {
+        if (code == null) {
+            return codeParser.parse(code);
+        }
+
+        String key = key(code);
+        long now = System.currentTimeMillis();
+        Diagnostics cached = lookup(key, now);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Parse outside the lock, two threads racing on the same new source just both parse it
+        Diagnostics diagnostics = codeParser.parse(code);
+        Entry entry = new Entry(diagnostics, weigh(key, diagnostics), now + ttlMillis);
+        if (entry.weight() <= maxWeight) {
+            synchronized (this) {
+                Entry previous = entries.put(key, entry);
+                if (previous != null) {
+                    weight -= previous.weight();
+                }
+                weight += entry.weight();
+                evictToBudget();
+            }
+        }
+        return diagnostics;
+    }
+
+    /**
+     * Hands the diagnostics of code to sink as they are found. A cached result is replayed;
+     * otherwise the source is parsed without keeping the list, so nothing is cached for it.
+     * Returns the counts.
+     */
+    public Diagnostics stream(String code, Consumer<Diagnostic> sink) {
+        Diagnostics cached = lookup(key(code), System.currentTimeMillis());
+        if (cached != null) {
+            cached.list().forEach(sink);
+            return cached;
+        }
+        return codeParser.parse(code, new Diagnostics(sink));
+    }
+
+    // Counts the hit or miss
+    private Diagnostics lookup(String key, long now) {
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiresAt() > now) {
+                    hits.incrementAndGet();
+                    return entry.diagnostics();
+                }
+                remove(key, entry);
+                expirations.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        long total = hitCount + missCount;
+        return Map.of(
+            "hits", hitCount,
+            "misses", missCount,
+            "hitRate", total == 0 ? 0.0 : (double) hitCount / total,
+            "evictions", evictions.get(),
+            "expirations", expirations.get(),
+            "entries", entries.size(),
+            "weightBytes", weight,
+            "maxWeightBytes", maxWeight
+        );
+    }
+
+    private void evictToBudget() {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (weight > maxWeight && eldest.hasNext()) {
+            weight -= eldest.next().weight();
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void remove(String key, Entry entry) {
+        entries.remove(key);
+        weight -= entry.weight();
+    }
+
+    // Only line endings are normalized, anything else could move the reported line:column
+    private String key(String code) {
+        MessageDigest digest = sha256();
+        digest.update(analyzerFingerprint);
+        digest.update(code.replace("\r\n", "\n").getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // Rough retained size: key, list, and per diagnostic the record plus two bytes per argument char
+    private static long weigh(String key, Diagnostics diagnostics) {
+        long bytes = 64 + 2L * key.length();
+        for (Diagnostic diagnostic : diagnostics.list()) {
+            bytes += 64;
+            for (String argument : diagnostic.arguments()) {
+                bytes += 40 + 2L * (argument == null ? 0 : argument.length());
+            }
+        }
+        return bytes;
+    }
+
+    // Every class whose code shapes the cached diagnostics: the generated lexer and parser (the
+    // grammar's actions are only in their bytecode, not in the ATNs), the listeners, the symbol
+    // table and type lattice, and the diagnostics themselves
+    private static final List<Class<?>> ANALYZER_CLASSES = List.of(
+            JavaLexer.class, JavaParser.class, CodeParser.class, ErrorHandler.class, SyntaxErrorListener.class,
+            SymbolTable.class, Symbol.class, Type.class, TypeRegistry.class, Diagnostic.class, Diagnostics.class);
+
+    // Changes whenever the grammar (serialized ATNs) or the analyzer classes change
+    private static byte[] computeAnalyzerFingerprint() {
+        MessageDigest digest = sha256();
+        digest.update(JavaLexer._serializedATN.getBytes(StandardCharsets.UTF_8));
+        digest.update(JavaParser._serializedATN.getBytes(StandardCharsets.UTF_8));
+        for (Class<?> analyzerClass : ANALYZER_CLASSES) {
+            fingerprint(digest, analyzerClass);
+        }
+        return digest.digest();
+    }
+
+    // The class file of analyzerClass and of the classes nested in it, anonymous ones included
+    private static void fingerprint(MessageDigest digest, Class<?> analyzerClass) {
+        String name = analyzerClass.getName();
+        String resource = name.substring(name.lastIndexOf('.') + 1) + ".class";
+        try (InputStream in = analyzerClass.getResourceAsStream(resource)) {
+            if (in == null) {
+                System.err.println("Could not fingerprint " + resource + ": not found");
+                return;
+            }
+            digest.update(in.readAllBytes());
+        } catch (Exception e) {
+            System.err.println("Could not fingerprint " + resource + ": " + e.getMessage());
+        }
+        for (Class<?> nested : analyzerClass.getDeclaredClasses()) {
+            fingerprint(digest, nested);
+        }
+        String prefix = name.substring(name.lastIndexOf('.') + 1) + "$";
+        for (int i = 1; ; i++) {
+            try (InputStream in = analyzerClass.getResourceAsStream(prefix + i + ".class")) {
+                if (in == null) {
+                    break;
+                }
+                digest.update(in.readAllBytes());
+            } catch (Exception e) {
+                System.err.println("Could not fingerprint " + prefix + i + ".class: " + e.getMessage());
+                break;
+            }
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * CompletableFuture helpers for passing cancellation on. A CompletableFuture doesn't cancel
+ * the stage it was derived from, so without these cancelling an optimization or an analysis
+ * would leave its HTTP call or worker running for nobody.
+ */
+final class Futures {
+
+    private Futures() {
+    }
+
+    // Cancels upstream once downstream is cancelled
+    static void propagateCancellation(CompletableFuture<?> downstream, CompletableFuture<?> upstream) {
+        downstream.whenComplete((value, e) -> {
+            if (downstream.isCancelled()) {
+                upstream.cancel(true);
+            }
+        });
+    }
+
+    /**
+     * first.thenCompose(next), except that cancelling the result also cancels whichever of the
+     * two stages it is waiting for.
+     */
+    static <T, U> CompletableFuture<U> composeCancellable(CompletableFuture<T> first,
+                                                         Function<? super T, CompletableFuture<U>> next) {
+        CompletableFuture<U> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<?>> waitingFor = new AtomicReference<>(first);
+        first.whenComplete((value, e) -> {
+            if (e != null) {
+                result.completeExceptionally(e);
+                return;
+            }
+            CompletableFuture<U> second;
+            try {
+                second = next.apply(value);
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+                return;
+            }
+            waitingFor.set(second);
+            // The result may have been cancelled while next was running
+            if (result.isCancelled()) {
+                second.cancel(true);
+            }
+            second.whenComplete((secondValue, secondError) -> {
+                if (secondError != null) {
+                    result.completeExceptionally(secondError);
+                } else {
+                    result.complete(secondValue);
+                }
+            });
+        });
+        result.whenComplete((value, e) -> {
+            if (result.isCancelled()) {
+                waitingFor.get().cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Starts the tasks, at most parallelism at a time, and completes with their results in
+     * order. Fails as soon as one of them does. Cancelling or failing the result cancels the
+     * tasks still running, and the rest aren't started.
+     */
+    static <T> CompletableFuture<List<T>> allBounded(List<Supplier<CompletableFuture<T>>> tasks, int parallelism) {
+        CompletableFuture<List<T>> all = new CompletableFuture<>();
+        AtomicReferenceArray<T> results = new AtomicReferenceArray<>(tasks.size());
+        Set<CompletableFuture<T>> running = ConcurrentHashMap.newKeySet();
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger remaining = new AtomicInteger(tasks.size());
+        if (tasks.isEmpty()) {
+            all.complete(List.of());
+            return all;
+        }
+
+        Runnable startNext = new Runnable() {
+            @Override
+            public void run() {
+                int index = next.getAndIncrement();
+                if (index >= tasks.size() || all.isDone()) {
+                    return;
+                }
+                CompletableFuture<T> task;
+                try {
+                    task = tasks.get(index).get();
+                } catch (Throwable t) {
+                    all.completeExceptionally(t);
+                    return;
+                }
+                running.add(task);
+                task.whenComplete((value, e) -> {
+                    running.remove(task);
+                    if (e != null) {
+                        all.completeExceptionally(e);
+                        return;
+                    }
+                    results.set(index, value);
+                    if (remaining.decrementAndGet() == 0) {
+                        List<T> list = new ArrayList<>(tasks.size());
+                        for (int i = 0; i < tasks.size(); i++) {
+                            list.add(results.get(i));
+                        }
+                        all.complete(list);
+                    } else {
+                        run();
+                    }
+                });
+                // all may have failed while this one was being started
+                if (all.isDone()) {
+                    task.cancel(true);
+                }
+            }
+        };
+        all.whenComplete((value, e) -> {
+            if (e != null) {
+                running.forEach(task -> task.cancel(true));
+            }
+        });
+        for (int i = 0; i < Math.max(1, parallelism); i++) {
+            startNext.run();
+        }
+        return all;
+    }
+
+    // Runs task on a virtual thread of its own, cancelling the future interrupts it
+    static <V> CompletableFuture<V> supplyInterruptibly(Callable<V> task) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        Thread thread = Thread.ofVirtual().unstarted(() -> {
+            try {
+                future.complete(task.call());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        future.whenComplete((value, e) -> {
+            if (future.isCancelled()) {
+                thread.interrupt();
+            }
+        });
+        thread.start();
+        return future;
+    }
+
+    /**
+     * Waits for future and rethrows what it failed with. If the waiting thread is interrupted
+     * the future is cancelled first, so whatever it waits for can be cancelled too.
+     */
+    static <V> V await(CompletableFuture<V> future) throws Exception {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            while (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof Exception exception) {
+                throw exception;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        } catch (CancellationException e) {
+            throw new IllegalStateException("Cancelled", e);
+        }
+    }
+}
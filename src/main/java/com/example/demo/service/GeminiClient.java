@@ -0,0 +1,424 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Calls Gemini's generateContent without blocking the caller, or streamGenerateContent to
+ * get the text piece by piece as it is generated.
+ *
+ * One HttpClient for the whole server: it keeps its connections to Gemini open and, over
+ * HTTP/2, multiplexes concurrent requests on them instead of opening one connection per
+ * call. Connecting and the whole request each have a timeout, so a hung call fails the
+ * future instead of holding anything forever.
+ *
+ * Calls go through an AdaptiveConcurrencyLimiter, so a struggling Gemini gets fewer calls at
+ * once instead of a growing pile, and a CircuitBreaker, so one that keeps failing isn't
+ * called at all for a while. 429s, 5xx and connection errors are retried up to max-attempts
+ * times after a jittered exponential backoff, or after the Retry-After Gemini sent. Callers
+ * can tell "Gemini is unavailable right now" (isUnavailable) from other failures.
+ */
+@Service
+public class GeminiClient {
+
+    private static final String PATH = "/v1beta/models/%s:generateContent?key=%s";
+    private static final String STREAM_PATH = "/v1beta/models/%s:streamGenerateContent?alt=sse&key=%s";
+
+    // Gemini failed to answer. status is the HTTP status, 0 when there was no response
+    public static class UpstreamException extends IllegalStateException {
+        private final int status;
+
+        UpstreamException(String message, int status, Throwable cause) {
+            super(message, cause);
+            this.status = status;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+    }
+
+    // The circuit is open, Gemini wasn't called
+    public static class UnavailableException extends IllegalStateException {
+        UnavailableException(String message) {
+            super(message);
+        }
+    }
+
+    // One attempt. text is set when it worked, error otherwise; retryAfterMillis is -1 unless Gemini sent one
+    private record Attempt(String text, RuntimeException error, boolean retryable, long retryAfterMillis) {}
+
+    private final HttpClient client;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final String model;
+    private final URI endpoint;
+    private final URI streamEndpoint;
+    private final Duration requestTimeout;
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final CircuitBreaker circuitBreaker;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong streams = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public GeminiClient(@Value("${codeoptimize.gemini.model:gemini-2.0-pro-exp}") String model,
+                        @Value("${codeoptimize.gemini.api-key:}") String apiKey,
+                        @Value("${codeoptimize.gemini.base-url:https://generativelanguage.googleapis.com}") String baseUrl,
+                        @Value("${codeoptimize.gemini.connect-timeout-millis:5000}") long connectTimeoutMillis,
+                        @Value("${codeoptimize.gemini.request-timeout-millis:120000}") long requestTimeoutMillis,
+                        @Value("${codeoptimize.gemini.retry.max-attempts:3}") int maxAttempts,
+                        @Value("${codeoptimize.gemini.retry.base-delay-millis:500}") long baseDelayMillis,
+                        @Value("${codeoptimize.gemini.retry.max-delay-millis:10000}") long maxDelayMillis,
+                        @Value("${codeoptimize.gemini.limiter.initial-limit:20}") int initialLimit,
+                        @Value("${codeoptimize.gemini.limiter.min-limit:1}") int minLimit,
+                        @Value("${codeoptimize.gemini.limiter.max-limit:200}") int maxLimit,
+                        @Value("${codeoptimize.gemini.limiter.max-queue:1000}") int maxQueue,
+                        @Value("${codeoptimize.gemini.limiter.slow-call-millis:60000}") long slowCallMillis,
+                        @Value("${codeoptimize.gemini.limiter.slow-call-ratio:3}") double slowCallRatio,
+                        @Value("${codeoptimize.gemini.breaker.failure-threshold:5}") int failureThreshold,
+                        @Value("${codeoptimize.gemini.breaker.open-millis:30000}") long openMillis) {
+        this.model = model;
+        this.endpoint = URI.create(baseUrl + PATH.formatted(model, apiKey));
+        this.streamEndpoint = URI.create(baseUrl + STREAM_PATH.formatted(model, apiKey));
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMillis);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.limiter = new AdaptiveConcurrencyLimiter(initialLimit, minLimit, maxLimit, maxQueue, slowCallMillis, slowCallRatio);
+        this.circuitBreaker = new CircuitBreaker(failureThreshold, openMillis);
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .build();
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    /**
+     * True for failures that mean Gemini can't be asked right now (circuit open, too many
+     * calls queued), as opposed to Gemini having been asked and failed.
+     */
+    public static boolean isUnavailable(Throwable e) {
+        while (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e instanceof UnavailableException || e instanceof RejectedExecutionException;
+    }
+
+    /**
+     * Sends prompt as a single user turn. The future completes with the text of the first
+     * candidate, or exceptionally once the attempts are used up or the failure isn't worth
+     * retrying. Cancelling it aborts the request, or the wait for the next attempt.
+     */
+    public CompletableFuture<String> generate(String prompt) {
+        HttpRequest request;
+        try {
+            request = request(endpoint, prompt);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        calls.incrementAndGet();
+        return counted(attempt(() -> send(request, HttpResponse.BodyHandlers.ofString(), this::text), () -> true, 1));
+    }
+
+    /**
+     * Like generate(), but passes the text on to onChunk as Gemini streams it, on the
+     * HttpClient's threads and in order; it shouldn't throw. The future completes with the whole text once the
+     * stream has ended. A failed attempt is only retried if nothing was passed on yet, the
+     * caller would otherwise see the start of the answer twice.
+     */
+    public CompletableFuture<String> stream(String prompt, Consumer<String> onChunk) {
+        HttpRequest request;
+        try {
+            request = request(streamEndpoint, prompt);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        AtomicBoolean streamed = new AtomicBoolean();
+        Consumer<String> relay = chunk -> {
+            streamed.set(true);
+            onChunk.accept(chunk);
+        };
+        // Error responses aren't event streams, their bodies are dropped
+        HttpResponse.BodyHandler<SseTextSubscriber> handler = info -> info.statusCode() == 200
+                ? HttpResponse.BodySubscribers.fromLineSubscriber(new SseTextSubscriber(mapper, relay), subscriber -> subscriber, StandardCharsets.UTF_8, null)
+                : HttpResponse.BodySubscribers.replacing(null);
+        streams.incrementAndGet();
+        return counted(attempt(() -> send(request, handler, SseTextSubscriber::text), () -> !streamed.get(), 1));
+    }
+
+    private HttpRequest request(URI uri, String prompt) throws Exception {
+        String body = mapper.writeValueAsString(Map.of("contents", List.of(Map.of("parts", List.of(Map.of("text", prompt))))));
+        return HttpRequest.newBuilder()
+                .uri(uri)
+                .timeout(requestTimeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private CompletableFuture<String> counted(CompletableFuture<String> call) {
+        CompletableFuture<String> counted = call.whenComplete((text, e) -> {
+            if (e != null && !(e instanceof CancellationException)) {
+                failures.incrementAndGet();
+            }
+        });
+        // Cancelling what the caller holds has to reach the request
+        Futures.propagateCancellation(counted, call);
+        return counted;
+    }
+
+    // mayRetry says whether a retryable failure may still be retried
+    private CompletableFuture<String> attempt(Supplier<CompletableFuture<Attempt>> send, BooleanSupplier mayRetry, int attempt) {
+        return Futures.composeCancellable(send.get(), result -> {
+            if (result.error() == null) {
+                return CompletableFuture.completedFuture(result.text());
+            }
+            if (!result.retryable() || attempt >= maxAttempts || !mayRetry.getAsBoolean()) {
+                return CompletableFuture.failedFuture(result.error());
+            }
+            long delay = result.retryAfterMillis() >= 0 ? result.retryAfterMillis() : backoff(attempt);
+            // Waiting longer than that would only hold the caller, who may as well hear about it now
+            if (delay > maxDelayMillis) {
+                return CompletableFuture.failedFuture(result.error());
+            }
+            retries.incrementAndGet();
+            System.out.println("🔁 Gemini attempt " + attempt + " failed (" + result.error().getMessage() + "), retrying in " + delay + " ms");
+            CompletableFuture<Void> wait = new CompletableFuture<Void>().completeOnTimeout(null, delay, TimeUnit.MILLISECONDS);
+            return Futures.composeCancellable(wait, ignored -> attempt(send, mayRetry, attempt + 1));
+        });
+    }
+
+    // "Full jitter": anywhere between 0 and the exponential delay, so retries of a burst don't arrive together
+    private long backoff(int attempt) {
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(20, attempt - 1));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    // One request under the circuit breaker and the limiter. Fails only when the limiter turns it away
+    private <T> CompletableFuture<Attempt> send(HttpRequest request, HttpResponse.BodyHandler<T> handler, Function<T, String> text) {
+        if (!circuitBreaker.allowsCalls()) {
+            return CompletableFuture.completedFuture(unavailable());
+        }
+        return Futures.composeCancellable(limiter.acquire(), ignored -> {
+            CircuitBreaker.Permit permit = circuitBreaker.tryAcquire();
+            if (permit == null) {
+                limiter.release(AdaptiveConcurrencyLimiter.Result.IGNORED);
+                return CompletableFuture.completedFuture(unavailable());
+            }
+            long start = System.nanoTime();
+            CompletableFuture<HttpResponse<T>> exchange = client.sendAsync(request, handler);
+            // Not exchange.handle(): a cancelled handle stage would skip classify() and leak the permits
+            CompletableFuture<Attempt> attempt = new CompletableFuture<>();
+            exchange.whenComplete((response, e) -> attempt.complete(classify(response, e, permit, start, text)));
+            // Cancelling the exchange aborts the request
+            Futures.propagateCancellation(attempt, exchange);
+            return attempt;
+        });
+    }
+
+    private Attempt unavailable() {
+        long seconds = (circuitBreaker.remainingOpenMillis() + 999) / 1000;
+        return new Attempt(null, new UnavailableException("Gemini is unavailable, not calling it for another " + seconds + " s"), false, -1);
+    }
+
+    // Reports the outcome to the limiter and the breaker and decides whether it is worth another attempt
+    // text reads the answer from the body of a 200
+    private <T> Attempt classify(HttpResponse<T> response, Throwable e, CircuitBreaker.Permit permit, long start,
+                                 Function<T, String> text) {
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        if (e != null) {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof CancellationException) {
+                limiter.release(AdaptiveConcurrencyLimiter.Result.IGNORED);
+                circuitBreaker.onIgnored(permit);
+                return new Attempt(null, (CancellationException) cause, false, -1);
+            }
+            limiter.release(AdaptiveConcurrencyLimiter.Result.DROPPED);
+            circuitBreaker.onFailure(permit, 0);
+            // A request that timed out already waited as long as it may
+            boolean retryable = !(cause instanceof HttpTimeoutException);
+            return new Attempt(null, new UpstreamException("Gemini call failed: " + cause, 0, cause), retryable, -1);
+        }
+
+        int status = response.statusCode();
+        System.out.println("✅ Gemini responded with status code: " + status + " after " + millis + " ms");
+        if (status == 200) {
+            limiter.release(AdaptiveConcurrencyLimiter.Result.SUCCESS, millis);
+            circuitBreaker.onSuccess(permit);
+            try {
+                return new Attempt(text.apply(response.body()), null, false, -1);
+            } catch (Exception parseError) {
+                return new Attempt(null, new UpstreamException("Unreadable Gemini response: " + parseError.getMessage(), status, parseError), false, -1);
+            }
+        }
+
+        UpstreamException error = new UpstreamException("❌ Gemini API call failed: HTTP " + status, status, null);
+        long retryAfterMillis = retryAfterMillis(response);
+        if (status == 429 || status >= 500) {
+            limiter.release(AdaptiveConcurrencyLimiter.Result.DROPPED);
+            circuitBreaker.onFailure(permit, Math.max(0, retryAfterMillis));
+            return new Attempt(null, error, status != 501, retryAfterMillis);
+        }
+        // Our request was wrong, Gemini itself is fine
+        limiter.release(AdaptiveConcurrencyLimiter.Result.IGNORED);
+        circuitBreaker.onSuccess(permit);
+        return new Attempt(null, error, false, -1);
+    }
+
+    private String text(String body) {
+        try {
+            JsonNode root = mapper.readTree(body);
+            return root.path("candidates").path(0)
+                    .path("content")
+                    .path("parts").path(0)
+                    .path("text").asText();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads a server-sent event stream of GenerateContentResponse chunks line by line and
+     * passes the text of each on as it arrives. Events end at an empty line, their data is
+     * the data: lines joined.
+     */
+    private static class SseTextSubscriber implements Flow.Subscriber<String> {
+        private final ObjectMapper mapper;
+        private final Consumer<String> onChunk;
+        // Called one line at a time, never concurrently
+        private final StringBuilder data = new StringBuilder();
+        private final StringBuilder text = new StringBuilder();
+        private String error;
+
+        SseTextSubscriber(ObjectMapper mapper, Consumer<String> onChunk) {
+            this.mapper = mapper;
+            this.onChunk = onChunk;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(String line) {
+            if (line.isEmpty()) {
+                dispatch();
+            } else if (line.startsWith("data:")) {
+                if (!data.isEmpty()) {
+                    data.append('\n');
+                }
+                data.append(line.startsWith("data: ") ? line.substring(6) : line.substring(5));
+            }
+            // Comments, event:, id: and retry: lines carry nothing for us
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            // The exchange fails with it, classify() sees it there
+        }
+
+        @Override
+        public void onComplete() {
+            // A last event without its empty line
+            dispatch();
+        }
+
+        private void dispatch() {
+            if (data.isEmpty()) {
+                return;
+            }
+            String event = data.toString();
+            data.setLength(0);
+            StringBuilder chunk = new StringBuilder();
+            try {
+                JsonNode root = mapper.readTree(event);
+                if (root.has("error")) {
+                    error = root.path("error").path("message").asText("error event");
+                    return;
+                }
+                for (JsonNode part : root.path("candidates").path(0).path("content").path("parts")) {
+                    chunk.append(part.path("text").asText());
+                }
+            } catch (Exception e) {
+                error = "unreadable event: " + e.getMessage();
+                return;
+            }
+            if (!chunk.isEmpty()) {
+                text.append(chunk);
+                onChunk.accept(chunk.toString());
+            }
+        }
+
+        String text() {
+            if (error != null) {
+                throw new IllegalStateException(error);
+            }
+            return text.toString();
+        }
+    }
+
+    // Retry-After as delay-seconds or an HTTP date, -1 when absent or unreadable
+    private static long retryAfterMillis(HttpResponse<?> response) {
+        String value = response.headers().firstValue("Retry-After").orElse(null);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime at = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, at.toInstant().toEpochMilli() - System.currentTimeMillis());
+            } catch (Exception unreadable) {
+                return -1;
+            }
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("calls", calls.get());
+        stats.put("streams", streams.get());
+        stats.put("retries", retries.get());
+        stats.put("failures", failures.get());
+        stats.put("limiter", limiter.stats());
+        stats.put("circuitBreaker", circuitBreaker.stats());
+        return stats;
+    }
+}
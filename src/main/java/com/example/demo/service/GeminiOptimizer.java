@@ -0,0 +1,246 @@
+package com.example.demo.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Asks Gemini to optimize the code. Answers come from LlmResponseCache when it has one
+ * (unless bypassCache is set), identical requests at the same time share one Gemini call,
+ * and while Gemini is unavailable the code comes back as it was. Never finds "nothing": an
+ * answer is always a result, so this belongs at the end of a chain.
+ *
+ * Large sources are sent method by method, a few at a time, and put back together: each
+ * method is cached on its own, so one that didn't change is never sent again.
+ */
+@Service
+public class GeminiOptimizer implements Optimizer {
+
+    // The version is part of the cache key, bump it whenever the text changes
+    private record Prompt(String version, String text) {}
+
+    private static final Prompt WHOLE = new Prompt(
+            "1", "You are a Java assistant. Optimize this code and return only the Java code:\n\n");
+    private static final Prompt METHOD = new Prompt(
+            "method-1", "You are a Java assistant. Optimize this method and return only the method, "
+                        + "with the same name, parameters and return type:\n\n");
+
+    // Gemini usually puts the code in a ```java block, sometimes with a sentence around it
+    private static final Pattern CODE_BLOCK = Pattern.compile("```[\\w+-]*[ \\t]*\\R?(.*?)```", Pattern.DOTALL);
+
+    // cache is how the answer was found: "memory", "mongo", "miss", "bypass", or "fallback" when Gemini
+    // was unavailable and text is the code as it was sent
+    private record Answer(String text, String cache) {}
+
+    // text is the method to put back, change what happened to it
+    private record MethodAnswer(String text, String cache, String change) {}
+
+    private final GeminiClient geminiClient;
+    private final LlmResponseCache llmResponseCache;
+    private final MethodChunker methodChunker;
+
+    // Sources shorter than minChars, or with fewer than minMethods methods, are sent whole
+    private final int minChars;
+    private final int minMethods;
+    // Methods of one source sent at once, GeminiClient's limiter still has the last word
+    private final int maxParallel;
+
+    // The Mongo lookups block, they run here rather than on the HTTP client's threads
+    private final ExecutorService blockingExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final SingleFlight<Answer> answers = new SingleFlight<>();
+
+    public GeminiOptimizer(GeminiClient geminiClient, LlmResponseCache llmResponseCache, MethodChunker methodChunker,
+                           @Value("${codeoptimize.chunking.min-chars:2000}") int minChars,
+                           @Value("${codeoptimize.chunking.min-methods:2}") int minMethods,
+                           @Value("${codeoptimize.chunking.max-parallel:4}") int maxParallel) {
+        this.geminiClient = geminiClient;
+        this.llmResponseCache = llmResponseCache;
+        this.methodChunker = methodChunker;
+        this.minChars = minChars;
+        this.minMethods = minMethods;
+        this.maxParallel = maxParallel;
+    }
+
+    @Override
+    public String name() {
+        return "gemini";
+    }
+
+    @Override
+    public CompletableFuture<Result> optimize(Request request) {
+        String code = request.code();
+        if (request.bypassCache()) {
+            llmResponseCache.recordBypass();
+        }
+        List<MethodChunker.Chunk> chunks = chunks(code);
+        if (chunks != null) {
+            return optimizeMethods(code, chunks, request);
+        }
+
+        CompletableFuture<Answer> answer = answer(WHOLE, code, request.bypassCache(), request.onChunk());
+        CompletableFuture<Result> result = answer.thenApply(
+                a -> new Result(stripMarkdown(a.text()), name(), a.cache(), List.of()));
+        // Cancelling leaves the shared call, the last one to leave cancels it
+        Futures.propagateCancellation(result, answer);
+        return result;
+    }
+
+    // Every answer the result was made of is dropped, the verifier can't tell which method was wrong
+    @Override
+    public void rejected(String code, Result result) {
+        List<MethodChunker.Chunk> chunks = chunks(code);
+        if (chunks == null) {
+            llmResponseCache.remove(LlmResponseCache.key(geminiClient.getModel(), WHOLE.version(), code));
+            return;
+        }
+        for (MethodChunker.Chunk chunk : chunks) {
+            llmResponseCache.remove(LlmResponseCache.key(geminiClient.getModel(), METHOD.version(), chunk.text()));
+        }
+    }
+
+    public Map<String, Object> flightStats() {
+        return answers.stats();
+    }
+
+    // The methods to send one by one, null when the code goes whole
+    private List<MethodChunker.Chunk> chunks(String code) {
+        List<MethodChunker.Chunk> chunks = code.length() >= minChars ? methodChunker.split(code) : null;
+        return chunks != null && chunks.size() >= minMethods ? chunks : null;
+    }
+
+    // The code out of the first code block, or all of the text if there is none
+    static String stripMarkdown(String text) {
+        Matcher block = CODE_BLOCK.matcher(text);
+        return (block.find() ? block.group(1) : text).trim();
+    }
+
+    // Every method on its own, at most maxParallel at a time, then the source with the answers put
+    // back. onChunk gets each method as it is finished rather than token by token: the methods
+    // finish in any order
+    private CompletableFuture<Result> optimizeMethods(String code, List<MethodChunker.Chunk> chunks, Optimizer.Request request) {
+        System.out.println("✂️ Optimizing " + chunks.size() + " methods separately");
+        List<Supplier<CompletableFuture<MethodAnswer>>> tasks = new ArrayList<>();
+        for (MethodChunker.Chunk chunk : chunks) {
+            tasks.add(() -> {
+                CompletableFuture<Answer> answer = answer(METHOD, chunk.text(), request.bypassCache(), null);
+                CompletableFuture<MethodAnswer> method = answer.handle((a, e) -> {
+                    MethodAnswer m = methodAnswer(chunk, a, e);
+                    if (request.onChunk() != null) {
+                        request.onChunk().accept(m.text() + "\n\n");
+                    }
+                    return m;
+                });
+                Futures.propagateCancellation(method, answer);
+                return method;
+            });
+        }
+        CompletableFuture<List<MethodAnswer>> methods = Futures.allBounded(tasks, maxParallel);
+        CompletableFuture<Result> result = methods.thenApply(answers -> {
+            String stitched = MethodChunker.stitch(code, chunks, answers.stream().map(MethodAnswer::text).toList());
+            List<String> caches = answers.stream().map(MethodAnswer::cache).distinct().toList();
+            return new Result(stitched, name(), caches.size() == 1 ? caches.get(0) : "mixed",
+                              answers.stream().map(MethodAnswer::change).toList());
+        });
+        Futures.propagateCancellation(result, methods);
+        return result;
+    }
+
+    // One method that can't be optimized doesn't fail the others, it is put back as it was
+    private MethodAnswer methodAnswer(MethodChunker.Chunk chunk, Answer answer, Throwable error) {
+        String signature = chunk.name() + "(" + String.join(", ", chunk.parameterTypes()) + ")";
+        if (error != null) {
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            if (cause instanceof CancellationException cancelled) {
+                throw cancelled;
+            }
+            System.err.println("⚠️ Optimizing " + signature + " failed: " + error.getMessage());
+            return new MethodAnswer(chunk.text(), "fallback", "Kept " + signature + ", optimizing it failed");
+        }
+        if (answer.cache().equals("fallback")) {
+            return new MethodAnswer(chunk.text(), answer.cache(), "Kept " + signature + ", Gemini is unavailable");
+        }
+        String method = methodChunker.method(stripMarkdown(answer.text()), chunk);
+        if (method == null) {
+            return new MethodAnswer(chunk.text(), answer.cache(), "Kept " + signature + ", the answer wasn't that method");
+        }
+        return new MethodAnswer(method, answer.cache(),
+                                (method.equals(chunk.text()) ? "Unchanged " : "Optimized ") + signature);
+    }
+
+    // Identical requests at the same time share one lookup and one Gemini call. Not streams:
+    // one joining late would have missed the chunks already passed on
+    private CompletableFuture<Answer> answer(Prompt prompt, String code, boolean bypassCache, Consumer<String> onChunk) {
+        String key = LlmResponseCache.key(geminiClient.getModel(), prompt.version(), code);
+        return onChunk != null
+                ? fetch(prompt, key, code, bypassCache, onChunk)
+                : answers.execute(bypassCache ? key + ":bypass" : key, () -> fetch(prompt, key, code, bypassCache, null));
+    }
+
+    // onChunk is null unless the answer is streamed
+    private CompletableFuture<Answer> fetch(Prompt prompt, String key, String code, boolean bypassCache,
+                                            Consumer<String> onChunk) {
+        CompletableFuture<Answer> answer = bypassCache
+                ? generate(prompt, key, code, "bypass", onChunk)
+                : Futures.composeCancellable(
+                        CompletableFuture.supplyAsync(() -> llmResponseCache.get(key), blockingExecutor),
+                        hit -> {
+                            if (hit == null) {
+                                return generate(prompt, key, code, "miss", onChunk);
+                            }
+                            if (onChunk != null) {
+                                onChunk.accept(hit.response());
+                            }
+                            return CompletableFuture.completedFuture(cached(hit));
+                        });
+
+        // While Gemini can't be called, a cached answer is better than none even if it was bypassed,
+        // and no answer at all is better than an error: the code comes back as it was
+        CompletableFuture<Answer> withFallback = answer.exceptionallyAsync(e -> {
+            if (!GeminiClient.isUnavailable(e)) {
+                throw e instanceof CompletionException completion ? completion : new CompletionException(e);
+            }
+            System.err.println("⚠️ " + e.getMessage() + ", falling back");
+            LlmResponseCache.Hit hit = bypassCache ? llmResponseCache.get(key) : null;
+            return hit != null ? cached(hit) : new Answer(code, "fallback");
+        }, blockingExecutor);
+        Futures.propagateCancellation(withFallback, answer);
+        return withFallback;
+    }
+
+    private static Answer cached(LlmResponseCache.Hit hit) {
+        return new Answer(hit.response(), hit.tier().name().toLowerCase());
+    }
+
+    private CompletableFuture<Answer> generate(Prompt prompt, String key, String code, String cache,
+                                               Consumer<String> onChunk) {
+        System.out.println("📡 Sending request to Gemini Pro...");
+        CompletableFuture<String> call = onChunk != null
+                ? geminiClient.stream(prompt.text() + code, onChunk)
+                : geminiClient.generate(prompt.text() + code);
+        CompletableFuture<Answer> answer = call.thenApplyAsync(text -> {
+            llmResponseCache.put(key, geminiClient.getModel(), prompt.version(), text);
+            return new Answer(text, cache);
+        }, blockingExecutor);
+        Futures.propagateCancellation(answer, call);
+        return answer;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        blockingExecutor.shutdownNow();
+    }
+}
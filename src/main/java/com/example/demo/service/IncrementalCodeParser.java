@@ -0,0 +1,352 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.springframework.stereotype.Service;
+
+import com.example.demo.grammar.diagnostics.Diagnostic;
+import com.example.demo.grammar.diagnostics.Diagnostics;
+
+/**
+ * Keeps open documents for live editing and re-parses only the top-level
+ * classDecl/functionDecl/statement regions of the compilationUnit touched by an edit.
+ *
+ * Regions partition the document: each one runs from the start of its top-level node
+ * up to the start of the next, so whitespace and comments belong to the node before them.
+ * Diagnostics of untouched regions are reused, with lines and offsets shifted when earlier
+ * edits added or removed text. Because every region is parsed on its own, checks that
+ * the grammar actions make across top-level nodes (duplicate names) only see one region.
+ *
+ * Document ids are random and handed out when a document is opened, so a client can't
+ * pick (and overwrite) another client's document.
+ */
+@Service
+public class IncrementalCodeParser {
+
+    private static final int MAX_DOCUMENTS = 256;
+
+    private final CodeParser codeParser;
+
+    // Least recently edited documents are dropped first
+    private final Map<String, Document> documents = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Document> eldest) {
+                    return size() > MAX_DOCUMENTS;
+                }
+            });
+
+    public IncrementalCodeParser(CodeParser codeParser) {
+        this.codeParser = codeParser;
+    }
+
+    public record TextEdit(int offset, int length, String replacement) {}
+
+    public record Result(String documentId, int version, Diagnostics diagnostics, int reparsedChars) {}
+
+    // The client's copy of a document no longer matches the server's, it has to send the full code again
+    public static class StaleDocumentException extends IllegalStateException {
+        StaleDocumentException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Opens (when code is given) or updates a document and returns its diagnostics.
+     * Opening always hands out a new id, the document the client had before is closed.
+     * Edits are applied in order, each against the text left by the previous one.
+     *
+     * @throws StaleDocumentException when the document is unknown, the client's version is stale
+     *                                or an edit falls outside the document
+     */
+    public Result update(String documentId, Integer version, String code, List<TextEdit> edits) {
+        if (code != null) {
+            if (documentId != null) {
+                documents.remove(documentId);
+            }
+            String id = UUID.randomUUID().toString();
+            Document document = new Document(id, code);
+            document.regions = parseSpan(code, 0, code.length(), 1, 0);
+            documents.put(id, document);
+            return document.result(code.length());
+        }
+
+        Document document = documentId == null ? null : documents.get(documentId);
+        if (document == null) {
+            throw new StaleDocumentException("Unknown document: " + documentId);
+        }
+
+        synchronized (document) {
+            if (version != null && version != document.version) {
+                throw new StaleDocumentException("Document " + documentId + " is at version "
+                        + document.version + ", edits were made against " + version);
+            }
+            String text = applyEdits(document.text, edits);
+            int reparsed = reparse(document, text);
+            document.text = text;
+            document.version++;
+            return document.result(reparsed);
+        }
+    }
+
+    public void close(String documentId) {
+        documents.remove(documentId);
+    }
+
+    private String applyEdits(String text, List<TextEdit> edits) {
+        if (edits == null || edits.isEmpty()) {
+            return text;
+        }
+        StringBuilder builder = new StringBuilder(text);
+        for (TextEdit edit : edits) {
+            if (edit.offset() < 0 || edit.length() < 0 || edit.offset() + edit.length() > builder.length()) {
+                throw new StaleDocumentException("Edit out of range: offset " + edit.offset()
+                        + ", length " + edit.length() + ", document length " + builder.length());
+            }
+            builder.replace(edit.offset(), edit.offset() + edit.length(),
+                            edit.replacement() == null ? "" : edit.replacement());
+        }
+        return builder.toString();
+    }
+
+    // Returns the number of characters that had to be parsed again
+    private int reparse(Document document, String text) {
+        String old = document.text;
+        List<Region> regions = document.regions;
+
+        // Damaged range, from the unchanged prefix and suffix of old vs new text
+        int prefix = 0;
+        int maxPrefix = Math.min(old.length(), text.length());
+        while (prefix < maxPrefix && old.charAt(prefix) == text.charAt(prefix)) {
+            prefix++;
+        }
+        if (prefix == old.length() && prefix == text.length()) {
+            return 0;
+        }
+        int suffix = 0;
+        int maxSuffix = maxPrefix - prefix;
+        while (suffix < maxSuffix
+                && old.charAt(old.length() - 1 - suffix) == text.charAt(text.length() - 1 - suffix)) {
+            suffix++;
+        }
+        int oldDamageEnd = old.length() - suffix;
+        int delta = text.length() - old.length();
+
+        // Regions the lexer had finished with before reaching the damage are untouched. Usually that
+        // is the char after them, but an unterminated comment or string made it read much further.
+        // A region with syntax errors may have looked at the next tokens to recover, so it goes too.
+        int first = 0;
+        while (regions.get(first).lexedTo <= prefix) {
+            first++;
+        }
+        if (first > 0 && !regions.get(first - 1).clean) {
+            first--;
+        }
+        // Regions after the damage are reused only if their line up to their start is untouched,
+        // otherwise the columns of their diagnostics would be off
+        int last = regions.size() - 1;
+        while (last > first && isUntouchedAfter(old, regions.get(last), oldDamageEnd)) {
+            last--;
+        }
+
+        Region firstDirty = regions.get(first);
+        int spanStart = firstDirty.start;
+        int extra = 0;
+        while (true) {
+            int end = Math.min(last + extra, regions.size() - 1);
+            int spanEnd = regions.get(end).end + delta;
+            List<Region> parsed = parseSpan(text, spanStart, spanEnd, firstDirty.line, firstDirty.column);
+
+            // A clean last region ends in ';' or '}' and can't run on into the next one, unless
+            // the lexer was still inside a comment or string when it hit the end of the span
+            Region tail = parsed.get(parsed.size() - 1);
+            int resume;
+            if (end == regions.size() - 1) {
+                resume = end + 1;
+            } else if (tail.openEnded) {
+                resume = -1;
+            } else if (tail.clean) {
+                resume = end + 1;
+            } else {
+                resume = findResyncPoint(regions, parsed, last + 1, end, delta);
+            }
+            if (resume >= 0) {
+                List<Region> updated = new ArrayList<>(regions.size() + parsed.size());
+                updated.addAll(regions.subList(0, first));
+                int reuseFrom = resume < regions.size() ? regions.get(resume).start + delta : text.length();
+                for (Region region : parsed) {
+                    if (region.start < reuseFrom) {
+                        updated.add(region);
+                    }
+                }
+                if (resume < regions.size()) {
+                    int lineDelta = countLines(text, spanStart, reuseFrom)
+                            - countLines(old, spanStart, reuseFrom - delta);
+                    for (Region region : regions.subList(resume, regions.size())) {
+                        region.start += delta;
+                        region.end += delta;
+                        region.lexedTo += delta;
+                        region.line += lineDelta;
+                        updated.add(region);
+                    }
+                }
+                document.regions = updated;
+                return spanEnd - spanStart;
+            }
+            // The broken part may continue past the span (an unclosed brace or comment),
+            // pull in more of the following regions until the parse falls back in step
+            extra = extra == 0 ? 1 : extra * 2;
+        }
+    }
+
+    private boolean isUntouchedAfter(String old, Region region, int oldDamageEnd) {
+        return region.start > oldDamageEnd && old.lastIndexOf('\n', region.start - 1) >= oldDamageEnd;
+    }
+
+    // Index of the first old region pulled into the span (from..end) that the new parse also
+    // starts a top-level node at. From there on the parser sees the same text from the same
+    // state as before, so the old regions still hold.
+    private int findResyncPoint(List<Region> regions, List<Region> parsed, int from, int end, int delta) {
+        int p = 0;
+        for (int k = from; k <= end; k++) {
+            int boundary = regions.get(k).start + delta;
+            while (p < parsed.size() && parsed.get(p).start < boundary) {
+                p++;
+            }
+            if (p < parsed.size() && parsed.get(p).start == boundary && !parsed.get(p).failed) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    private List<Region> parseSpan(String text, int start, int end, int line, int column) {
+        CodeParser.Fragment fragment = codeParser.parseFragment(text.substring(start, end), line, column);
+        List<Region> regions = new ArrayList<>();
+
+        if (fragment.failed() || fragment.nodes().isEmpty()) {
+            // Keep a span that blew up (or has no nodes) as a single region
+            Region region = new Region(start, end, line, column);
+            region.lexedTo = end + 1;
+            region.openEnded = fragment.openEnded();
+            region.failed = fragment.failed();
+            addRebased(region.syntaxErrors, fragment.syntaxErrors(), start);
+            for (CodeParser.TopLevelNode node : fragment.nodes()) {
+                addRebased(region.semanticErrors, node.semanticErrors(), start);
+            }
+            region.clean = region.syntaxErrors.isEmpty();
+            regions.add(region);
+            return regions;
+        }
+
+        List<CodeParser.TopLevelNode> nodes = fragment.nodes();
+        for (int i = 0; i < nodes.size(); i++) {
+            CodeParser.TopLevelNode node = nodes.get(i);
+            // The first region also owns any leading whitespace/comments of the span
+            Region region = i == 0
+                    ? new Region(start, end, line, column)
+                    : new Region(start + node.startIndex(), end, node.line(), node.column());
+            addRebased(region.semanticErrors, node.semanticErrors(), start);
+            if (i > 0) {
+                regions.get(i - 1).end = region.start;
+                regions.get(i - 1).lexedTo = start + node.lexedTo();
+            }
+            regions.add(region);
+        }
+        // The span's end stood in for whatever follows it, treat the char there as read
+        regions.get(regions.size() - 1).lexedTo = end + 1;
+        regions.get(regions.size() - 1).openEnded = fragment.openEnded();
+
+        // Syntax errors belong to the region their offending token falls in. One reported at the
+        // first token of a node ("missing ';' at ...") comes from recovering the node before it.
+        int r = 0;
+        for (Diagnostic error : fragment.syntaxErrors().list()) {
+            int offset = start + error.startOffset();
+            while (r > 0 && offset <= regions.get(r).start) {
+                r--;
+            }
+            while (r < regions.size() - 1 && offset > regions.get(r + 1).start) {
+                r++;
+            }
+            regions.get(r).syntaxErrors.add(error.shifted(0, start));
+        }
+        for (Region region : regions) {
+            region.clean = region.syntaxErrors.isEmpty();
+        }
+        return regions;
+    }
+
+    private int countLines(String text, int start, int end) {
+        int lines = 0;
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    // Fragment offsets are relative to the parsed slice, regions keep document offsets
+    private static void addRebased(List<Diagnostic> target, Diagnostics diagnostics, int start) {
+        for (Diagnostic diagnostic : diagnostics.list()) {
+            target.add(diagnostic.shifted(0, start));
+        }
+    }
+
+    private static class Document {
+        private final String id;
+        private String text;
+        private int version;
+        private List<Region> regions;
+
+        Document(String id, String text) {
+            this.id = id;
+            this.text = text;
+        }
+
+        // Same ordering as a full parse: syntax errors first, then semantic ones
+        Result result(int reparsedChars) {
+            Diagnostics diagnostics = new Diagnostics();
+            for (Region region : regions) {
+                for (Diagnostic error : region.syntaxErrors) {
+                    diagnostics.add(error.shifted(region.line - region.parsedLine, region.start - region.parsedStart));
+                }
+            }
+            for (Region region : regions) {
+                for (Diagnostic error : region.semanticErrors) {
+                    diagnostics.add(error.shifted(region.line - region.parsedLine, region.start - region.parsedStart));
+                }
+            }
+            return new Result(id, version, diagnostics, reparsedChars);
+        }
+    }
+
+    private static class Region {
+        private int start;
+        private int end;
+        private int line;
+        // Offset of the first char the lexer had not read yet once it was done with this region
+        private int lexedTo;
+        private final int column;
+        private final int parsedLine;
+        private final int parsedStart;
+        private boolean clean;
+        private boolean failed;
+        private boolean openEnded;
+        private final List<Diagnostic> syntaxErrors = new ArrayList<>();
+        private final List<Diagnostic> semanticErrors = new ArrayList<>();
+
+        Region(int start, int end, int line, int column) {
+            this.start = start;
+            this.end = end;
+            this.line = line;
+            this.column = column;
+            this.parsedLine = line;
+            this.parsedStart = start;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.demo.service;
+
+import com.example.demo.model.LlmResponse;
+import com.example.demo.repository.LlmResponseRepository;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two-tier cache of LLM answers in front of the Gemini call in GeminiOptimizer.
+ *
+ * Keys are SHA-256 of the model, the prompt template version and the normalized code, so a
+ * new model or prompt never gets an old answer. The first tier is an in-memory LRU bounded by
+ * weight, the second the llm_responses collection, which survives restarts and is shared by
+ * every instance; Mongo drops its entries through a TTL index. Both tiers expire after the
+ * TTL. With Mongo down the second tier only misses.
+ *
+ * get() may go to Mongo, so it blocks.
+ */
+@Service
+public class LlmResponseCache {
+
+    public enum Tier { MEMORY, MONGO }
+
+    public record Hit(String response, Tier tier) {}
+
+    private record Entry(String response, long weight, long expiresAt) {}
+
+    private final LlmResponseRepository llmResponseRepository;
+    private final MongoTemplate mongoTemplate;
+    private final long maxWeight;
+    private final Duration ttl;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong mongoHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bypasses = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong removals = new AtomicLong();
+    private final AtomicLong mongoErrors = new AtomicLong();
+
+    public LlmResponseCache(LlmResponseRepository llmResponseRepository, MongoTemplate mongoTemplate,
+                            @Value("${codeoptimize.cache.max-weight-bytes:16777216}") long maxWeight,
+                            @Value("${codeoptimize.cache.ttl-hours:168}") long ttlHours) {
+        this.llmResponseRepository = llmResponseRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.maxWeight = maxWeight;
+        this.ttl = Duration.ofHours(ttlHours);
+    }
+
+    // In the background, startup shouldn't wait for Mongo
+    @PostConstruct
+    public void createTtlIndex() {
+        Thread.ofVirtual().name("llm-cache-index").start(() -> {
+            try {
+                mongoTemplate.indexOps(LlmResponse.class)
+                        .ensureIndex(new Index().on("createdAt", Sort.Direction.ASC).expire(ttl));
+            } catch (Exception e) {
+                // Also when the ttl changed: the old index has to be dropped by hand, until then it keeps its own ttl
+                System.err.println("Could not create the TTL index on llm_responses: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Fingerprint of one prompt. Trailing whitespace, line endings and blank lines around the
+     * code don't change the answer, so they don't change the key either.
+     */
+    public static String key(String model, String promptVersion, String code) {
+        String normalized = code.replace("\r\n", "\n").replaceAll("(?m)[ \t]+$", "").strip();
+        MessageDigest digest = sha256();
+        for (String part : new String[] {model, promptVersion, normalized}) {
+            digest.update(part.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // Null on a miss. A Mongo hit is copied into memory
+    public Hit get(String key) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiresAt() > now) {
+                    memoryHits.incrementAndGet();
+                    return new Hit(entry.response(), Tier.MEMORY);
+                }
+                remove(key, entry);
+            }
+        }
+
+        try {
+            LlmResponse stored = llmResponseRepository.findById(key).orElse(null);
+            // The TTL monitor only runs once a minute
+            if (stored != null && stored.getCreatedAt().plus(ttl).toEpochMilli() > now) {
+                putInMemory(key, stored.getResponse(), stored.getCreatedAt().plus(ttl).toEpochMilli());
+                mongoHits.incrementAndGet();
+                return new Hit(stored.getResponse(), Tier.MONGO);
+            }
+        } catch (Exception e) {
+            mongoErrors.incrementAndGet();
+            System.err.println("LLM cache lookup in Mongo failed: " + e.getMessage());
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    // Stores in both tiers, blocks on Mongo
+    public void put(String key, String model, String promptVersion, String response) {
+        Instant now = Instant.now();
+        putInMemory(key, response, now.plus(ttl).toEpochMilli());
+        stores.incrementAndGet();
+        try {
+            llmResponseRepository.save(new LlmResponse(key, model, promptVersion, response, now));
+        } catch (Exception e) {
+            mongoErrors.incrementAndGet();
+            System.err.println("LLM cache store in Mongo failed: " + e.getMessage());
+        }
+    }
+
+    // Drops an answer that turned out to be wrong from both tiers, blocks on Mongo
+    public void remove(String key) {
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                remove(key, entry);
+            }
+        }
+        removals.incrementAndGet();
+        try {
+            llmResponseRepository.deleteById(key);
+        } catch (Exception e) {
+            mongoErrors.incrementAndGet();
+            System.err.println("LLM cache removal in Mongo failed: " + e.getMessage());
+        }
+    }
+
+    // The caller skipped get() and will put() the fresh answer
+    public void recordBypass() {
+        bypasses.incrementAndGet();
+    }
+
+    private synchronized void putInMemory(String key, String response, long expiresAt) {
+        Entry entry = new Entry(response, 64 + 2L * (key.length() + response.length()), expiresAt);
+        if (entry.weight() > maxWeight) {
+            return;
+        }
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            weight -= previous.weight();
+        }
+        weight += entry.weight();
+
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (weight > maxWeight && eldest.hasNext()) {
+            weight -= eldest.next().weight();
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void remove(String key, Entry entry) {
+        entries.remove(key);
+        weight -= entry.weight();
+    }
+
+    public synchronized Map<String, Object> stats() {
+        long hits = memoryHits.get() + mongoHits.get();
+        long total = hits + misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("memoryHits", memoryHits.get());
+        stats.put("mongoHits", mongoHits.get());
+        stats.put("misses", misses.get());
+        stats.put("hitRate", total == 0 ? 0.0 : (double) hits / total);
+        stats.put("bypasses", bypasses.get());
+        stats.put("stores", stores.get());
+        stats.put("evictions", evictions.get());
+        stats.put("removals", removals.get());
+        stats.put("mongoErrors", mongoErrors.get());
+        stats.put("entries", entries.size());
+        stats.put("weightBytes", weight);
+        stats.put("maxWeightBytes", maxWeight);
+        stats.put("ttlHours", ttl.toHours());
+        return stats;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
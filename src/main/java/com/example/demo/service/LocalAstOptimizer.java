@@ -0,0 +1,1171 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+import org.springframework.stereotype.Service;
+
+import com.example.demo.grammar.antlr.JavaParser;
+import com.example.demo.grammar.diagnostics.Diagnostics;
+
+/**
+ * Optimizes code locally, by rewriting it along its parse tree with classic compiler passes:
+ *
+ * - constant folding: int, boolean and string expressions of literals are computed, and an if
+ *   or while whose condition is constant loses its dead branch
+ * - loop-invariant code motion: declarations and int expressions in a loop that don't depend
+ *   on anything the loop changes are computed once before it
+ * - strength reduction: i * k on the counter of a for loop becomes a sum that steps with it
+ * - redundant computation elimination: an int expression repeated in straight-line code is
+ *   computed once
+ * - string concatenation in loops: s += x on a local String becomes a StringBuilder
+ *
+ * The passes edit the source text, so the rest of it keeps its formatting and comments, and
+ * run again on the result until none of them finds more. A rewrite is only made where it
+ * can't change what the code does: types are only trusted for variables whose declarations
+ * all agree, and nothing that could have a side effect or throw (calls, array accesses,
+ * division by a variable) is moved or merged. Code outside the grammar's subset of Java is
+ * left alone, and a pass whose result doesn't parse cleanly is dropped.
+ */
+@Service
+public class LocalAstOptimizer implements Optimizer {
+
+    // Passes run at most this many times over, each round works on the previous one's result
+    private static final int MAX_ROUNDS = 5;
+
+    private static final Set<String> PRIMITIVES = Set.of("int", "long", "short", "byte", "char", "float",
+                                                         "double", "boolean");
+    // Declared by the method the snippets are measured in (TimeComplexityService.generateFullCode)
+    private static final Map<String, String> TEMPLATE_VARIABLES = Map.of("n", "int", "operationCount", "long");
+    private static final Set<String> TEMPLATE_METHODS = Set.of("execute", "checkpoint", "consume");
+
+    // changes is empty when no pass found anything
+    public record Rewrite(String code, List<String> changes) {}
+
+    private final CodeParser codeParser;
+
+    public LocalAstOptimizer(CodeParser codeParser) {
+        this.codeParser = codeParser;
+    }
+
+    @Override
+    public String name() {
+        return "local";
+    }
+
+    @Override
+    public CompletableFuture<Result> optimize(Request request) {
+        Rewrite rewrite = rewrite(request.code());
+        if (rewrite.changes().isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (request.onChunk() != null) {
+            request.onChunk().accept(rewrite.code());
+        }
+        return CompletableFuture.completedFuture(new Result(rewrite.code(), name(), "none", rewrite.changes()));
+    }
+
+    public Rewrite rewrite(String code) {
+        List<String> changes = new ArrayList<>();
+        if (parse(code) == null) {
+            return new Rewrite(code, changes);
+        }
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            int before = changes.size();
+            code = pass(code, Kind.FOLD, changes);
+            // Before HOIST, which would take i * n out of an inner loop and leave a copy of it
+            code = pass(code, Kind.STRENGTH, changes);
+            code = pass(code, Kind.HOIST, changes);
+            code = pass(code, Kind.COMMON, changes);
+            code = pass(code, Kind.CONCAT, changes);
+            if (changes.size() == before) {
+                break;
+            }
+        }
+        return new Rewrite(code, changes);
+    }
+
+    private enum Kind { FOLD, STRENGTH, HOIST, COMMON, CONCAT }
+
+    private String pass(String code, Kind kind, List<String> changes) {
+        JavaParser.CompilationUnitContext tree = parse(code);
+        if (tree == null) {
+            return code;
+        }
+        Pass pass = new Pass(code, tree);
+        try {
+            switch (kind) {
+                case FOLD -> pass.fold();
+                case STRENGTH -> pass.reduceStrength();
+                case HOIST -> pass.hoist();
+                case COMMON -> pass.eliminateCommon();
+                case CONCAT -> pass.buildStrings();
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Local optimizer pass " + kind + " failed: " + e);
+            return code;
+        }
+        if (pass.edits.isEmpty()) {
+            return code;
+        }
+        String rewritten = pass.apply();
+        if (parse(rewritten) == null) {
+            // A rewrite that breaks the code is a bug here, not a reason to break the user's code
+            System.err.println("Local optimizer pass " + kind + " produced code that doesn't parse, dropped");
+            return code;
+        }
+        changes.addAll(pass.changes);
+        return rewritten;
+    }
+
+    // Null when the code has syntax errors or is outside the grammar
+    private JavaParser.CompilationUnitContext parse(String code) {
+        Diagnostics syntaxErrors = new Diagnostics();
+        try {
+            JavaParser.CompilationUnitContext tree = codeParser.parseTree(code, syntaxErrors);
+            return syntaxErrors.isEmpty() ? tree : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    // Replaces [start, end) of the text, inserts when start == end. order breaks ties between insertions
+    private record Edit(int start, int end, String text, int order) {
+        boolean overlaps(Edit other) {
+            if (start == end && other.start == other.end) {
+                return false;
+            }
+            if (start == end) {
+                return other.start < start && start < other.end;
+            }
+            if (other.start == other.end) {
+                return start < other.start && other.start < end;
+            }
+            return start < other.end && other.start < end;
+        }
+    }
+
+    // One pass over one version of the code. Edits are made against that version and applied together
+    private static class Pass {
+        private final String code;
+        private final JavaParser.CompilationUnitContext tree;
+        private final List<Edit> edits = new ArrayList<>();
+        private final List<String> changes = new ArrayList<>();
+
+        // Declared type of each variable whose declarations all agree, fields and locals alike
+        private final Map<String, String> types = new HashMap<>();
+        private final Set<String> fields = new HashSet<>();
+        private final Map<String, Integer> declarations = new HashMap<>();
+        // Every identifier in the code, fresh names must not be one of them
+        private final Set<String> names = new HashSet<>(TEMPLATE_METHODS);
+
+        Pass(String code, JavaParser.CompilationUnitContext tree) {
+            this.code = code;
+            this.tree = tree;
+            Set<String> conflicting = new HashSet<>();
+            collectDeclarations(tree, conflicting);
+            conflicting.forEach(types::remove);
+            TEMPLATE_VARIABLES.forEach((name, type) -> {
+                names.add(name);
+                if (!declarations.containsKey(name)) {
+                    types.put(name, type);
+                }
+            });
+        }
+
+        private void collectDeclarations(ParseTree node, Set<String> conflicting) {
+            String name = null;
+            String type = null;
+            if (node instanceof JavaParser.VarDeclContext decl) {
+                name = decl.ID().getText();
+                type = decl.type().getText();
+                if (decl.getParent() instanceof JavaParser.MemberDeclContext) {
+                    fields.add(name);
+                }
+            } else if (node instanceof JavaParser.ParameterContext parameter) {
+                name = parameter.ID().getText();
+                type = parameter.type().getText();
+            } else if (node instanceof TerminalNode terminal && terminal.getSymbol().getType() == JavaParser.ID) {
+                names.add(terminal.getText());
+            }
+            if (name != null) {
+                declarations.merge(name, 1, Integer::sum);
+                String previous = types.put(name, type);
+                if (previous != null && !previous.equals(type)) {
+                    conflicting.add(name);
+                }
+            }
+            for (int i = 0; i < node.getChildCount(); i++) {
+                collectDeclarations(node.getChild(i), conflicting);
+            }
+        }
+
+        // ---- Constant folding ----
+
+        void fold() {
+            for (ParserRuleContext node : descendants(tree, ParserRuleContext.class)) {
+                if (node instanceof JavaParser.IfStatementContext s) {
+                    foldCondition(s, s.ifStmt().expr(), s.ifStmt().statement(0),
+                                  s.ifStmt().statement().size() > 1 ? s.ifStmt().statement(1) : null);
+                } else if (node instanceof JavaParser.WhileStatementContext s) {
+                    foldCondition(s, s.whileStmt().expr(), null, null);
+                }
+            }
+            foldExpressions(tree);
+        }
+
+        // A while is only ever dropped, never unrolled, so then is null for one
+        private void foldCondition(JavaParser.StatementContext statement, JavaParser.ExprContext condition,
+                                   JavaParser.StatementContext then, JavaParser.StatementContext otherwise) {
+            if (!(evaluate(condition) instanceof Boolean value)) {
+                return;
+            }
+            JavaParser.StatementContext kept = value ? then : otherwise;
+            if (statement instanceof JavaParser.WhileStatementContext && value) {
+                return;
+            }
+            // javac allows code after if (true) return; but not after return;
+            if (kept instanceof JavaParser.VarDeclarationContext || (kept != null && !completesNormally(kept))) {
+                return;
+            }
+            List<Edit> group = new ArrayList<>();
+            if (kept != null) {
+                group.add(replace(statement, text(kept)));
+            } else {
+                group.add(remove(statement));
+            }
+            add(group, "Condition `" + text(condition) + "` is always " + value
+                       + (kept != null ? ", kept only the branch that runs" : ", removed the code it guards"));
+        }
+
+        private void foldExpressions(ParseTree node) {
+            if (node instanceof JavaParser.ExprContext expr && hasOperator(expr)) {
+                Object value = evaluate(expr);
+                if (value != null) {
+                    // -1 is a unary minus on a literal, but already as folded as it gets
+                    if (!isLiteral(expr)) {
+                        String literal = literal(value, expr);
+                        add(List.of(replace(expr, literal)), "Folded `" + text(expr) + "` into `" + literal + "`");
+                    }
+                    return;
+                }
+            }
+            for (int i = 0; i < node.getChildCount(); i++) {
+                foldExpressions(node.getChild(i));
+            }
+        }
+
+        private String literal(Object value, JavaParser.ExprContext at) {
+            if (value instanceof StringConstant string) {
+                return "\"" + string.raw() + "\"";
+            }
+            String literal = String.valueOf(value);
+            // a - (0 - 5) must not become a --5
+            ParseTree parent = at.getParent();
+            boolean operand = parent instanceof JavaParser.UnaryOperationContext
+                    || parent instanceof JavaParser.MultiplicationDivisionContext
+                    || parent instanceof JavaParser.AdditionSubtractionContext
+                    || parent instanceof JavaParser.ComparisonOperationContext
+                    || parent instanceof JavaParser.EqualityOperationContext
+                    || parent instanceof JavaParser.MemberAccessExpressionContext;
+            return operand && literal.startsWith("-") ? "(" + literal + ")" : literal;
+        }
+
+        // ---- Loop-invariant code motion ----
+
+        void hoist() {
+            for (JavaParser.StatementContext loop : loops()) {
+                if (!inStatementList(loop)) {
+                    continue;
+                }
+                Set<String> changed = changedIn(loop);
+                hoistDeclarations(loop, changed);
+                hoistExpressions(loop, changed);
+            }
+        }
+
+        // T v = e; in the loop's body with e the same every time round
+        private void hoistDeclarations(JavaParser.StatementContext loop, Set<String> changed) {
+            JavaParser.StatementContext body = body(loop);
+            if (!(body instanceof JavaParser.BlockStatementContext block)) {
+                return;
+            }
+            Set<String> assigned = assignedIn(loop);
+            for (JavaParser.StatementContext statement : block.block().statement()) {
+                if (!(statement instanceof JavaParser.VarDeclarationContext declaration)) {
+                    continue;
+                }
+                JavaParser.VarDeclContext decl = declaration.varDecl();
+                String name = decl.ID().getText();
+                String type = decl.type().getText();
+                if (decl.expr() == null || !(PRIMITIVES.contains(type) || type.equals("String"))
+                        || declarations.get(name) != 1 || assigned.contains(name)
+                        || !hasOperator(decl.expr()) || !pure(decl.expr()) || !invariant(decl.expr(), changed)) {
+                    continue;
+                }
+                add(List.of(remove(statement), insertBefore(loop, text(statement))),
+                    "Moved `" + text(statement) + "` out of the loop, it is the same every time round");
+            }
+        }
+
+        // int expressions in the loop's condition, update or body that don't change while it runs
+        private void hoistExpressions(JavaParser.StatementContext loop, Set<String> changed) {
+            Map<String, List<JavaParser.ExprContext>> found = new LinkedHashMap<>();
+            for (ParseTree part : loopParts(loop)) {
+                findExpressions(part, expr -> isInt(expr) && pure(expr) && hasOperator(expr) && hasVariable(expr)
+                                              && invariant(expr, changed), found);
+            }
+            for (List<JavaParser.ExprContext> occurrences : found.values()) {
+                String name = fresh("invariant");
+                String value = text(unwrap(occurrences.get(0)));
+                List<Edit> group = new ArrayList<>();
+                group.add(insertBefore(loop, "int " + name + " = " + value + ";"));
+                for (JavaParser.ExprContext occurrence : occurrences) {
+                    group.add(replace(occurrence, name));
+                }
+                if (!add(group, "Computed `" + value + "` once before the loop instead of every time round")) {
+                    names.remove(name);
+                }
+            }
+        }
+
+        // ---- Strength reduction ----
+
+        // for (int i = a; ...; i += c) { ... i * k ... } keeps i * k in a variable stepped by c * k
+        void reduceStrength() {
+            for (JavaParser.StatementContext loop : loops()) {
+                if (!(loop instanceof JavaParser.ForStatementContext s) || !inStatementList(loop)
+                        || !(s.forStmt().statement() instanceof JavaParser.BlockStatementContext body)
+                        || body.block().statement().isEmpty() || !completesNormally(body)) {
+                    continue;
+                }
+                ForParts parts = forParts(s.forStmt());
+                if (!(parts.init() instanceof JavaParser.VarDeclContext init) || !init.type().getText().equals("int")
+                        || init.expr() == null || !pure(init.expr()) || parts.update() == null) {
+                    continue;
+                }
+                String counter = init.ID().getText();
+                Integer step = step(parts.update(), counter);
+                if (step == null) {
+                    continue;
+                }
+                Set<String> changedInBody = changedIn(body);
+                if (parts.condition() != null) {
+                    changedInBody.addAll(changedIn(parts.condition()));
+                }
+                if (changedInBody.contains(counter)) {
+                    continue;
+                }
+                Set<String> changed = changedIn(loop);
+                Map<String, List<JavaParser.ExprContext>> products = new LinkedHashMap<>();
+                List<ParseTree> searched = new ArrayList<>(List.of(body));
+                if (parts.condition() != null) {
+                    searched.add(parts.condition());
+                }
+                for (ParseTree part : searched) {
+                    findExpressions(part, expr -> factor(expr, counter, changed) != null, products);
+                }
+                for (List<JavaParser.ExprContext> occurrences : products.values()) {
+                    JavaParser.ExprContext factor = factor(occurrences.get(0), counter, changed);
+                    String k = text(factor);
+                    String increment = increment(step, factor);
+                    if (increment == null) {
+                        continue;
+                    }
+                    String name = fresh(counter + "Times" + capitalize(factor instanceof JavaParser.PrimaryExpressionContext p
+                                                                       && p.primary() instanceof JavaParser.VariableReferenceContext
+                                                                       ? k : k.replace("-", "Minus")));
+                    String start = start(init.expr(), factor);
+                    List<JavaParser.StatementContext> statements = body.block().statement();
+                    List<Edit> group = new ArrayList<>();
+                    group.add(insertBefore(loop, "int " + name + " = " + start + ";"));
+                    for (JavaParser.ExprContext occurrence : occurrences) {
+                        group.add(replace(occurrence, name));
+                    }
+                    group.add(insertAfter(statements.get(statements.size() - 1), name + " " + increment + ";"));
+                    if (!add(group, "Replaced `" + counter + " * " + k + "` with " + name
+                                    + ", a sum that steps along with " + counter)) {
+                        names.remove(name);
+                    }
+                }
+            }
+        }
+
+        // k for counter * k or k * counter, with k an int literal or an int variable the loop doesn't change
+        private JavaParser.ExprContext factor(JavaParser.ExprContext expr, String counter, Set<String> changed) {
+            if (!(expr instanceof JavaParser.MultiplicationDivisionContext product) || !product.op.getText().equals("*")) {
+                return null;
+            }
+            JavaParser.ExprContext left = unwrap(product.expr(0));
+            JavaParser.ExprContext right = unwrap(product.expr(1));
+            JavaParser.ExprContext factor = counter.equals(variable(left)) ? right
+                    : counter.equals(variable(right)) ? left : null;
+            if (factor == null) {
+                return null;
+            }
+            if (intLiteral(factor) != null) {
+                return factor;
+            }
+            String name = variable(factor);
+            return name != null && !name.equals(counter) && "int".equals(types.get(name)) && !fields.contains(name)
+                   && !changed.contains(name) ? factor : null;
+        }
+
+        // init * k, worked out when both are literals
+        private String start(JavaParser.ExprContext init, JavaParser.ExprContext factor) {
+            Integer a = intLiteral(init);
+            Integer k = intLiteral(factor);
+            if (a != null && k != null) {
+                return String.valueOf(a * k);
+            }
+            if (a != null && a == 0) {
+                return "0";
+            }
+            if (a != null && a == 1) {
+                return text(factor);
+            }
+            return (atom(init) ? text(init) : "(" + text(init) + ")") + " * " + text(factor);
+        }
+
+        // "+= 12" for a step of 3 and a factor of 4, null when it can't be written as an int
+        private String increment(int step, JavaParser.ExprContext factor) {
+            Integer k = intLiteral(factor);
+            if (k != null) {
+                long product = (long) step * k;
+                if (product == 0 || Math.abs(product) > Integer.MAX_VALUE) {
+                    return null;
+                }
+                return (product > 0 ? "+= " : "-= ") + Math.abs(product);
+            }
+            String name = text(factor);
+            if (step == 1 || step == -1) {
+                return (step > 0 ? "+= " : "-= ") + name;
+            }
+            return (step > 0 ? "+= " : "-= ") + Math.abs(step) + " * " + name;
+        }
+
+        // The constant the update adds to counter: i++, ++i, i--, --i, i += c, i -= c
+        private static Integer step(JavaParser.ExprContext update, String counter) {
+            update = unwrap(update);
+            if (update instanceof JavaParser.PostfixOperationContext e && counter.equals(variable(e.expr()))) {
+                return e.op.getText().equals("++") ? 1 : -1;
+            }
+            if (update instanceof JavaParser.PrefixOperationContext e && counter.equals(variable(e.expr()))) {
+                return e.op.getText().equals("++") ? 1 : -1;
+            }
+            if (update instanceof JavaParser.AssignmentExpressionContext e && e.ID().getText().equals(counter)) {
+                Integer c = intLiteral(unwrap(e.expr()));
+                if (c != null && c != Integer.MIN_VALUE) {
+                    return switch (e.op.getText()) {
+                        case "+=" -> c;
+                        case "-=" -> -c;
+                        default -> null;
+                    };
+                }
+            }
+            return null;
+        }
+
+        // ---- Redundant computation elimination ----
+
+        // An int expression computed more than once while its variables stay the same is computed once
+        void eliminateCommon() {
+            for (List<JavaParser.StatementContext> statements : statementLists()) {
+                for (int i = 0; i < statements.size(); i++) {
+                    List<JavaParser.ExprContext> candidates = new ArrayList<>();
+                    for (JavaParser.ExprContext expr : descendants(statements.get(i), JavaParser.ExprContext.class)) {
+                        if (!(expr.getParent() instanceof JavaParser.PrimaryContext) && isInt(expr) && pure(expr)
+                                && hasOperator(expr) && hasVariable(expr)) {
+                            candidates.add(expr);
+                        }
+                    }
+                    // The largest first, a + b shouldn't be taken out of two (a + b) * c
+                    candidates.sort(Comparator.comparingInt((JavaParser.ExprContext e) -> text(e).length()).reversed());
+                    Set<String> tried = new HashSet<>();
+                    for (JavaParser.ExprContext candidate : candidates) {
+                        if (tried.add(key(candidate))) {
+                            eliminate(statements, i, candidate);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void eliminate(List<JavaParser.StatementContext> statements, int first, JavaParser.ExprContext candidate) {
+            Set<String> variables = new HashSet<>();
+            collectVariables(candidate, variables);
+            // As far as none of its variables changes, that statement included
+            int end = first;
+            while (end < statements.size() && changedIn(statements.get(end)).stream().noneMatch(variables::contains)) {
+                end++;
+            }
+            if (end == first) {
+                return;
+            }
+            String key = key(candidate);
+            List<JavaParser.ExprContext> occurrences = new ArrayList<>();
+            for (JavaParser.StatementContext statement : statements.subList(first, end)) {
+                Map<String, List<JavaParser.ExprContext>> found = new HashMap<>();
+                findExpressions(statement, expr -> key(expr).equals(key), found);
+                found.values().forEach(occurrences::addAll);
+            }
+            if (occurrences.size() < 2) {
+                return;
+            }
+
+            String value = text(unwrap(candidate));
+            // int t = a * b; ... a * b: the later ones can use t if it doesn't change
+            JavaParser.StatementContext head = statements.get(first);
+            if (head instanceof JavaParser.VarDeclarationContext declaration && declaration.varDecl().expr() != null
+                    && unwrap(declaration.varDecl().expr()) == unwrap(occurrences.get(0))
+                    && declaration.varDecl().type().getText().equals("int")) {
+                String name = declaration.varDecl().ID().getText();
+                boolean reassigned = false;
+                for (JavaParser.StatementContext statement : statements.subList(first + 1, end)) {
+                    reassigned |= changedIn(statement).contains(name);
+                }
+                if (!reassigned) {
+                    List<Edit> group = new ArrayList<>();
+                    for (JavaParser.ExprContext occurrence : occurrences.subList(1, occurrences.size())) {
+                        group.add(replace(occurrence, name));
+                    }
+                    add(group, "Reused " + name + " instead of computing `" + value + "` again");
+                    return;
+                }
+            }
+
+            String name = fresh("common");
+            List<Edit> group = new ArrayList<>();
+            group.add(insertBefore(head, "int " + name + " = " + value + ";"));
+            for (JavaParser.ExprContext occurrence : occurrences) {
+                group.add(replace(occurrence, name));
+            }
+            if (!add(group, "Computed `" + value + "` once instead of " + occurrences.size() + " times")) {
+                names.remove(name);
+            }
+        }
+
+        // ---- String concatenation in loops ----
+
+        // s += x (or s = s + x) on a local String in a loop copies s every time round, a StringBuilder doesn't
+        void buildStrings() {
+            for (JavaParser.StatementContext loop : loops()) {
+                if (!inStatementList(loop)) {
+                    continue;
+                }
+                Set<String> declaredInLoop = new HashSet<>();
+                for (JavaParser.VarDeclContext decl : descendants(loop, JavaParser.VarDeclContext.class)) {
+                    declaredInLoop.add(decl.ID().getText());
+                }
+                for (String name : new ArrayList<>(types.keySet())) {
+                    if (types.get(name).equals("String") && !fields.contains(name) && declarations.containsKey(name)
+                            && !declaredInLoop.contains(name) && neverNull(name)) {
+                        buildString(loop, name);
+                    }
+                }
+            }
+        }
+
+        private void buildString(JavaParser.StatementContext loop, String name) {
+            // Every use of name in the loop has to be one of the appends
+            List<JavaParser.AssignmentExpressionContext> appends = new ArrayList<>();
+            int references = 0;
+            for (ParserRuleContext node : descendants(loop, ParserRuleContext.class)) {
+                if (node instanceof JavaParser.VariableReferenceContext reference && reference.ID().getText().equals(name)) {
+                    references++;
+                } else if (node instanceof JavaParser.AssignmentExpressionContext assignment
+                           && assignment.ID().getText().equals(name)) {
+                    if (appended(assignment, name) == null) {
+                        return;
+                    }
+                    appends.add(assignment);
+                } else if ((node instanceof JavaParser.PostfixOperationContext || node instanceof JavaParser.PrefixOperationContext)
+                           && node.getText().contains(name)) {
+                    return;
+                }
+            }
+            int ownReferences = 0;
+            for (JavaParser.AssignmentExpressionContext append : appends) {
+                ownReferences += append.op.getText().equals("=") ? 1 : 0;
+            }
+            if (appends.isEmpty() || references != ownReferences) {
+                return;
+            }
+
+            String builder = fresh(name + "Builder");
+            List<Edit> group = new ArrayList<>();
+            group.add(insertBefore(loop, "StringBuilder " + builder + " = new StringBuilder().append(" + name + ");"));
+            for (JavaParser.AssignmentExpressionContext append : appends) {
+                StringBuilder calls = new StringBuilder(builder);
+                for (JavaParser.ExprContext part : appended(append, name)) {
+                    calls.append(".append(").append(text(unwrap(part))).append(")");
+                }
+                group.add(replace(append, calls.toString()));
+            }
+            group.add(insertAfter(loop, name + " = " + builder + ".toString();"));
+            if (!add(group, "Built " + name + " with a StringBuilder instead of copying it on every `+=` in the loop")) {
+                names.remove(name + "Builder");
+            }
+        }
+
+        // A null String would come out of the StringBuilder as "null"
+        private boolean neverNull(String name) {
+            for (JavaParser.VarDeclContext decl : descendants(tree, JavaParser.VarDeclContext.class)) {
+                if (decl.ID().getText().equals(name) && (decl.expr() == null || mayBeNull(decl.expr()))) {
+                    return false;
+                }
+            }
+            for (JavaParser.AssignmentExpressionContext assignment
+                    : descendants(tree, JavaParser.AssignmentExpressionContext.class)) {
+                if (assignment.ID().getText().equals(name) && assignment.op.getText().equals("=")
+                        && mayBeNull(assignment.expr())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Only a string literal or a concatenation is sure not to be
+        private static boolean mayBeNull(JavaParser.ExprContext expr) {
+            expr = unwrap(expr);
+            if (expr instanceof JavaParser.AdditionSubtractionContext) {
+                return false;
+            }
+            return !(expr instanceof JavaParser.PrimaryExpressionContext e
+                     && e.primary() instanceof JavaParser.LiteralExpressionContext l
+                     && l.literal() instanceof JavaParser.StringLiteralContext);
+        }
+
+        // What s += x or s = s + x + y appends, in order. Null for any other assignment, or one using s again
+        private static List<JavaParser.ExprContext> appended(JavaParser.AssignmentExpressionContext assignment, String name) {
+            List<JavaParser.ExprContext> parts = new ArrayList<>();
+            if (assignment.op.getText().equals("+=")) {
+                parts.add(assignment.expr());
+            } else if (assignment.op.getText().equals("=")) {
+                // The left spine of +: ((s + x) + y)
+                JavaParser.ExprContext expr = assignment.expr();
+                while (expr instanceof JavaParser.AdditionSubtractionContext sum && sum.op.getText().equals("+")) {
+                    parts.add(0, sum.expr(1));
+                    expr = sum.expr(0);
+                }
+                if (!name.equals(variable(expr)) || parts.isEmpty()) {
+                    return null;
+                }
+            } else {
+                return null;
+            }
+            for (JavaParser.ExprContext part : parts) {
+                Set<String> variables = new HashSet<>();
+                collectVariables(part, variables);
+                if (variables.contains(name)) {
+                    return null;
+                }
+            }
+            // Only as a statement of its own, its value would be the builder otherwise
+            return assignment.getParent() instanceof JavaParser.ExpressionStatementContext ? parts : null;
+        }
+
+        // ---- Expressions ----
+
+        // What an expression of literals comes to: Integer, Boolean or StringConstant. Null if it isn't
+        // constant, or if working it out would throw or depend on float rounding
+        private static Object evaluate(JavaParser.ExprContext expr) {
+            if (expr instanceof JavaParser.PrimaryExpressionContext e) {
+                if (e.primary() instanceof JavaParser.ParenthesizedExpressionContext p) {
+                    return evaluate(p.expr());
+                }
+                // The lexer takes true and false for identifiers
+                if (e.primary() instanceof JavaParser.VariableReferenceContext v
+                        && (v.ID().getText().equals("true") || v.ID().getText().equals("false"))) {
+                    return Boolean.parseBoolean(v.ID().getText());
+                }
+                if (e.primary() instanceof JavaParser.LiteralExpressionContext l) {
+                    if (l.literal() instanceof JavaParser.IntegerLiteralContext i) {
+                        try {
+                            return Integer.parseInt(i.INT().getText());
+                        } catch (NumberFormatException tooLarge) {
+                            return null;
+                        }
+                    }
+                    if (l.literal() instanceof JavaParser.BooleanLiteralContext b) {
+                        return Boolean.parseBoolean(b.BOOLEAN().getText());
+                    }
+                    if (l.literal() instanceof JavaParser.StringLiteralContext s) {
+                        String token = s.STRING().getText();
+                        return new StringConstant(token.substring(1, token.length() - 1));
+                    }
+                }
+                return null;
+            }
+            if (expr instanceof JavaParser.UnaryOperationContext e) {
+                Object value = evaluate(e.expr());
+                return switch (e.op.getText()) {
+                    case "-" -> value instanceof Integer i ? -i : null;
+                    case "+" -> value instanceof Integer i ? i : null;
+                    case "~" -> value instanceof Integer i ? ~i : null;
+                    case "!" -> value instanceof Boolean b ? !b : null;
+                    default -> null;
+                };
+            }
+            if (expr instanceof JavaParser.MultiplicationDivisionContext e
+                    && evaluate(e.expr(0)) instanceof Integer a && evaluate(e.expr(1)) instanceof Integer b) {
+                return switch (e.op.getText()) {
+                    case "*" -> a * b;
+                    case "/" -> b == 0 ? null : a / b;
+                    case "%" -> b == 0 ? null : a % b;
+                    default -> null;
+                };
+            }
+            if (expr instanceof JavaParser.AdditionSubtractionContext e) {
+                Object a = evaluate(e.expr(0));
+                Object b = a == null ? null : evaluate(e.expr(1));
+                if (a instanceof Integer x && b instanceof Integer y) {
+                    return e.op.getText().equals("+") ? x + y : x - y;
+                }
+                if (e.op.getText().equals("+") && b != null && (a instanceof StringConstant || b instanceof StringConstant)) {
+                    return new StringConstant(raw(a) + raw(b));
+                }
+                return null;
+            }
+            if (expr instanceof JavaParser.ComparisonOperationContext e
+                    && evaluate(e.expr(0)) instanceof Integer a && evaluate(e.expr(1)) instanceof Integer b) {
+                return switch (e.op.getText()) {
+                    case "<" -> a < b;
+                    case ">" -> a > b;
+                    case "<=" -> a <= b;
+                    default -> a >= b;
+                };
+            }
+            if (expr instanceof JavaParser.EqualityOperationContext e) {
+                Object a = evaluate(e.expr(0));
+                Object b = evaluate(e.expr(1));
+                // Strings compare by reference
+                if ((a instanceof Integer && b instanceof Integer) || (a instanceof Boolean && b instanceof Boolean)) {
+                    return e.op.getText().equals("==") == a.equals(b);
+                }
+                return null;
+            }
+            if (expr instanceof JavaParser.LogicalAndOperationContext e
+                    && evaluate(e.expr(0)) instanceof Boolean a && evaluate(e.expr(1)) instanceof Boolean b) {
+                return a && b;
+            }
+            if (expr instanceof JavaParser.LogicalOrOperationContext e
+                    && evaluate(e.expr(0)) instanceof Boolean a && evaluate(e.expr(1)) instanceof Boolean b) {
+                return a || b;
+            }
+            return null;
+        }
+
+        // Text between the quotes of a string literal, escapes as written
+        private record StringConstant(String raw) {}
+
+        private static String raw(Object value) {
+            return value instanceof StringConstant string ? string.raw() : String.valueOf(value);
+        }
+
+        // Without side effects and unable to throw, so it may be computed earlier, later or fewer times
+        private boolean pure(JavaParser.ExprContext expr) {
+            if (expr instanceof JavaParser.PrimaryExpressionContext e) {
+                if (e.primary() instanceof JavaParser.ParenthesizedExpressionContext p) {
+                    return pure(p.expr());
+                }
+                if (e.primary() instanceof JavaParser.VariableReferenceContext v) {
+                    // Not fields: a call could change those
+                    String type = types.get(v.ID().getText());
+                    return type != null && (PRIMITIVES.contains(type) || type.equals("String"))
+                           && !fields.contains(v.ID().getText());
+                }
+                return true;
+            }
+            if (expr instanceof JavaParser.UnaryOperationContext e) {
+                return pure(e.expr());
+            }
+            if (expr instanceof JavaParser.MultiplicationDivisionContext e) {
+                if (!e.op.getText().equals("*")) {
+                    // Integer division by zero throws
+                    Integer divisor = intLiteral(unwrap(e.expr(1)));
+                    if (divisor == null || divisor == 0) {
+                        return false;
+                    }
+                }
+                return pure(e.expr(0)) && pure(e.expr(1));
+            }
+            if (expr instanceof JavaParser.AdditionSubtractionContext
+                    || expr instanceof JavaParser.ComparisonOperationContext
+                    || expr instanceof JavaParser.EqualityOperationContext
+                    || expr instanceof JavaParser.LogicalAndOperationContext
+                    || expr instanceof JavaParser.LogicalOrOperationContext) {
+                for (JavaParser.ExprContext operand : expr.getRuleContexts(JavaParser.ExprContext.class)) {
+                    if (!pure(operand)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+
+        // Of type int for sure: int literals and variables combined with + - * / % and unary - + ~
+        private boolean isInt(JavaParser.ExprContext expr) {
+            expr = unwrap(expr);
+            if (expr instanceof JavaParser.PrimaryExpressionContext e) {
+                if (e.primary() instanceof JavaParser.VariableReferenceContext v) {
+                    return "int".equals(types.get(v.ID().getText()));
+                }
+                return intLiteral(expr) != null;
+            }
+            if (expr instanceof JavaParser.UnaryOperationContext e) {
+                return !e.op.getText().equals("!") && isInt(e.expr());
+            }
+            if (expr instanceof JavaParser.MultiplicationDivisionContext e) {
+                return isInt(e.expr(0)) && isInt(e.expr(1));
+            }
+            if (expr instanceof JavaParser.AdditionSubtractionContext e) {
+                return isInt(e.expr(0)) && isInt(e.expr(1));
+            }
+            return false;
+        }
+
+        // Doesn't read anything the loop changes
+        private static boolean invariant(JavaParser.ExprContext expr, Set<String> changed) {
+            Set<String> variables = new HashSet<>();
+            collectVariables(expr, variables);
+            return variables.stream().noneMatch(changed::contains);
+        }
+
+        // The largest subexpressions of node that match, grouped by their tokens
+        private void findExpressions(ParseTree node, java.util.function.Predicate<JavaParser.ExprContext> matches,
+                                     Map<String, List<JavaParser.ExprContext>> found) {
+            if (node instanceof JavaParser.ExprContext expr && matches.test(expr)) {
+                found.computeIfAbsent(key(expr), k -> new ArrayList<>()).add(expr);
+                return;
+            }
+            for (int i = 0; i < node.getChildCount(); i++) {
+                findExpressions(node.getChild(i), matches, found);
+            }
+        }
+
+        // ---- Loops and statements ----
+
+        // Every for and while, outer ones first
+        private List<JavaParser.StatementContext> loops() {
+            List<JavaParser.StatementContext> loops = new ArrayList<>();
+            for (JavaParser.StatementContext statement : descendants(tree, JavaParser.StatementContext.class)) {
+                if (statement instanceof JavaParser.ForStatementContext || statement instanceof JavaParser.WhileStatementContext) {
+                    loops.add(statement);
+                }
+            }
+            return loops;
+        }
+
+        private static JavaParser.StatementContext body(JavaParser.StatementContext loop) {
+            return loop instanceof JavaParser.ForStatementContext s ? s.forStmt().statement()
+                    : ((JavaParser.WhileStatementContext) loop).whileStmt().statement();
+        }
+
+        // What runs every time round: the condition, the update and the body, not a for's init
+        private static List<ParseTree> loopParts(JavaParser.StatementContext loop) {
+            List<ParseTree> parts = new ArrayList<>();
+            if (loop instanceof JavaParser.ForStatementContext s) {
+                ForParts header = forParts(s.forStmt());
+                if (header.condition() != null) {
+                    parts.add(header.condition());
+                }
+                if (header.update() != null) {
+                    parts.add(header.update());
+                }
+            } else {
+                parts.add(((JavaParser.WhileStatementContext) loop).whileStmt().expr());
+            }
+            parts.add(body(loop));
+            return parts;
+        }
+
+        private record ForParts(ParseTree init, JavaParser.ExprContext condition, JavaParser.ExprContext update) {}
+
+        // init, condition and update are all optional, tell them apart by the semicolons
+        private static ForParts forParts(JavaParser.ForStmtContext loop) {
+            ParseTree init = null;
+            JavaParser.ExprContext condition = null;
+            JavaParser.ExprContext update = null;
+            int semicolons = 0;
+            for (ParseTree child : loop.children) {
+                if (child instanceof TerminalNode terminal && terminal.getText().equals(";")) {
+                    semicolons++;
+                } else if (child instanceof JavaParser.VarDeclContext || child instanceof JavaParser.ExprContext) {
+                    if (semicolons == 0) {
+                        init = child;
+                    } else if (semicolons == 1) {
+                        condition = (JavaParser.ExprContext) child;
+                    } else {
+                        update = (JavaParser.ExprContext) child;
+                    }
+                }
+            }
+            return new ForParts(init, condition, update);
+        }
+
+        // False when the statement might not finish normally, a statement after it could be unreachable
+        private static boolean completesNormally(JavaParser.StatementContext statement) {
+            if (!descendants(statement, JavaParser.ReturnStatementContext.class).isEmpty()) {
+                return false;
+            }
+            // while (true) and for (;;)
+            for (JavaParser.WhileStmtContext loop : descendants(statement, JavaParser.WhileStmtContext.class)) {
+                if (Boolean.TRUE.equals(evaluate(loop.expr()))) {
+                    return false;
+                }
+            }
+            for (JavaParser.ForStmtContext loop : descendants(statement, JavaParser.ForStmtContext.class)) {
+                if (forParts(loop).condition() == null) {
+                    return false;
+                }
+            }
+            // The grammar has no break or continue, they parse as expression statements naming a variable
+            for (JavaParser.ExpressionStatementContext jump : descendants(statement, JavaParser.ExpressionStatementContext.class)) {
+                String name = variable(jump.expr());
+                if ("break".equals(name) || "continue".equals(name)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Statements that can have another inserted before or after them, or be removed
+        private static boolean inStatementList(JavaParser.StatementContext statement) {
+            ParseTree parent = statement.getParent();
+            return parent instanceof JavaParser.BlockContext || parent instanceof JavaParser.FunctionDeclContext
+                   || parent instanceof JavaParser.CompilationUnitContext;
+        }
+
+        private List<List<JavaParser.StatementContext>> statementLists() {
+            List<List<JavaParser.StatementContext>> lists = new ArrayList<>();
+            lists.add(tree.getRuleContexts(JavaParser.StatementContext.class));
+            for (JavaParser.FunctionDeclContext function : descendants(tree, JavaParser.FunctionDeclContext.class)) {
+                lists.add(function.statement());
+            }
+            for (JavaParser.BlockContext block : descendants(tree, JavaParser.BlockContext.class)) {
+                lists.add(block.statement());
+            }
+            return lists;
+        }
+
+        // Variables assigned, incremented or declared anywhere in node
+        private static Set<String> changedIn(ParseTree node) {
+            Set<String> changed = assignedIn(node);
+            for (JavaParser.VarDeclContext decl : descendants(node, JavaParser.VarDeclContext.class)) {
+                changed.add(decl.ID().getText());
+            }
+            return changed;
+        }
+
+        private static Set<String> assignedIn(ParseTree node) {
+            Set<String> assigned = new HashSet<>();
+            for (JavaParser.ExprContext expr : descendants(node, JavaParser.ExprContext.class)) {
+                if (expr instanceof JavaParser.AssignmentExpressionContext e) {
+                    assigned.add(e.ID().getText());
+                } else if (expr instanceof JavaParser.PostfixOperationContext e && variable(e.expr()) != null) {
+                    assigned.add(variable(e.expr()));
+                } else if (expr instanceof JavaParser.PrefixOperationContext e && variable(e.expr()) != null) {
+                    assigned.add(variable(e.expr()));
+                }
+            }
+            return assigned;
+        }
+
+        // ---- Edits ----
+
+        // Accepts all of group or, if any of it overlaps an edit already made, none of it
+        private boolean add(List<Edit> group, String change) {
+            for (Edit edit : group) {
+                for (Edit other : edits) {
+                    if (edit.overlaps(other)) {
+                        return false;
+                    }
+                }
+            }
+            for (Edit edit : group) {
+                edits.add(new Edit(edit.start(), edit.end(), edit.text(), edits.size()));
+            }
+            changes.add(change);
+            return true;
+        }
+
+        String apply() {
+            // From the end, so earlier offsets stay valid. Of insertions at one place the first made ends up first
+            List<Edit> ordered = new ArrayList<>(edits);
+            ordered.sort(Comparator.comparingInt(Edit::start).thenComparingInt(Edit::end).thenComparingInt(Edit::order)
+                                 .reversed());
+            StringBuilder rewritten = new StringBuilder(code);
+            for (Edit edit : ordered) {
+                rewritten.replace(edit.start(), edit.end(), edit.text());
+            }
+            return rewritten.toString();
+        }
+
+        private Edit replace(ParserRuleContext node, String text) {
+            return new Edit(node.start.getStartIndex(), node.stop.getStopIndex() + 1, text, 0);
+        }
+
+        // The whole line if the statement is alone on it
+        private Edit remove(JavaParser.StatementContext statement) {
+            if (!inStatementList(statement)) {
+                return replace(statement, "{}");
+            }
+            int start = statement.start.getStartIndex();
+            int end = statement.stop.getStopIndex() + 1;
+            int lineStart = code.lastIndexOf('\n', start - 1) + 1;
+            int lineEnd = code.indexOf('\n', end);
+            if (lineEnd < 0) {
+                lineEnd = code.length();
+            }
+            if (code.substring(lineStart, start).isBlank() && code.substring(end, lineEnd).isBlank()) {
+                return new Edit(lineStart, Math.min(code.length(), lineEnd + 1), "", 0);
+            }
+            while (end < code.length() && code.charAt(end) == ' ') {
+                end++;
+            }
+            return new Edit(start, end, "", 0);
+        }
+
+        private Edit insertBefore(JavaParser.StatementContext statement, String line) {
+            int start = statement.start.getStartIndex();
+            String indent = indentation(start);
+            return new Edit(start, start, indent != null ? line + "\n" + indent : line + " ", 0);
+        }
+
+        private Edit insertAfter(JavaParser.StatementContext statement, String line) {
+            int end = statement.stop.getStopIndex() + 1;
+            String indent = indentation(statement.start.getStartIndex());
+            return new Edit(end, end, indent != null ? "\n" + indent + line : " " + line, 0);
+        }
+
+        // The whitespace before offset on its line, null if there is code before it
+        private String indentation(int offset) {
+            int lineStart = code.lastIndexOf('\n', offset - 1) + 1;
+            String before = code.substring(lineStart, offset);
+            return before.isBlank() ? before : null;
+        }
+
+        // base, or base2, base3... whichever isn't used yet
+        private String fresh(String base) {
+            String name = base;
+            for (int i = 2; names.contains(name); i++) {
+                name = base + i;
+            }
+            names.add(name);
+            return name;
+        }
+
+        private String text(ParserRuleContext node) {
+            return code.substring(node.start.getStartIndex(), node.stop.getStopIndex() + 1);
+        }
+    }
+
+    // ---- Tree helpers ----
+
+    private static <T extends ParseTree> List<T> descendants(ParseTree node, Class<T> type) {
+        List<T> found = new ArrayList<>();
+        collect(node, type, found);
+        return found;
+    }
+
+    private static <T extends ParseTree> void collect(ParseTree node, Class<T> type, List<T> found) {
+        if (type.isInstance(node)) {
+            found.add(type.cast(node));
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            collect(node.getChild(i), type, found);
+        }
+    }
+
+    // Tokens separated by spaces, the same for the same expression however it is spaced
+    private static String key(ParserRuleContext node) {
+        StringBuilder key = new StringBuilder();
+        for (TerminalNode terminal : descendants(node, TerminalNode.class)) {
+            Token token = terminal.getSymbol();
+            key.append(token.getText()).append(' ');
+        }
+        return key.toString();
+    }
+
+    private static boolean hasOperator(JavaParser.ExprContext expr) {
+        return !(unwrap(expr) instanceof JavaParser.PrimaryExpressionContext);
+    }
+
+    private static boolean hasVariable(JavaParser.ExprContext expr) {
+        return !descendants(expr, JavaParser.VariableReferenceContext.class).isEmpty();
+    }
+
+    // A literal or a variable, fine anywhere without parentheses
+    private static boolean atom(JavaParser.ExprContext expr) {
+        return expr instanceof JavaParser.PrimaryExpressionContext e
+               && !(e.primary() instanceof JavaParser.ParenthesizedExpressionContext);
+    }
+
+    private static void collectVariables(ParseTree tree, Set<String> variables) {
+        for (JavaParser.VariableReferenceContext reference : descendants(tree, JavaParser.VariableReferenceContext.class)) {
+            variables.add(reference.ID().getText());
+        }
+    }
+
+    private static JavaParser.ExprContext unwrap(JavaParser.ExprContext expr) {
+        while (expr instanceof JavaParser.PrimaryExpressionContext e
+                && e.primary() instanceof JavaParser.ParenthesizedExpressionContext parenthesized) {
+            expr = parenthesized.expr();
+        }
+        return expr;
+    }
+
+    // The variable an expression is just a reference to, null if it's anything else
+    private static String variable(JavaParser.ExprContext expr) {
+        expr = unwrap(expr);
+        if (expr instanceof JavaParser.PrimaryExpressionContext e && e.primary() instanceof JavaParser.VariableReferenceContext v) {
+            return v.ID().getText();
+        }
+        return null;
+    }
+
+    // A literal of any type, or a negated one
+    private static boolean isLiteral(JavaParser.ExprContext expr) {
+        expr = unwrap(expr);
+        if (expr instanceof JavaParser.UnaryOperationContext e && e.op.getText().equals("-")) {
+            expr = unwrap(e.expr());
+        }
+        return expr instanceof JavaParser.PrimaryExpressionContext e && e.primary() instanceof JavaParser.LiteralExpressionContext;
+    }
+
+    // The value of an int literal, negative ones included, null if it's anything else
+    private static Integer intLiteral(JavaParser.ExprContext expr) {
+        expr = unwrap(expr);
+        boolean negative = false;
+        if (expr instanceof JavaParser.UnaryOperationContext e && e.op.getText().equals("-")) {
+            negative = true;
+            expr = unwrap(e.expr());
+        }
+        if (expr instanceof JavaParser.PrimaryExpressionContext e && e.primary() instanceof JavaParser.LiteralExpressionContext l
+                && l.literal() instanceof JavaParser.IntegerLiteralContext i) {
+            try {
+                int value = Integer.parseInt(i.INT().getText());
+                return negative ? -value : value;
+            } catch (NumberFormatException tooLarge) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static String capitalize(String name) {
+        return name.isEmpty() ? name : Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Main class of the worker JVMs started by WorkerPool. Reads one WorkerPool.Job per line of
+ * stdin as JSON, compiles it, sweeps, probes or benchmarks it and answers with one
+ * WorkerPool.Result per line of stdout. Whatever the snippet prints goes to stderr, so it can't get in between.
+ *
+ * Before it reports ready it puts a few snippets through compile, instrumentation and the
+ * sweep, so the first real job doesn't pay for class loading and the JIT.
+ */
+public final class MeasurementWorker {
+
+    static final String READY = "READY";
+
+    // A worker sees a share of the snippets only, and is recycled anyway
+    private static final int CLASS_CACHE_ENTRIES = 32;
+
+    private static final String WARMUP_CODE =
+            "int s = 0; for (int i = 0; i < n; i++) { for (int j = 1; j < n; j *= 2) { s += i ^ j; } } consume(s);";
+
+    private MeasurementWorker() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        PrintStream answers = new PrintStream(new FileOutputStream(FileDescriptor.out), true, StandardCharsets.UTF_8);
+        System.setOut(System.err);
+
+        int threads = Integer.getInteger("codeanalysis.sandbox.threads", 1);
+        SandboxExecutor sandboxExecutor = new SandboxExecutor(threads,
+                Integer.getInteger("codeanalysis.sandbox.queue-capacity", 64),
+                Long.getLong("codeanalysis.sandbox.deadline-millis", 2000),
+                Long.getLong("codeanalysis.sandbox.max-operations", 100_000_000),
+                Long.getLong("codeanalysis.sandbox.max-allocated-bytes", 256L << 20),
+                Long.getLong("codeanalysis.sandbox.max-queue-millis", 10_000));
+        CompiledClassCache compiledClassCache = new CompiledClassCache(CLASS_CACHE_ENTRIES);
+        BenchmarkService benchmarkService = new BenchmarkService(compiledClassCache, sandboxExecutor,
+                Long.getLong("codeanalysis.benchmark.warmup-millis", 200),
+                Integer.getInteger("codeanalysis.benchmark.iterations", 20),
+                Long.getLong("codeanalysis.benchmark.sample-millis", 2));
+        ObjectMapper mapper = new ObjectMapper();
+
+        // A different source every round, or the class cache would skip the compile
+        ComplexitySweep.Settings warmup = new ComplexitySweep.Settings(1, 4, 4096, 1.5, 1_000_000, 500, 1 << 20);
+        int rounds = Integer.getInteger("codeanalysis.workers.warmup-rounds", 3);
+        for (int round = 0; round < rounds; round++) {
+            String source = TimeComplexityService.generateFullCode(TimeComplexityService.CLASS_NAME,
+                                                                   WARMUP_CODE + " // warmup " + round);
+            run(new WorkerPool.Job(WorkerPool.Kind.SWEEP, source, TimeComplexityService.CLASS_NAME, warmup, null),
+                compiledClassCache, sandboxExecutor, benchmarkService);
+        }
+        compiledClassCache.clear();
+        answers.println(READY);
+
+        BufferedReader jobs = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = jobs.readLine()) != null) {
+            WorkerPool.Job job = mapper.readValue(line, WorkerPool.Job.class);
+            answers.println(mapper.writeValueAsString(run(job, compiledClassCache, sandboxExecutor, benchmarkService)));
+        }
+        // stdin closed, the server is gone
+        System.exit(0);
+    }
+
+    private static WorkerPool.Result run(WorkerPool.Job job, CompiledClassCache compiledClassCache,
+                                         SandboxExecutor sandboxExecutor, BenchmarkService benchmarkService) {
+        ComplexitySweep.Measurement measurement = null;
+        List<TimeComplexityService.Probe> probes = null;
+        List<BenchmarkService.SizeResult> benchmark = null;
+        String error = null;
+        try {
+            switch (job.kind()) {
+                case SWEEP -> {
+                    Class<?> compiledClass = compiledClassCache.load(job.source(), job.className());
+                    measurement = new ComplexitySweep(sandboxExecutor, job.settings()).measure(compiledClass);
+                }
+                case PROBE -> probes = TimeComplexityService.probe(sandboxExecutor,
+                        compiledClassCache.load(job.source(), job.className()), job.sizes());
+                case BENCHMARK -> benchmark = benchmarkService.benchmark(job.source(), job.className(), job.sizes());
+            }
+        } catch (Exception e) {
+            error = String.valueOf(e.getMessage());
+        }
+        return new WorkerPool.Result(measurement, probes, benchmark, error, retainedHeapBytes(),
+                                     sandboxExecutor.getStuckWorkers());
+    }
+
+    // Heap still in use after the last collection, what the worker keeps from job to job
+    private static long retainedHeapBytes() {
+        long retained = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (pool.getType() == MemoryType.HEAP && usage != null) {
+                retained += usage.getUsed();
+            }
+        }
+        return retained;
+    }
+}
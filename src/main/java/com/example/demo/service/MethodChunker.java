@@ -0,0 +1,108 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.springframework.stereotype.Service;
+
+import com.example.demo.grammar.antlr.JavaParser;
+import com.example.demo.grammar.diagnostics.Diagnostics;
+
+/**
+ * Splits a source file into its methods along the parse tree, so that GeminiOptimizer can
+ * have each one optimized and cached on its own, and puts the optimized methods back in
+ * their places. Everything between the methods (class headers, fields, comments) is left
+ * as it is.
+ */
+@Service
+public class MethodChunker {
+
+    // start and end are character offsets into the code, text is the method's source from its
+    // first modifier to its closing brace
+    public record Chunk(int start, int end, String name, List<String> parameterTypes, String text) {}
+
+    private final CodeParser codeParser;
+
+    public MethodChunker(CodeParser codeParser) {
+        this.codeParser = codeParser;
+    }
+
+    /**
+     * The methods of code in source order. Null unless it parses cleanly and holds nothing
+     * but classes and methods: statements outside a method would be sent nowhere.
+     */
+    public List<Chunk> split(String code) {
+        JavaParser.CompilationUnitContext tree = parse(code);
+        if (tree == null || !tree.statement().isEmpty()) {
+            return null;
+        }
+        List<Chunk> chunks = new ArrayList<>();
+        for (JavaParser.FunctionDeclContext function : functions(tree)) {
+            int start = function.start.getStartIndex();
+            int end = function.stop.getStopIndex() + 1;
+            chunks.add(new Chunk(start, end, function.ID().getText(), parameterTypes(function), code.substring(start, end)));
+        }
+        return chunks;
+    }
+
+    /**
+     * The method in answer, if it is the only one there and has chunk's name and parameter
+     * types. A class around it is dropped. Null for anything else, the chunk is kept then.
+     */
+    public String method(String answer, Chunk chunk) {
+        JavaParser.CompilationUnitContext tree = parse(answer);
+        if (tree == null || !tree.statement().isEmpty()) {
+            return null;
+        }
+        List<JavaParser.FunctionDeclContext> functions = functions(tree);
+        if (functions.size() != 1) {
+            return null;
+        }
+        JavaParser.FunctionDeclContext function = functions.get(0);
+        if (!function.ID().getText().equals(chunk.name()) || !parameterTypes(function).equals(chunk.parameterTypes())) {
+            return null;
+        }
+        return answer.substring(function.start.getStartIndex(), function.stop.getStopIndex() + 1);
+    }
+
+    // code with every chunk replaced by the method at the same index
+    public static String stitch(String code, List<Chunk> chunks, List<String> methods) {
+        StringBuilder stitched = new StringBuilder(code);
+        // From the end, so the offsets of the earlier chunks stay valid
+        for (int i = chunks.size() - 1; i >= 0; i--) {
+            stitched.replace(chunks.get(i).start(), chunks.get(i).end(), methods.get(i));
+        }
+        return stitched.toString();
+    }
+
+    private JavaParser.CompilationUnitContext parse(String code) {
+        Diagnostics syntaxErrors = new Diagnostics();
+        try {
+            JavaParser.CompilationUnitContext tree = codeParser.parseTree(code, syntaxErrors);
+            return syntaxErrors.isEmpty() ? tree : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static List<JavaParser.FunctionDeclContext> functions(ParseTree node) {
+        List<JavaParser.FunctionDeclContext> functions = new ArrayList<>();
+        collect(node, functions);
+        return functions;
+    }
+
+    private static void collect(ParseTree node, List<JavaParser.FunctionDeclContext> functions) {
+        if (node instanceof JavaParser.FunctionDeclContext function) {
+            functions.add(function);
+            return;
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            collect(node.getChild(i), functions);
+        }
+    }
+
+    private static List<String> parameterTypes(JavaParser.FunctionDeclContext function) {
+        return function.parameter().stream().map(JavaParser.ParameterContext::type).map(ParserRuleContext::getText).toList();
+    }
+}
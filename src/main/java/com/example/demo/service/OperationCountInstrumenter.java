@@ -0,0 +1,208 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.springframework.asm.ClassReader;
+import org.springframework.asm.ClassVisitor;
+import org.springframework.asm.ClassWriter;
+import org.springframework.asm.Label;
+import org.springframework.asm.MethodVisitor;
+import org.springframework.asm.Opcodes;
+import org.springframework.asm.Type;
+
+/**
+ * Adds operation counting to compiled snippet classes, so snippets don't have to count
+ * by hand.
+ *
+ * Every method with a body looks up OperationCounter.current() once and ticks it on entry,
+ * so every call, recursive ones included, counts once. Backward jumps (one per loop
+ * iteration) are counted in a local int that is added to the counter every 1024
+ * iterations and when the method returns or throws. Works on the bytecode Janino
+ * produces, with the ASM copy that ships in spring-core.
+ */
+public final class OperationCountInstrumenter {
+
+    private static final String COUNTER = Type.getInternalName(OperationCounter.class);
+    private static final String COUNTER_DESC = Type.getDescriptor(OperationCounter.class);
+    private static final int FLUSH_INTERVAL = 1024;
+
+    private OperationCountInstrumenter() {
+    }
+
+    /**
+     * Instruments every class of one compilation, keyed by binary class name. Classes of the
+     * same compilation may refer to each other, so they're done together.
+     */
+    public static Map<String, byte[]> instrument(Map<String, byte[]> classes, ClassLoader parent) {
+        Map<String, String> superNames = new HashMap<>();
+        for (byte[] bytecode : classes.values()) {
+            ClassReader reader = new ClassReader(bytecode);
+            superNames.put(reader.getClassName(), reader.getSuperName());
+        }
+
+        Map<String, byte[]> instrumented = new LinkedHashMap<>();
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            instrumented.put(entry.getKey(), instrument(entry.getValue(), superNames, parent));
+        }
+        return instrumented;
+    }
+
+    private static byte[] instrument(byte[] bytecode, Map<String, String> superNames, ClassLoader parent) {
+        ClassReader reader = new ClassReader(bytecode);
+        Map<String, Integer> maxLocals = maxLocals(reader);
+
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                List<String> ancestors = ancestors(type1, superNames, parent);
+                for (String type = type2; type != null; type = superName(type, superNames, parent)) {
+                    if (ancestors.contains(type)) {
+                        return type;
+                    }
+                }
+                return "java/lang/Object";
+            }
+        };
+        reader.accept(new ClassVisitor(Opcodes.ASM9, writer) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                                             String[] exceptions) {
+                MethodVisitor visitor = super.visitMethod(access, name, descriptor, signature, exceptions);
+                Integer slot = maxLocals.get(name + descriptor);
+                return slot == null ? visitor : new CountingMethodVisitor(visitor, name, slot);
+            }
+        }, ClassReader.SKIP_FRAMES);
+        return writer.toByteArray();
+    }
+
+    // Locals each method already uses, the counter and pending iterations go after them
+    private static Map<String, Integer> maxLocals(ClassReader reader) {
+        Map<String, Integer> maxLocals = new HashMap<>();
+        reader.accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                                             String[] exceptions) {
+                String key = name + descriptor;
+                return new MethodVisitor(Opcodes.ASM9) {
+                    @Override
+                    public void visitMaxs(int maxStack, int locals) {
+                        maxLocals.put(key, locals);
+                    }
+                };
+            }
+        }, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return maxLocals;
+    }
+
+    private static class CountingMethodVisitor extends MethodVisitor {
+        private final boolean constructor;
+        private final int counterSlot;
+        private final int pendingSlot;
+        private final Set<Label> visited = new HashSet<>();
+        private final Label start = new Label();
+
+        CountingMethodVisitor(MethodVisitor visitor, String name, int firstFreeSlot) {
+            super(Opcodes.ASM9, visitor);
+            this.constructor = name.equals("<init>");
+            this.counterSlot = firstFreeSlot;
+            this.pendingSlot = firstFreeSlot + 1;
+        }
+
+        @Override
+        public void visitCode() {
+            super.visitCode();
+            super.visitMethodInsn(Opcodes.INVOKESTATIC, COUNTER, "current", "()" + COUNTER_DESC, false);
+            super.visitVarInsn(Opcodes.ASTORE, counterSlot);
+            super.visitInsn(Opcodes.ICONST_0);
+            super.visitVarInsn(Opcodes.ISTORE, pendingSlot);
+            super.visitVarInsn(Opcodes.ALOAD, counterSlot);
+            super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, COUNTER, "tick", "()V", false);
+            super.visitLabel(start);
+        }
+
+        @Override
+        public void visitLabel(Label label) {
+            super.visitLabel(label);
+            visited.add(label);
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+            // A jump to a label already passed closes a loop
+            if (visited.contains(label)) {
+                countIteration();
+            }
+            super.visitJumpInsn(opcode, label);
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            if (opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN) {
+                flush();
+            }
+            super.visitInsn(opcode);
+        }
+
+        @Override
+        public void visitMaxs(int maxStack, int maxLocals) {
+            // Count what's pending when an exception leaves the method too. Not in constructors,
+            // a handler can't cover the super() call
+            if (!constructor) {
+                Label end = new Label();
+                Label handler = new Label();
+                super.visitLabel(end);
+                super.visitLabel(handler);
+                flush();
+                super.visitInsn(Opcodes.ATHROW);
+                super.visitTryCatchBlock(start, end, handler, null);
+            }
+            super.visitMaxs(maxStack, maxLocals);
+        }
+
+        // Iterations are counted in a local and handed to the counter every FLUSH_INTERVAL,
+        // so loops don't write to the heap every time round
+        private void countIteration() {
+            Label skip = new Label();
+            super.visitIincInsn(pendingSlot, 1);
+            super.visitVarInsn(Opcodes.ILOAD, pendingSlot);
+            super.visitIntInsn(Opcodes.SIPUSH, FLUSH_INTERVAL);
+            super.visitJumpInsn(Opcodes.IF_ICMPLT, skip);
+            flush();
+            super.visitInsn(Opcodes.ICONST_0);
+            super.visitVarInsn(Opcodes.ISTORE, pendingSlot);
+            super.visitLabel(skip);
+        }
+
+        private void flush() {
+            super.visitVarInsn(Opcodes.ALOAD, counterSlot);
+            super.visitVarInsn(Opcodes.ILOAD, pendingSlot);
+            super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, COUNTER, "add", "(I)V", false);
+        }
+    }
+
+    private static List<String> ancestors(String type, Map<String, String> superNames, ClassLoader parent) {
+        List<String> ancestors = new ArrayList<>();
+        for (String current = type; current != null; current = superName(current, superNames, parent)) {
+            ancestors.add(current);
+        }
+        return ancestors;
+    }
+
+    // Superclass of a class from this compilation or one the parent loader can see, null past Object
+    private static String superName(String type, Map<String, String> superNames, ClassLoader parent) {
+        if (superNames.containsKey(type)) {
+            return superNames.get(type);
+        }
+        try {
+            Class<?> superclass = Class.forName(type.replace('/', '.'), false, parent).getSuperclass();
+            return superclass == null ? null : Type.getInternalName(superclass);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.demo.service;
+
+/**
+ * Operation count of one sandbox run.
+ *
+ * Instrumented code looks the counter up once per method invocation, calls tick() on entry
+ * and add() with the loop iterations it counted locally. Only the running thread writes
+ * the count; the watchdog reads it and may see a slightly stale value, which is fine for
+ * a ceiling. Every add() and every CHECK_INTERVAL ticks the run also looks for an abort.
+ *
+ * Code generated for verification (TimeComplexityService.generateVerificationCode) passes
+ * what it consumes to record() instead of the Blackhole, the counter keeps a digest of it so
+ * two versions of a snippet can be compared by what they produce.
+ */
+public final class OperationCounter {
+
+    private static final int CHECK_INTERVAL = 1024;
+
+    private static final ThreadLocal<OperationCounter> CURRENT = new ThreadLocal<>();
+
+    // Code run outside the sandbox counts into this one, nobody reads it
+    private static final OperationCounter DETACHED = new OperationCounter();
+
+    private long count;
+    private volatile SandboxExecutor.Status abortReason;
+    private long outputs;
+    private long outputDigest;
+
+    public static OperationCounter current() {
+        OperationCounter counter = CURRENT.get();
+        return counter == null ? DETACHED : counter;
+    }
+
+    public void tick() {
+        if ((++count & (CHECK_INTERVAL - 1)) == 0) {
+            checkpoint();
+        }
+    }
+
+    public void add(int operations) {
+        count += operations;
+        checkpoint();
+    }
+
+    public void checkpoint() {
+        SandboxExecutor.Status reason = abortReason;
+        if (reason != null) {
+            throw new SandboxExecutor.ExecutionAbortedError(reason);
+        }
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public static void record(long value) {
+        current().output(Long.hashCode(value));
+    }
+
+    // By value where the snippet could have produced it, arrays by their elements
+    public static void record(Object value) {
+        String text;
+        if (value == null || value instanceof CharSequence || value instanceof Number || value instanceof Boolean
+                || value instanceof Character) {
+            text = String.valueOf(value);
+        } else if (value.getClass().isArray()) {
+            text = java.util.Arrays.deepToString(new Object[] {value});
+        } else {
+            // Object.toString() has the identity hash in it, which differs from run to run
+            text = value.getClass().getName();
+        }
+        current().output(text.hashCode());
+    }
+
+    private void output(int hash) {
+        outputs++;
+        outputDigest = (outputDigest ^ hash) * 0x100000001B3L;
+    }
+
+    // Values recorded so far and a digest of them, in order
+    public long outputs() {
+        return outputs;
+    }
+
+    public long outputDigest() {
+        return outputDigest;
+    }
+
+    SandboxExecutor.Status abortReason() {
+        return abortReason;
+    }
+
+    void abort(SandboxExecutor.Status reason) {
+        abortReason = reason;
+    }
+
+    void attach() {
+        CURRENT.set(this);
+    }
+
+    void detach() {
+        CURRENT.remove();
+    }
+}
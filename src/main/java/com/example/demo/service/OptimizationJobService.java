@@ -0,0 +1,180 @@
+package com.example.demo.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Submit/poll jobs for /code/optimize: submit() starts the optimization and returns a job id
+ * right away, the result is fetched with get(). Nothing blocks while a job waits for Gemini,
+ * so the number in flight is bounded by max-in-flight rather than by server threads.
+ * Finished jobs are kept for ttl-minutes, then dropped.
+ */
+@Service
+public class OptimizationJobService {
+
+    private static final long SWEEP_INTERVAL_MILLIS = 1000;
+
+    public enum Status { RUNNING, COMPLETED, FAILED, CANCELLED }
+
+    public static class Job {
+        private final String id;
+        private final long createdAt = System.currentTimeMillis();
+        private volatile Status status = Status.RUNNING;
+        private volatile long completedAt;
+        private volatile CodeOptimizationService.Optimization result;
+        private volatile String error;
+        private volatile CompletableFuture<CodeOptimizationService.Optimization> optimization;
+
+        Job(String id) {
+            this.id = id;
+        }
+
+        public String getId() { return id; }
+        public Status getStatus() { return status; }
+        public long getCreatedAt() { return createdAt; }
+        public long getCompletedAt() { return completedAt; }
+        // Null until the job completed
+        public CodeOptimizationService.Optimization getResult() { return result; }
+        // Null unless the job failed
+        public String getError() { return error; }
+    }
+
+    private final CodeOptimizationService codeOptimizationService;
+    private final int maxInFlight;
+    private final long ttlMillis;
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public OptimizationJobService(CodeOptimizationService codeOptimizationService,
+                                  @Value("${codeoptimize.jobs.max-in-flight:500}") int maxInFlight,
+                                  @Value("${codeoptimize.jobs.ttl-minutes:30}") long ttlMinutes) {
+        this.codeOptimizationService = codeOptimizationService;
+        this.maxInFlight = maxInFlight;
+        this.ttlMillis = ttlMinutes * 60_000;
+    }
+
+    /**
+     * Starts optimizing code with the named optimizers (null for the configured chain), null
+     * when max-in-flight jobs are already running.
+     */
+    public Job submit(String code, String userEmail, boolean bypassCache, List<String> optimizers) {
+        removeExpired();
+        if (!admit()) {
+            return null;
+        }
+
+        Job job = new Job(UUID.randomUUID().toString());
+        jobs.put(job.id, job);
+        job.optimization = codeOptimizationService.optimizeCode(code, userEmail, bypassCache, optimizers, null);
+        track(job, job.optimization);
+        return job;
+    }
+
+    /**
+     * Cancels a running job. Identical jobs share their Gemini call, it is only aborted once
+     * all of them are cancelled. Null for unknown and expired ids.
+     */
+    public Job cancel(String id) {
+        Job job = get(id);
+        if (job != null && job.optimization != null) {
+            job.optimization.cancel(true);
+        }
+        return job;
+    }
+
+    /**
+     * Like submit(), but for callers that wait for the result themselves. Not listed under an
+     * id, still counts against max-in-flight. onChunk, unless null, gets the optimized code as
+     * it is produced.
+     */
+    public CompletableFuture<CodeOptimizationService.Optimization> run(String code, String userEmail, boolean bypassCache,
+                                                                       List<String> optimizers, Consumer<String> onChunk) {
+        if (!admit()) {
+            return null;
+        }
+        return track(new Job(null), codeOptimizationService.optimizeCode(code, userEmail, bypassCache, optimizers, onChunk));
+    }
+
+    private boolean admit() {
+        if (inFlight.incrementAndGet() > maxInFlight) {
+            inFlight.decrementAndGet();
+            rejected.incrementAndGet();
+            return false;
+        }
+        submitted.incrementAndGet();
+        return true;
+    }
+
+    private CompletableFuture<CodeOptimizationService.Optimization> track(
+            Job job, CompletableFuture<CodeOptimizationService.Optimization> future) {
+        future.whenComplete((result, e) -> {
+            // Before the status, removeExpired() only looks at completedAt of finished jobs
+            job.completedAt = System.currentTimeMillis();
+            if (e == null) {
+                job.result = result;
+                job.status = Status.COMPLETED;
+                completed.incrementAndGet();
+            } else if (e instanceof CancellationException) {
+                job.status = Status.CANCELLED;
+                cancelled.incrementAndGet();
+            } else {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                job.error = String.valueOf(cause.getMessage());
+                job.status = Status.FAILED;
+                failed.incrementAndGet();
+            }
+            inFlight.decrementAndGet();
+        });
+        // Not the whenComplete stage: cancelling that one would skip the bookkeeping above
+        return future;
+    }
+
+    // Null for unknown and expired ids
+    public Job get(String id) {
+        removeExpired();
+        return jobs.get(id);
+    }
+
+    // At most once a second, whoever gets there first
+    private void removeExpired() {
+        long now = System.currentTimeMillis();
+        long last = lastSweep.get();
+        if (now - last < SWEEP_INTERVAL_MILLIS || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        long cutoff = now - ttlMillis;
+        jobs.values().removeIf(job -> job.status != Status.RUNNING && job.completedAt < cutoff);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("inFlight", inFlight.get());
+        stats.put("maxInFlight", maxInFlight);
+        stats.put("retained", jobs.size());
+        stats.put("submitted", submitted.get());
+        stats.put("completed", completed.get());
+        stats.put("failed", failed.get());
+        stats.put("cancelled", cancelled.get());
+        stats.put("rejected", rejected.get());
+        return stats;
+    }
+}
@@ -0,0 +1,376 @@
+package com.example.demo.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.example.demo.grammar.antlr.JavaParser;
+import com.example.demo.grammar.diagnostics.Diagnostics;
+
+/**
+ * Checks optimized code against the code it came from before it is stored: whether it still
+ * does the same, whether it is faster, and how its complexity changed.
+ *
+ * Both versions are compiled and run for the same sizes by TimeComplexityService, in a
+ * worker JVM unless the workers are disabled, like the analysis. A run's output is its
+ * return value or exception, everything it passed to consume(), and the final values of the
+ * top-level variables both versions declare. The outputs have to match at every size that
+ * both finish within the sandbox limits. Both versions are run and analyzed at the same
+ * time, then benchmarked one after the other at the largest size they were compared at.
+ *
+ * Code that does something else, hits a sandbox limit at a size the original finishes, is more
+ * than regression-tolerance slower, or has a worse complexity is a regression. With
+ * reject-regressions it is rejected, otherwise only flagged.
+ */
+@Service
+public class OptimizationVerifier {
+
+    public enum Verdict { EQUIVALENT, DIFFERENT, UNVERIFIED }
+
+    // One version: its probes, or why there are none, and its analysis if there is one
+    private record Side(List<TimeComplexityService.Probe> probes, String error, TimeComplexityService.Analysis analysis, String analysisError) {}
+
+    /**
+     * speedup is the original's median time over the optimized one's at timedN, operationRatio
+     * the same for operation counts; both are null when the versions weren't timed. complexityChange
+     * is "improved", "same", "worse" or "unknown". original and optimized are the complexity
+     * analyses, null where the analysis failed. notes say what was found, regressions first.
+     */
+    public record Verification(Verdict verdict, boolean regression, boolean rejected, int comparedSizes,
+                               List<String> comparedVariables, Integer timedN, Double speedup, Double operationRatio,
+                               String complexityChange, TimeComplexityService.Analysis original,
+                               TimeComplexityService.Analysis optimized, List<String> notes) {}
+
+    // Timings closer than this are noise whatever their ratio
+    private static final double MIN_TIMING_DIFFERENCE_NANOS = 50;
+
+    private static final Pattern COMPLEXITY = Pattern.compile("O\\((?:(n)(?:\\^(\\d+))?)?\\s*(?:(log)(?:\\^(\\d+))? n)?\\)");
+
+    private final TimeComplexityService timeComplexityService;
+    private final CodeParser codeParser;
+    private final boolean enabled;
+    private final int[] sizes;
+    private final double regressionTolerance;
+    private final boolean rejectRegressions;
+
+    private final AtomicLong verified = new AtomicLong();
+    private final AtomicLong equivalent = new AtomicLong();
+    private final AtomicLong different = new AtomicLong();
+    private final AtomicLong unverified = new AtomicLong();
+    private final AtomicLong regressions = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public OptimizationVerifier(TimeComplexityService timeComplexityService, CodeParser codeParser,
+                                @Value("${codeoptimize.verify.enabled:true}") boolean enabled,
+                                @Value("${codeoptimize.verify.sizes:0,1,2,3,10,100,1000}") int[] sizes,
+                                @Value("${codeoptimize.verify.regression-tolerance:0.1}") double regressionTolerance,
+                                @Value("${codeoptimize.verify.reject-regressions:true}") boolean rejectRegressions) {
+        this.timeComplexityService = timeComplexityService;
+        this.codeParser = codeParser;
+        this.enabled = enabled;
+        this.sizes = Arrays.stream(sizes).filter(n -> n >= 0).distinct().sorted().toArray();
+        this.regressionTolerance = regressionTolerance;
+        this.rejectRegressions = rejectRegressions;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Compares optimized with original. Blocks for as long as the slower side takes to run,
+     * benchmark and analyze, a few seconds at most with the default limits.
+     */
+    public Verification verify(String original, String optimized) throws InterruptedException {
+        List<String> variables = commonVariables(original, optimized);
+        String originalProbe = withCaptures(original, variables);
+        String optimizedProbe = withCaptures(optimized, variables);
+
+        CompletableFuture<List<TimeComplexityService.Probe>> originalProbes =
+                Futures.supplyInterruptibly(() -> timeComplexityService.probe(originalProbe, sizes));
+        CompletableFuture<List<TimeComplexityService.Probe>> optimizedProbes =
+                Futures.supplyInterruptibly(() -> timeComplexityService.probe(optimizedProbe, sizes));
+        CompletableFuture<TimeComplexityService.Analysis> originalAnalysis =
+                Futures.supplyInterruptibly(() -> timeComplexityService.analyzeComplexity(original));
+        CompletableFuture<TimeComplexityService.Analysis> optimizedAnalysis =
+                Futures.supplyInterruptibly(() -> timeComplexityService.analyzeComplexity(optimized));
+        List<CompletableFuture<?>> running = List.of(originalProbes, optimizedProbes, originalAnalysis, optimizedAnalysis);
+        Side before;
+        Side after;
+        try {
+            before = side(originalProbes, originalAnalysis);
+            after = side(optimizedProbes, optimizedAnalysis);
+        } catch (InterruptedException e) {
+            running.forEach(future -> future.cancel(true));
+            throw e;
+        }
+
+        List<String> notes = new ArrayList<>();
+        List<String> problems = new ArrayList<>();
+        Verdict verdict;
+        int compared = 0;
+        Integer timedN = null;
+        if (before.error() != null) {
+            // Nothing to hold the optimized code to
+            verdict = Verdict.UNVERIFIED;
+            notes.add("The original code couldn't be run: " + before.error());
+        } else if (after.error() != null) {
+            verdict = Verdict.DIFFERENT;
+            problems.add("The optimized code couldn't be run: " + after.error());
+        } else {
+            String mismatch = null;
+            for (int i = 0; i < Math.min(before.probes().size(), after.probes().size()) && mismatch == null; i++) {
+                TimeComplexityService.Probe a = before.probes().get(i);
+                TimeComplexityService.Probe b = after.probes().get(i);
+                if (a.output() == null) {
+                    break;
+                }
+                if (b.output() == null) {
+                    // The original got through this size, so the optimized code hitting a limit is a regression
+                    problems.add("The optimized code hit " + b.status() + " at n=" + b.n() + ", where the original finished");
+                    break;
+                }
+                if (!a.output().equals(b.output())) {
+                    mismatch = "At n=" + a.n() + " the original " + a.output() + ", the optimized code " + b.output();
+                } else {
+                    compared++;
+                    if (a.status() == SandboxExecutor.Status.COMPLETED) {
+                        timedN = a.n();
+                    }
+                }
+            }
+            if (mismatch != null) {
+                verdict = Verdict.DIFFERENT;
+                problems.add(mismatch);
+                timedN = null;
+            } else if (compared == 0) {
+                verdict = Verdict.UNVERIFIED;
+                if (problems.isEmpty()) {
+                    notes.add("Neither version finished within the sandbox limits for n=" + sizes[0]);
+                }
+            } else {
+                verdict = Verdict.EQUIVALENT;
+                notes.add("Same output for n=" + sizes[0] + ".." + sizes[compared - 1]
+                          + (variables.isEmpty() ? "" : ", compared " + String.join(", ", variables)));
+            }
+        }
+
+        // Timed one after the other, so that neither slows the other one down
+        Double speedup = null;
+        Double operationRatio = null;
+        if (timedN != null) {
+            BenchmarkService.SizeResult a = benchmark(originalProbe, timedN, notes);
+            BenchmarkService.SizeResult b = a == null ? null : benchmark(optimizedProbe, timedN, notes);
+            if (a != null && b != null) {
+                speedup = round(a.timing().p50Nanos() / Math.max(1e-3, b.timing().p50Nanos()));
+                operationRatio = Math.round(a.operations() * 1000.0 / Math.max(1, b.operations())) / 1000.0;
+                String timing = String.format("At n=%d: %.0f ns before, %.0f ns after (%sx), %d operations before, %d after",
+                                              timedN, a.timing().p50Nanos(), b.timing().p50Nanos(), speedup,
+                                              a.operations(), b.operations());
+                if (speedup < 1 / (1 + regressionTolerance)
+                        && b.timing().p50Nanos() - a.timing().p50Nanos() > MIN_TIMING_DIFFERENCE_NANOS) {
+                    problems.add("Slower than the original. " + timing);
+                } else {
+                    notes.add(timing);
+                }
+            }
+        }
+
+        String complexityChange = "unknown";
+        if (before.analysis() != null && after.analysis() != null) {
+            int change = Double.compare(growth(after.analysis().complexity()), growth(before.analysis().complexity()));
+            boolean known = growth(before.analysis().complexity()) >= 0 && growth(after.analysis().complexity()) >= 0;
+            String transition = before.analysis().complexity() + " to " + after.analysis().complexity();
+            if (!known) {
+                notes.add("Complexity " + transition);
+            } else if (change > 0) {
+                complexityChange = "worse";
+                problems.add("Complexity got worse, " + transition);
+            } else {
+                complexityChange = change < 0 ? "improved" : "same";
+                notes.add("Complexity " + (change < 0 ? "improved, " + transition : "stayed " + after.analysis().complexity()));
+            }
+        }
+        for (Side side : List.of(before, after)) {
+            if (side.analysisError() != null) {
+                notes.add("Complexity analysis failed: " + side.analysisError());
+            }
+        }
+
+        boolean regression = !problems.isEmpty();
+        boolean reject = regression && rejectRegressions;
+        problems.addAll(notes);
+        count(verdict, regression, reject);
+        return new Verification(verdict, regression, reject, compared, variables, timedN, speedup, operationRatio,
+                                complexityChange, before.analysis(), after.analysis(), problems);
+    }
+
+    // One version's probes and analysis, with what went wrong in place of either
+    private static Side side(CompletableFuture<List<TimeComplexityService.Probe>> probes,
+                             CompletableFuture<TimeComplexityService.Analysis> analysis) throws InterruptedException {
+        List<TimeComplexityService.Probe> probed = null;
+        String error = null;
+        try {
+            probed = Futures.await(probes);
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            error = message(e);
+        }
+        TimeComplexityService.Analysis analyzed = null;
+        String analysisError = null;
+        try {
+            analyzed = Futures.await(analysis);
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            analysisError = message(e);
+        }
+        return new Side(probed, error, analyzed, analysisError);
+    }
+
+    // Null when it couldn't be benchmarked, notes says why
+    private BenchmarkService.SizeResult benchmark(String code, int n, List<String> notes) {
+        try {
+            BenchmarkService.SizeResult result = timeComplexityService.benchmark(code, new int[] {n}).get(0);
+            if (result.timing() == null) {
+                notes.add("Not timed, the benchmark at n=" + n + " ended with " + result.status());
+                return null;
+            }
+            return result;
+        } catch (Exception e) {
+            notes.add("Not timed: " + message(e));
+            return null;
+        }
+    }
+
+    /**
+     * Top-level variables that both versions declare with the same type and an initializer, so
+     * their final values can be compared. Empty for code outside the grammar, or code whose end
+     * might not be reachable: the captures appended to it wouldn't compile.
+     */
+    private List<String> commonVariables(String original, String optimized) {
+        Map<String, String> before = topLevelVariables(original);
+        Map<String, String> after = topLevelVariables(optimized);
+        if (before == null || after == null) {
+            return List.of();
+        }
+        return before.keySet().stream().filter(name -> before.get(name).equals(after.get(name))).toList();
+    }
+
+    private Map<String, String> topLevelVariables(String code) {
+        Diagnostics syntaxErrors = new Diagnostics();
+        JavaParser.CompilationUnitContext tree;
+        try {
+            tree = codeParser.parseTree(code, syntaxErrors);
+        } catch (RuntimeException e) {
+            return null;
+        }
+        if (!syntaxErrors.isEmpty() || !tree.classDecl().isEmpty() || !tree.functionDecl().isEmpty()) {
+            return null;
+        }
+        List<JavaParser.StatementContext> statements = tree.statement();
+        if (!statements.isEmpty() && !(statements.get(statements.size() - 1) instanceof JavaParser.VarDeclarationContext
+                                       || statements.get(statements.size() - 1) instanceof JavaParser.ExpressionStatementContext)) {
+            // A return, a loop that may never end or an if whose branches all return
+            if (!endsNormally(statements.get(statements.size() - 1))) {
+                return null;
+            }
+        }
+        Map<String, String> variables = new LinkedHashMap<>();
+        for (JavaParser.StatementContext statement : statements) {
+            if (statement instanceof JavaParser.VarDeclarationContext declaration && declaration.varDecl().expr() != null) {
+                variables.put(declaration.varDecl().ID().getText(), declaration.varDecl().type().getText());
+            }
+        }
+        return variables;
+    }
+
+    // Conservative: no return anywhere in it, no while (true) and no for without a condition
+    private static boolean endsNormally(JavaParser.StatementContext statement) {
+        String text = statement.getText();
+        return !text.contains("return") && !text.contains("while(true)") && !text.contains(";;)");
+    }
+
+    private static String withCaptures(String code, List<String> variables) {
+        StringBuilder probe = new StringBuilder(code);
+        for (String variable : variables) {
+            probe.append("\nconsume(").append(variable).append(");");
+        }
+        return probe.toString();
+    }
+
+    // Orders complexity labels (O(1) < O(log n) < O(n) < O(n log n) < O(n^2) ... < O(2^n)), -1 if unknown
+    static double growth(String complexity) {
+        if (complexity == null) {
+            return -1;
+        }
+        if (complexity.equals("O(1)")) {
+            return 0;
+        }
+        if (complexity.equals("O(2^n)")) {
+            return Double.MAX_VALUE;
+        }
+        Matcher matcher = COMPLEXITY.matcher(complexity.trim());
+        if (!matcher.matches()) {
+            return -1;
+        }
+        int power = matcher.group(1) == null ? 0 : matcher.group(2) == null ? 1 : Integer.parseInt(matcher.group(2));
+        int logPower = matcher.group(3) == null ? 0 : matcher.group(4) == null ? 1 : Integer.parseInt(matcher.group(4));
+        // A log factor is worth less than any power of n
+        return power + logPower / 100.0;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    private static String message(Throwable e) {
+        Throwable cause = e;
+        while ((cause instanceof java.util.concurrent.CompletionException
+                || cause instanceof java.util.concurrent.ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        // Compile errors come with the rest of javac's output
+        return String.valueOf(cause.getMessage()).lines().findFirst().orElse("");
+    }
+
+    private void count(Verdict verdict, boolean regression, boolean reject) {
+        verified.incrementAndGet();
+        switch (verdict) {
+            case EQUIVALENT -> equivalent.incrementAndGet();
+            case DIFFERENT -> different.incrementAndGet();
+            case UNVERIFIED -> unverified.incrementAndGet();
+        }
+        if (regression) {
+            regressions.incrementAndGet();
+        }
+        if (reject) {
+            rejected.incrementAndGet();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("verified", verified.get());
+        stats.put("equivalent", equivalent.get());
+        stats.put("different", different.get());
+        stats.put("unverified", unverified.get());
+        stats.put("regressions", regressions.get());
+        stats.put("rejected", rejected.get());
+        stats.put("rejectRegressions", rejectRegressions);
+        stats.put("regressionTolerance", regressionTolerance);
+        stats.put("sizes", Arrays.stream(sizes).boxed().toList());
+        return stats;
+    }
+}
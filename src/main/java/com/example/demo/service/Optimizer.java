@@ -0,0 +1,36 @@
+package com.example.demo.service;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * A way of optimizing code. Every implementation is a Spring bean, CodeOptimizationService
+ * finds them by name and tries them in the order codeoptimize.optimizer.chain (or the
+ * request) lists them.
+ */
+public interface Optimizer {
+
+    // onChunk is null unless the caller streams the answer. It gets the optimized code as it is
+    // produced, all at once if it isn't produced piece by piece
+    record Request(String code, boolean bypassCache, Consumer<String> onChunk) {}
+
+    // cache says how the answer was found ("none" if nothing is cached), changes what was
+    // rewritten when the optimizer can tell
+    record Result(String code, String optimizer, String cache, List<String> changes) {}
+
+    // Used in codeoptimize.optimizer.chain and reported with every result
+    String name();
+
+    /**
+     * Optimizes request.code(). The future completes with null when this optimizer found
+     * nothing to improve, so the next one in the chain gets a go. Cancelling it should stop
+     * whatever it is waiting for.
+     */
+    CompletableFuture<Result> optimize(Request request);
+
+    // OptimizationVerifier turned down result, which this optimizer made from code. An optimizer
+    // that remembers its answers should forget this one
+    default void rejected(String code, Result result) {
+    }
+}
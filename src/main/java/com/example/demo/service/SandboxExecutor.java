@@ -0,0 +1,309 @@
+package com.example.demo.service;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Runs generated snippet code away from the request threads, under a watchdog.
+ *
+ * Every execute(n) goes to a small bounded pool with its own OperationCounter. The
+ * calling thread polls the run and aborts it once it passes its deadline, its operation
+ * ceiling or its allocation budget. Aborting is cooperative: the run is flagged and
+ * interrupted, and the next check in the instrumented code throws. Code that never
+ * reaches one (only possible in classes that weren't instrumented) can't be stopped
+ * (there is no Thread.stop), so the caller still gets its status on time but the worker
+ * stays busy; that is counted as a stuck worker and the bounded pool keeps the damage
+ * to the sandbox threads. Because stuck workers can keep every thread busy, a run also gives
+ * up after waiting maxQueueMillis for a worker, with QUEUE_TIMEOUT.
+ *
+ * runAll() measures several sizes at once. Workers are platform threads, one per core by
+ * default, since snippets are CPU bound; the watchdogs mostly wait, so they get virtual
+ * threads.
+ */
+@Service
+public class SandboxExecutor {
+
+    private static final long POLL_MILLIS = 5;
+    private static final long ABORT_GRACE_MILLIS = 200;
+
+    public enum Status { COMPLETED, TIMEOUT, OPERATION_LIMIT, MEMORY_LIMIT, FAILED, REJECTED, QUEUE_TIMEOUT }
+
+    // result is what the task returned, null unless it completed. peakHeapBytes is the highest heap
+    // use seen above the start of the run; the heap is shared, so it's a rough figure
+    public record Run(Status status, long operationCount, long allocatedBytes, long peakHeapBytes,
+                      long elapsedMillis, String error, Object result) {
+        public boolean completed() {
+            return status == Status.COMPLETED;
+        }
+    }
+
+    // Thrown inside an aborted run. An Error, so a catch (Exception e) in the snippet can't swallow it
+    public static class ExecutionAbortedError extends Error {
+        ExecutionAbortedError(Status reason) {
+            super("Execution aborted: " + reason, null, false, false);
+        }
+    }
+
+    // State shared by a run and its watchdog
+    private static class Budget {
+        private final OperationCounter counter = new OperationCounter();
+        private volatile Thread worker;
+        private volatile long allocatedAtStart;
+        private volatile long startedAt;
+        private volatile long heapAtStart;
+        private volatile long peakHeap;
+        private volatile boolean done;
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final ExecutorService watchdogs = Executors.newVirtualThreadPerTaskExecutor();
+    private final long deadlineMillis;
+    private final long maxQueueMillis;
+    private final long maxOperations;
+    private final long maxAllocatedBytes;
+    private final com.sun.management.ThreadMXBean threads;
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong aborted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong queueTimeouts = new AtomicLong();
+    private final AtomicInteger stuckWorkers = new AtomicInteger();
+
+    public SandboxExecutor(@Value("${codeanalysis.sandbox.threads:0}") int threadCount,
+                           @Value("${codeanalysis.sandbox.queue-capacity:16}") int queueCapacity,
+                           @Value("${codeanalysis.sandbox.deadline-millis:2000}") long deadlineMillis,
+                           @Value("${codeanalysis.sandbox.max-operations:100000000}") long maxOperations,
+                           @Value("${codeanalysis.sandbox.max-allocated-bytes:268435456}") long maxAllocatedBytes,
+                           @Value("${codeanalysis.sandbox.max-queue-millis:10000}") long maxQueueMillis) {
+        this.deadlineMillis = deadlineMillis;
+        this.maxQueueMillis = maxQueueMillis;
+        this.maxOperations = maxOperations;
+        this.maxAllocatedBytes = maxAllocatedBytes;
+        this.threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (threadCount <= 0) {
+            threadCount = Runtime.getRuntime().availableProcessors();
+        }
+
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), task -> {
+                    Thread thread = new Thread(task, "sandbox-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Called by generated code. Throws once the watchdog has aborted the current run.
+     */
+    public static void checkpoint() {
+        OperationCounter.current().checkpoint();
+    }
+
+    /**
+     * Runs clazz.execute(n) for every size at the same time, results in the order of sizes.
+     * The class must keep no state of its own between runs.
+     */
+    public List<Run> runAll(Class<?> clazz, int... sizes) throws InterruptedException {
+        List<Future<Run>> futures = new ArrayList<>(sizes.length);
+        for (int n : sizes) {
+            futures.add(watchdogs.submit(() -> run(clazz, n)));
+        }
+        List<Run> runs = new ArrayList<>(sizes.length);
+        for (Future<Run> future : futures) {
+            try {
+                runs.add(future.get());
+            } catch (ExecutionException e) {
+                runs.add(new Run(Status.FAILED, 0, 0, 0, 0, String.valueOf(e.getCause()), null));
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * Runs clazz.execute(n) and counts its operations. Blocks for at most maxQueueMillis while
+     * the run is queued, then for at most the deadline plus a short grace period.
+     */
+    public Run run(Class<?> clazz, int n) throws InterruptedException {
+        Method execute;
+        try {
+            execute = clazz.getMethod("execute", int.class);
+        } catch (NoSuchMethodException e) {
+            return new Run(Status.FAILED, 0, 0, 0, 0, e.getMessage(), null);
+        }
+        return run(() -> execute.invoke(null, n));
+    }
+
+    /**
+     * Runs any task on a sandbox worker under the same limits as a single execute(n).
+     */
+    public Run run(Callable<?> task) throws InterruptedException {
+        Budget budget = new Budget();
+        long start = System.nanoTime();
+        Future<Object> future;
+        try {
+            future = executor.submit(() -> {
+                // worker goes last, the watchdog reads the other two once it sees it
+                budget.allocatedAtStart = threads.getCurrentThreadAllocatedBytes();
+                budget.heapAtStart = heapUsed();
+                budget.startedAt = System.nanoTime();
+                budget.worker = Thread.currentThread();
+                budget.counter.attach();
+                try {
+                    return task.call();
+                } finally {
+                    sampleHeap(budget);
+                    budget.counter.detach();
+                    budget.done = true;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return new Run(Status.REJECTED, 0, 0, 0, 0, "Sandbox is busy", null);
+        }
+        runs.incrementAndGet();
+
+        // The deadline counts from when a worker picks the run up, the queue wait has a bound of its own
+        long deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        long maxQueueNanos = TimeUnit.MILLISECONDS.toNanos(maxQueueMillis);
+        while (true) {
+            try {
+                Object result = future.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                return finished(Status.COMPLETED, null, budget, start, result);
+            } catch (TimeoutException e) {
+                boolean started = budget.worker != null;
+                if (started) {
+                    sampleHeap(budget);
+                }
+                Status reason = !started && System.nanoTime() - start > maxQueueNanos ? Status.QUEUE_TIMEOUT
+                        : started && System.nanoTime() - budget.startedAt > deadlineNanos ? Status.TIMEOUT
+                        : budget.counter.count() > maxOperations ? Status.OPERATION_LIMIT
+                        : allocatedBytes(budget) > maxAllocatedBytes ? Status.MEMORY_LIMIT
+                        : null;
+                if (reason != null) {
+                    return abort(future, reason, budget, start);
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() instanceof InvocationTargetException target ? target.getCause() : e.getCause();
+                Status reason = budget.counter.abortReason();
+                if (cause instanceof ExecutionAbortedError && reason != null) {
+                    return finished(reason, null, budget, start);
+                }
+                return finished(Status.FAILED, String.valueOf(cause), budget, start);
+            } catch (InterruptedException e) {
+                abort(future, Status.TIMEOUT, budget, start);
+                throw e;
+            }
+        }
+    }
+
+    private Run abort(Future<Object> future, Status reason, Budget budget, long start) throws InterruptedException {
+        budget.counter.abort(reason);
+        future.cancel(true);
+        if (budget.worker == null) {
+            // Still queued. cancel() keeps the worker from running it, remove() frees its queue slot
+            executor.remove((Runnable) future);
+            if (reason == Status.QUEUE_TIMEOUT) {
+                queueTimeouts.incrementAndGet();
+                return finished(reason, "No sandbox worker came free in " + maxQueueMillis + " ms", budget, start);
+            }
+            aborted.incrementAndGet();
+            return finished(reason, null, budget, start);
+        }
+        aborted.incrementAndGet();
+        // Give the run a moment to reach a checkpoint, so its thread goes back to the pool
+        long graceEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ABORT_GRACE_MILLIS);
+        while (!budget.done && System.nanoTime() < graceEnd) {
+            Thread.sleep(1);
+        }
+        if (!budget.done) {
+            stuckWorkers.incrementAndGet();
+            System.err.println("Sandbox run ignored abort (" + reason + "), " + budget.worker.getName() + " stays busy");
+        }
+        return finished(reason, null, budget, start);
+    }
+
+    private Run finished(Status status, String error, Budget budget, long start) {
+        return finished(status, error, budget, start, null);
+    }
+
+    private Run finished(Status status, String error, Budget budget, long start, Object result) {
+        return new Run(status, budget.counter.count(), allocatedBytes(budget),
+                       Math.max(0, budget.peakHeap - budget.heapAtStart),
+                       (System.nanoTime() - start) / 1_000_000, error, result);
+    }
+
+    // Called by both the worker and its watchdog, a lost race only loses one sample
+    private void sampleHeap(Budget budget) {
+        long used = heapUsed();
+        if (used > budget.peakHeap) {
+            budget.peakHeap = used;
+        }
+    }
+
+    private long heapUsed() {
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private long allocatedBytes(Budget budget) {
+        Thread worker = budget.worker;
+        if (worker == null) {
+            return 0;
+        }
+        long allocated = threads.getThreadAllocatedBytes(worker.threadId());
+        return allocated < 0 ? 0 : allocated - budget.allocatedAtStart;
+    }
+
+    public int getThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public int getStuckWorkers() {
+        return stuckWorkers.get();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("runs", runs.get());
+        stats.put("aborted", aborted.get());
+        stats.put("rejected", rejected.get());
+        stats.put("queueTimeouts", queueTimeouts.get());
+        stats.put("stuckWorkers", stuckWorkers.get());
+        stats.put("activeWorkers", executor.getActiveCount());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("threads", executor.getMaximumPoolSize());
+        stats.put("deadlineMillis", deadlineMillis);
+        stats.put("maxQueueMillis", maxQueueMillis);
+        stats.put("maxOperations", maxOperations);
+        stats.put("maxAllocatedBytes", maxAllocatedBytes);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watchdogs.shutdownNow();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.demo.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent identical computations. A caller asking for a key that is already
+ * being computed attaches to that computation instead of starting another, and every caller
+ * gets its result or its exception.
+ *
+ * Each caller gets a future of its own, so cancelling one only detaches that caller; the
+ * computation is cancelled once all of them are gone. A key is forgotten as soon as its
+ * computation completes, this is not a cache.
+ */
+public class SingleFlight<V> {
+
+    private class Flight {
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        private CompletableFuture<V> computation;
+        private int waiters;
+    }
+
+    // Guarded by this
+    private final Map<String, Flight> flights = new HashMap<>();
+
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+
+    /**
+     * Attaches to the computation of key, starting it with computation.get() if there is none.
+     * computation is called on the calling thread and should only start the work.
+     */
+    public CompletableFuture<V> execute(String key, Supplier<CompletableFuture<V>> computation) {
+        Flight flight;
+        boolean leader;
+        synchronized (this) {
+            flight = flights.get(key);
+            leader = flight == null;
+            if (leader) {
+                flight = new Flight();
+                flights.put(key, flight);
+            }
+            flight.waiters++;
+        }
+
+        CompletableFuture<V> waiter = new CompletableFuture<>();
+        Flight joined = flight;
+        joined.result.whenComplete((value, e) -> {
+            if (e != null) {
+                waiter.completeExceptionally(e);
+            } else {
+                waiter.complete(value);
+            }
+        });
+        waiter.whenComplete((value, e) -> {
+            if (waiter.isCancelled()) {
+                detach(key, joined);
+            }
+        });
+
+        if (leader) {
+            started.incrementAndGet();
+            start(key, joined, computation);
+        } else {
+            coalesced.incrementAndGet();
+        }
+        return waiter;
+    }
+
+    private void start(String key, Flight flight, Supplier<CompletableFuture<V>> computation) {
+        CompletableFuture<V> running;
+        try {
+            running = computation.get();
+        } catch (Throwable t) {
+            running = CompletableFuture.failedFuture(t);
+        }
+        boolean abandoned;
+        synchronized (this) {
+            flight.computation = running;
+            abandoned = flight.waiters == 0;
+        }
+        // Everyone left while it was starting
+        if (abandoned) {
+            running.cancel(true);
+        }
+        running.whenComplete((value, e) -> {
+            // Gone before the waiters hear of it, so a caller arriving now starts afresh
+            synchronized (this) {
+                flights.remove(key, flight);
+            }
+            if (e != null) {
+                flight.result.completeExceptionally(e);
+            } else {
+                flight.result.complete(value);
+            }
+        });
+    }
+
+    private void detach(String key, Flight flight) {
+        CompletableFuture<V> computation;
+        synchronized (this) {
+            if (--flight.waiters > 0 || flight.result.isDone()) {
+                return;
+            }
+            flights.remove(key, flight);
+            computation = flight.computation;
+        }
+        cancelled.incrementAndGet();
+        // Null while it is still starting, start() cancels it then
+        if (computation != null) {
+            computation.cancel(true);
+        }
+    }
+
+    // Content hash to key flights by
+    public static String key(String content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("inFlight", flights.size());
+        stats.put("started", started.get());
+        stats.put("coalesced", coalesced.get());
+        stats.put("cancelled", cancelled.get());
+        return stats;
+    }
+}
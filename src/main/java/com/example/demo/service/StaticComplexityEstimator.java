@@ -0,0 +1,928 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+import org.springframework.stereotype.Service;
+
+import com.example.demo.grammar.antlr.JavaParser;
+import com.example.demo.grammar.diagnostics.Diagnostics;
+
+/**
+ * Estimates time and space complexity from the parse tree of a snippet, without compiling
+ * or running it.
+ *
+ * A loop multiplies the cost of its body by its iteration count: a loop variable stepped by
+ * a constant towards a bound of size n^k runs n^k times, one multiplied or divided by a
+ * constant runs log n times. Sizes are tracked per variable as a power of n, so bounds like
+ * arr.length, i (of an outer loop) or n * n work too. Direct recursion in a local class is
+ * solved from the number of self-calls and whether they shrink the argument by a step (a
+ * chain, or a tree when there are several) or by a factor (the master theorem). Space is
+ * the same walk over array and object allocations, like the measured space.
+ *
+ * Whatever the walk can't see through lowers the confidence: library calls in loops, early
+ * exits, loop variables or bounds that also change in the body. Code it can't follow at all,
+ * or that is outside the grammar's subset of Java, gets confidence 0. It doesn't check that
+ * the code would compile.
+ */
+@Service
+public class StaticComplexityEstimator {
+
+    // Size of a value that can't be expressed as a power of n
+    private static final int UNKNOWN = -1;
+
+    private static final Set<String> PRIMITIVES = Set.of("int", "long", "short", "byte", "char", "float",
+                                                         "double", "boolean");
+    // Constant-time helpers of the generated class
+    private static final Set<String> TEMPLATE_HELPERS = Set.of("consume", "checkpoint");
+
+    // complexity is null when confidence is 0, reason says what lowered the confidence first
+    public record Estimate(String complexity, String spaceComplexity, double confidence, String reason) {}
+
+    private final CodeParser codeParser;
+
+    public StaticComplexityEstimator(CodeParser codeParser) {
+        this.codeParser = codeParser;
+    }
+
+    public Estimate estimate(String code) {
+        Diagnostics syntaxErrors = new Diagnostics();
+        JavaParser.CompilationUnitContext tree;
+        try {
+            tree = codeParser.parseTree(code, syntaxErrors);
+        } catch (RuntimeException e) {
+            return new Estimate(null, null, 0, "Parse failed: " + e.getMessage());
+        }
+        if (!syntaxErrors.isEmpty()) {
+            // The grammar covers a subset of Java, the rest is left to the compiler
+            return new Estimate(null, null, 0, "Outside the parsed subset of Java: " + syntaxErrors.messages().get(0));
+        }
+
+        Walk walk = new Walk();
+        try {
+            Cost cost = walk.snippet(tree);
+            Growth space = cost.space() == null ? Growth.CONSTANT : cost.space();
+            return new Estimate(cost.time().label(), space.label(), Math.round(walk.confidence * 1000) / 1000.0,
+                                walk.reason);
+        } catch (Unsupported e) {
+            return new Estimate(null, null, 0, e.getMessage());
+        }
+    }
+
+    // n^power * (log n)^logPower, or exponential
+    private record Growth(int power, int logPower, boolean exponential) {
+        static final Growth CONSTANT = new Growth(0, 0, false);
+        static final Growth LOG = new Growth(0, 1, false);
+        static final Growth EXPONENTIAL = new Growth(0, 0, true);
+
+        static Growth polynomial(int power) {
+            return new Growth(power, 0, false);
+        }
+
+        Growth times(Growth other) {
+            return exponential || other.exponential ? EXPONENTIAL
+                    : new Growth(power + other.power, logPower + other.logPower, false);
+        }
+
+        Growth max(Growth other) {
+            if (exponential != other.exponential) {
+                return exponential ? this : other;
+            }
+            if (power != other.power) {
+                return power > other.power ? this : other;
+            }
+            return logPower >= other.logPower ? this : other;
+        }
+
+        // Same labels as ComplexityFitter.Model where they overlap
+        String label() {
+            if (exponential) {
+                return "O(2^n)";
+            }
+            if (power == 0 && logPower == 0) {
+                return "O(1)";
+            }
+            String n = power == 0 ? "" : power == 1 ? "n" : "n^" + power;
+            String log = logPower == 0 ? "" : logPower == 1 ? "log n" : "log^" + logPower + " n";
+            return "O(" + (n + " " + log).trim() + ")";
+        }
+    }
+
+    // Allocation is null for code that allocates nothing, so that a loop around it still allocates nothing
+    private static Growth max(Growth a, Growth b) {
+        return a == null ? b : b == null ? a : a.max(b);
+    }
+
+    private static Growth times(Growth a, Growth b) {
+        return a == null || b == null ? null : a.times(b);
+    }
+
+    // selfCalls is how many calls back into the method being walked one pass through the code makes
+    private record Cost(Growth time, Growth space, int selfCalls) {
+        static final Cost CONSTANT = new Cost(Growth.CONSTANT, null, 0);
+
+        // This, then next
+        Cost then(Cost next) {
+            return new Cost(time.max(next.time), max(space, next.space), selfCalls + next.selfCalls);
+        }
+
+        // This or other, whichever costs more
+        Cost or(Cost other) {
+            return new Cost(time.max(other.time), max(space, other.space), Math.max(selfCalls, other.selfCalls));
+        }
+    }
+
+    private enum Kind { UP, DOWN, TIMES, DIVIDE }
+
+    // One update of a loop variable: by a constant step (UP, DOWN) or factor (TIMES, DIVIDE)
+    private record Step(String variable, Kind kind, int factor, boolean conditional) {
+        boolean geometric() {
+            return kind == Kind.TIMES || kind == Kind.DIVIDE;
+        }
+    }
+
+    // What a loop variable is compared against, upward is null for != (either way)
+    private record Bound(JavaParser.ExprContext limit, Boolean upward) {}
+
+    // A local class method being walked, with how its self-calls shrink its size parameters
+    private static class Frame {
+        private final JavaParser.FunctionDeclContext method;
+        private final Frame caller;
+        private final Set<String> sizeParameters = new HashSet<>();
+        private Kind shrink;
+        private int factor;
+
+        Frame(JavaParser.FunctionDeclContext method, Frame caller) {
+            this.method = method;
+            this.caller = caller;
+        }
+    }
+
+    // The code does something the walk can't follow at all
+    private static class Unsupported extends RuntimeException {
+        Unsupported(String reason, ParserRuleContext at) {
+            super(reason + " (line " + at.start.getLine() + ")", null, false, false);
+        }
+    }
+
+    private static class Walk {
+        private final Map<String, JavaParser.FunctionDeclContext> methods = new HashMap<>();
+        private final Set<String> overloaded = new HashSet<>();
+        private double confidence = 1;
+        private String reason;
+
+        // Scope of the method being walked: size of each variable's value as a power of n,
+        // variables holding references (and which of them are strings), loop variables that
+        // grow or shrink geometrically
+        private Map<String, Integer> degrees = new HashMap<>();
+        private Set<String> objects = new HashSet<>();
+        private Set<String> strings = new HashSet<>();
+        private Set<String> geometric = new HashSet<>();
+        private int loopDepth;
+        private Frame frame;
+
+        Cost snippet(JavaParser.CompilationUnitContext tree) {
+            List<JavaParser.StatementContext> statements = new ArrayList<>();
+            for (ParseTree child : tree.children) {
+                if (child instanceof JavaParser.ClassDeclContext classDecl) {
+                    for (JavaParser.MemberDeclContext member : classDecl.memberDecl()) {
+                        if (member.functionDecl() != null) {
+                            String name = member.functionDecl().ID().getText();
+                            if (methods.put(name, member.functionDecl()) != null) {
+                                overloaded.add(name);
+                            }
+                        }
+                    }
+                } else if (child instanceof JavaParser.FunctionDeclContext function) {
+                    throw new Unsupported("Method outside a class", function);
+                } else if (child instanceof JavaParser.StatementContext statement) {
+                    statements.add(statement);
+                }
+            }
+            degrees.put("n", 1);
+            return statements(statements);
+        }
+
+        private Cost statements(List<JavaParser.StatementContext> statements) {
+            Cost cost = Cost.CONSTANT;
+            for (int i = 0; i < statements.size(); i++) {
+                JavaParser.StatementContext statement = statements.get(i);
+                // if (...) return; followed by more code: the rest is the else branch
+                if (statement instanceof JavaParser.IfStatementContext s && s.ifStmt().statement().size() == 1
+                        && returns(s.ifStmt().statement(0))) {
+                    Cost condition = expr(s.ifStmt().expr());
+                    Cost then = statement(s.ifStmt().statement(0));
+                    Cost rest = statements(statements.subList(i + 1, statements.size()));
+                    return cost.then(condition).then(then.or(rest));
+                }
+                cost = cost.then(statement(statement));
+            }
+            return cost;
+        }
+
+        private Cost statement(JavaParser.StatementContext statement) {
+            if (statement instanceof JavaParser.VarDeclarationContext s) {
+                return varDecl(s.varDecl());
+            }
+            if (statement instanceof JavaParser.ExpressionStatementContext s) {
+                return expr(s.expr());
+            }
+            if (statement instanceof JavaParser.IfStatementContext s) {
+                Cost condition = expr(s.ifStmt().expr());
+                Cost branches = statement(s.ifStmt().statement(0));
+                if (s.ifStmt().statement().size() > 1) {
+                    branches = branches.or(statement(s.ifStmt().statement(1)));
+                }
+                return condition.then(branches);
+            }
+            if (statement instanceof JavaParser.ForStatementContext s) {
+                return forLoop(s.forStmt());
+            }
+            if (statement instanceof JavaParser.WhileStatementContext s) {
+                return whileLoop(s.whileStmt());
+            }
+            if (statement instanceof JavaParser.ReturnStatementContext s) {
+                if (loopDepth > 0) {
+                    penalize(0.7, "Return inside a loop", s);
+                }
+                return s.returnStmt().expr() == null ? Cost.CONSTANT : expr(s.returnStmt().expr());
+            }
+            if (statement instanceof JavaParser.BlockStatementContext s) {
+                return statements(s.block().statement());
+            }
+            return Cost.CONSTANT;
+        }
+
+        private Cost varDecl(JavaParser.VarDeclContext decl) {
+            String name = decl.ID().getText();
+            declare(name, decl.type().getText());
+            if (decl.expr() == null) {
+                degrees.put(name, 0);
+                return Cost.CONSTANT;
+            }
+            Cost cost = expr(decl.expr());
+            degrees.put(name, degree(decl.expr()));
+            return cost;
+        }
+
+        private void declare(String name, String type) {
+            if (PRIMITIVES.contains(type)) {
+                objects.remove(name);
+                strings.remove(name);
+            } else {
+                objects.add(name);
+                if (type.equals("String")) {
+                    strings.add(name);
+                } else {
+                    strings.remove(name);
+                }
+            }
+        }
+
+        private Cost forLoop(JavaParser.ForStmtContext loop) {
+            // init, condition and update are all optional, tell them apart by the semicolons
+            ParseTree init = null;
+            JavaParser.ExprContext condition = null;
+            JavaParser.ExprContext update = null;
+            int semicolons = 0;
+            for (ParseTree child : loop.children) {
+                if (child instanceof TerminalNode terminal && terminal.getText().equals(";")) {
+                    semicolons++;
+                } else if (child instanceof JavaParser.VarDeclContext || child instanceof JavaParser.ExprContext) {
+                    if (semicolons == 0) {
+                        init = child;
+                    } else if (semicolons == 1) {
+                        condition = (JavaParser.ExprContext) child;
+                    } else {
+                        update = (JavaParser.ExprContext) child;
+                    }
+                }
+            }
+
+            Cost cost = init instanceof JavaParser.VarDeclContext decl ? varDecl(decl)
+                    : init instanceof JavaParser.ExprContext expr ? expr(expr)
+                    : Cost.CONSTANT;
+            if (condition == null || update == null) {
+                throw new Unsupported("For loop without a condition or an update", loop);
+            }
+            Step step = step(update);
+            if (step == null) {
+                throw new Unsupported("Loop update isn't a constant step or factor", loop);
+            }
+            return cost.then(loop(step, condition, update, loop.statement(), loop));
+        }
+
+        private Cost whileLoop(JavaParser.WhileStmtContext loop) {
+            // The update is in the body, one of the condition's variables being stepped
+            Set<String> variables = new HashSet<>();
+            collectVariables(loop.expr(), variables);
+            List<Step> steps = new ArrayList<>();
+            findSteps(loop.statement(), variables, false, steps);
+            if (steps.stream().map(Step::variable).distinct().count() != 1) {
+                throw new Unsupported(steps.isEmpty() ? "No constant step or factor on the loop condition's variables"
+                                              : "More than one loop variable", loop);
+            }
+            Step step = steps.get(0);
+            if (steps.size() > 1 || step.conditional()) {
+                penalize(0.5, "Loop variable " + step.variable() + " isn't updated exactly once per iteration", loop);
+            }
+            return loop(step, loop.expr(), null, loop.statement(), loop);
+        }
+
+        // Steps in a while loop's body, outside nested loops. One under an if may not run every time round
+        private void findSteps(JavaParser.StatementContext statement, Set<String> variables, boolean conditional,
+                               List<Step> steps) {
+            if (statement instanceof JavaParser.ExpressionStatementContext s) {
+                Step step = step(s.expr());
+                if (step != null && variables.contains(step.variable())) {
+                    steps.add(conditional ? new Step(step.variable(), step.kind(), step.factor(), true) : step);
+                }
+            } else if (statement instanceof JavaParser.BlockStatementContext s) {
+                for (JavaParser.StatementContext child : s.block().statement()) {
+                    findSteps(child, variables, conditional, steps);
+                }
+            } else if (statement instanceof JavaParser.IfStatementContext s) {
+                for (JavaParser.StatementContext branch : s.ifStmt().statement()) {
+                    findSteps(branch, variables, true, steps);
+                }
+            }
+        }
+
+        private Cost loop(Step step, JavaParser.ExprContext condition, JavaParser.ExprContext update,
+                          JavaParser.StatementContext body, ParserRuleContext at) {
+            String variable = step.variable();
+            Bound bound = bound(condition, variable);
+            if (bound == null) {
+                throw new Unsupported("Loop condition doesn't compare " + variable + " with a bound", at);
+            }
+            boolean upward = step.kind() == Kind.UP || step.kind() == Kind.TIMES;
+            if (bound.upward() != null && bound.upward() != upward) {
+                throw new Unsupported("Loop variable " + variable + " moves away from its bound", at);
+            }
+            int range = max(degrees.getOrDefault(variable, 0), degree(bound.limit()));
+            if (range < 0) {
+                throw new Unsupported("Loop bound isn't a known size", at);
+            }
+            Growth iterations = range == 0 ? Growth.CONSTANT : step.geometric() ? Growth.LOG : Growth.polynomial(range);
+
+            Set<String> boundVariables = new HashSet<>();
+            collectVariables(bound.limit(), boundVariables);
+            if (boundVariables.stream().anyMatch(geometric::contains)) {
+                // for (i = n; i > 0; i /= 2) for (j = 0; j < i; j++) sums to 2n, not n log n
+                penalize(0.5, "Loop bound follows a variable that grows geometrically", at);
+            }
+
+            Cost perIteration = expr(condition);
+            if (update != null) {
+                perIteration = perIteration.then(expr(update));
+            }
+            loopDepth++;
+            degrees.put(variable, range);
+            boolean added = step.geometric() && geometric.add(variable);
+            try {
+                perIteration = perIteration.then(statement(body));
+            } finally {
+                loopDepth--;
+                if (added) {
+                    geometric.remove(variable);
+                }
+            }
+
+            if (update != null && assigns(body, variable)) {
+                penalize(0.5, "Loop variable " + variable + " also changes in the body", at);
+            }
+            for (String boundVariable : boundVariables) {
+                if (!boundVariable.equals(variable) && assigns(body, boundVariable)) {
+                    penalize(0.5, "Loop bound " + boundVariable + " changes in the body", at);
+                }
+            }
+            if (perIteration.selfCalls() > 0) {
+                throw new Unsupported("Recursive call inside a loop", at);
+            }
+            return new Cost(iterations.times(perIteration.time()), times(iterations, perIteration.space()), 0);
+        }
+
+        // The comparison of the condition that bounds the variable. With && the other side may end the loop sooner
+        private Bound bound(JavaParser.ExprContext condition, String variable) {
+            condition = unwrap(condition);
+            if (condition instanceof JavaParser.LogicalAndOperationContext and) {
+                Bound bound = bound(and.expr(0), variable);
+                if (bound == null) {
+                    bound = bound(and.expr(1), variable);
+                }
+                if (bound != null) {
+                    penalize(0.8, "Loop condition can end the loop early", and);
+                }
+                return bound;
+            }
+            if (condition instanceof JavaParser.ComparisonOperationContext comparison) {
+                boolean less = comparison.op.getText().startsWith("<");
+                if (variable.equals(variable(comparison.expr(0)))) {
+                    return new Bound(comparison.expr(1), less);
+                }
+                if (variable.equals(variable(comparison.expr(1)))) {
+                    return new Bound(comparison.expr(0), !less);
+                }
+            }
+            if (condition instanceof JavaParser.EqualityOperationContext equality && equality.op.getText().equals("!=")) {
+                if (variable.equals(variable(equality.expr(0)))) {
+                    return new Bound(equality.expr(1), null);
+                }
+                if (variable.equals(variable(equality.expr(1)))) {
+                    return new Bound(equality.expr(0), null);
+                }
+            }
+            return null;
+        }
+
+        // i++, i -= 2, i *= 2, i = i / 2 and the like, null for anything else
+        private Step step(JavaParser.ExprContext update) {
+            update = unwrap(update);
+            if (update instanceof JavaParser.PostfixOperationContext e && variable(e.expr()) != null) {
+                return new Step(variable(e.expr()), e.op.getText().equals("++") ? Kind.UP : Kind.DOWN, 1, false);
+            }
+            if (update instanceof JavaParser.PrefixOperationContext e && variable(e.expr()) != null) {
+                return new Step(variable(e.expr()), e.op.getText().equals("++") ? Kind.UP : Kind.DOWN, 1, false);
+            }
+            if (!(update instanceof JavaParser.AssignmentExpressionContext assignment)) {
+                return null;
+            }
+            String variable = assignment.ID().getText();
+            String op = assignment.op.getText();
+            JavaParser.ExprContext operand = assignment.expr();
+            if (op.equals("=")) {
+                // i = i + c is i += c, the variable may be on either side of + and *
+                JavaParser.ExprContext value = unwrap(operand);
+                if (value instanceof JavaParser.AdditionSubtractionContext e) {
+                    op = e.op.getText() + "=";
+                } else if (value instanceof JavaParser.MultiplicationDivisionContext e) {
+                    op = e.op.getText() + "=";
+                } else {
+                    return null;
+                }
+                JavaParser.ExprContext left = (JavaParser.ExprContext) value.getChild(0);
+                JavaParser.ExprContext right = (JavaParser.ExprContext) value.getChild(2);
+                if (variable.equals(variable(left))) {
+                    operand = right;
+                } else if (variable.equals(variable(right)) && (op.equals("+=") || op.equals("*="))) {
+                    operand = left;
+                } else {
+                    return null;
+                }
+            }
+            return switch (op) {
+                case "+=", "-=" -> degree(operand) == 0 ? new Step(variable, op.equals("+=") ? Kind.UP : Kind.DOWN, 1, false) : null;
+                case "*=", "/=" -> intLiteral(operand) >= 2 ? new Step(variable, op.equals("*=") ? Kind.TIMES : Kind.DIVIDE, intLiteral(operand), false) : null;
+                default -> null;
+            };
+        }
+
+        private Cost expr(JavaParser.ExprContext expr) {
+            if (arrayCreation(expr)) {
+                // new int[a][b] parses as an access into new int[a], javac creates an a by b array
+                List<JavaParser.ExprContext> dimensions = new ArrayList<>();
+                JavaParser.ExprContext created = expr;
+                while (created instanceof JavaParser.ArrayAccessExpressionContext access) {
+                    dimensions.add(0, access.expr(1));
+                    created = access.expr(0);
+                }
+                dimensions.add(0, ((JavaParser.ArrayCreationExpressionContext) created).expr());
+                int size = 0;
+                Cost cost = Cost.CONSTANT;
+                for (JavaParser.ExprContext dimension : dimensions) {
+                    int degree = degree(dimension);
+                    if (degree < 0) {
+                        throw new Unsupported("Array size isn't a known size", expr);
+                    }
+                    size += degree;
+                    cost = cost.then(expr(dimension));
+                }
+                // Arrays are zeroed when created, so that's time as well
+                Growth growth = Growth.polynomial(size);
+                return cost.then(new Cost(growth, growth, 0));
+            }
+            if (expr instanceof JavaParser.ObjectCreationExpressionContext) {
+                return new Cost(Growth.CONSTANT, Growth.CONSTANT, 0);
+            }
+            if (expr instanceof JavaParser.FunctionCallExpressionContext e) {
+                return call(e);
+            }
+            if (expr instanceof JavaParser.AssignmentExpressionContext e) {
+                Cost cost = expr(e.expr());
+                assign(e.ID().getText(), e.op.getText(), e.expr(), e);
+                return cost;
+            }
+            if (expr instanceof JavaParser.PostfixOperationContext e) {
+                changed(e.expr());
+            } else if (expr instanceof JavaParser.PrefixOperationContext e) {
+                changed(e.expr());
+            } else if (expr instanceof JavaParser.AdditionSubtractionContext e && loopDepth > 0
+                    && (isString(e.expr(0)) || isString(e.expr(1)))) {
+                penalize(0.5, "String concatenation in a loop", e);
+            }
+
+            // Anything else costs what its operands cost
+            Cost cost = Cost.CONSTANT;
+            for (ParseTree child : expr.children) {
+                if (child instanceof JavaParser.ExprContext operand) {
+                    cost = cost.then(expr(operand));
+                } else if (child instanceof JavaParser.ParenthesizedExpressionContext parenthesized) {
+                    cost = cost.then(expr(parenthesized.expr()));
+                }
+            }
+            return cost;
+        }
+
+        // new T[a] or new T[a][b]...
+        private static boolean arrayCreation(JavaParser.ExprContext expr) {
+            while (expr instanceof JavaParser.ArrayAccessExpressionContext access) {
+                expr = access.expr(0);
+            }
+            return expr instanceof JavaParser.ArrayCreationExpressionContext;
+        }
+
+        private void assign(String name, String op, JavaParser.ExprContext value, ParserRuleContext at) {
+            if (loopDepth > 0 && op.equals("+=") && strings.contains(name)) {
+                penalize(0.5, "String concatenation in a loop", at);
+            }
+            int old = degrees.getOrDefault(name, 0);
+            int updated = switch (op) {
+                case "=" -> degree(value);
+                case "+=", "-=" -> max(old, degree(value));
+                case "*=" -> sum(old, degree(value));
+                default -> old;
+            };
+            if (loopDepth > 0) {
+                // Accumulating across iterations (s += i, s = s + i), or whichever iteration ran last
+                Set<String> operands = new HashSet<>();
+                collectVariables(value, operands);
+                updated = op.equals("=") && !operands.contains(name) ? max(old, updated) : UNKNOWN;
+            }
+            degrees.put(name, updated);
+        }
+
+        // ++ or -- on a variable, repeated in a loop that's anything up to the iteration count
+        private void changed(JavaParser.ExprContext target) {
+            String name = variable(target);
+            if (name != null && loopDepth > 0) {
+                degrees.put(name, UNKNOWN);
+            }
+        }
+
+        private Cost call(JavaParser.FunctionCallExpressionContext call) {
+            JavaParser.ExprContext callee = call.expr(0);
+            List<JavaParser.ExprContext> arguments = call.expr().subList(1, call.expr().size());
+            JavaParser.ExprContext receiver = null;
+            String name;
+            if (callee instanceof JavaParser.MemberAccessExpressionContext member) {
+                receiver = member.expr();
+                name = member.ID().getText();
+            } else {
+                name = variable(callee);
+            }
+            if (name == null) {
+                throw new Unsupported("Call of a computed function", call);
+            }
+
+            Cost cost = receiver == null ? Cost.CONSTANT : expr(receiver);
+            boolean math = "Math".equals(variable(receiver));
+            if (methods.containsKey(name) && !math) {
+                if (overloaded.contains(name)) {
+                    throw new Unsupported("Call of overloaded method " + name + "()", call);
+                }
+                return cost.then(invoke(methods.get(name), arguments, call));
+            }
+            for (JavaParser.ExprContext argument : arguments) {
+                cost = cost.then(expr(argument));
+            }
+            if (math || (receiver == null && TEMPLATE_HELPERS.contains(name))) {
+                return cost;
+            }
+
+            // A library call, which may do work in proportion to what it's given
+            if (loopDepth > 0) {
+                penalize(0.5, "Library call " + name + "() in a loop", call);
+            } else if (growsWithN(receiver) || arguments.stream().anyMatch(this::growsWithN)) {
+                throw new Unsupported("Library call " + name + "() on data that grows with n", call);
+            }
+            return cost;
+        }
+
+        private Cost invoke(JavaParser.FunctionDeclContext method, List<JavaParser.ExprContext> arguments,
+                            JavaParser.FunctionCallExpressionContext call) {
+            List<JavaParser.ParameterContext> parameters = method.parameter();
+            if (parameters.size() != arguments.size()) {
+                throw new Unsupported("Call of " + method.ID().getText() + "() with the wrong number of arguments", call);
+            }
+            Cost cost = Cost.CONSTANT;
+            for (JavaParser.ExprContext argument : arguments) {
+                cost = cost.then(expr(argument));
+            }
+            if (frame != null && frame.method == method) {
+                selfCall(arguments, call);
+                return cost.then(new Cost(Growth.CONSTANT, null, 1));
+            }
+            for (Frame caller = frame; caller != null; caller = caller.caller) {
+                if (caller.method == method) {
+                    throw new Unsupported("Mutual recursion through " + method.ID().getText() + "()", call);
+                }
+            }
+
+            // The method sees the snippet's variables it captured, and its parameters sized like the arguments
+            Map<String, Integer> savedDegrees = degrees;
+            Set<String> savedObjects = objects;
+            Set<String> savedStrings = strings;
+            Set<String> savedGeometric = geometric;
+            int savedLoopDepth = loopDepth;
+            Frame savedFrame = frame;
+            degrees = new HashMap<>(savedDegrees);
+            objects = new HashSet<>(savedObjects);
+            strings = new HashSet<>(savedStrings);
+            geometric = new HashSet<>();
+            loopDepth = 0;
+            frame = new Frame(method, savedFrame);
+            try {
+                for (int i = 0; i < parameters.size(); i++) {
+                    String name = parameters.get(i).ID().getText();
+                    String type = parameters.get(i).type().getText();
+                    int degree = savedDegree(savedDegrees, arguments.get(i));
+                    if (degree < 0) {
+                        throw new Unsupported("Argument of unknown size for " + name, call);
+                    }
+                    declare(name, type);
+                    degrees.put(name, degree);
+                    if (degree > 0 && PRIMITIVES.contains(type)) {
+                        frame.sizeParameters.add(name);
+                    }
+                }
+                return cost.then(recurrence(frame, statements(method.statement()), call));
+            } finally {
+                degrees = savedDegrees;
+                objects = savedObjects;
+                strings = savedStrings;
+                geometric = savedGeometric;
+                loopDepth = savedLoopDepth;
+                frame = savedFrame;
+            }
+        }
+
+        // Argument sizes are the caller's
+        private int savedDegree(Map<String, Integer> callerDegrees, JavaParser.ExprContext argument) {
+            Map<String, Integer> current = degrees;
+            degrees = callerDegrees;
+            try {
+                return degree(argument);
+            } finally {
+                degrees = current;
+            }
+        }
+
+        // Every size parameter has to shrink the same way in every self-call, by a step or by a factor
+        private void selfCall(List<JavaParser.ExprContext> arguments, ParserRuleContext call) {
+            List<JavaParser.ParameterContext> parameters = frame.method.parameter();
+            for (int i = 0; i < arguments.size(); i++) {
+                String parameter = parameters.get(i).ID().getText();
+                if (!frame.sizeParameters.contains(parameter)) {
+                    continue;
+                }
+                JavaParser.ExprContext argument = unwrap(arguments.get(i));
+                Kind kind;
+                int factor;
+                if (argument instanceof JavaParser.AdditionSubtractionContext e && e.op.getText().equals("-")
+                        && parameter.equals(variable(e.expr(0))) && degree(e.expr(1)) == 0) {
+                    kind = Kind.DOWN;
+                    factor = 1;
+                } else if (argument instanceof JavaParser.MultiplicationDivisionContext e && e.op.getText().equals("/")
+                        && parameter.equals(variable(e.expr(0))) && intLiteral(e.expr(1)) >= 2) {
+                    kind = Kind.DIVIDE;
+                    factor = intLiteral(e.expr(1));
+                } else {
+                    throw new Unsupported("Recursive call doesn't shrink " + parameter + " by a constant step or factor", call);
+                }
+                if (frame.shrink != null && (frame.shrink != kind || frame.factor != factor)) {
+                    throw new Unsupported("Recursive calls shrink " + parameter + " in different ways", call);
+                }
+                frame.shrink = kind;
+                frame.factor = factor;
+            }
+        }
+
+        // Total cost of a method from one pass through its body, where a self-call counted as constant
+        private Cost recurrence(Frame frame, Cost body, ParserRuleContext at) {
+            if (body.selfCalls() == 0) {
+                return body;
+            }
+            if (frame.shrink == null) {
+                // Recursion on arguments that don't grow with n
+                return new Cost(Growth.CONSTANT, body.space() == null ? null : Growth.CONSTANT, 0);
+            }
+            Growth time = recurrence(frame, body.selfCalls(), body.time(), at);
+            Growth space = body.space() == null ? null : recurrence(frame, body.selfCalls(), body.space(), at);
+            return new Cost(time, space, 0);
+        }
+
+        private Growth recurrence(Frame frame, int calls, Growth perCall, ParserRuleContext at) {
+            if (frame.shrink == Kind.DOWN) {
+                // T(n) = a T(n - c) + f(n): a chain of n calls, or a tree of a^n
+                return calls == 1 ? Growth.polynomial(1).times(perCall) : Growth.EXPONENTIAL;
+            }
+            // T(n) = a T(n / b) + f(n), by the master theorem
+            if (perCall.exponential()) {
+                throw new Unsupported("Exponential work in a divide and conquer recursion", at);
+            }
+            double critical = Math.log(calls) / Math.log(frame.factor);
+            if (Math.abs(perCall.power() - critical) < 1e-9) {
+                return new Growth(perCall.power(), perCall.logPower() + 1, false);
+            }
+            if (perCall.power() > critical) {
+                return perCall;
+            }
+            if (Math.abs(critical - Math.round(critical)) > 1e-9) {
+                throw new Unsupported(String.format("Recursion grows as n^%.2f", critical), at);
+            }
+            return Growth.polynomial((int) Math.round(critical));
+        }
+
+        // Size of an expression's value as a power of n, UNKNOWN if it isn't one
+        private int degree(JavaParser.ExprContext expr) {
+            expr = unwrap(expr);
+            if (expr instanceof JavaParser.PrimaryExpressionContext e) {
+                String name = variable(e);
+                return name == null ? 0 : degrees.getOrDefault(name, 0);
+            }
+            if (expr instanceof JavaParser.ArrayCreationExpressionContext e) {
+                return degree(e.expr());
+            }
+            if (expr instanceof JavaParser.ArrayAccessExpressionContext e && arrayCreation(e)) {
+                // The length of new int[a][b] is a
+                return degree(e.expr(0));
+            }
+            if (expr instanceof JavaParser.MemberAccessExpressionContext e) {
+                return e.ID().getText().equals("length") ? degree(e.expr()) : UNKNOWN;
+            }
+            if (expr instanceof JavaParser.FunctionCallExpressionContext e) {
+                return callDegree(e);
+            }
+            if (expr instanceof JavaParser.MultiplicationDivisionContext e) {
+                int left = degree(e.expr(0));
+                int right = degree(e.expr(1));
+                return switch (e.op.getText()) {
+                    case "*" -> sum(left, right);
+                    case "/" -> right == 0 ? left : UNKNOWN;
+                    default -> right;
+                };
+            }
+            if (expr instanceof JavaParser.AdditionSubtractionContext e) {
+                return max(degree(e.expr(0)), degree(e.expr(1)));
+            }
+            if (expr instanceof JavaParser.PrefixOperationContext e) {
+                return degree(e.expr());
+            }
+            if (expr instanceof JavaParser.PostfixOperationContext e) {
+                return degree(e.expr());
+            }
+            if (expr instanceof JavaParser.UnaryOperationContext e) {
+                return degree(e.expr());
+            }
+            if (expr instanceof JavaParser.AssignmentExpressionContext e) {
+                return degree(e.expr());
+            }
+            if (expr instanceof JavaParser.ObjectCreationExpressionContext
+                    || expr instanceof JavaParser.ComparisonOperationContext
+                    || expr instanceof JavaParser.EqualityOperationContext
+                    || expr instanceof JavaParser.LogicalAndOperationContext
+                    || expr instanceof JavaParser.LogicalOrOperationContext) {
+                return 0;
+            }
+            // Array elements and whatever else a value was computed from
+            return UNKNOWN;
+        }
+
+        private int callDegree(JavaParser.FunctionCallExpressionContext call) {
+            if (!(call.expr(0) instanceof JavaParser.MemberAccessExpressionContext member)) {
+                return UNKNOWN;
+            }
+            String name = member.ID().getText();
+            List<JavaParser.ExprContext> arguments = call.expr().subList(1, call.expr().size());
+            if ("Math".equals(variable(member.expr())) && (name.equals("max") || name.equals("min") || name.equals("abs"))) {
+                int degree = 0;
+                for (JavaParser.ExprContext argument : arguments) {
+                    degree = max(degree, degree(argument));
+                }
+                return degree;
+            }
+            if (arguments.isEmpty() && (name.equals("length") || name.equals("size"))) {
+                return degree(member.expr());
+            }
+            return UNKNOWN;
+        }
+
+        // An array, string or object whose size grows with n
+        private boolean growsWithN(JavaParser.ExprContext expr) {
+            String name = variable(expr);
+            return name != null && objects.contains(name) && degree(expr) != 0;
+        }
+
+        private boolean isString(JavaParser.ExprContext expr) {
+            expr = unwrap(expr);
+            if (expr instanceof JavaParser.PrimaryExpressionContext e
+                    && e.primary() instanceof JavaParser.LiteralExpressionContext literal) {
+                return literal.literal() instanceof JavaParser.StringLiteralContext;
+            }
+            String name = variable(expr);
+            return name != null && strings.contains(name);
+        }
+
+        private void penalize(double factor, String reason, ParserRuleContext at) {
+            confidence *= factor;
+            if (this.reason == null) {
+                this.reason = reason + " (line " + at.start.getLine() + ")";
+            }
+        }
+    }
+
+    private static boolean returns(JavaParser.StatementContext statement) {
+        if (statement instanceof JavaParser.ReturnStatementContext) {
+            return true;
+        }
+        if (statement instanceof JavaParser.BlockStatementContext block) {
+            List<JavaParser.StatementContext> statements = block.block().statement();
+            return !statements.isEmpty() && returns(statements.get(statements.size() - 1));
+        }
+        return false;
+    }
+
+    // Whether anything in the tree assigns, increments or decrements the variable
+    private static boolean assigns(ParseTree tree, String name) {
+        if (tree instanceof JavaParser.AssignmentExpressionContext e && e.ID().getText().equals(name)) {
+            return true;
+        }
+        if (tree instanceof JavaParser.PostfixOperationContext e && name.equals(variable(e.expr()))) {
+            return true;
+        }
+        if (tree instanceof JavaParser.PrefixOperationContext e && name.equals(variable(e.expr()))) {
+            return true;
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            if (assigns(tree.getChild(i), name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void collectVariables(ParseTree tree, Set<String> variables) {
+        if (tree instanceof JavaParser.VariableReferenceContext reference) {
+            variables.add(reference.ID().getText());
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            collectVariables(tree.getChild(i), variables);
+        }
+    }
+
+    private static JavaParser.ExprContext unwrap(JavaParser.ExprContext expr) {
+        while (expr instanceof JavaParser.PrimaryExpressionContext e
+                && e.primary() instanceof JavaParser.ParenthesizedExpressionContext parenthesized) {
+            expr = parenthesized.expr();
+        }
+        return expr;
+    }
+
+    // The variable an expression is just a reference to, null if it's anything else
+    private static String variable(JavaParser.ExprContext expr) {
+        expr = unwrap(expr);
+        if (expr instanceof JavaParser.PrimaryExpressionContext e
+                && e.primary() instanceof JavaParser.VariableReferenceContext reference) {
+            return reference.ID().getText();
+        }
+        return null;
+    }
+
+    private static int intLiteral(JavaParser.ExprContext expr) {
+        expr = unwrap(expr);
+        if (expr instanceof JavaParser.PrimaryExpressionContext e
+                && e.primary() instanceof JavaParser.LiteralExpressionContext literal
+                && literal.literal() instanceof JavaParser.IntegerLiteralContext integer) {
+            try {
+                return Integer.parseInt(integer.INT().getText());
+            } catch (NumberFormatException ex) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static int sum(int a, int b) {
+        return a < 0 || b < 0 ? UNKNOWN : a + b;
+    }
+
+    private static int max(int a, int b) {
+        return a < 0 || b < 0 ? UNKNOWN : Math.max(a, b);
+    }
+}
@@ -2,131 +2,247 @@ package com.example.demo.service;
 
 import com.example.demo.model.CodeEntry;
 import com.example.demo.repository.CodeRepository;
-import org.codehaus.janino.SimpleCompiler;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.lang.reflect.Method;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 
 @Service
 public class TimeComplexityService {
 
+    // Same name for every snippet, each one is compiled into its own class loader. That keeps
+    // the generated source identical for identical code, so it can be served from the cache.
+    static final String CLASS_NAME = "DynamicCode";
+
     @Autowired
     private CodeRepository codeRepository;
 
-    public String analyzeAndStoreComplexity(String code, String userEmail) throws Exception {
-        String className = "DynamicCode_" + System.currentTimeMillis();
-        String fullCode = generateFullCode(className, code);
+    @Autowired
+    private CompiledClassCache compiledClassCache;
 
-        System.out.println("Generated Code: " + fullCode);
-        Class<?> compiledClass = compileWithJanino(fullCode);
-        System.out.println("Compilation Successful for class: " + compiledClass.getName());
+    @Autowired
+    private SandboxExecutor sandboxExecutor;
 
-        Map<Integer, Long> executionCounts = measureExecutionCounts(compiledClass);
-        System.out.println("Execution Counts: " + executionCounts);
-        String complexity = estimateComplexity(executionCounts);
-        System.out.println("Detected Complexity: " + complexity);
+    @Autowired
+    private StaticComplexityEstimator staticComplexityEstimator;
 
-        CodeEntry entry = new CodeEntry(userEmail, code, complexity,"");
-        codeRepository.save(entry);
-        return complexity;
+    @Autowired
+    private WorkerPool workerPool;
+
+    @Autowired
+    private BenchmarkService benchmarkService;
+
+    private final SingleFlight<Analysis> analyses = new SingleFlight<>();
+
+    @Value("${codeanalysis.static.enabled:true}")
+    private boolean staticEnabled = true;
+
+    @Value("${codeanalysis.static.min-confidence:0.9}")
+    private double staticMinConfidence = 0.9;
+
+    @Value("${codeanalysis.measure.trials:1}")
+    private int trials = 1;
+
+    @Value("${codeanalysis.sweep.min-n:4}")
+    private int sweepMinN = 4;
+
+    @Value("${codeanalysis.sweep.max-n:1048576}")
+    private int sweepMaxN = 1 << 20;
+
+    @Value("${codeanalysis.sweep.growth:1.5}")
+    private double sweepGrowth = 1.5;
+
+    @Value("${codeanalysis.sweep.max-operations:20000000}")
+    private long sweepMaxOperations = 20_000_000;
+
+    @Value("${codeanalysis.sweep.time-budget-millis:3000}")
+    private long sweepTimeBudgetMillis = 3000;
+
+    // Runs that allocate nothing of their own still differ by a few dozen bytes (boxing, TLAB refills)
+    private static final long ALLOCATION_NOISE_BYTES = 1024;
+
+    @Value("${codeanalysis.sweep.max-allocated-bytes:67108864}")
+    private long sweepMaxAllocatedBytes = 64L << 20;
+
+    // source is "static" when the estimate from the code's structure was trusted, then nothing was
+    // run and the series are empty, or "measured". status is the sandbox status of the run that ended
+    // the sweep early, if one did, and stoppedAt its n. Confidences and fitError are null when there weren't enough sizes
+    // to fit. Space is fitted on allocated bytes, peakHeapBytes is sampled from the shared heap and
+    // only reported
+    public record Analysis(String complexity, Double confidence, Double fitError,
+                           String spaceComplexity, Double spaceConfidence, SandboxExecutor.Status status,
+                           Integer stoppedAt, String source, SortedMap<Integer, Long> operationCounts, SortedMap<Integer, Long> allocatedBytes,
+                           SortedMap<Integer, Long> peakHeapBytes) {
+        public boolean partial() {
+            return status != SandboxExecutor.Status.COMPLETED;
+        }
     }
 
-    private String generateFullCode(String className, String code) {
-        return "public class " + className + " {\n" +
-               "    private static long operationCount = 0;\n" +
-               "    public static int execute(int n) {\n" +
-               "        operationCount = 0;\n" +
-               code + "\n" +
-               "        return 0;\n" +
-               "    }\n" +
-               "    public static long getOperationCount() {\n" +
-               "        return operationCount;\n" +
-               "    }\n" +
-               "}";
+    // One size of a verification run. output is the return value or exception and a digest of
+    // what was passed to consume(), null when the run hit a sandbox limit and can't be compared
+    public record Probe(int n, SandboxExecutor.Status status, String output) {}
+
+    public Analysis analyzeAndStoreComplexity(String code, String userEmail) throws Exception {
+        Analysis analysis = analyzeComplexity(code);
+        storeAnalysis(code, userEmail, analysis);
+        return analysis;
     }
 
-    private Class<?> compileWithJanino(String code) throws Exception {
-        SimpleCompiler compiler = new SimpleCompiler();
-        compiler.cook(code);
-        return compiler.getClassLoader().loadClass(code.split("class ")[1].split(" ")[0]);
+    // Identical snippets sent at the same time are analyzed once, every caller stores its own entry
+    public Analysis analyzeComplexity(String code) throws Exception {
+        return Futures.await(analyses.execute(SingleFlight.key(code),
+                                              () -> Futures.supplyInterruptibly(() -> analyze(code))));
     }
 
-    private Map<Integer, Long> measureExecutionCounts(Class<?> clazz) throws Exception {
-        Map<Integer, Long> counts = new HashMap<>();
-        // Adjusted input sizes for O(2^n) detection (small values to avoid overflow)
-        int[] inputSizes = {5, 10, 15, 20}; // 2^5=32, 2^10=1024, 2^15=32768, 2^20=1048576
+    public void storeAnalysis(String code, String userEmail, Analysis analysis) {
+        CodeEntry entry = new CodeEntry(userEmail, code, analysis.complexity(), "");
+        entry.setSpaceComplexity(analysis.spaceComplexity());
+        codeRepository.save(entry);
+    }
+
+    public Map<String, Object> flightStats() {
+        return analyses.stats();
+    }
 
-        for (int n : inputSizes) {
-            Method executeMethod = clazz.getMethod("execute", int.class);
-            Method getCountMethod = clazz.getMethod("getOperationCount");
+    /**
+     * Runs code for every size in increasing order until one hits a sandbox limit, in a worker
+     * JVM when there is one. Throws when the code doesn't compile.
+     */
+    public List<Probe> probe(String code, int[] sizes) throws Exception {
+        String source = generateVerificationCode(CLASS_NAME, code);
+        if (workerPool.isAvailable()) {
+            return workerPool.probe(source, CLASS_NAME, sizes);
+        }
+        return probe(sandboxExecutor, compiledClassCache.load(source, CLASS_NAME), sizes);
+    }
 
-            executeMethod.invoke(null, n);
-            long operationCount = (Long) getCountMethod.invoke(null);
-            counts.put(n, operationCount);
+    // BenchmarkService.benchmark() in a worker JVM when there is one
+    public List<BenchmarkService.SizeResult> benchmark(String code, int[] sizes) throws Exception {
+        String source = generateFullCode(CLASS_NAME, code);
+        if (workerPool.isAvailable()) {
+            return workerPool.benchmark(source, CLASS_NAME, sizes);
         }
+        return benchmarkService.benchmark(source, CLASS_NAME, sizes);
+    }
 
-        return counts;
+    // probe() on a class compiled from generateVerificationCode(), in the server or in a worker
+    static List<Probe> probe(SandboxExecutor sandboxExecutor, Class<?> compiled, int[] sizes) throws Exception {
+        Method execute = compiled.getMethod("execute", int.class);
+        List<Probe> probes = new ArrayList<>();
+        for (int n : Arrays.stream(sizes).sorted().toArray()) {
+            Callable<String> run = () -> {
+                Object result = execute.invoke(null, n);
+                OperationCounter counter = OperationCounter.current();
+                return "returned " + result + " after consuming " + counter.outputs() + " values (digest "
+                       + Long.toHexString(counter.outputDigest()) + ")";
+            };
+            SandboxExecutor.Run outcome = sandboxExecutor.run(run);
+            String output = switch (outcome.status()) {
+                case COMPLETED -> (String) outcome.result();
+                case FAILED -> "threw " + outcome.error();
+                default -> null;
+            };
+            probes.add(new Probe(n, outcome.status(), output));
+            if (output == null) {
+                break;
+            }
+        }
+        return probes;
     }
 
-    private String estimateComplexity(Map<Integer, Long> executionCounts) {
-        double[] x = new double[executionCounts.size()];
-        double[] y = new double[executionCounts.size()];
-        int i = 0;
-        for (Map.Entry<Integer, Long> entry : executionCounts.entrySet()) {
-            x[i] = entry.getKey(); // Use raw n for exponential check
-            y[i] = entry.getValue(); // Raw operation count
-            i++;
+    private Analysis analyze(String code) throws Exception {
+        // Code whose complexity is plain from its loops and recursion isn't compiled or run at all
+        if (staticEnabled) {
+            StaticComplexityEstimator.Estimate estimate = staticComplexityEstimator.estimate(code);
+            if (estimate.confidence() >= staticMinConfidence) {
+                System.out.println("Detected Complexity: " + estimate.complexity() + " (static, confidence "
+                                   + estimate.confidence() + "), space " + estimate.spaceComplexity());
+                return new Analysis(estimate.complexity(), estimate.confidence(), null,
+                                    estimate.spaceComplexity(), estimate.confidence(), SandboxExecutor.Status.COMPLETED,
+                                    null, "static", new TreeMap<>(), new TreeMap<>(), new TreeMap<>());
+            }
         }
 
-        // Check for O(2^n) by comparing operations to 2^n
-        boolean isExponential = isExponentialGrowth(x, y);
-        if (isExponential) return "O(2^n)";
+        String fullCode = generateFullCode(CLASS_NAME, code);
 
-        // Fall back to log-log regression for other cases
-        double[] logX = new double[x.length];
-        double[] logY = new double[y.length];
-        for (i = 0; i < x.length; i++) {
-            logX[i] = Math.log(x[i]);
-            logY[i] = Math.log(y[i]);
+        System.out.println("Generated Code: " + fullCode);
+        ComplexitySweep.Measurement measurement;
+        if (workerPool.isAvailable()) {
+            // Compiled and run in a worker JVM, whatever the snippet does can't take the server down
+            measurement = workerPool.measure(fullCode, CLASS_NAME, sweepSettings());
+        } else {
+            Class<?> compiledClass = compiledClassCache.load(fullCode, CLASS_NAME);
+            System.out.println("Compilation Successful for class: " + compiledClass.getName());
+            measurement = new ComplexitySweep(sandboxExecutor, sweepSettings()).measure(compiledClass);
         }
 
-        double a = calculateSlope(logX, logY);
-        if (Math.abs(a - 1.0) < 0.2) return "O(n)";
-        if (Math.abs(a - 2.0) < 0.2) return "O(n^2)";
-        if (a < 0.5) return "O(log n)";
-        return "O(n^" + String.format("%.1f", a) + ")";
+        SortedMap<Integer, Long> executionCounts = measurement.operationCounts();
+        SortedMap<Integer, Long> allocatedBytes = measurement.allocatedBytes();
+        SortedMap<Integer, Long> peakHeapBytes = measurement.peakHeapBytes();
+        SandboxExecutor.Status status = measurement.status();
+        System.out.println("Execution Counts: " + executionCounts + " (" + status
+                           + (measurement.stoppedAt() == null ? "" : " at n=" + measurement.stoppedAt()) + ")");
+        System.out.println("Allocated Bytes: " + allocatedBytes);
+        ComplexityFitter.Fit fit = ComplexityFitter.fit(executionCounts);
+        ComplexityFitter.Fit spaceFit = ComplexityFitter.fit(allocatedBytes, ALLOCATION_NOISE_BYTES);
+        String complexity = fit == null ? "Unknown" : fit.model().getLabel();
+        String spaceComplexity = spaceFit == null ? "Unknown" : spaceFit.model().getLabel();
+        System.out.println("Detected Complexity: " + complexity + (fit == null ? "" : " (confidence " + fit.confidence() + ")")
+                           + ", space " + spaceComplexity);
+
+        return new Analysis(complexity, fit == null ? null : fit.confidence(), fit == null ? null : fit.error(),
+                            spaceComplexity, spaceFit == null ? null : spaceFit.confidence(), status,
+                            measurement.stoppedAt(), "measured", executionCounts, allocatedBytes, peakHeapBytes);
     }
 
-    private boolean isExponentialGrowth(double[] x, double[] y) {
-        if (x.length < 2) return false;
-        for (int i = 1; i < x.length; i++) {
-            double expectedGrowth = Math.pow(2, x[i]) / Math.pow(2, x[i-1]);
-            double actualGrowth = y[i] / (double) y[i-1];
-            // Allow some tolerance due to integer approximations
-            if (Math.abs(actualGrowth - expectedGrowth) > 0.5) return false;
-        }
-        return true;
+    private ComplexitySweep.Settings sweepSettings() {
+        return new ComplexitySweep.Settings(trials, sweepMinN, sweepMaxN, sweepGrowth, sweepMaxOperations,
+                                            sweepTimeBudgetMillis, sweepMaxAllocatedBytes);
     }
 
-    private double calculateSlope(double[] x, double[] y) {
-        double sumX = 0, sumY = 0, sumXY = 0, sumX2 = 0;
-        int n = x.length;
-        for (int i = 0; i < n; i++) {
-            sumX += x[i];
-            sumY += y[i];
-            sumXY += x[i] * y[i];
-            sumX2 += x[i] * x[i];
-        }
-        return (n * sumXY - sumX * sumY) / (n * sumX2 - sumX * sumX);
+    static String generateFullCode(String className, String code) {
+        // consume() keeps a result alive when the snippet is benchmarked
+        return generateCode(className, code, "com.example.demo.service.Blackhole.consume");
+    }
+
+    // Like generateFullCode, but consume() records what it gets into the run's OperationCounter
+    static String generateVerificationCode(String className, String code) {
+        return generateCode(className, code, "com.example.demo.service.OperationCounter.record");
+    }
+
+    private static String generateCode(String className, String code, String consumer) {
+        // Operations are counted by the instrumentation, operationCount is only left so that
+        // snippets still incrementing it by hand compile
+        return "public class " + className + " {\n" +
+               "    public static int execute(int n) {\n" +
+               "        long operationCount = 0;\n" +
+               code + "\n" +
+               "        return 0;\n" +
+               "    }\n" +
+               "    static void checkpoint() {\n" +
+               "        com.example.demo.service.SandboxExecutor.checkpoint();\n" +
+               "    }\n" +
+               "    static void consume(long value) {\n" +
+               "        " + consumer + "(value);\n" +
+               "    }\n" +
+               "    static void consume(Object value) {\n" +
+               "        " + consumer + "(value);\n" +
+               "    }\n" +
+               "}";
     }
 
     public static void main(String[] args) throws Exception {
         TimeComplexityService service = new TimeComplexityService();
-        String code = "int count = 0; for (int i = 0; i < (1 << n); i++) { count++; operationCount++; }";
-        String complexity = service.analyzeAndStoreComplexity(code, "test@example.com");
-        System.out.println("Complexity: " + complexity);
+        String code = "int count = 0; for (int i = 0; i < (1 << n); i++) { count++; }";
+        Analysis analysis = service.analyzeAndStoreComplexity(code, "test@example.com");
+        System.out.println("Complexity: " + analysis.complexity());
     }
 }
\ No newline at end of file
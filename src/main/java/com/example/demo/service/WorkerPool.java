@@ -0,0 +1,366 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Pool of worker JVMs that compile and run snippets for /code/analyze, /code/benchmark and
+ * OptimizationVerifier, so that a snippet calling System.exit, running out of memory or
+ * leaking static state only takes its worker down, and the measurement doesn't share a heap
+ * with the server.
+ *
+ * Workers run MeasurementWorker on the server's class path and take one job at a time as a
+ * line of JSON over stdin and stdout. They warm up before they report ready, so a job never
+ * waits for a JVM to start. A worker is replaced after max-jobs jobs, once more than
+ * recycle-heap-bytes of its heap survive a collection, once one of its sandbox threads is
+ * stuck, and when it dies or overruns the job timeout (then it's killed, which a stuck thread
+ * in the server couldn't be). Replacements start in the background. When no worker can be
+ * started at all, TimeComplexityService runs them in the server as before.
+ */
+@Service
+public class WorkerPool {
+
+    private static final long STARTUP_TIMEOUT_MILLIS = 30_000;
+    private static final String BOOT_LAUNCHER = "org.springframework.boot.loader.launch.PropertiesLauncher";
+
+    // SWEEP measures the complexity, PROBE and BENCHMARK run the sizes for OptimizationVerifier and /code/benchmark
+    public enum Kind { SWEEP, PROBE, BENCHMARK }
+
+    // settings is only used by SWEEP, sizes by PROBE and BENCHMARK
+    public record Job(Kind kind, String source, String className, ComplexitySweep.Settings settings, int[] sizes) {}
+
+    // The answer for the job's kind, the others are null, and all of them are when error is set.
+    // retainedHeapBytes and stuckWorkers are the worker's state after the job
+    public record Result(ComplexitySweep.Measurement measurement, List<TimeComplexityService.Probe> probes,
+                         List<BenchmarkService.SizeResult> benchmark, String error, long retainedHeapBytes,
+                         int stuckWorkers) {}
+
+    private static class Worker {
+        private final Process process;
+        private final BufferedWriter input;
+        private final BufferedReader output;
+        private int jobs;
+
+        Worker(Process process) {
+            this.process = process;
+            this.input = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+            this.output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private final boolean enabled;
+    private final int count;
+    private final String maxHeap;
+    private final int maxJobs;
+    private final long recycleHeapBytes;
+    private final long acquireTimeoutMillis;
+    private final long jobTimeoutMillis;
+    private final int warmupRounds;
+    private final List<String> sandboxProperties = new ArrayList<>();
+    private final List<String> benchmarkProperties = new ArrayList<>();
+
+    private final BlockingQueue<Worker> idle = new LinkedBlockingQueue<>();
+    private final Set<Worker> workers = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger starting = new AtomicInteger();
+    // Starts workers and waits on their output
+    private final ExecutorService background = Executors.newVirtualThreadPerTaskExecutor();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private volatile boolean shutdown;
+
+    private final AtomicLong jobs = new AtomicLong();
+    private final AtomicLong recycled = new AtomicLong();
+    private final AtomicLong crashed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong startFailures = new AtomicLong();
+
+    public WorkerPool(@Value("${codeanalysis.workers.enabled:true}") boolean enabled,
+                      @Value("${codeanalysis.workers.count:0}") int count,
+                      @Value("${codeanalysis.workers.max-heap:512m}") String maxHeap,
+                      @Value("${codeanalysis.workers.max-jobs:100}") int maxJobs,
+                      @Value("${codeanalysis.workers.recycle-heap-bytes:134217728}") long recycleHeapBytes,
+                      @Value("${codeanalysis.workers.acquire-timeout-millis:10000}") long acquireTimeoutMillis,
+                      @Value("${codeanalysis.workers.job-timeout-millis:15000}") long jobTimeoutMillis,
+                      @Value("${codeanalysis.workers.warmup-rounds:3}") int warmupRounds,
+                      @Value("${codeanalysis.workers.sandbox-threads:0}") int sandboxThreads,
+                      @Value("${codeanalysis.sandbox.queue-capacity:16}") int sandboxQueueCapacity,
+                      @Value("${codeanalysis.sandbox.deadline-millis:2000}") long sandboxDeadlineMillis,
+                      @Value("${codeanalysis.sandbox.max-operations:100000000}") long sandboxMaxOperations,
+                      @Value("${codeanalysis.sandbox.max-allocated-bytes:268435456}") long sandboxMaxAllocatedBytes,
+                      @Value("${codeanalysis.sandbox.max-queue-millis:10000}") long sandboxMaxQueueMillis,
+                      @Value("${codeanalysis.benchmark.warmup-millis:200}") long benchmarkWarmupMillis,
+                      @Value("${codeanalysis.benchmark.iterations:20}") int benchmarkIterations,
+                      @Value("${codeanalysis.benchmark.sample-millis:2}") long benchmarkSampleMillis) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        this.enabled = enabled;
+        this.count = count <= 0 ? cores : count;
+        this.maxHeap = maxHeap;
+        this.maxJobs = Math.max(1, maxJobs);
+        this.recycleHeapBytes = recycleHeapBytes;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.jobTimeoutMillis = jobTimeoutMillis;
+        this.warmupRounds = warmupRounds;
+
+        // Every worker gets threads for a whole sweep batch, not its share of the cores: one
+        // thread each would run every sweep one size at a time even on an idle server. When all
+        // workers sweep at once the cores are oversubscribed, which costs sizes within the time
+        // budget but doesn't change the operation counts
+        sandboxProperties.add("-Dcodeanalysis.sandbox.threads=" + (sandboxThreads <= 0 ? cores : sandboxThreads));
+        sandboxProperties.add("-Dcodeanalysis.sandbox.queue-capacity=" + sandboxQueueCapacity);
+        sandboxProperties.add("-Dcodeanalysis.sandbox.deadline-millis=" + sandboxDeadlineMillis);
+        sandboxProperties.add("-Dcodeanalysis.sandbox.max-operations=" + sandboxMaxOperations);
+        sandboxProperties.add("-Dcodeanalysis.sandbox.max-allocated-bytes=" + sandboxMaxAllocatedBytes);
+        sandboxProperties.add("-Dcodeanalysis.sandbox.max-queue-millis=" + sandboxMaxQueueMillis);
+        benchmarkProperties.add("-Dcodeanalysis.benchmark.warmup-millis=" + benchmarkWarmupMillis);
+        benchmarkProperties.add("-Dcodeanalysis.benchmark.iterations=" + benchmarkIterations);
+        benchmarkProperties.add("-Dcodeanalysis.benchmark.sample-millis=" + benchmarkSampleMillis);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            replace();
+        }
+    }
+
+    /**
+     * False when the pool is disabled or no worker is running or starting, measure() would only wait then.
+     */
+    public boolean isAvailable() {
+        return enabled && !shutdown && workers.size() + starting.get() > 0;
+    }
+
+    /**
+     * Compiles source in a worker and sweeps className there. Waits up to the acquire timeout
+     * for an idle worker and returns an empty REJECTED measurement if none comes free, and an
+     * empty TIMEOUT one if the worker overruns the job timeout. Compile errors and snippets
+     * that throw come back as IllegalStateException, like in the server.
+     */
+    public ComplexitySweep.Measurement measure(String source, String className, ComplexitySweep.Settings settings) throws Exception {
+        return submit(new Job(Kind.SWEEP, source, className, settings, null), Result::measurement,
+                      ComplexitySweep.Measurement::empty);
+    }
+
+    /**
+     * Like TimeComplexityService.probe() in a worker. When no worker comes free or it overruns
+     * the job timeout there is a single probe for the smallest size, with that status and no output.
+     */
+    public List<TimeComplexityService.Probe> probe(String source, String className, int[] sizes) throws Exception {
+        return submit(new Job(Kind.PROBE, source, className, null, sizes), Result::probes,
+                      status -> List.of(new TimeComplexityService.Probe(smallest(sizes), status, null)));
+    }
+
+    /**
+     * Like BenchmarkService.benchmark() in a worker. When no worker comes free or it overruns
+     * the job timeout there is a single untimed result for the smallest size with that status.
+     */
+    public List<BenchmarkService.SizeResult> benchmark(String source, String className, int[] sizes) throws Exception {
+        return submit(new Job(Kind.BENCHMARK, source, className, null, sizes), Result::benchmark,
+                      status -> List.of(new BenchmarkService.SizeResult(smallest(sizes), status, 0, null)));
+    }
+
+    // Runs job on an idle worker. unanswered makes the answer when there is none, from REJECTED or TIMEOUT
+    private <T> T submit(Job job, Function<Result, T> answer,
+                         Function<SandboxExecutor.Status, T> unanswered) throws Exception {
+        Worker worker = idle.poll(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        if (worker == null) {
+            rejected.incrementAndGet();
+            return unanswered.apply(SandboxExecutor.Status.REJECTED);
+        }
+
+        Result result = null;
+        try {
+            result = call(worker, mapper.writeValueAsString(job));
+        } catch (TimeoutException e) {
+            timedOut.incrementAndGet();
+            System.err.println("Worker JVM " + worker.process.pid() + " overran " + jobTimeoutMillis + " ms, killing it");
+            return unanswered.apply(SandboxExecutor.Status.TIMEOUT);
+        } catch (IOException e) {
+            crashed.incrementAndGet();
+            throw new IllegalStateException("Worker JVM exited during the analysis (System.exit or out of memory?)");
+        } finally {
+            release(worker, result);
+        }
+
+        jobs.incrementAndGet();
+        if (result.error() != null) {
+            throw new IllegalStateException(result.error());
+        }
+        return answer.apply(result);
+    }
+
+    private static int smallest(int[] sizes) {
+        return Arrays.stream(sizes).min().orElse(0);
+    }
+
+    private Result call(Worker worker, String job) throws IOException, TimeoutException, InterruptedException {
+        worker.input.write(job);
+        worker.input.newLine();
+        worker.input.flush();
+        String line = readLine(worker, jobTimeoutMillis);
+        return mapper.readValue(line, Result.class);
+    }
+
+    // A blocked read can't time out by itself. On timeout it is left to end when the process is killed
+    private String readLine(Worker worker, long timeoutMillis) throws IOException, TimeoutException, InterruptedException {
+        Future<String> line = background.submit(worker.output::readLine);
+        try {
+            String read = line.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            if (read == null) {
+                throw new EOFException("Worker JVM " + worker.process.pid() + " exited");
+            }
+            return read;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        }
+    }
+
+    // Back to the idle queue, or replaced by a fresh worker
+    private void release(Worker worker, Result result) {
+        boolean healthy = result != null && worker.process.isAlive() && ++worker.jobs < maxJobs
+                && result.retainedHeapBytes() < recycleHeapBytes && result.stuckWorkers() == 0;
+        if (healthy && !shutdown) {
+            idle.add(worker);
+            return;
+        }
+        if (result != null) {
+            recycled.incrementAndGet();
+        }
+        workers.remove(worker);
+        worker.process.destroyForcibly();
+        if (!shutdown) {
+            replace();
+        }
+    }
+
+    private void replace() {
+        starting.incrementAndGet();
+        background.submit(() -> {
+            try {
+                Worker worker = launch();
+                if (shutdown) {
+                    worker.process.destroyForcibly();
+                    return;
+                }
+                workers.add(worker);
+                idle.add(worker);
+            } catch (Exception e) {
+                if (!shutdown) {
+                    startFailures.incrementAndGet();
+                    System.err.println("Could not start a worker JVM: " + e);
+                }
+            } finally {
+                starting.decrementAndGet();
+            }
+        });
+    }
+
+    private Worker launch() throws Exception {
+        Process process = new ProcessBuilder(command()).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        Worker worker = new Worker(process);
+        try {
+            String line = readLine(worker, STARTUP_TIMEOUT_MILLIS);
+            if (!MeasurementWorker.READY.equals(line)) {
+                throw new IOException("unexpected output " + line);
+            }
+        } catch (Exception e) {
+            process.destroyForcibly();
+            throw e;
+        }
+        return worker;
+    }
+
+    private List<String> command() throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Xmx" + maxHeap);
+        // Dies instead of limping on, and gets replaced. One GC thread, there are several workers
+        command.add("-XX:+ExitOnOutOfMemoryError");
+        command.add("-XX:+UseSerialGC");
+        command.addAll(sandboxProperties);
+        command.addAll(benchmarkProperties);
+        command.add("-Dcodeanalysis.workers.warmup-rounds=" + warmupRounds);
+
+        String classPath = System.getProperty("java.class.path");
+        command.add("-cp");
+        command.add(classPath);
+        if (isBootJar(classPath)) {
+            // The application classes are nested in the jar, only its own launcher can load them
+            command.add("-Dloader.main=" + MeasurementWorker.class.getName());
+            command.add(BOOT_LAUNCHER);
+        } else {
+            command.add(MeasurementWorker.class.getName());
+        }
+        return command;
+    }
+
+    private static boolean isBootJar(String classPath) throws IOException {
+        if (classPath.contains(File.pathSeparator) || !classPath.endsWith(".jar")) {
+            return false;
+        }
+        try (JarFile jar = new JarFile(classPath)) {
+            Manifest manifest = jar.getManifest();
+            return manifest != null && manifest.getMainAttributes().getValue("Start-Class") != null;
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("workers", workers.size());
+        stats.put("idle", idle.size());
+        stats.put("starting", starting.get());
+        stats.put("jobs", jobs.get());
+        stats.put("recycled", recycled.get());
+        stats.put("crashed", crashed.get());
+        stats.put("timedOut", timedOut.get());
+        stats.put("rejected", rejected.get());
+        stats.put("startFailures", startFailures.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        shutdown = true;
+        for (Worker worker : workers) {
+            worker.process.destroyForcibly();
+        }
+        background.shutdownNow();
+    }
+}
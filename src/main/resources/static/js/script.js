@@ -73,9 +73,90 @@ document.addEventListener('DOMContentLoaded', () => {
         document.getElementById('compile-btn').addEventListener('click', compileCode);
         document.getElementById('analyze-btn').addEventListener('click', analyzeCode);
         document.getElementById('optimize-btn').addEventListener('click', optimizeCode);
+        document.getElementById('code-editor').addEventListener('input', scheduleLiveCheck);
     }
 });
 
+// Live checking: the server keeps the document and only gets the changed range on each edit
+const liveDoc = { id: null, version: 0, text: null, timer: null, pending: false };
+
+function scheduleLiveCheck() {
+    clearTimeout(liveDoc.timer);
+    liveDoc.timer = setTimeout(liveCheck, 300);
+}
+
+async function liveCheck() {
+    if (liveDoc.pending) {
+        scheduleLiveCheck();
+        return;
+    }
+    const text = document.getElementById('code-editor').value;
+    let body;
+    if (liveDoc.text === null) {
+        // The server hands out the id, sending the old one closes that document
+        body = { documentId: liveDoc.id, code: text };
+    } else if (text === liveDoc.text) {
+        return;
+    } else {
+        body = { documentId: liveDoc.id, version: liveDoc.version, edits: [diffEdit(liveDoc.text, text)] };
+    }
+
+    liveDoc.pending = true;
+    try {
+        const response = await fetch('/api/check/incremental', {
+            method: 'POST',
+            headers: { 'Content-Type': 'application/json' },
+            body: JSON.stringify(body)
+        });
+        const result = await response.json();
+
+        if (result.resync) {
+            liveDoc.text = null;
+            scheduleLiveCheck();
+            return;
+        }
+        liveDoc.id = result.documentId;
+        liveDoc.text = text;
+        liveDoc.version = result.version;
+        showLiveErrors(result);
+    } catch (error) {
+        liveDoc.text = null;
+    } finally {
+        liveDoc.pending = false;
+    }
+}
+
+// Single replace edit covering everything between the common prefix and suffix
+function diffEdit(oldText, newText) {
+    let prefix = 0;
+    const max = Math.min(oldText.length, newText.length);
+    while (prefix < max && oldText[prefix] === newText[prefix]) prefix++;
+    let suffix = 0;
+    while (suffix < max - prefix &&
+           oldText[oldText.length - 1 - suffix] === newText[newText.length - 1 - suffix]) suffix++;
+    return {
+        offset: prefix,
+        length: oldText.length - prefix - suffix,
+        replacement: newText.substring(prefix, newText.length - suffix)
+    };
+}
+
+function showLiveErrors(result) {
+    const outputDiv = document.getElementById('output');
+    if (result.valid) {
+        outputDiv.innerHTML = `<span class="success">✓ No errors</span>`;
+        outputDiv.className = "success";
+        return;
+    }
+    let errorHtml = "<h4>Errors:</h4><ul>";
+    result.errors.forEach(error => {
+        errorHtml += `<li class="error">${escapeHTML(error)}</li>`;
+    });
+    errorHtml += "</ul>";
+    outputDiv.innerHTML = errorHtml;
+    outputDiv.className = "";
+}
+
 async function compileCode() {
     const code = document.getElementById('code-editor').value;
     const outputDiv = document.getElementById('output');
@@ -176,33 +257,111 @@ async function optimizeCode() {
         return;
     }
 
-    outputDiv.innerHTML = "Optimizing code...";
+    // The optimized code is shown as it streams in, then replaced by the cleaned-up result
+    outputDiv.innerHTML = `
+        <span>Optimizing code...</span>
+        <pre></pre>
+    `;
+    outputDiv.className = "";
+    const streamed = outputDiv.querySelector("pre");
 
     try {
-        const response = await fetch("/code/optimize", {
+        const response = await fetch("/code/optimize/stream", {
             method: "POST",
             headers: { "Content-Type": "application/json" },
             body: JSON.stringify({ email, code })
         });
 
-        const data = await response.json();
-
-        if (data.success) {
-            outputDiv.innerHTML = `
-                <span class="success">Optimized Code:</span>
-                <pre>${escapeHTML(data.optimizedCode)}</pre>
-            `;
-            outputDiv.className = "success";
-        } else {
-            outputDiv.innerHTML = `<span class="error">Error: ${data.error}</span>`;
-            outputDiv.className = "error";
-        }
+        // Something in between that doesn't stream (or an old browser): run it as a job instead
+        const contentType = response.headers.get("Content-Type") || "";
+        const data = response.ok && contentType.startsWith("text/event-stream") && response.body
+            ? await readOptimizationStream(response, streamed)
+            : await pollOptimization(email, code);
+        showOptimization(outputDiv, data);
     } catch (error) {
         outputDiv.innerHTML = `<span class="error">Error: ${error.message}</span>`;
         outputDiv.className = "error";
     }
 }
 
+// Shows the "chunk" events in streamed as they come, returns the "result" event's data
+async function readOptimizationStream(response, streamed) {
+    const reader = response.body.pipeThrough(new TextDecoderStream()).getReader();
+    let buffer = "";
+    let data = null;
+    while (true) {
+        const { value, done } = await reader.read();
+        if (done) break;
+        buffer += value.replace(/\r\n?/g, "\n");
+        let end;
+        while ((end = buffer.indexOf("\n\n")) >= 0) {
+            const event = parseEvent(buffer.slice(0, end));
+            buffer = buffer.slice(end + 2);
+            if (event.name === "chunk") {
+                streamed.textContent += event.data.text;
+            } else if (event.name === "result") {
+                data = event.data;
+            }
+        }
+    }
+    return data;
+}
+
+// POST /code/optimize answers 202 at once, the result is polled from its Location until the job is done
+async function pollOptimization(email, code) {
+    const response = await fetch("/code/optimize", {
+        method: "POST",
+        headers: { "Content-Type": "application/json" },
+        body: JSON.stringify({ email, code })
+    });
+    let data = await response.json();
+    const location = response.headers.get("Location");
+    if (response.status !== 202 || !location) {
+        return data;
+    }
+    while (data.status === "RUNNING") {
+        await new Promise(resolve => setTimeout(resolve, 1000));
+        data = await (await fetch(location)).json();
+    }
+    if (data.status === "CANCELLED" && !data.error) {
+        data.error = "The optimization was cancelled";
+    }
+    return data;
+}
+
+function showOptimization(outputDiv, data) {
+    if (!data) {
+        outputDiv.innerHTML = `<span class="error">Error: The connection closed before the result arrived</span>`;
+        outputDiv.className = "error";
+    } else if (data.success) {
+        outputDiv.innerHTML = `
+            <span class="success">Optimized Code:</span>
+            <pre>${escapeHTML(data.optimizedCode)}</pre>
+            ${data.changes.length ? `<ul>${data.changes.map(change => `<li>${escapeHTML(change)}</li>`).join("")}</ul>` : ""}
+            ${data.verification ? `<ul>${data.verification.notes.map(note => `<li>${escapeHTML(note)}</li>`).join("")}</ul>` : ""}
+            <span>${escapeHTML(data.message)}</span>
+        `;
+        outputDiv.className = "success";
+    } else {
+        outputDiv.innerHTML = `<span class="error">Error: ${data.error}</span>`;
+        outputDiv.className = "error";
+    }
+}
+
+// One server-sent event: its name and its data, parsed as JSON
+function parseEvent(text) {
+    let name = "message";
+    const data = [];
+    text.split("\n").forEach(line => {
+        if (line.startsWith("event:")) {
+            name = line.slice(6).trim();
+        } else if (line.startsWith("data:")) {
+            data.push(line.slice(line.startsWith("data: ") ? 6 : 5));
+        }
+    });
+    return { name, data: JSON.parse(data.join("\n")) };
+}
+
 // Utility to escape code output
 function escapeHTML(text) {
     return text.replace(/[&<>"']/g, match => ({
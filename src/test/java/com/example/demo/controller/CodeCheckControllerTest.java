@@ -0,0 +1,213 @@
+package com.example.demo.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.example.demo.grammar.diagnostics.Diagnostic;
+import com.example.demo.service.CodeParser;
+import com.example.demo.service.DiagnosticsCache;
+import com.example.demo.service.IncrementalCodeParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// /api/check, /api/check/stream and /api/check/incremental against the real parser, without the Spring context
+class CodeCheckControllerTest {
+
+    private final CodeCheckController controller = controller(new IncrementalCodeParser(new CodeParser()));
+
+    private static CodeCheckController controller(IncrementalCodeParser incrementalCodeParser) {
+        return new CodeCheckController(new DiagnosticsCache(new CodeParser(), 1 << 20, 60), incrementalCodeParser,
+                                       null, new ObjectMapper());
+    }
+
+    private Map<String, Object> check(String code) {
+        return controller.checkCode(Map.of("code", code));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Diagnostic> diagnostics(String code) {
+        return (List<Diagnostic>) check(code).get("diagnostics");
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> errors(String code) {
+        return (List<String>) check(code).get("errors");
+    }
+
+    @Test
+    void compoundAssignmentsParseLikePlainAssignments() {
+        List<Diagnostic> compound = diagnostics("int s = 0; s += 2; s -= 1; s *= 3; s /= 2; s %= 5;");
+
+        assertTrue(compound.stream().noneMatch(d -> d.category() == Diagnostic.Category.SYNTAX), String.valueOf(compound));
+        assertEquals(diagnostics("int s = 0; s = 2;").stream().map(Diagnostic::code).distinct().toList(),
+                     compound.stream().map(Diagnostic::code).distinct().toList());
+    }
+
+    @Test
+    void siblingLoopsEachDeclareTheirOwnCounter() {
+        assertEquals(true, check("for (int i = 0; i < 3; i++) { } for (int i = 0; i < 3; i++) { }").get("valid"));
+    }
+
+    @Test
+    void siblingBlocksEachDeclareTheirOwnVariable() {
+        assertEquals(true, check("{ int t = 1; } { int t = 2; }").get("valid"));
+    }
+
+    @Test
+    void redeclarationInTheSameScopeIsStillReported() {
+        List<String> errors = errors("int a = 1; { int b = 1; } int a = 2;");
+
+        assertTrue(errors.stream().anyMatch(e -> e.contains("Duplicate variable name: a")), String.valueOf(errors));
+    }
+
+    @Test
+    void blockEndedBySyntaxErrorStillClosesItsScope() {
+        // The block gives up at the stray tokens, the second a must still land in the outer scope
+        List<String> errors = errors("int a = 1; { ) ] ( } int a = 2;");
+
+        assertTrue(errors.stream().anyMatch(e -> e.contains("Duplicate variable name: a")), String.valueOf(errors));
+    }
+
+    @Test
+    void methodsCanShareAParameterName() {
+        // Parameters belong to their method, not to the class around it
+        Map<String, Object> response = check(
+                "class Calc { int twice(int x) { return x * 2; } int square(int x) { return x * x; } }");
+
+        assertEquals(true, response.get("valid"), String.valueOf(response.get("errors")));
+    }
+
+    private Map<String, Object> incremental(String documentId, Integer version, String code,
+                                            IncrementalCodeParser.TextEdit edit) {
+        return controller.checkIncremental(new CodeCheckController.IncrementalCheckRequest(
+                documentId, version, code, edit == null ? null : List.of(edit)));
+    }
+
+    @Test
+    void incrementalChecksUseTheIdTheServerHandsOut() {
+        Map<String, Object> opened = incremental("chosen-by-client", null, "int a = 1;", null);
+        String documentId = (String) opened.get("documentId");
+
+        assertTrue(documentId != null && !documentId.equals("chosen-by-client"), documentId);
+        Map<String, Object> edited = incremental(documentId, 0, null, new IncrementalCodeParser.TextEdit(9, 0, " +"));
+        assertEquals(false, edited.get("valid"));
+        assertEquals(1, edited.get("version"));
+        assertNull(edited.get("resync"));
+    }
+
+    @Test
+    void staleDocumentsAskForTheFullCode() {
+        String documentId = (String) incremental(null, null, "int a = 1;", null).get("documentId");
+
+        assertEquals(true, incremental(documentId, 5, null, new IncrementalCodeParser.TextEdit(0, 0, " ")).get("resync"));
+        assertEquals(true, incremental(documentId, 0, null, new IncrementalCodeParser.TextEdit(50, 0, " ")).get("resync"));
+        assertEquals(true, incremental("unknown", 0, null, new IncrementalCodeParser.TextEdit(0, 0, " ")).get("resync"));
+    }
+
+    @Test
+    void internalFailuresAreNotTurnedIntoResyncs() {
+        CodeCheckController failing = controller(new IncrementalCodeParser(new CodeParser()) {
+            @Override
+            public Result update(String documentId, Integer version, String code, List<TextEdit> edits) {
+                throw new IllegalStateException("Parser bug");
+            }
+        });
+
+        assertThrows(IllegalStateException.class, () -> failing.checkIncremental(
+                new CodeCheckController.IncrementalCheckRequest(null, null, "int a = 1;", null)));
+    }
+
+    // What the client has been sent at each flush
+    private static class RecordingStream extends ByteArrayOutputStream {
+        final List<String> flushed = new ArrayList<>();
+
+        @Override
+        public void flush() {
+            flushed.add(toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    private RecordingStream stream(String code) throws Exception {
+        ResponseEntity<StreamingResponseBody> response = controller.streamCheck(Map.of("code", code));
+        assertEquals("text/event-stream", response.getHeaders().getFirst("Content-Type"));
+        assertEquals("no-cache", response.getHeaders().getFirst("Cache-Control"));
+        RecordingStream out = new RecordingStream();
+        response.getBody().writeTo(out);
+        return out;
+    }
+
+    // Each frame is "id: <n>\nevent: <name>\ndata: <json>", frames end with a blank line
+    private static List<String[]> frames(String text) {
+        assertTrue(text.endsWith("\n\n"), text);
+        List<String[]> frames = new ArrayList<>();
+        for (String frame : text.substring(0, text.length() - 2).split("\n\n")) {
+            String[] lines = frame.split("\n");
+            assertEquals(3, lines.length, frame);
+            assertTrue(lines[0].startsWith("id: ") && lines[1].startsWith("event: ") && lines[2].startsWith("data: "), frame);
+            frames.add(new String[] {lines[0].substring(4), lines[1].substring(7), lines[2].substring(6)});
+        }
+        return frames;
+    }
+
+    @Test
+    void streamSendsADiagnosticEventEachThenTheSummary() throws Exception {
+        String code = "int x = ;\nint b = 2.5;\nc = 1;\n";
+        ObjectMapper mapper = new ObjectMapper();
+
+        List<String[]> frames = frames(stream(code).toString(StandardCharsets.UTF_8));
+
+        assertEquals(List.of("diagnostic", "diagnostic", "diagnostic", "diagnostic", "summary"),
+                     frames.stream().map(f -> f[1]).toList());
+        assertEquals(List.of("1", "2", "3", "4", "5"), frames.stream().map(f -> f[0]).toList());
+        List<String> messages = new ArrayList<>();
+        for (String[] frame : frames.subList(0, 4)) {
+            messages.add(mapper.readTree(frame[2]).get("message").asText());
+        }
+        assertEquals(errors(code), messages);
+        JsonNode summary = mapper.readTree(frames.get(4)[2]);
+        assertEquals(false, summary.get("valid").asBoolean());
+        assertEquals(4, summary.get("totalErrors").asInt());
+        assertEquals(1, summary.get("stats").get("syntaxErrors").asInt());
+        assertEquals(3, summary.get("stats").get("semanticErrors").asInt());
+    }
+
+    @Test
+    void streamFlushesTheFirstDiagnosticAtOnce() throws Exception {
+        RecordingStream out = stream("int x = ;\nint b = 2.5;\n");
+
+        assertEquals(1, frames(out.flushed.get(0)).size());
+        assertEquals("summary", frames(out.flushed.get(out.flushed.size() - 1)).getLast()[1]);
+    }
+
+    @Test
+    void streamOfValidCodeIsOnlyTheSummary() throws Exception {
+        List<String[]> frames = frames(stream("int x = 1;").toString(StandardCharsets.UTF_8));
+
+        assertEquals(1, frames.size());
+        assertEquals("summary", frames.get(0)[1]);
+        assertTrue(new ObjectMapper().readTree(frames.get(0)[2]).get("valid").asBoolean());
+    }
+
+    @Test
+    void streamReplaysACachedCheck() throws Exception {
+        String code = "int b = 2.5;\nc = 1;\n";
+        List<String> checked = errors(code);
+
+        List<String[]> frames = frames(stream(code).toString(StandardCharsets.UTF_8));
+
+        assertEquals(1L, controller.cacheStats().get("hits"));
+        assertEquals(3, frames.size());
+        assertEquals(checked.get(0), new ObjectMapper().readTree(frames.get(0)[2]).get("message").asText());
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.demo.grammar.diagnostics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+import com.example.demo.service.CodeParser;
+
+class DiagnosticsTest {
+
+    // One syntax error, then a type mismatch for the broken initializer, another one and an undefined variable
+    private static final String CODE = "int x = ;\nint b = 2.5;\nc = 1;\n";
+
+    private final CodeParser parser = new CodeParser();
+
+    private static Map<String, Long> stats(long lexical, long syntax, long semantic, long internal) {
+        return Map.of("lexicalErrors", lexical, "syntaxErrors", syntax, "semanticErrors", semantic, "internalErrors", internal);
+    }
+
+    @Test
+    void countsEveryCategoryAsDiagnosticsAreAdded() {
+        Diagnostics diagnostics = parser.parse(CODE);
+
+        assertEquals(stats(0, 1, 3, 0), diagnostics.stats());
+        assertEquals(4, diagnostics.size());
+        for (Diagnostic.Category category : Diagnostic.Category.values()) {
+            assertEquals(diagnostics.list().stream().filter(d -> d.category() == category).count(),
+                         diagnostics.count(category), category.name());
+        }
+        // In the order they were reported: the parser's first, then the semantic pass
+        assertEquals(List.of(Diagnostic.Code.MISMATCHED_INPUT, Diagnostic.Code.TYPE_MISMATCH,
+                             Diagnostic.Code.TYPE_MISMATCH, Diagnostic.Code.UNDEFINED_VARIABLE),
+                     diagnostics.list().stream().map(Diagnostic::code).toList());
+    }
+
+    @Test
+    void statsListEveryCategoryInOrder() {
+        assertEquals(List.of("lexicalErrors", "syntaxErrors", "semanticErrors", "internalErrors"),
+                     List.copyOf(new Diagnostics().stats().keySet()));
+        assertEquals(stats(0, 0, 0, 0), parser.parse("int x = 1;").stats());
+    }
+
+    @Test
+    void streamingKeepsTheCountsButNotTheList() {
+        List<Diagnostic> sent = new ArrayList<>();
+        Diagnostics streamed = parser.parse(CODE, new Diagnostics(sent::add));
+
+        assertEquals(stats(0, 1, 3, 0), streamed.stats());
+        assertEquals(List.of(), streamed.list());
+        assertEquals(parser.parse(CODE).messages(), sent.stream().map(Diagnostic::message).toList());
+    }
+
+    @Test
+    void aFailureIsOneInternalError() {
+        Diagnostics failure = Diagnostics.failure("Out of memory");
+
+        assertEquals(stats(0, 0, 0, 1), failure.stats());
+        assertEquals(List.of("Parsing failed: Out of memory"), failure.messages());
+    }
+
+    @Test
+    void categoryComesFromTheCode() {
+        Diagnostic mismatch = new Diagnostic(Diagnostic.Code.TYPE_MISMATCH, 2, 0, 10, 22, "float", "int");
+
+        assertEquals(Diagnostic.Category.SEMANTIC, mismatch.category());
+        assertEquals("Line 2: Type mismatch - cannot assign float to int", mismatch.message());
+        // Moving it keeps what it is
+        Diagnostic shifted = mismatch.shifted(3, 40);
+        assertEquals(Diagnostic.Category.SEMANTIC, shifted.category());
+        assertEquals("Line 5: Type mismatch - cannot assign float to int", shifted.message());
+        assertEquals(50, shifted.startOffset());
+        assertEquals(62, shifted.endOffset());
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.demo.grammar.symboltable;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+
+/**
+ * Resolve cost per lookup at growing class counts and nesting depths: a hit in the outermost
+ * scope, a miss and an array allocation string, best of 5 runs. Not a test, run main() by hand
+ * after mvn test-compile:
+ *
+ *   java -cp target/classes:target/test-classes:&lt;antlr4-runtime jar&gt; \
+ *        com.example.demo.grammar.symboltable.SymbolTableBenchmark
+ *
+ * It only uses SymbolTable's public API, so checking out an older SymbolTable.java and running
+ * it again gives the numbers to compare against.
+ */
+public class SymbolTableBenchmark {
+
+    private static final int RUNS = 5;
+    private static final int LOOKUPS_PER_SCOPE = 10;
+
+    public static void main(String[] args) {
+        int[][] shapes = {{10, 10}, {100, 100}, {1000, 1000}, {5000, 5000}};
+        // Once through everything first, so the numbers below are for compiled code
+        for (int[] shape : shapes) {
+            measure(shape[0], shape[1]);
+        }
+        System.out.println("classes/depth   us/lookup");
+        for (int[] shape : shapes) {
+            double best = Double.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                best = Math.min(best, measure(shape[0], shape[1]));
+            }
+            System.out.printf("%-15s %.3f%n", shape[0] + "/" + shape[1], best);
+        }
+    }
+
+    // Microseconds per operation: classes declared, then depth nested scopes each declaring a
+    // variable and resolving a few names, then all scopes closed again
+    private static double measure(int classes, int depth) {
+        ParserRuleContext intType = SymbolTableTest.type("int");
+        long start = System.nanoTime();
+        long operations = 0;
+        SymbolTable symbolTable = new SymbolTable();
+        for (int c = 0; c < classes; c++) {
+            symbolTable.addClass("C" + c);
+        }
+        for (int d = 0; d < depth; d++) {
+            symbolTable.enterScope();
+            symbolTable.addVariable("v" + d, intType);
+            operations++;
+            for (int q = 0; q < LOOKUPS_PER_SCOPE; q++) {
+                symbolTable.resolve("v0");
+                symbolTable.resolve("missing" + q);
+                symbolTable.resolve("new int[5]");
+                operations += 3;
+            }
+        }
+        for (int d = 0; d < depth; d++) {
+            symbolTable.exitScope();
+        }
+        return (System.nanoTime() - start) / 1e3 / operations;
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.demo.grammar.symboltable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.EmptyStackException;
+import java.util.Random;
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.junit.jupiter.api.Test;
+
+class SymbolTableTest {
+
+    // A type context as the grammar actions pass it, only its text and start line are read
+    static ParserRuleContext type(String text) {
+        ParserRuleContext context = new ParserRuleContext() {
+            @Override
+            public String getText() {
+                return text;
+            }
+        };
+        context.start = new CommonToken(1, text);
+        return context;
+    }
+
+    private final SymbolTable symbolTable = new SymbolTable();
+
+    @Test
+    void innerDeclarationShadowsOuterUntilItsScopeEnds() {
+        symbolTable.addVariable("x", type("int"));
+        symbolTable.enterScope();
+        symbolTable.addVariable("x", type("float"));
+
+        assertEquals("float", symbolTable.resolve("x").getType());
+
+        symbolTable.exitScope();
+        assertEquals("int", symbolTable.resolve("x").getType());
+    }
+
+    @Test
+    void exitScopeUnwindsOnlyThatScope() {
+        symbolTable.addVariable("outer", type("int"));
+        symbolTable.enterScope();
+        symbolTable.addVariable("middle", type("int"));
+        symbolTable.enterScope();
+        symbolTable.addVariable("inner", type("int"));
+
+        symbolTable.exitScope();
+
+        assertNull(symbolTable.resolve("inner"));
+        assertNotNull(symbolTable.resolve("middle"));
+        symbolTable.exitScope();
+        assertNull(symbolTable.resolve("middle"));
+        assertNotNull(symbolTable.resolve("outer"));
+    }
+
+    @Test
+    void duplicateOnlyInTheSameScope() {
+        symbolTable.addVariable("x", type("int"));
+
+        assertThrows(RuntimeException.class, () -> symbolTable.addVariable("x", type("int")));
+        symbolTable.enterScope();
+        symbolTable.addVariable("x", type("int"));
+    }
+
+    @Test
+    void nameIsFreeAgainOnceItsScopeEnded() {
+        symbolTable.enterScope();
+        symbolTable.addVariable("i", type("int"));
+        symbolTable.exitScope();
+
+        symbolTable.enterScope();
+        symbolTable.addVariable("i", type("float"));
+        assertEquals("float", symbolTable.resolve("i").getType());
+    }
+
+    @Test
+    void exitingMoreScopesThanEnteredThrows() {
+        symbolTable.exitScope(); // the global one
+
+        assertThrows(EmptyStackException.class, symbolTable::exitScope);
+    }
+
+    @Test
+    void deepNestingResolvesTheOutermostDeclaration() {
+        symbolTable.addVariable("root", type("int"));
+        for (int depth = 0; depth < 10_000; depth++) {
+            symbolTable.enterScope();
+            symbolTable.addVariable("v" + depth, type("int"));
+        }
+
+        assertEquals("int", symbolTable.resolve("root").getType());
+        assertNotNull(symbolTable.resolve("v0"));
+        for (int depth = 0; depth < 10_000; depth++) {
+            symbolTable.exitScope();
+        }
+        assertNull(symbolTable.resolve("v0"));
+        assertNotNull(symbolTable.resolve("root"));
+    }
+
+    @Test
+    void classMembersResolveAfterDeclarations() {
+        assertEquals("PrintStream", symbolTable.resolve("out").getType());
+
+        symbolTable.addVariable("out", type("int"));
+        assertEquals("int", symbolTable.resolve("out").getType());
+    }
+
+    @Test
+    void firstClassToDeclareAMemberWins() {
+        symbolTable.addClass("A");
+        symbolTable.addClass("B");
+        SymbolTable.Symbol fromA = new SymbolTable.Symbol("int", false, false, 1);
+        symbolTable.getClass("A").addMember("size", fromA);
+        symbolTable.getClass("B").addMember("size", new SymbolTable.Symbol("float", false, false, 2));
+
+        assertSame(fromA, symbolTable.resolve("size"));
+        assertThrows(RuntimeException.class, () -> symbolTable.addClass("A"));
+    }
+
+    @Test
+    void functionsAreDeclaredOnce() {
+        symbolTable.addFunction("f", type("int"));
+
+        assertTrue(symbolTable.resolve("f").isFunction);
+        assertThrows(RuntimeException.class, () -> symbolTable.addFunction("f", type("int")));
+    }
+
+    @Test
+    void arrayAllocationsMatchWhatTheRegexAccepted() {
+        Random random = new Random(3);
+        String alphabet = "new int float[]5 \t\n x";
+        String[] starts = {"new int[", "new  float [", "new"};
+        for (int i = 0; i < 50_000; i++) {
+            StringBuilder text = new StringBuilder(starts[i % starts.length]);
+            for (int length = random.nextInt(8); length > 0; length--) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            String name = text.toString();
+
+            SymbolTable.Symbol symbol = symbolTable.resolve(name);
+
+            String expected = name.matches("new\\s+int\\s*\\[.*\\]") ? "int[]"
+                            : name.matches("new\\s+float\\s*\\[.*\\]") ? "float[]" : null;
+            assertEquals(expected, symbol == null ? null : symbol.getType(), name);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.demo.grammar.symboltable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+import com.example.demo.grammar.diagnostics.Diagnostics;
+import com.example.demo.service.CodeParser;
+
+class TypeRegistryTest {
+
+    private static final List<Type> NUMERIC = List.of(Type.BYTE, Type.SHORT, Type.INT, Type.LONG, Type.FLOAT, Type.DOUBLE);
+
+    private final TypeRegistry registry = new TypeRegistry();
+
+    @Test
+    void numericTypesWidenUpTheChainOnly() {
+        for (int from = 0; from < NUMERIC.size(); from++) {
+            for (int to = 0; to < NUMERIC.size(); to++) {
+                assertEquals(from <= to, Type.widens(NUMERIC.get(from), NUMERIC.get(to)), NUMERIC.get(from) + " -> " + NUMERIC.get(to));
+            }
+        }
+        assertFalse(Type.widens(Type.BOOLEAN, Type.INT));
+        assertFalse(Type.widens(Type.INT, Type.BOOLEAN));
+        assertFalse(Type.widens(Type.INT, Type.STRING));
+    }
+
+    @Test
+    void promotionTakesTheWiderType() {
+        assertSame(Type.LONG, Type.wider(Type.INT, Type.LONG));
+        assertSame(Type.FLOAT, Type.wider(Type.FLOAT, Type.LONG));
+        assertSame(Type.SHORT, Type.wider(Type.BYTE, Type.SHORT));
+        assertSame(Type.UNKNOWN, Type.wider(Type.INT, Type.BOOLEAN));
+        assertSame(Type.UNKNOWN, Type.wider(Type.STRING, Type.INT));
+    }
+
+    @Test
+    void builtinsAreTheSharedConstants() {
+        assertSame(Type.INT, registry.of("int"));
+        assertSame(Type.STRING, registry.of("String"));
+        assertSame(Type.INT, new TypeRegistry().of("int"));
+    }
+
+    @Test
+    void arraysAndClassesAreInternedPerRegistry() {
+        Type matrix = registry.of("double[][]");
+
+        assertSame(matrix, registry.of("double[][]"));
+        assertSame(registry.of("double[]"), matrix.getElementType());
+        assertSame(Type.DOUBLE, matrix.getElementType().getElementType());
+        assertTrue(matrix.isArray());
+        assertSame(registry.of("Calc"), registry.of("Calc"));
+        assertEquals(Type.Kind.CLASS, registry.of("Calc").getKind());
+        // Another analysis has types of its own
+        assertNotSame(registry.of("Calc"), new TypeRegistry().of("Calc"));
+    }
+
+    @Test
+    void literalsAreAssignedFollowingTheWideningRules() {
+        CodeParser parser = new CodeParser();
+
+        // Literals are int or float, ErrorHandler checks what it can infer against the declared type
+        Diagnostics widening = parser.parse("long l = 5; float f = 2; double d = 1.5;");
+        Diagnostics narrowing = parser.parse("int i = 2.5; boolean b = 1;");
+
+        assertTrue(widening.isEmpty(), String.valueOf(widening.messages()));
+        assertEquals(List.of("Line 1: Type mismatch - cannot assign float to int",
+                             "Line 1: Type mismatch - cannot assign int to boolean"), narrowing.messages());
+    }
+}
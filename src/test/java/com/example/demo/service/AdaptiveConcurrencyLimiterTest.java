@@ -0,0 +1,94 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.jupiter.api.Test;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 100, 10, 60_000, 3);
+
+    private void call(long millis) {
+        assertTrue(limiter.acquire().isDone());
+        limiter.release(AdaptiveConcurrencyLimiter.Result.SUCCESS, millis);
+    }
+
+    private long slow() {
+        return (long) limiter.stats().get("slow");
+    }
+
+    @Test
+    void callSlowerThanTheRecentMedianCutsTheLimit() {
+        for (int i = 0; i < 30; i++) {
+            call(100);
+        }
+        assertEquals(10, limiter.getLimit());
+
+        call(250);
+        assertEquals(10, limiter.getLimit());
+
+        call(400);
+        assertEquals(9, limiter.getLimit());
+        assertEquals(1L, slow());
+        assertEquals(300L, limiter.stats().get("slowCallMillis"));
+    }
+
+    @Test
+    void medianFollowsAnUpstreamThatGotSlowerAcrossTheBoard() {
+        for (int i = 0; i < 30; i++) {
+            call(100);
+        }
+
+        for (int i = 0; i < 100; i++) {
+            call(1000);
+        }
+
+        // Only the calls before the median moved up were slow
+        assertTrue(slow() < 60, slow() + " slow calls");
+        long before = slow();
+        call(1000);
+        assertEquals(before, slow());
+        assertEquals(1000L, limiter.stats().get("medianMillis"));
+    }
+
+    @Test
+    void fewSamplesOnlyHaveTheCeiling() {
+        call(100);
+        call(50_000);
+        assertEquals(0L, slow());
+
+        call(70_000);
+        assertEquals(1L, slow());
+    }
+
+    @Test
+    void failuresCutTheLimitWithoutALatency() {
+        assertTrue(limiter.acquire().isDone());
+        limiter.release(AdaptiveConcurrencyLimiter.Result.DROPPED);
+
+        assertEquals(9, limiter.getLimit());
+        assertEquals(-1L, limiter.stats().get("medianMillis"));
+    }
+
+    @Test
+    void callsOverTheLimitQueueThenAreTurnedAway() throws Exception {
+        AdaptiveConcurrencyLimiter one = new AdaptiveConcurrencyLimiter(1, 1, 1, 1, 60_000, 3);
+        assertTrue(one.acquire().isDone());
+
+        CompletableFuture<Void> queued = one.acquire();
+        CompletableFuture<Void> turnedAway = one.acquire();
+
+        assertFalse(queued.isDone());
+        ExecutionException e = assertThrows(ExecutionException.class, turnedAway::get);
+        assertTrue(e.getCause() instanceof RejectedExecutionException);
+
+        one.release(AdaptiveConcurrencyLimiter.Result.SUCCESS, 10);
+        assertTrue(queued.isDone());
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.example.demo.grammar.diagnostics.Diagnostic;
+import com.example.demo.grammar.diagnostics.Diagnostics;
+
+class BatchCheckServiceTest {
+
+    // "slow" waits until released or interrupted, "boom" fails, anything else is parsed
+    private static class StubCache extends DiagnosticsCache {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        StubCache() {
+            super(new CodeParser(), 1 << 20, 60);
+        }
+
+        @Override
+        public Diagnostics parse(String code) {
+            if (code.equals("slow")) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    Thread.currentThread().interrupt();
+                }
+                return new Diagnostics();
+            }
+            if (code.equals("boom")) {
+                throw new IllegalStateException("Parser bug");
+            }
+            return super.parse(code);
+        }
+    }
+
+    private final StubCache cache = new StubCache();
+    private final BatchCheckService service = new BatchCheckService(cache, 2);
+
+    @AfterEach
+    void shutdown() {
+        cache.release.countDown();
+        service.shutdown();
+    }
+
+    private static BatchCheckService.NamedSource file(String name, String code) {
+        return new BatchCheckService.NamedSource(name, code);
+    }
+
+    @Test
+    void everyFileIsReportedOnceWithItsIndex() throws Exception {
+        List<BatchCheckService.FileResult> results = new CopyOnWriteArrayList<>();
+
+        service.check(List.of(file("a", "int x = 1;"), file("b", "int y = 2.5;"), file("c", null)), results::add);
+
+        assertEquals(3, results.size());
+        List<BatchCheckService.FileResult> byIndex = results.stream()
+                .sorted((r1, r2) -> Integer.compare(r1.index(), r2.index())).toList();
+        assertEquals(List.of("a", "b", "c"), byIndex.stream().map(BatchCheckService.FileResult::name).toList());
+        assertTrue(byIndex.get(0).diagnostics().isEmpty());
+        assertEquals(1, byIndex.get(1).diagnostics().size());
+        // No code is checked as an empty file
+        assertTrue(byIndex.get(2).diagnostics().isEmpty());
+    }
+
+    @Test
+    void resultsComeInCompletionOrder() throws Exception {
+        List<String> names = new CopyOnWriteArrayList<>();
+
+        Thread releaser = Thread.ofVirtual().start(() -> {
+            // The slow file is first in the batch, the fast one has to come out before it
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (names.isEmpty() && System.nanoTime() < deadline) {
+                Thread.onSpinWait();
+            }
+            cache.release.countDown();
+        });
+        service.check(List.of(file("slow", "slow"), file("fast", "int x = 1;")), r -> names.add(r.name()));
+        releaser.join();
+
+        assertEquals(List.of("fast", "slow"), names);
+    }
+
+    @Test
+    void aFailingParseIsReportedNotThrown() throws Exception {
+        List<BatchCheckService.FileResult> results = new CopyOnWriteArrayList<>();
+
+        service.check(List.of(file("bad", "boom")), results::add);
+
+        assertEquals(1, results.size());
+        assertEquals(1, results.get(0).diagnostics().count(Diagnostic.Category.INTERNAL));
+    }
+
+    @Test
+    void aFailingCallbackCancelsTheFilesStillRunning() throws Exception {
+        assertThrows(IllegalStateException.class, () -> service.check(
+                List.of(file("slow", "slow"), file("fast", "int x = 1;")), r -> {
+                    try {
+                        cache.started.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new IllegalStateException("Client went away");
+                }));
+
+        assertTrue(cache.interrupted.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class BenchmarkServiceTest {
+
+    private static final String LINEAR = "int s = 0; for (int i = 0; i < n; i++) { s += i; } consume(s);";
+
+    private final List<SandboxExecutor> sandboxes = new ArrayList<>();
+
+    @AfterEach
+    void shutdown() {
+        sandboxes.forEach(SandboxExecutor::shutdown);
+    }
+
+    private BenchmarkService service(long deadlineMillis, long maxOperations, int iterations, long sampleMillis) {
+        SandboxExecutor sandbox = new SandboxExecutor(1, 4, deadlineMillis, maxOperations, Long.MAX_VALUE, 10_000);
+        sandboxes.add(sandbox);
+        return new BenchmarkService(new CompiledClassCache(10), sandbox, 20, iterations, sampleMillis);
+    }
+
+    @Test
+    void everySizeIsTimedOnceInIncreasingOrder() throws Exception {
+        List<BenchmarkService.SizeResult> results = service(2000, Long.MAX_VALUE, 10, 1)
+                .benchmark(LINEAR, new int[] {1000, 10, 1000, 100});
+
+        assertEquals(List.of(10, 100, 1000), results.stream().map(BenchmarkService.SizeResult::n).toList());
+        for (BenchmarkService.SizeResult result : results) {
+            assertEquals(SandboxExecutor.Status.COMPLETED, result.status());
+            BenchmarkService.Timing timing = result.timing();
+            assertNotNull(timing);
+            // Outliers are dropped from the samples, never added
+            assertEquals(10, timing.samples() + timing.outliers());
+            assertTrue(timing.batchSize() >= 1);
+            assertTrue(timing.minNanos() <= timing.p50Nanos() && timing.p50Nanos() <= timing.p99Nanos()
+                       && timing.p99Nanos() <= timing.maxNanos(), String.valueOf(timing));
+        }
+        // Counted on the instrumented copy: one more test of the loop condition per iteration
+        assertEquals(90, results.get(1).operations() - results.get(0).operations());
+        assertEquals(900, results.get(2).operations() - results.get(1).operations());
+    }
+
+    @Test
+    void allocationIsReportedPerCall() throws Exception {
+        List<BenchmarkService.SizeResult> results = service(2000, Long.MAX_VALUE, 5, 1)
+                .benchmark("consume(new int[n]);", new int[] {10_000});
+
+        // The array is handed to consume(), so it can't be optimized away
+        double allocated = results.get(0).timing().allocatedBytesPerOp();
+        assertTrue(allocated >= 4 * 10_000 && allocated < 2 * 4 * 10_000, String.valueOf(allocated));
+    }
+
+    @Test
+    void aSizeThatDoesntGetThroughTheSandboxEndsTheBenchmark() throws Exception {
+        List<BenchmarkService.SizeResult> results = service(2000, 100_000, 5, 1)
+                .benchmark(LINEAR, new int[] {10, 1_000_000, 10_000_000});
+
+        assertEquals(2, results.size());
+        assertEquals(SandboxExecutor.Status.COMPLETED, results.get(0).status());
+        assertEquals(SandboxExecutor.Status.OPERATION_LIMIT, results.get(1).status());
+        assertNull(results.get(1).timing());
+    }
+
+    @Test
+    void samplesAreHeldToTheSandboxDeadline() throws Exception {
+        // Batches are sized to take half a second, well past the deadline of a run
+        List<BenchmarkService.SizeResult> results = service(100, Long.MAX_VALUE, 5, 500)
+                .benchmark(LINEAR, new int[] {100_000});
+
+        assertEquals(1, results.size());
+        assertEquals(SandboxExecutor.Status.TIMEOUT, results.get(0).status());
+        assertNull(results.get(0).timing());
+        // The count is the one of the instrumented run that did finish
+        assertTrue(results.get(0).operations() > 100_000);
+    }
+
+    @Test
+    void aSnippetThatThrowsIsAnError() {
+        BenchmarkService service = service(2000, Long.MAX_VALUE, 5, 1);
+
+        IllegalStateException thrown = assertThrows(IllegalStateException.class,
+                                                    () -> service.benchmark("consume(10 / (n - 3));", new int[] {1, 3}));
+        assertTrue(thrown.getMessage().startsWith("execute(3) threw java.lang.ArithmeticException"), thrown.getMessage());
+    }
+}
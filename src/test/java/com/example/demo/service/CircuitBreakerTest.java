@@ -0,0 +1,144 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class CircuitBreakerTest {
+
+    private static final long OPEN_MILLIS = 100;
+
+    private final CircuitBreaker breaker = new CircuitBreaker(2, OPEN_MILLIS);
+
+    private void fail(int times) {
+        for (int i = 0; i < times; i++) {
+            breaker.onFailure(breaker.tryAcquire(), 0);
+        }
+    }
+
+    private static void waitOut() throws InterruptedException {
+        Thread.sleep(OPEN_MILLIS + 20);
+    }
+
+    @Test
+    void opensAfterTheThresholdAndRefusesCalls() {
+        fail(1);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        fail(1);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowsCalls());
+        assertNull(breaker.tryAcquire());
+        assertTrue(breaker.remainingOpenMillis() > 0);
+    }
+
+    @Test
+    void successInBetweenResetsTheCount() {
+        fail(1);
+        breaker.onSuccess(breaker.tryAcquire());
+        fail(1);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void onlyOneTrialCallOnceTheOpenTimeIsOver() throws InterruptedException {
+        fail(2);
+        waitOut();
+
+        CircuitBreaker.Permit trial = breaker.tryAcquire();
+
+        assertNotNull(trial);
+        assertTrue(trial.trial());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertNull(breaker.tryAcquire());
+    }
+
+    @Test
+    void successfulTrialCloses() throws InterruptedException {
+        fail(2);
+        waitOut();
+
+        breaker.onSuccess(breaker.tryAcquire());
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertNotNull(breaker.tryAcquire());
+    }
+
+    @Test
+    void failedTrialOpensAgain() throws InterruptedException {
+        fail(2);
+        waitOut();
+
+        breaker.onFailure(breaker.tryAcquire(), 0);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2L, breaker.stats().get("opened"));
+    }
+
+    @Test
+    void lateSuccessWhileOpenDoesNotClose() {
+        // Let through before the circuit opened, answers after it did
+        CircuitBreaker.Permit slow = breaker.tryAcquire();
+        fail(2);
+
+        breaker.onSuccess(slow);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(0, breaker.stats().get("consecutiveFailures"));
+        assertNull(breaker.tryAcquire());
+    }
+
+    @Test
+    void lateSuccessWhileHalfOpenLeavesItToTheTrial() throws InterruptedException {
+        CircuitBreaker.Permit slow = breaker.tryAcquire();
+        fail(2);
+        waitOut();
+        CircuitBreaker.Permit trial = breaker.tryAcquire();
+
+        breaker.onSuccess(slow);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        breaker.onFailure(trial, 0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void lateFailureWhileHalfOpenDoesNotTakeTheTrialsPlace() throws InterruptedException {
+        CircuitBreaker.Permit slow = breaker.tryAcquire();
+        fail(2);
+        waitOut();
+        CircuitBreaker.Permit trial = breaker.tryAcquire();
+
+        breaker.onFailure(slow, 0);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        breaker.onSuccess(trial);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void ignoredTrialLetsTheNextCallTry() throws InterruptedException {
+        fail(2);
+        waitOut();
+
+        breaker.onIgnored(breaker.tryAcquire());
+
+        CircuitBreaker.Permit next = breaker.tryAcquire();
+        assertNotNull(next);
+        assertTrue(next.trial());
+    }
+
+    @Test
+    void retryAfterLongerThanTheOpenTimeIsHonoured() {
+        breaker.onFailure(breaker.tryAcquire(), 0);
+        breaker.onFailure(breaker.tryAcquire(), 5000);
+
+        assertTrue(breaker.remainingOpenMillis() > OPEN_MILLIS, "open for " + breaker.remainingOpenMillis() + " ms");
+    }
+}
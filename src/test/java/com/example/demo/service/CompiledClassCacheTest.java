@@ -0,0 +1,131 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class CompiledClassCacheTest {
+
+    private static String source(int value) {
+        return "public class Snippet { public static int value() { return " + value + "; } }";
+    }
+
+    private static int value(Class<?> compiled) throws Exception {
+        return (int) compiled.getMethod("value").invoke(null);
+    }
+
+    @Test
+    void sameSourceIsCompiledOnce() throws Exception {
+        CompiledClassCache cache = new CompiledClassCache(10);
+
+        Class<?> first = cache.load(source(1), "Snippet");
+        Class<?> second = cache.load(source(1), "Snippet");
+
+        assertSame(first, second);
+        assertEquals(1, value(first));
+        assertEquals(1L, cache.stats().get("hits"));
+        assertEquals(1L, cache.stats().get("misses"));
+    }
+
+    @Test
+    void everySourceHasItsOwnLoader() throws Exception {
+        CompiledClassCache cache = new CompiledClassCache(10);
+
+        Class<?> one = cache.load(source(1), "Snippet");
+        Class<?> two = cache.load(source(2), "Snippet");
+
+        // Same class name, no clash
+        assertNotSame(one.getClassLoader(), two.getClassLoader());
+        assertEquals(2, value(two));
+    }
+
+    @Test
+    void plainAndInstrumentedCopiesAreCachedApart() throws Exception {
+        CompiledClassCache cache = new CompiledClassCache(10);
+
+        Class<?> instrumented = cache.load(source(1), "Snippet");
+        Class<?> plain = cache.load(source(1), "Snippet", false);
+
+        assertNotSame(instrumented, plain);
+        assertSame(plain, cache.load(source(1), "Snippet", false));
+        assertEquals(2, cache.stats().get("entries"));
+    }
+
+    @Test
+    void leastRecentlyUsedIsEvictedPastTheLimit() throws Exception {
+        CompiledClassCache cache = new CompiledClassCache(2);
+        Class<?> one = cache.load(source(1), "Snippet");
+        Class<?> two = cache.load(source(2), "Snippet");
+
+        cache.load(source(1), "Snippet");
+        cache.load(source(3), "Snippet");
+
+        assertEquals(1L, cache.stats().get("evictions"));
+        assertEquals(2, cache.stats().get("entries"));
+        assertSame(one, cache.load(source(1), "Snippet"));
+        // Compiled again into a new class
+        assertNotSame(two, cache.load(source(2), "Snippet"));
+    }
+
+    @Test
+    void anEvictedClassCanBeUnloaded() throws Exception {
+        CompiledClassCache cache = new CompiledClassCache(1);
+        WeakReference<Class<?>> evicted = new WeakReference<>(cache.load(source(1), "Snippet"));
+        WeakReference<ClassLoader> loader = new WeakReference<>(evicted.get().getClassLoader());
+
+        cache.load(source(2), "Snippet");
+
+        // Only the soft reference held it, and eviction cleared that
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        List<byte[]> garbage = new ArrayList<>();
+        while ((evicted.get() != null || loader.get() != null) && System.nanoTime() < deadline) {
+            garbage.add(new byte[1 << 20]);
+            if (garbage.size() > 16) {
+                garbage.clear();
+            }
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(evicted.get());
+        assertNull(loader.get());
+    }
+
+    // Loads a class, lets go of it and waits for the collector, then loads it again and prints the stats
+    public static void main(String[] args) throws Exception {
+        CompiledClassCache cache = new CompiledClassCache(10);
+        WeakReference<Class<?>> loaded = new WeakReference<>(cache.load(source(1), "Snippet"));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (loaded.get() != null && System.nanoTime() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Map<String, Object> cleared = cache.stats();
+        cache.load(source(1), "Snippet");
+        System.out.print(cleared.get("collected") + " " + cleared.get("entries") + " " + cache.stats().get("misses"));
+    }
+
+    @Test
+    void aClassTheCollectorClearedIsDroppedAndCompiledAgain() throws Exception {
+        // Soft references go at the first collection with this policy, the test JVM can't be told that
+        Process process = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                                             "-XX:SoftRefLRUPolicyMSPerMB=0", "-cp", System.getProperty("java.class.path"),
+                                             CompiledClassCacheTest.class.getName())
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+
+        assertTrue(process.waitFor(30, TimeUnit.SECONDS));
+        // Collected, dropped from the entries, then a second miss
+        assertEquals("1 0 2", output);
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.IntToDoubleFunction;
+import org.junit.jupiter.api.Test;
+
+import com.example.demo.service.ComplexityFitter.Fit;
+import com.example.demo.service.ComplexityFitter.Model;
+
+class ComplexityFitterTest {
+
+    // Sizes grow by half each step, like a sweep's do
+    private static SortedMap<Integer, Long> counts(int from, int to, double noise, long seed, IntToDoubleFunction count) {
+        Random random = new Random(seed);
+        SortedMap<Integer, Long> counts = new TreeMap<>();
+        for (double n = from; n <= to; n = Math.max(n + 1, n * 1.5)) {
+            double jitter = 1 + noise * (2 * random.nextDouble() - 1);
+            counts.put((int) n, Math.round(count.applyAsDouble((int) n) * jitter));
+        }
+        return counts;
+    }
+
+    private static double log(int n) {
+        return Math.log(n);
+    }
+
+    @Test
+    void everyModelIsRecognisedWithSetupWorkAndNoise() {
+        for (long seed = 1; seed <= 20; seed++) {
+            assertEquals(Model.CONSTANT, ComplexityFitter.fit(counts(1, 4096, 0.02, seed, n -> 500)).model());
+            assertEquals(Model.LOG, ComplexityFitter.fit(counts(2, 1 << 20, 0.02, seed, n -> 40 * log(n) + 10)).model());
+            assertEquals(Model.LINEAR, ComplexityFitter.fit(counts(1, 4096, 0.02, seed, n -> 3 * n + 50)).model());
+            assertEquals(Model.N_LOG_N, ComplexityFitter.fit(counts(2, 1 << 16, 0.02, seed, n -> 2 * n * log(n) + 20)).model());
+            assertEquals(Model.QUADRATIC, ComplexityFitter.fit(counts(1, 4096, 0.02, seed, n -> (double) n * n / 2 + 100)).model());
+            assertEquals(Model.CUBIC, ComplexityFitter.fit(counts(1, 512, 0.02, seed, n -> (double) n * n * n + 5)).model());
+        }
+    }
+
+    @Test
+    void fibonacciLikeGrowthIsExponential() {
+        Fit fit = ComplexityFitter.fit(counts(1, 30, 0.02, 7, n -> Math.pow(1.618, n)));
+
+        assertEquals(Model.EXPONENTIAL, fit.model());
+    }
+
+    @Test
+    void cleanDataIsConfidentNoisyDataLess() {
+        Fit clean = ComplexityFitter.fit(counts(1, 4096, 0, 1, n -> 3 * n + 50));
+        Fit noisy = ComplexityFitter.fit(counts(1, 4096, 0.3, 1, n -> 3 * n + 50));
+
+        assertEquals(Model.LINEAR, clean.model());
+        assertTrue(clean.error() < 1e-3, "error " + clean.error());
+        assertTrue(clean.confidence() > 0.9, "confidence " + clean.confidence());
+        assertTrue(noisy.confidence() < clean.confidence(), clean + " vs " + noisy);
+        assertTrue(noisy.confidence() >= 0 && noisy.confidence() <= 1);
+    }
+
+    @Test
+    void simplerModelWinsWhenItFitsAsWell() {
+        // Flat counts fit any model with a tiny enough slope, the constant one has to win
+        Fit fit = ComplexityFitter.fit(counts(1, 4096, 0, 1, n -> 1000));
+
+        assertEquals(Model.CONSTANT, fit.model());
+    }
+
+    @Test
+    void changesWithinTheNoiseFloorAreConstant() {
+        SortedMap<Integer, Long> jittery = counts(1, 4096, 0, 1, n -> 100 + n % 7);
+
+        assertEquals(Model.CONSTANT, ComplexityFitter.fit(jittery, 10).model());
+        assertEquals(1.0, ComplexityFitter.fit(jittery, 10).confidence(), 0);
+        // A real slope is still seen past the floor
+        assertEquals(Model.LINEAR, ComplexityFitter.fit(counts(1, 4096, 0, 1, n -> 100 + n), 10).model());
+    }
+
+    @Test
+    void theFloorIsExclusive() {
+        SortedMap<Integer, Long> counts = counts(1, 4096, 0, 1, n -> 100 + (n >= 2048 ? 10 : 0));
+
+        assertEquals(Model.CONSTANT, ComplexityFitter.fit(counts, 11).model());
+        // A spread of exactly the floor is fitted like any other
+        assertEquals(ComplexityFitter.fit(counts), ComplexityFitter.fit(counts, 10));
+    }
+
+    @Test
+    void noFloorIsThePlainFit() {
+        for (long seed = 1; seed <= 5; seed++) {
+            SortedMap<Integer, Long> counts = counts(1, 4096, 0.1, seed, n -> 3 * n + 50);
+            assertEquals(ComplexityFitter.fit(counts), ComplexityFitter.fit(counts, 0));
+        }
+    }
+
+    @Test
+    void allocationJitterUnderTheFloorIsConstantSpace() {
+        // A few hundred bytes of TLAB and boxing jitter around a fixed allocation
+        for (long seed = 1; seed <= 20; seed++) {
+            Random random = new Random(seed);
+            SortedMap<Integer, Long> allocated = counts(1, 4096, 0, seed, n -> 2000 + random.nextInt(600));
+
+            assertEquals(Model.CONSTANT, ComplexityFitter.fit(allocated, 1024).model(), String.valueOf(allocated));
+        }
+    }
+
+    @Test
+    void arraysGrowingWithNArePastTheFloor() {
+        for (long seed = 1; seed <= 20; seed++) {
+            Random random = new Random(seed);
+            // new int[n] and the same jitter
+            SortedMap<Integer, Long> linear = counts(1, 4096, 0, seed, n -> 16 + 4.0 * n + 2000 + random.nextInt(600));
+            SortedMap<Integer, Long> quadratic = counts(1, 512, 0, seed, n -> 16 + 4.0 * n * n + 2000 + random.nextInt(600));
+
+            assertEquals(Model.LINEAR, ComplexityFitter.fit(linear, 1024).model(), String.valueOf(linear));
+            assertEquals(Model.QUADRATIC, ComplexityFitter.fit(quadratic, 1024).model(), String.valueOf(quadratic));
+        }
+    }
+
+    @Test
+    void tooFewPointsHaveNoFit() {
+        SortedMap<Integer, Long> counts = new TreeMap<>();
+        counts.put(10, 100L);
+        counts.put(20, 200L);
+
+        assertNull(ComplexityFitter.fit(counts));
+    }
+
+    @Test
+    void zeroCountsDoNotBreakTheFit() {
+        // Counted as 1, relative to which they are far off any model, so only the numbers are checked
+        Fit fit = ComplexityFitter.fit(counts(1, 4096, 0, 1, n -> n < 4 ? 0 : 2 * n));
+
+        assertTrue(Double.isFinite(fit.error()));
+        assertTrue(fit.confidence() >= 0 && fit.confidence() <= 1);
+    }
+}
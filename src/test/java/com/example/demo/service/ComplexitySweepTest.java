@@ -0,0 +1,108 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ComplexitySweepTest {
+
+    private static final String QUADRATIC = "int s = 0; for (int i = 0; i < n; i++) { for (int j = 0; j < n; j++) { s++; } } consume(s);";
+
+    // Remembers the sizes of every batch it was given
+    private static class RecordingSandbox extends SandboxExecutor {
+        final List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+
+        RecordingSandbox(int threads, long deadlineMillis) {
+            super(threads, 64, deadlineMillis, Long.MAX_VALUE, Long.MAX_VALUE, 10_000);
+        }
+
+        @Override
+        public List<Run> runAll(Class<?> clazz, int... sizes) throws InterruptedException {
+            batches.add(Arrays.stream(sizes).boxed().toList());
+            return super.runAll(clazz, sizes);
+        }
+    }
+
+    private final List<SandboxExecutor> sandboxes = new ArrayList<>();
+
+    @AfterEach
+    void shutdown() {
+        sandboxes.forEach(SandboxExecutor::shutdown);
+    }
+
+    private RecordingSandbox sandbox(int threads, long deadlineMillis) {
+        RecordingSandbox sandbox = new RecordingSandbox(threads, deadlineMillis);
+        sandboxes.add(sandbox);
+        return sandbox;
+    }
+
+    private static Class<?> snippet(String code) throws Exception {
+        return new CompiledClassCache(10).load(TimeComplexityService.generateFullCode(TimeComplexityService.CLASS_NAME, code),
+                                               TimeComplexityService.CLASS_NAME);
+    }
+
+    private static ComplexitySweep.Settings settings(int trials, int maxN, long maxOperations) {
+        return new ComplexitySweep.Settings(trials, 1, maxN, 2, maxOperations, 10_000, Long.MAX_VALUE);
+    }
+
+    @Test
+    void sizesRunInBatchesOfThreadsOverTrials() throws Exception {
+        RecordingSandbox sandbox = sandbox(4, 2000);
+
+        ComplexitySweep.Measurement measurement = new ComplexitySweep(sandbox, settings(2, 64, Long.MAX_VALUE))
+                .measure(snippet(QUADRATIC));
+
+        assertEquals(SandboxExecutor.Status.COMPLETED, measurement.status());
+        // Two sizes at a time, every size twice
+        assertEquals(List.of(List.of(1, 1, 2, 2), List.of(4, 4, 8, 8), List.of(16, 16, 32, 32), List.of(64, 64)),
+                     sandbox.batches);
+        assertEquals(List.of(1, 2, 4, 8, 16, 32, 64), List.copyOf(measurement.operationCounts().keySet()));
+    }
+
+    @Test
+    void parallelRunsCountTheSameAsOneAtATime() throws Exception {
+        Class<?> quadratic = snippet(QUADRATIC);
+
+        ComplexitySweep.Measurement parallel = new ComplexitySweep(sandbox(8, 2000), settings(1, 256, Long.MAX_VALUE))
+                .measure(quadratic);
+        ComplexitySweep.Measurement sequential = new ComplexitySweep(sandbox(1, 2000), settings(1, 256, Long.MAX_VALUE))
+                .measure(quadratic);
+
+        // Every run has a counter of its own, runs beside each other don't add to it
+        assertEquals(sequential.operationCounts(), parallel.operationCounts());
+        assertEquals(ComplexityFitter.Model.QUADRATIC, ComplexityFitter.fit(parallel.operationCounts()).model());
+    }
+
+    @Test
+    void aSizeThatDoesntFinishEndsTheSweepKeepingTheSmallerOnes() throws Exception {
+        RecordingSandbox sandbox = sandbox(4, 200);
+
+        ComplexitySweep.Measurement measurement = new ComplexitySweep(sandbox, settings(1, 64, Long.MAX_VALUE))
+                .measure(snippet("if (n > 10) { while (n > 0) { n++; n--; } } consume(n);"));
+
+        assertEquals(SandboxExecutor.Status.TIMEOUT, measurement.status());
+        assertEquals(16, measurement.stoppedAt());
+        assertEquals(List.of(1, 2, 4, 8), List.copyOf(measurement.operationCounts().keySet()));
+    }
+
+    @Test
+    void sizesPredictedOverTheOperationBudgetAreNotRun() throws Exception {
+        RecordingSandbox sandbox = sandbox(1, 2000);
+
+        ComplexitySweep.Measurement measurement = new ComplexitySweep(sandbox, settings(1, 1 << 20, 20_000))
+                .measure(snippet(QUADRATIC));
+
+        assertNull(measurement.stoppedAt());
+        int largest = measurement.operationCounts().lastKey();
+        assertTrue(measurement.operationCounts().get(largest) <= 20_000, String.valueOf(measurement.operationCounts()));
+        // n = 256 would be around 65000 operations, it was never tried
+        assertTrue(sandbox.batches.stream().flatMap(List::stream).allMatch(n -> n <= 128), String.valueOf(sandbox.batches));
+    }
+}
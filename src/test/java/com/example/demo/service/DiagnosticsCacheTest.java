@@ -0,0 +1,114 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+import com.example.demo.grammar.diagnostics.Diagnostic;
+import com.example.demo.grammar.diagnostics.Diagnostics;
+
+class DiagnosticsCacheTest {
+
+    private static final String CODE = "int x = 1;\nfloat y = x;\nint z = 2.5;\n";
+
+    // Counts the parses the cache lets through
+    private static class CountingParser extends CodeParser {
+        final AtomicInteger parses = new AtomicInteger();
+
+        @Override
+        public Diagnostics parse(String code, Diagnostics diagnostics) {
+            parses.incrementAndGet();
+            return super.parse(code, diagnostics);
+        }
+    }
+
+    private final CountingParser parser = new CountingParser();
+
+    @Test
+    void sameSourceIsParsedOnce() {
+        DiagnosticsCache cache = new DiagnosticsCache(parser, 1 << 20, 60);
+
+        Diagnostics first = cache.parse(CODE);
+        Diagnostics second = cache.parse(CODE);
+
+        assertSame(first, second);
+        assertEquals(1, parser.parses.get());
+        assertEquals(1L, cache.stats().get("hits"));
+        assertEquals(1L, cache.stats().get("misses"));
+    }
+
+    @Test
+    void lineEndingsShareAKey() {
+        DiagnosticsCache cache = new DiagnosticsCache(parser, 1 << 20, 60);
+
+        Diagnostics unix = cache.parse(CODE);
+        Diagnostics windows = cache.parse(CODE.replace("\n", "\r\n"));
+
+        assertSame(unix, windows);
+        assertEquals(1, parser.parses.get());
+    }
+
+    @Test
+    void anyOtherChangeIsANewKey() {
+        DiagnosticsCache cache = new DiagnosticsCache(parser, 1 << 20, 60);
+
+        Diagnostics original = cache.parse(CODE);
+        // Moves every diagnostic one column to the right, a cached result would point at the wrong place
+        Diagnostics indented = cache.parse(CODE.replace("\n", "\n "));
+
+        assertNotSame(original, indented);
+        assertEquals(2, parser.parses.get());
+        assertEquals(original.list().get(0).column() + 1, indented.list().get(0).column());
+    }
+
+    @Test
+    void expiredEntriesAreParsedAgain() {
+        DiagnosticsCache cache = new DiagnosticsCache(parser, 1 << 20, 0);
+
+        cache.parse(CODE);
+        cache.parse(CODE);
+
+        assertEquals(2, parser.parses.get());
+        assertEquals(1L, cache.stats().get("expirations"));
+    }
+
+    @Test
+    void leastRecentlyUsedIsEvictedOverBudget() {
+        DiagnosticsCache cache = new DiagnosticsCache(parser, 1 << 20, 60);
+        cache.parse(CODE);
+        long oneEntry = (long) cache.stats().get("weightBytes");
+        DiagnosticsCache small = new DiagnosticsCache(parser, oneEntry * 2 + oneEntry / 2, 60);
+        parser.parses.set(0);
+
+        small.parse(CODE);
+        small.parse(CODE + "\n");
+        small.parse(CODE);
+        small.parse(CODE + "\n\n");
+
+        assertEquals(1L, small.stats().get("evictions"));
+        assertEquals(3, parser.parses.get());
+        // The second one was the least recently used
+        small.parse(CODE);
+        assertEquals(3, parser.parses.get());
+        small.parse(CODE + "\n");
+        assertEquals(4, parser.parses.get());
+    }
+
+    @Test
+    void streamReplaysACachedResult() {
+        DiagnosticsCache cache = new DiagnosticsCache(parser, 1 << 20, 60);
+        Diagnostics parsed = cache.parse(CODE);
+
+        List<Diagnostic> streamed = new ArrayList<>();
+        Diagnostics counts = cache.stream(CODE, streamed::add);
+
+        assertSame(parsed, counts);
+        assertEquals(parsed.list(), streamed);
+        assertEquals(1, parser.parses.get());
+    }
+}
@@ -0,0 +1,259 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// Against a local stub standing in for Gemini
+class GeminiClientTest {
+
+    private static final long OPEN_MILLIS = 300;
+
+    // What the stub answers to its n-th request, counting from 1
+    private record Reply(int status, String retryAfter, String body) {
+        static Reply ok(String text) {
+            return new Reply(200, null, "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"" + text + "\"}]}}]}");
+        }
+
+        static Reply status(int status) {
+            return new Reply(status, null, "{}");
+        }
+    }
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile IntFunction<Reply> replies = n -> Reply.ok("ok");
+    // What the stub streams back to streamGenerateContent, each piece flushed on its own
+    private volatile List<String> pieces = List.of();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/", this::answer);
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    private void answer(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        if (exchange.getRequestURI().getPath().endsWith(":streamGenerateContent")) {
+            stream(exchange);
+            return;
+        }
+        Reply reply = replies.apply(requests.incrementAndGet());
+        if (reply.retryAfter() != null) {
+            exchange.getResponseHeaders().add("Retry-After", reply.retryAfter());
+        }
+        byte[] body = reply.body().getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(reply.status(), body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void stream(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (String piece : pieces) {
+                out.write(piece.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                // So the client reads every piece on its own
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private static String event(String text) {
+        return "data: {\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"" + text + "\"}]}}]}";
+    }
+
+    private GeminiClient client(int maxAttempts, int failureThreshold) {
+        return new GeminiClient("model", "key", "http://localhost:" + server.getAddress().getPort(), 1000, 10_000,
+                                maxAttempts, 10, 2000, 20, 1, 200, 1000, 60_000, 3, failureThreshold, OPEN_MILLIS);
+    }
+
+    private static Throwable failure(GeminiClient gemini) {
+        return assertThrows(ExecutionException.class, () -> gemini.generate("prompt").get()).getCause();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object breaker(GeminiClient gemini, String key) {
+        return ((Map<String, Object>) gemini.stats().get("circuitBreaker")).get(key);
+    }
+
+    @Test
+    void tooManyRequestsIsRetriedAfterItsRetryAfter() throws Exception {
+        GeminiClient gemini = client(3, 5);
+        replies = n -> n == 1 ? new Reply(429, "1", "{}") : Reply.ok("done");
+
+        long start = System.nanoTime();
+        String text = gemini.generate("prompt").get();
+
+        assertEquals("done", text);
+        assertEquals(2, requests.get());
+        assertTrue((System.nanoTime() - start) / 1_000_000 >= 900, "retried too early");
+    }
+
+    @Test
+    void retryAfterLongerThanTheMaxDelayIsNotWaitedFor() {
+        GeminiClient gemini = client(3, 5);
+        replies = n -> new Reply(429, "60", "{}");
+
+        long start = System.nanoTime();
+        Throwable e = failure(gemini);
+
+        assertEquals(429, ((GeminiClient.UpstreamException) e).getStatus());
+        assertEquals(1, requests.get());
+        assertTrue((System.nanoTime() - start) / 1_000_000 < 2000);
+    }
+
+    @Test
+    void serverErrorsAreRetriedUpToMaxAttempts() {
+        GeminiClient gemini = client(3, 5);
+        replies = n -> Reply.status(503);
+
+        Throwable e = failure(gemini);
+
+        assertEquals(503, ((GeminiClient.UpstreamException) e).getStatus());
+        assertEquals(3, requests.get());
+        assertEquals(2L, gemini.stats().get("retries"));
+    }
+
+    @Test
+    void serverErrorThenSuccessIsRetried() throws Exception {
+        GeminiClient gemini = client(3, 5);
+        replies = n -> n < 3 ? Reply.status(500) : Reply.ok("third time");
+
+        assertEquals("third time", gemini.generate("prompt").get());
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    void badRequestIsNeitherRetriedNorHeldAgainstGemini() {
+        GeminiClient gemini = client(3, 1);
+        replies = n -> Reply.status(400);
+
+        Throwable e = failure(gemini);
+
+        assertEquals(400, ((GeminiClient.UpstreamException) e).getStatus());
+        assertEquals(1, requests.get());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker(gemini, "state"));
+    }
+
+    @Test
+    void breakerOpensHalfOpensAndCloses() throws Exception {
+        GeminiClient gemini = client(1, 2);
+        replies = n -> Reply.status(500);
+        failure(gemini);
+        failure(gemini);
+        assertEquals(CircuitBreaker.State.OPEN, breaker(gemini, "state"));
+
+        // Open: Gemini isn't called at all
+        Throwable refused = failure(gemini);
+        assertTrue(GeminiClient.isUnavailable(refused), String.valueOf(refused));
+        assertEquals(2, requests.get());
+
+        // Half open after the open time, the trial call closes it
+        Thread.sleep(OPEN_MILLIS + 50);
+        replies = n -> Reply.ok("back");
+        assertEquals("back", gemini.generate("prompt").get());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker(gemini, "state"));
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    void failedTrialCallOpensTheBreakerAgain() throws Exception {
+        GeminiClient gemini = client(1, 2);
+        replies = n -> Reply.status(503);
+        failure(gemini);
+        failure(gemini);
+
+        Thread.sleep(OPEN_MILLIS + 50);
+        failure(gemini);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker(gemini, "state"));
+        assertEquals(2L, breaker(gemini, "opened"));
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    void retryAfterKeepsTheBreakerOpenForLonger() {
+        GeminiClient gemini = client(1, 1);
+        replies = n -> new Reply(429, "30", "{}");
+
+        failure(gemini);
+
+        assertTrue((long) breaker(gemini, "remainingOpenMillis") > OPEN_MILLIS);
+    }
+
+    @Test
+    void streamedTextArrivesInOrderAcrossChunkBoundaries() throws Exception {
+        GeminiClient gemini = client(3, 5);
+        String first = event("int x");
+        String second = event(" = 1;");
+        pieces = List.of(
+                // An event split in the middle of its data line
+                first.substring(0, 20), first.substring(20) + "\n\n",
+                // A CRLF split between two chunks, and the blank line after it in the next
+                second + "\r", "\n\r\n",
+                // Comments and other fields are skipped, the last event has no blank line after it
+                ": keep-alive\nevent: message\n" + event("\\n"));
+        List<String> chunks = new CopyOnWriteArrayList<>();
+
+        String text = gemini.stream("prompt", chunks::add).get();
+
+        assertEquals(List.of("int x", " = 1;", "\n"), chunks);
+        assertEquals("int x = 1;\n", text);
+    }
+
+    @Test
+    void eventWithSeveralDataLinesIsJoined() throws Exception {
+        GeminiClient gemini = client(3, 5);
+        pieces = List.of("data: {\"candidates\":[{\"content\":\r\n",
+                         "data: {\"parts\":[{\"text\":\"joined\"}]}}]}\r\n\r\n");
+
+        assertEquals("joined", gemini.stream("prompt", chunk -> { }).get());
+    }
+
+    @Test
+    void errorEventFailsTheStream() {
+        GeminiClient gemini = client(3, 5);
+        pieces = List.of(event("partial") + "\n\n", "data: {\"error\":{\"message\":\"quota\"}}\n\n");
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> gemini.stream("prompt", chunk -> { }).get());
+
+        assertTrue(e.getCause().getMessage().contains("quota"), e.getCause().getMessage());
+        // Part of the answer was passed on already, a retry would repeat it
+        assertEquals(1, requests.get());
+    }
+}
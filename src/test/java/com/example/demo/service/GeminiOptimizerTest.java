@@ -0,0 +1,238 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.example.demo.model.LlmResponse;
+import com.example.demo.repository.LlmResponseRepository;
+
+// Method-by-method optimization against a stubbed Gemini and an in-memory stand-in for Mongo
+class GeminiOptimizerTest {
+
+    private static final String SOURCE = MethodChunkerTest.SOURCE;
+    private static final String TWICE = "int twice(int x) { return x * 2; }";
+    private static final String SQUARE = "int square(int x) { return x * x; }";
+
+    // What Gemini answers for a prompt, by the method it is about
+    private static final class StubGemini extends GeminiClient {
+
+        final List<String> prompts = new CopyOnWriteArrayList<>();
+        volatile Function<String, CompletableFuture<String>> answers;
+
+        StubGemini(Function<String, CompletableFuture<String>> answers) {
+            super("model", "key", "http://localhost:1", 1000, 1000, 1, 10, 100, 20, 1, 200, 1000, 60_000, 3, 5, 30_000);
+            this.answers = answers;
+        }
+
+        @Override
+        public CompletableFuture<String> generate(String prompt) {
+            prompts.add(prompt);
+            return answers.apply(prompt);
+        }
+    }
+
+    private static CompletableFuture<String> answer(String prompt) {
+        if (prompt.contains("int twice(")) {
+            return CompletableFuture.completedFuture("```java\n" + TWICE + "\n```");
+        }
+        if (prompt.contains("int square(")) {
+            return CompletableFuture.completedFuture("Here you go:\n```java\n" + SQUARE + "\n```");
+        }
+        return CompletableFuture.failedFuture(new IllegalStateException("Unexpected prompt"));
+    }
+
+    // Mongo as a map: findById, save and deleteById, nothing else is used
+    private static LlmResponseRepository repository(Map<String, LlmResponse> stored) {
+        return (LlmResponseRepository) Proxy.newProxyInstance(
+                LlmResponseRepository.class.getClassLoader(), new Class<?>[] {LlmResponseRepository.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "findById" -> Optional.ofNullable(stored.get((String) args[0]));
+                    case "save" -> {
+                        LlmResponse response = (LlmResponse) args[0];
+                        stored.put(response.getId(), response);
+                        yield response;
+                    }
+                    case "deleteById" -> {
+                        stored.remove((String) args[0]);
+                        yield null;
+                    }
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private final Map<String, LlmResponse> mongo = new ConcurrentHashMap<>();
+    private final List<GeminiOptimizer> optimizers = new ArrayList<>();
+
+    private GeminiOptimizer optimizer(StubGemini gemini, LlmResponseCache cache) {
+        // Every source with a method is split
+        GeminiOptimizer optimizer = new GeminiOptimizer(gemini, cache, new MethodChunker(new CodeParser()), 0, 1, 2);
+        optimizers.add(optimizer);
+        return optimizer;
+    }
+
+    private GeminiOptimizer optimizer(StubGemini gemini) {
+        return optimizer(gemini, new LlmResponseCache(repository(mongo), null, 1 << 20, 1));
+    }
+
+    @AfterEach
+    void shutdown() {
+        optimizers.forEach(GeminiOptimizer::shutdown);
+    }
+
+    private static Optimizer.Result optimize(GeminiOptimizer optimizer, String code) throws Exception {
+        return optimizer.optimize(new Optimizer.Request(code, false, null)).get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void putsTheOptimizedMethodsBackInPlace() throws Exception {
+        StubGemini gemini = new StubGemini(GeminiOptimizerTest::answer);
+        List<String> streamed = new CopyOnWriteArrayList<>();
+
+        Optimizer.Result result = optimizer(gemini).optimize(new Optimizer.Request(SOURCE, false, streamed::add))
+                .get(10, TimeUnit.SECONDS);
+
+        assertEquals("""
+                class Calc {
+                    // Doubles x
+                    int twice(int x) { return x * 2; }
+
+                    int scale = 3;
+
+                    int square(int x) { return x * x; }
+                }
+                """, result.code());
+        assertEquals(List.of("Optimized twice(int)", "Optimized square(int)"), result.changes());
+        assertEquals("miss", result.cache());
+        assertEquals(2, gemini.prompts.size());
+        // One method at a time as each finishes
+        assertEquals(2, streamed.size());
+    }
+
+    @Test
+    void keepsAMethodWhoseAnswerHasAnotherSignature() throws Exception {
+        StubGemini gemini = new StubGemini(prompt -> prompt.contains("int square(")
+                ? CompletableFuture.completedFuture("int square(float x) { return 1; }") : answer(prompt));
+
+        Optimizer.Result result = optimize(optimizer(gemini), SOURCE);
+
+        assertTrue(result.code().contains(TWICE), result.code());
+        assertTrue(result.code().contains("for (int i = 0; i < x; i++) { r += x; }"), result.code());
+        assertEquals(List.of("Optimized twice(int)", "Kept square(int), the answer wasn't that method"), result.changes());
+    }
+
+    @Test
+    void keepsAMethodWhoseCallFailsOrWhileGeminiIsUnavailable() throws Exception {
+        StubGemini failing = new StubGemini(prompt -> prompt.contains("int square(")
+                ? CompletableFuture.failedFuture(new IllegalStateException("Bad answer")) : answer(prompt));
+        StubGemini unavailable = new StubGemini(prompt -> prompt.contains("int square(")
+                ? CompletableFuture.failedFuture(new GeminiClient.UnavailableException("Circuit open")) : answer(prompt));
+
+        Optimizer.Result failed = optimize(optimizer(failing), SOURCE);
+        mongo.clear();
+        Optimizer.Result fallback = optimize(optimizer(unavailable), SOURCE);
+
+        assertEquals(List.of("Optimized twice(int)", "Kept square(int), optimizing it failed"), failed.changes());
+        assertEquals(List.of("Optimized twice(int)", "Kept square(int), Gemini is unavailable"), fallback.changes());
+        assertTrue(fallback.code().contains("for (int i = 0; i < x; i++) { r += x; }"), fallback.code());
+    }
+
+    @Test
+    void cancellingTheOptimizationCancelsTheCallsInFlight() throws Exception {
+        List<CompletableFuture<String>> calls = new CopyOnWriteArrayList<>();
+        StubGemini gemini = new StubGemini(prompt -> {
+            CompletableFuture<String> call = new CompletableFuture<>();
+            calls.add(call);
+            return call;
+        });
+
+        CompletableFuture<Optimizer.Result> result = optimizer(gemini).optimize(new Optimizer.Request(SOURCE, false, null));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (calls.size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        result.cancel(true);
+
+        assertThrows(CancellationException.class, result::join);
+        assertEquals(2, calls.size());
+        for (CompletableFuture<String> call : calls) {
+            while (!call.isDone() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(call.isCancelled());
+        }
+    }
+
+    @Test
+    void methodsAreCachedOnTheirOwnAcrossTiers() throws Exception {
+        String withCube = SOURCE.replace("    int scale = 3;\n", "    int cube(int x) { return x * x * x; }\n");
+        StubGemini gemini = new StubGemini(prompt -> prompt.contains("int cube(")
+                ? CompletableFuture.completedFuture("int cube(int x) { int s = x * x; return s * x; }") : answer(prompt));
+
+        // Both methods go to Mongo, a fresh server then has twice in memory after asking for it alone
+        optimize(optimizer(gemini), SOURCE);
+        LlmResponseCache cache = new LlmResponseCache(repository(mongo), null, 1 << 20, 1);
+        GeminiOptimizer restarted = optimizer(gemini, cache);
+        String twiceOnly = "class Calc { " + SOURCE.substring(SOURCE.indexOf("int twice("), SOURCE.indexOf("    int scale")) + "}";
+        assertEquals("mongo", optimize(restarted, twiceOnly).cache());
+        gemini.prompts.clear();
+
+        Optimizer.Result result = optimize(restarted, withCube);
+
+        assertEquals("mixed", result.cache());
+        assertEquals(1, gemini.prompts.size());
+        assertTrue(gemini.prompts.get(0).contains("int cube("), gemini.prompts.get(0));
+        assertEquals(List.of("Optimized twice(int)", "Optimized cube(int)", "Optimized square(int)"), result.changes());
+        // twice from memory, square from Mongo, cube from Gemini
+        Map<String, Object> stats = cache.stats();
+        assertEquals(1L, stats.get("memoryHits"));
+        assertEquals(2L, stats.get("mongoHits"));
+        assertEquals(1L, stats.get("misses"));
+    }
+
+    @Test
+    void aRejectedAnswerIsDroppedFromBothTiers() throws Exception {
+        StubGemini gemini = new StubGemini(GeminiOptimizerTest::answer);
+        LlmResponseCache cache = new LlmResponseCache(repository(mongo), null, 1 << 20, 1);
+        GeminiOptimizer optimizer = optimizer(gemini, cache);
+        Optimizer.Result result = optimize(optimizer, SOURCE);
+        assertEquals(2, mongo.size());
+
+        optimizer.rejected(SOURCE, result);
+
+        assertEquals(Map.of(), mongo);
+        assertEquals(0, cache.stats().get("entries"));
+        assertEquals("miss", optimize(optimizer, SOURCE).cache());
+        assertEquals(4, gemini.prompts.size());
+    }
+
+    @Test
+    void aRejectedWholeAnswerIsDroppedToo() throws Exception {
+        String code = "int twice(int x) { return x + x; }";
+        StubGemini gemini = new StubGemini(GeminiOptimizerTest::answer);
+        LlmResponseCache cache = new LlmResponseCache(repository(mongo), null, 1 << 20, 1);
+        GeminiOptimizer optimizer = optimizer(gemini, cache);
+        Optimizer.Result result = optimize(optimizer, code);
+        assertEquals("memory", optimize(optimizer, code).cache());
+
+        optimizer.rejected(code, result);
+
+        assertEquals(Map.of(), mongo);
+        assertEquals("miss", optimize(optimizer, code).cache());
+        assertEquals(1L, cache.stats().get("removals"));
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+import com.example.demo.grammar.diagnostics.Diagnostic;
+import com.example.demo.grammar.diagnostics.Diagnostics;
+
+class IncrementalCodeParserTest {
+
+    private final CodeParser codeParser = new CodeParser();
+    private final IncrementalCodeParser parser = new IncrementalCodeParser(codeParser);
+
+    // Every function has one type error, so each region has a diagnostic of its own to reuse
+    private static String source(int functions) {
+        StringBuilder code = new StringBuilder();
+        for (int i = 0; i < functions; i++) {
+            code.append("int f").append(i).append("(int n) {\n")
+                .append("    int s = 2;\n")
+                .append("    float bad").append(i).append(" = true;\n")
+                .append("    return s;\n")
+                .append("}\n");
+        }
+        return code.toString();
+    }
+
+    // What a full parse reports, with positions, in a stable order
+    private static List<String> described(Diagnostics diagnostics) {
+        return diagnostics.list().stream()
+                .map(d -> d.code() + "@" + d.line() + ":" + d.column() + "[" + d.startOffset() + "," + d.endOffset() + "] "
+                          + d.message())
+                .sorted()
+                .toList();
+    }
+
+    private String text;
+    private String doc;
+
+    private IncrementalCodeParser.Result open(String code) {
+        text = code;
+        IncrementalCodeParser.Result result = parser.update(null, null, code, null);
+        doc = result.documentId();
+        return result;
+    }
+
+    private IncrementalCodeParser.Result edit(int version, int offset, int length, String replacement) {
+        text = text.substring(0, offset) + replacement + text.substring(offset + length);
+        return parser.update(doc, version, null, List.of(new IncrementalCodeParser.TextEdit(offset, length, replacement)));
+    }
+
+    // A full parse that throws (the lexer does on an illegal character such as a stray quote)
+    // reports nothing but the failure. The regions the failure isn't in still have their own
+    // diagnostics, the incremental result only has to report the failure as well. Duplicate
+    // names across top-level nodes are only seen by a full parse, as IncrementalCodeParser says
+    private void assertMatchesFullParse(IncrementalCodeParser.Result result) {
+        Diagnostics full = codeParser.parse(text);
+        if (full.messages().stream().anyMatch(m -> m.contains("Duplicate"))) {
+            return;
+        }
+        if (full.count(Diagnostic.Category.INTERNAL) > 0) {
+            assertTrue(result.diagnostics().count(Diagnostic.Category.INTERNAL) > 0,
+                       () -> "full parse failed, incremental reported " + described(result.diagnostics()));
+            return;
+        }
+        assertEquals(described(full), described(result.diagnostics()));
+    }
+
+    @Test
+    void openingParsesEverything() {
+        String code = source(5);
+
+        IncrementalCodeParser.Result result = open(code);
+
+        assertEquals(code.length(), result.reparsedChars());
+        assertEquals(5, result.diagnostics().size());
+        assertMatchesFullParse(result);
+    }
+
+    @Test
+    void editReparsesOnlyTheTouchedRegion() {
+        open(source(40));
+        int offset = text.indexOf("int s = 2;", text.indexOf("int f20("));
+
+        IncrementalCodeParser.Result result = edit(0, offset + "int s = ".length(), 1, "7");
+
+        assertEquals(1, result.version());
+        assertTrue(result.reparsedChars() < text.length() / 10, "re-parsed " + result.reparsedChars() + " chars");
+        assertMatchesFullParse(result);
+    }
+
+    @Test
+    void laterRegionsAreShiftedWhenLinesAreAdded() {
+        open(source(10));
+        int offset = text.indexOf("    return s;", text.indexOf("int f3("));
+
+        IncrementalCodeParser.Result result = edit(0, offset, 0, "    int more = 3;\n    boolean worse = 1;\n");
+
+        assertEquals(11, result.diagnostics().size());
+        assertTrue(result.reparsedChars() < text.length() / 2, "re-parsed " + result.reparsedChars() + " chars");
+        assertMatchesFullParse(result);
+    }
+
+    @Test
+    void deletingAFunctionResyncsWithTheRest() {
+        open(source(10));
+        int start = text.indexOf("int f4(");
+        int end = text.indexOf("int f5(");
+
+        IncrementalCodeParser.Result result = edit(0, start, end - start, "");
+
+        assertEquals(9, result.diagnostics().size());
+        assertMatchesFullParse(result);
+    }
+
+    @Test
+    void commentOpenedBeforeLaterRegionsIsReparsedToItsEnd() {
+        open(source(6));
+        int offset = text.indexOf("int f2(");
+
+        // Unterminated, the lexer reads to the end of the document looking for its end
+        IncrementalCodeParser.Result opened = edit(0, offset, 0, "/*");
+        assertMatchesFullParse(opened);
+
+        // Closing it further down turns f2 and f3 into a comment, the regions after it come back
+        int close = text.indexOf("int f4(");
+        IncrementalCodeParser.Result closed = edit(1, close, 0, "*/\n");
+        assertEquals(4, closed.diagnostics().size());
+        assertMatchesFullParse(closed);
+
+        // And removing the opening brings back the ones it had swallowed
+        IncrementalCodeParser.Result removed = edit(2, offset, 2, "");
+        assertMatchesFullParse(removed);
+    }
+
+    @Test
+    void closingACommentOpenedInAnEarlierRegionReparsesThatRegion() {
+        open(source(4) + "/* trailing comment, never closed\nint g() { return 1; }\n");
+
+        // The comment started in the last function's region, its diagnostics change with it
+        IncrementalCodeParser.Result result = edit(0, text.indexOf("\nint g()"), 0, " */");
+
+        assertMatchesFullParse(result);
+    }
+
+    @Test
+    void unterminatedStringIsReparsedToTheEnd() {
+        open(source(6));
+        int offset = text.indexOf("float bad1 = true;") + "float bad1 = ".length();
+
+        IncrementalCodeParser.Result opened = edit(0, offset, 4, "\"oops");
+        assertMatchesFullParse(opened);
+
+        IncrementalCodeParser.Result closed = edit(1, offset + 5, 0, "\"");
+        assertMatchesFullParse(closed);
+    }
+
+    @Test
+    void randomEditsAlwaysMatchAFullParse() {
+        String[] replacements = {";", "}", "{", "int q = 1;\n", "\n", "x", "float", " = ", "/*", "*/", "\"", ""};
+        for (long seed = 1; seed <= 8; seed++) {
+            Random random = new Random(seed);
+            open(source(12));
+            for (int version = 0; version < 300; version++) {
+                int offset = random.nextInt(text.length() + 1);
+                int length = random.nextInt(4) == 0 ? Math.min(random.nextInt(6), text.length() - offset) : 0;
+                String replacement = replacements[random.nextInt(replacements.length)];
+
+                IncrementalCodeParser.Result result = edit(version, offset, length, replacement);
+
+                assertMatchesFullParse(result);
+            }
+        }
+    }
+
+    @Test
+    void editThatChangesNothingReparsesNothing() {
+        open(source(3));
+
+        IncrementalCodeParser.Result result = edit(0, 5, 1, text.substring(5, 6));
+
+        assertEquals(0, result.reparsedChars());
+        assertMatchesFullParse(result);
+    }
+
+    @Test
+    void staleVersionOrUnknownDocumentNeedsTheFullCode() {
+        open(source(2));
+        edit(0, 0, 0, "\n");
+
+        assertThrows(IncrementalCodeParser.StaleDocumentException.class, () -> parser.update(doc, 0, null, List.of()));
+        assertThrows(IncrementalCodeParser.StaleDocumentException.class, () -> parser.update("other", 0, null, List.of()));
+        assertThrows(IncrementalCodeParser.StaleDocumentException.class, () -> parser.update(null, 0, null, List.of()));
+        parser.close(doc);
+        assertThrows(IncrementalCodeParser.StaleDocumentException.class, () -> parser.update(doc, 1, null, List.of()));
+    }
+
+    @Test
+    void editOutsideTheDocumentNeedsTheFullCode() {
+        open(source(1));
+
+        assertThrows(IncrementalCodeParser.StaleDocumentException.class, () -> parser.update(
+                doc, 0, null, List.of(new IncrementalCodeParser.TextEdit(text.length(), 1, "x"))));
+    }
+
+    @Test
+    void everyOpenGetsItsOwnId() {
+        IncrementalCodeParser.Result first = parser.update(null, null, source(1), null);
+        IncrementalCodeParser.Result second = parser.update(null, null, source(2), null);
+
+        assertNotEquals(first.documentId(), second.documentId());
+        // Another client's id sent along with code doesn't overwrite its document, it is closed instead
+        IncrementalCodeParser.Result reopened = parser.update(first.documentId(), null, "int x = 1;", null);
+        assertNotEquals(first.documentId(), reopened.documentId());
+        assertThrows(IncrementalCodeParser.StaleDocumentException.class,
+                     () -> parser.update(first.documentId(), 0, null, List.of()));
+        assertEquals(1, parser.update(second.documentId(), 0, null, List.of()).version());
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+import com.example.demo.grammar.diagnostics.Diagnostics;
+
+class LocalAstOptimizerTest {
+
+    private final CodeParser parser = new CodeParser();
+    private final LocalAstOptimizer optimizer = new LocalAstOptimizer(parser);
+
+    private void assertUnchanged(String code) {
+        LocalAstOptimizer.Rewrite rewrite = optimizer.rewrite(code);
+        assertEquals(code, rewrite.code());
+        assertEquals(List.of(), rewrite.changes());
+    }
+
+    private boolean parses(String code) {
+        Diagnostics syntaxErrors = new Diagnostics();
+        parser.parseTree(code, syntaxErrors);
+        return syntaxErrors.isEmpty();
+    }
+
+    @Test
+    void foldsConstantExpressions() {
+        LocalAstOptimizer.Rewrite rewrite = optimizer.rewrite("int x = 2 * 3 + 4; boolean b = !true; String s = \"a\" + \"b\";");
+
+        assertEquals("int x = 10; boolean b = false; String s = \"ab\";", rewrite.code());
+        assertEquals(List.of("Folded `2 * 3 + 4` into `10`", "Folded `!true` into `false`", "Folded `\"a\" + \"b\"` into `\"ab\"`"),
+                     rewrite.changes());
+    }
+
+    @Test
+    void foldingKeepsIntWraparoundAndLeavesDivisionByZero() {
+        assertEquals("int c = -2147483648;", optimizer.rewrite("int c = 2147483647 + 1;").code());
+        assertUnchanged("int a = 1 / 0;");
+    }
+
+    @Test
+    void foldsAwayDeadBranches() {
+        assertEquals("int z = n;", optimizer.rewrite("if (false) { n = 1; } int z = n;").code());
+        assertEquals("", optimizer.rewrite("while (false) { n++; }").code());
+    }
+
+    @Test
+    void negativeLiteralsAreAlreadyFolded() {
+        // Used to be "folded" into (-1), a change that kept Gemini from being asked
+        assertUnchanged("if (n == -1) { n = 0; }");
+        assertUnchanged("int a = n - (-1);");
+        assertUnchanged("int m = -2147483648;");
+    }
+
+    @Test
+    void foldedNegativeOperandsGetParentheses() {
+        // n --5 would not parse
+        LocalAstOptimizer.Rewrite rewrite = optimizer.rewrite("int a = n - (0 - 5); int b = -(-1);");
+
+        assertEquals("int a = n - (-5); int b = 1;", rewrite.code());
+        assertTrue(parses(rewrite.code()));
+    }
+
+    @Test
+    void hoistsLoopInvariantDeclarations() {
+        LocalAstOptimizer.Rewrite rewrite = optimizer.rewrite("int s = 0; for (int i = 0; i < n; i++) { int t = n * n; s += t + i; }");
+
+        assertEquals("int s = 0; int t = n * n; for (int i = 0; i < n; i++) { s += t + i; }", rewrite.code());
+        assertEquals(List.of("Moved `int t = n * n;` out of the loop, it is the same every time round"), rewrite.changes());
+    }
+
+    @Test
+    void leavesDeclarationsThatDependOnTheLoop() {
+        assertUnchanged("int s = 0; for (int i = 0; i < n; i++) { int t = n + i; s += t; }");
+    }
+
+    @Test
+    void reducesCounterProductsToSteppedSums() {
+        LocalAstOptimizer.Rewrite rewrite = optimizer.rewrite("int s = 0; for (int i = 0; i < n; i++) { s += i * 4; }");
+
+        assertEquals("int s = 0; int iTimes4 = 0; for (int i = 0; i < n; i++) { s += iTimes4; iTimes4 += 4; }", rewrite.code());
+        assertEquals(List.of("Replaced `i * 4` with iTimes4, a sum that steps along with i"), rewrite.changes());
+    }
+
+    @Test
+    void reducesTheOuterCounterOfNestedLoops() {
+        assertEquals("int s = 0; int iTimesN = 0; for (int i = 0; i < n; i++) { for (int j = 0; j < n; j++) { s += iTimesN + j; } iTimesN += n; }",
+                     optimizer.rewrite("int s = 0; for (int i = 0; i < n; i++) { for (int j = 0; j < n; j++) { s += i * n + j; } }").code());
+    }
+
+    @Test
+    void leavesLoopsThatContinueOrBreakAlone() {
+        // The step at the end of the body would be skipped: 32 for n = 4 would become 8
+        assertUnchanged("int s = 0; for (int i = 0; i < n; i++) { if (i % 2 == 0) { continue; } s += i * 8; }");
+        assertUnchanged("int s = 0; for (int i = 0; i < n; i++) { if (i > 3) { break; } s += i * 8; }");
+    }
+
+    @Test
+    void keepsConstantConditionsAroundContinue() {
+        // { continue; } s += i; would leave s += i unreachable
+        assertUnchanged("int s = 0; for (int i = 0; i < n; i++) { if (true) { continue; } s += i; }");
+    }
+
+    @Test
+    void eliminatesRepeatedExpressions() {
+        LocalAstOptimizer.Rewrite rewrite = optimizer.rewrite("int a = n * n + 1; int b = n * n + 2;");
+
+        assertEquals("int common = n * n;\nint a = common + 1; int b = common + 2;", rewrite.code());
+        assertEquals(List.of("Computed `n * n` once instead of 2 times"), rewrite.changes());
+    }
+
+    @Test
+    void buildsStringsInLoopsWithAStringBuilder() {
+        LocalAstOptimizer.Rewrite rewrite = optimizer.rewrite("String s = \"\"; for (int i = 0; i < n; i++) { s += i; }");
+
+        assertEquals("String s = \"\"; StringBuilder sBuilder = new StringBuilder().append(s); "
+                     + "for (int i = 0; i < n; i++) { sBuilder.append(i); } s = sBuilder.toString();", rewrite.code());
+    }
+
+    @Test
+    void freshNamesDontCollideWithExistingOnes() {
+        assertEquals("int iTimes4 = 1; int s = 0; int iTimes42 = 0; for (int i = 0; i < n; i++) { s += iTimes42 + iTimes4; iTimes42 += 4; }",
+                     optimizer.rewrite("int iTimes4 = 1; int s = 0; for (int i = 0; i < n; i++) { s += i * 4 + iTimes4; }").code());
+        assertEquals("int common = 3; int common2 = n * n; int a = common2 + common; int b = common2 + 2;",
+                     optimizer.rewrite("int common = 3; int a = n * n + common; int b = n * n + 2;").code());
+    }
+
+    @Test
+    void leavesCodeOutsideTheGrammarAlone() {
+        assertUnchanged("int s = 2 * 3; do { s++; } while (s < n);");
+        assertUnchanged("int x = 2 * 3 +;");
+    }
+
+    @Test
+    void everyRewriteParses() {
+        // A pass whose output doesn't parse is dropped, whatever it is given the result must parse
+        for (String code : List.of("int a = n - (0 - 5) * (0 - 2);",
+                                   "int s = 0; for (int i = 1; i < n; i += 3) { s += i * 5 - i * n; }",
+                                   "int s = 0; for (int i = n; i > 0; i--) { int t = n * 2 + 1; s += t * i; }",
+                                   "String s = \"\"; for (int i = 0; i < n; i++) { if (i > 2) { s += i * 2; } }",
+                                   "if (1 < 2) { n = n * n + n * n; } else { n = 0; }",
+                                   "class A { int f(int x) { return x * 2 + 3 * 4; } int g(int x) { return x * 2 + 1; } }")) {
+            LocalAstOptimizer.Rewrite rewrite = optimizer.rewrite(code);
+            assertTrue(parses(rewrite.code()), code + " became " + rewrite.code());
+        }
+    }
+
+    @Test
+    void optimizeFindsNothingInCodeItCantImprove() {
+        assertNull(optimizer.optimize(new Optimizer.Request("int s = n;", false, null)).join());
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class MethodChunkerTest {
+
+    static final String SOURCE = """
+            class Calc {
+                // Doubles x
+                int twice(int x) {
+                    return x + x;
+                }
+
+                int scale = 3;
+
+                int square(int x) {
+                    int r = 0;
+                    for (int i = 0; i < x; i++) { r += x; }
+                    return r;
+                }
+            }
+            """;
+
+    private final MethodChunker chunker = new MethodChunker(new CodeParser());
+
+    @Test
+    void splitsIntoMethodsWithTheirOffsets() {
+        List<MethodChunker.Chunk> chunks = chunker.split(SOURCE);
+
+        assertEquals(List.of("twice", "square"), chunks.stream().map(MethodChunker.Chunk::name).toList());
+        assertEquals(List.of("int"), chunks.get(0).parameterTypes());
+        for (MethodChunker.Chunk chunk : chunks) {
+            assertEquals(chunk.text(), SOURCE.substring(chunk.start(), chunk.end()));
+        }
+        // From the first modifier to the closing brace, the comment above stays outside
+        assertEquals("int twice(int x) {\n        return x + x;\n    }", chunks.get(0).text());
+    }
+
+    @Test
+    void onlySplitsSourcesOfClassesAndMethods() {
+        assertNull(chunker.split("int s = 0; class A { int f(int x) { return x; } }"));
+        assertNull(chunker.split("class A { int f(int x) { return x } }"));
+    }
+
+    @Test
+    void methodTakesTheOneMethodWithTheSameSignature() {
+        MethodChunker.Chunk twice = chunker.split(SOURCE).get(0);
+
+        assertEquals("int twice(int x) { return x * 2; }", chunker.method("int twice(int x) { return x * 2; }", twice));
+        // A class around it is dropped
+        assertEquals("int twice(int x) { return x * 2; }",
+                     chunker.method("class Calc { int twice(int x) { return x * 2; } }", twice));
+    }
+
+    @Test
+    void methodRejectsAnythingElse() {
+        MethodChunker.Chunk twice = chunker.split(SOURCE).get(0);
+
+        assertNull(chunker.method("int doubled(int x) { return x * 2; }", twice));
+        assertNull(chunker.method("int twice(float x) { return 2; }", twice));
+        assertNull(chunker.method("int twice(int x, int y) { return x * 2; }", twice));
+        assertNull(chunker.method("class C { int twice(int x) { return x * 2; } int other(int y) { return y; } }", twice));
+        assertNull(chunker.method("Here it is: int twice(int x) { return x * 2; }", twice));
+    }
+
+    @Test
+    void stitchPutsEachMethodBackInItsPlace() {
+        List<MethodChunker.Chunk> chunks = chunker.split(SOURCE);
+
+        // A shorter first method must not shift where the second one goes
+        String stitched = MethodChunker.stitch(SOURCE, chunks, List.of("int twice(int x) { return x * 2; }",
+                                                                       "int square(int x) {\n        return x * x;\n    }"));
+
+        assertEquals("""
+                class Calc {
+                    // Doubles x
+                    int twice(int x) { return x * 2; }
+
+                    int scale = 3;
+
+                    int square(int x) {
+                        return x * x;
+                    }
+                }
+                """, stitched);
+        assertEquals(SOURCE, MethodChunker.stitch(SOURCE, chunks, chunks.stream().map(MethodChunker.Chunk::text).toList()));
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.lang.reflect.InvocationTargetException;
+import org.junit.jupiter.api.Test;
+
+class OperationCountInstrumenterTest {
+
+    private final CompiledClassCache cache = new CompiledClassCache(10);
+
+    // Operations counted for execute(n) of the snippet
+    private long count(String code, int n) throws Exception {
+        Class<?> compiled = cache.load(TimeComplexityService.generateFullCode(TimeComplexityService.CLASS_NAME, code),
+                                       TimeComplexityService.CLASS_NAME);
+        OperationCounter counter = new OperationCounter();
+        counter.attach();
+        try {
+            compiled.getMethod("execute", int.class).invoke(null, n);
+        } finally {
+            counter.detach();
+        }
+        return counter.count();
+    }
+
+    @Test
+    void everyMethodCountsOnceOnEntry() throws Exception {
+        assertEquals(1, count("", 10));
+        // execute, then consume once
+        assertEquals(2, count("consume(n);", 10));
+    }
+
+    // Janino tests the condition at the bottom of the loop, behind the backward jump, so a loop
+    // of n iterations counts n + 1: one per test of its condition
+    @Test
+    void everyTestOfALoopConditionCountsOnce() throws Exception {
+        String forLoop = "int s = 0; for (int i = 0; i < n; i++) { s++; }";
+        String whileLoop = "int s = 0; int i = 0; while (i < n) { s++; i++; }";
+
+        for (String loop : new String[] {forLoop, whileLoop}) {
+            assertEquals(2, count(loop, 0), loop);
+            assertEquals(10, count(loop, 10) - count(loop, 0), loop);
+            // Past the 1024 iterations that are counted locally before being added
+            assertEquals(5000, count(loop, 5000) - count(loop, 0), loop);
+        }
+    }
+
+    @Test
+    void nestedLoopsCountEveryInnerIteration() throws Exception {
+        String nested = "int s = 0; for (int i = 0; i < n; i++) { for (int j = 0; j < n; j++) { s++; } }";
+
+        // n more outer iterations, each running an inner loop of n + 1
+        assertEquals(100 + 100 * (100 + 1), count(nested, 100) - count(nested, 0));
+    }
+
+    @Test
+    void callsInALoopCountAsWellAsTheIteration() throws Exception {
+        String calls = "for (int i = 0; i < n; i++) { consume(i); }";
+
+        assertEquals(2 * 50, count(calls, 50) - count(calls, 0));
+    }
+
+    @Test
+    void recursiveCallsCountEach() throws Exception {
+        String recursion = "class R { int down(int k) { return k == 0 ? 0 : down(k - 1) + 1; } } consume(new R().down(n));";
+
+        // down(n) to down(0), on top of execute, the constructor, consume and down(0)
+        assertEquals(4, count(recursion, 0));
+        assertEquals(4 + 20, count(recursion, 20));
+    }
+
+    @Test
+    void iterationsAreCountedWhenTheSnippetThrows() throws Exception {
+        // Thrown in the iteration of i = 300, before the first 1024 were added to the counter
+        String throwing = "for (int i = 0; i < n; i++) { if (i == 300) { consume(1 / (i - i)); } }";
+        Class<?> compiled = cache.load(TimeComplexityService.generateFullCode(TimeComplexityService.CLASS_NAME, throwing),
+                                       TimeComplexityService.CLASS_NAME);
+        OperationCounter counter = new OperationCounter();
+        counter.attach();
+        try {
+            InvocationTargetException thrown = assertThrows(InvocationTargetException.class,
+                                                            () -> compiled.getMethod("execute", int.class).invoke(null, 1000));
+            assertEquals(ArithmeticException.class, thrown.getCause().getClass());
+        } finally {
+            counter.detach();
+        }
+
+        // execute and the 301 tests of the condition it got to
+        assertEquals(1 + 301, counter.count());
+    }
+}
@@ -0,0 +1,277 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntFunction;
+import org.junit.jupiter.api.Test;
+
+class OptimizationVerifierTest {
+
+    private static final String ORIGINAL = "int s = 0; for (int i = 0; i < n; i++) { s = s + i; }";
+    private static final String OPTIMIZED = "int s = n * (n - 1) / 2;";
+
+    private static final int[] SIZES = {0, 1, 2, 3, 10, 100, 1000};
+
+    // Runs nothing: each snippet's outputs, timing and complexity are set by the test
+    private static final class StubAnalyses extends TimeComplexityService {
+
+        final Map<String, IntFunction<Probe>> probes = new ConcurrentHashMap<>();
+        final Map<String, Double> nanos = new ConcurrentHashMap<>();
+        final Map<String, String> complexities = new ConcurrentHashMap<>();
+        final List<String> probed = new CopyOnWriteArrayList<>();
+
+        StubAnalyses set(String code, IntFunction<Probe> probe, double p50Nanos, String complexity) {
+            probes.put(code, probe);
+            nanos.put(code, p50Nanos);
+            complexities.put(code, complexity);
+            return this;
+        }
+
+        // Probes and benchmarks get the snippet with the captures appended
+        private static <T> T of(Map<String, T> answers, String code) {
+            return answers.entrySet().stream().filter(answer -> code.startsWith(answer.getKey()))
+                    .map(Map.Entry::getValue).findFirst().orElseThrow(() -> new IllegalStateException("Does not compile"));
+        }
+
+        @Override
+        public List<Probe> probe(String code, int[] sizes) {
+            probed.add(code);
+            IntFunction<Probe> run = of(probes, code);
+            List<Probe> result = new ArrayList<>();
+            for (int n : sizes) {
+                Probe probe = run.apply(n);
+                result.add(probe);
+                if (probe.output() == null) {
+                    break;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public List<BenchmarkService.SizeResult> benchmark(String code, int[] sizes) {
+            double p50 = of(nanos, code);
+            BenchmarkService.Timing timing = new BenchmarkService.Timing(10, 0, 1, p50, p50, p50, p50, p50, 0);
+            return List.of(new BenchmarkService.SizeResult(sizes[0], SandboxExecutor.Status.COMPLETED, (long) p50, timing));
+        }
+
+        @Override
+        public Analysis analyzeComplexity(String code) {
+            return new Analysis(of(complexities, code), 1.0, 0.0, "O(1)", 1.0, SandboxExecutor.Status.COMPLETED,
+                                null, "static", new TreeMap<>(), new TreeMap<>(), new TreeMap<>());
+        }
+    }
+
+    private static IntFunction<TimeComplexityService.Probe> returning(IntFunction<Object> value) {
+        return n -> new TimeComplexityService.Probe(n, SandboxExecutor.Status.COMPLETED, "returned " + value.apply(n));
+    }
+
+    private static final IntFunction<TimeComplexityService.Probe> SUM = returning(n -> n * (n - 1) / 2);
+
+    private static OptimizationVerifier verifier(StubAnalyses analyses, boolean rejectRegressions) {
+        return new OptimizationVerifier(analyses, new CodeParser(), true, SIZES, 0.1, rejectRegressions);
+    }
+
+    @Test
+    void sameOutputsAtEverySizeAreEquivalent() throws Exception {
+        StubAnalyses analyses = new StubAnalyses().set(ORIGINAL, SUM, 2000, "O(n)").set(OPTIMIZED, SUM, 500, "O(1)");
+
+        OptimizationVerifier.Verification verification = verifier(analyses, true).verify(ORIGINAL, OPTIMIZED);
+
+        assertEquals(OptimizationVerifier.Verdict.EQUIVALENT, verification.verdict());
+        assertFalse(verification.regression());
+        assertEquals(SIZES.length, verification.comparedSizes());
+        assertEquals(1000, verification.timedN());
+        assertEquals(4.0, verification.speedup());
+        assertEquals("improved", verification.complexityChange());
+    }
+
+    @Test
+    void differentOutputIsRejected() throws Exception {
+        IntFunction<TimeComplexityService.Probe> offByOne = returning(n -> n < 3 ? n * (n - 1) / 2 : n * (n + 1) / 2);
+        StubAnalyses analyses = new StubAnalyses().set(ORIGINAL, SUM, 2000, "O(n)").set(OPTIMIZED, offByOne, 500, "O(1)");
+
+        OptimizationVerifier.Verification verification = verifier(analyses, true).verify(ORIGINAL, OPTIMIZED);
+
+        assertEquals(OptimizationVerifier.Verdict.DIFFERENT, verification.verdict());
+        assertTrue(verification.rejected());
+        assertTrue(verification.notes().get(0).startsWith("At n=3 "), verification.notes().get(0));
+        // Not timed, a faster wrong answer is no speedup
+        assertNull(verification.speedup());
+    }
+
+    @Test
+    void optimizedCodeThatDoesntCompileIsRejected() throws Exception {
+        StubAnalyses analyses = new StubAnalyses().set(ORIGINAL, SUM, 2000, "O(n)");
+
+        OptimizationVerifier.Verification verification = verifier(analyses, true).verify(ORIGINAL, OPTIMIZED);
+
+        assertEquals(OptimizationVerifier.Verdict.DIFFERENT, verification.verdict());
+        assertTrue(verification.rejected());
+        assertEquals("The optimized code couldn't be run: Does not compile", verification.notes().get(0));
+    }
+
+    @Test
+    void originalThatCantRunLeavesItUnverified() throws Exception {
+        StubAnalyses analyses = new StubAnalyses().set(OPTIMIZED, SUM, 500, "O(1)");
+
+        OptimizationVerifier.Verification verification = verifier(analyses, true).verify(ORIGINAL, OPTIMIZED);
+
+        assertEquals(OptimizationVerifier.Verdict.UNVERIFIED, verification.verdict());
+        assertFalse(verification.regression());
+        assertEquals("The original code couldn't be run: Does not compile", verification.notes().get(0));
+    }
+
+    @Test
+    void neitherFinishingLeavesItUnverified() throws Exception {
+        IntFunction<TimeComplexityService.Probe> endless = n -> new TimeComplexityService.Probe(n, SandboxExecutor.Status.TIMEOUT, null);
+        StubAnalyses analyses = new StubAnalyses().set(ORIGINAL, endless, 2000, "O(n)").set(OPTIMIZED, endless, 500, "O(n)");
+
+        OptimizationVerifier.Verification verification = verifier(analyses, true).verify(ORIGINAL, OPTIMIZED);
+
+        assertEquals(OptimizationVerifier.Verdict.UNVERIFIED, verification.verdict());
+        assertFalse(verification.regression());
+        assertEquals(0, verification.comparedSizes());
+    }
+
+    @Test
+    void optimizedCodeHittingALimitTheOriginalFinishesIsRejected() throws Exception {
+        IntFunction<TimeComplexityService.Probe> stopsAt100 = n -> n < 100
+                ? SUM.apply(n) : new TimeComplexityService.Probe(n, SandboxExecutor.Status.OPERATION_LIMIT, null);
+        StubAnalyses analyses = new StubAnalyses().set(ORIGINAL, SUM, 2000, "O(n)").set(OPTIMIZED, stopsAt100, 500, "O(n)");
+
+        OptimizationVerifier.Verification verification = verifier(analyses, true).verify(ORIGINAL, OPTIMIZED);
+
+        assertTrue(verification.rejected());
+        assertEquals("The optimized code hit OPERATION_LIMIT at n=100, where the original finished", verification.notes().get(0));
+        assertEquals(5, verification.comparedSizes());
+    }
+
+    @Test
+    void originalHittingALimitEndsTheComparisonWithoutARegression() throws Exception {
+        IntFunction<TimeComplexityService.Probe> stopsAt100 = n -> n < 100
+                ? SUM.apply(n) : new TimeComplexityService.Probe(n, SandboxExecutor.Status.TIMEOUT, null);
+        StubAnalyses analyses = new StubAnalyses().set(ORIGINAL, stopsAt100, 2000, "O(n)").set(OPTIMIZED, SUM, 500, "O(1)");
+
+        OptimizationVerifier.Verification verification = verifier(analyses, true).verify(ORIGINAL, OPTIMIZED);
+
+        assertEquals(OptimizationVerifier.Verdict.EQUIVALENT, verification.verdict());
+        assertFalse(verification.regression());
+        assertEquals(5, verification.comparedSizes());
+        assertEquals(10, verification.timedN());
+    }
+
+    @Test
+    void slowerRewriteIsRejected() throws Exception {
+        StubAnalyses analyses = new StubAnalyses().set(ORIGINAL, SUM, 1000, "O(n)").set(OPTIMIZED, SUM, 2000, "O(n)");
+
+        OptimizationVerifier.Verification verification = verifier(analyses, true).verify(ORIGINAL, OPTIMIZED);
+
+        assertEquals(OptimizationVerifier.Verdict.EQUIVALENT, verification.verdict());
+        assertTrue(verification.rejected());
+        assertEquals(0.5, verification.speedup());
+        assertTrue(verification.notes().get(0).startsWith("Slower than the original. "), verification.notes().get(0));
+    }
+
+    @Test
+    void slowdownsWithinToleranceOrNoiseAreNotRegressions() throws Exception {
+        StubAnalyses withinTolerance = new StubAnalyses().set(ORIGINAL, SUM, 1000, "O(n)").set(OPTIMIZED, SUM, 1050, "O(n)");
+        StubAnalyses noise = new StubAnalyses().set(ORIGINAL, SUM, 10, "O(n)").set(OPTIMIZED, SUM, 40, "O(n)");
+
+        assertFalse(verifier(withinTolerance, true).verify(ORIGINAL, OPTIMIZED).regression());
+        assertFalse(verifier(noise, true).verify(ORIGINAL, OPTIMIZED).regression());
+    }
+
+    @Test
+    void worseComplexityIsRejected() throws Exception {
+        StubAnalyses analyses = new StubAnalyses().set(ORIGINAL, SUM, 1000, "O(n)").set(OPTIMIZED, SUM, 900, "O(n^2)");
+
+        OptimizationVerifier.Verification verification = verifier(analyses, true).verify(ORIGINAL, OPTIMIZED);
+
+        assertEquals("worse", verification.complexityChange());
+        assertTrue(verification.rejected());
+        assertEquals("Complexity got worse, O(n) to O(n^2)", verification.notes().get(0));
+    }
+
+    @Test
+    void regressionsAreOnlyFlaggedWithoutRejectRegressions() throws Exception {
+        StubAnalyses analyses = new StubAnalyses().set(ORIGINAL, SUM, 1000, "O(n)").set(OPTIMIZED, SUM, 900, "O(n^2)");
+
+        OptimizationVerifier verifier = verifier(analyses, false);
+        OptimizationVerifier.Verification verification = verifier.verify(ORIGINAL, OPTIMIZED);
+
+        assertTrue(verification.regression());
+        assertFalse(verification.rejected());
+        assertEquals(1L, verifier.stats().get("regressions"));
+        assertEquals(0L, verifier.stats().get("rejected"));
+    }
+
+    @Test
+    void growthOrdersComplexityLabels() {
+        List<String> ordered = List.of("O(1)", "O(log n)", "O(log^2 n)", "O(n)", "O(n log n)", "O(n^2)", "O(n^2 log n)",
+                                       "O(n^3)", "O(2^n)");
+        for (int i = 1; i < ordered.size(); i++) {
+            assertTrue(OptimizationVerifier.growth(ordered.get(i - 1)) < OptimizationVerifier.growth(ordered.get(i)),
+                       ordered.get(i - 1) + " < " + ordered.get(i));
+        }
+        assertEquals(-1, OptimizationVerifier.growth("O(n!)"));
+        assertEquals(-1, OptimizationVerifier.growth(null));
+    }
+
+    @Test
+    void unknownComplexityIsNeitherBetterNorWorse() throws Exception {
+        StubAnalyses analyses = new StubAnalyses().set(ORIGINAL, SUM, 1000, "O(n)").set(OPTIMIZED, SUM, 900, "O(n!)");
+
+        OptimizationVerifier.Verification verification = verifier(analyses, true).verify(ORIGINAL, OPTIMIZED);
+
+        assertEquals("unknown", verification.complexityChange());
+        assertFalse(verification.regression());
+    }
+
+    @Test
+    void capturesTheTopLevelVariablesBothVersionsDeclare() throws Exception {
+        String original = "int s = 0; float f = 1; int t = 2; for (int i = 0; i < n; i++) { s = s + i; }";
+        String optimized = "int s = n * (n - 1) / 2; int f = 1;";
+        StubAnalyses analyses = new StubAnalyses().set(original, SUM, 1000, "O(n)").set(optimized, SUM, 500, "O(1)");
+
+        OptimizationVerifier.Verification verification = verifier(analyses, true).verify(original, optimized);
+
+        // f has another type, t is only in the original
+        assertEquals(List.of("s"), verification.comparedVariables());
+        assertTrue(analyses.probed.contains(original + "\nconsume(s);"), String.valueOf(analyses.probed));
+        assertTrue(analyses.probed.contains(optimized + "\nconsume(s);"), String.valueOf(analyses.probed));
+    }
+
+    @Test
+    void nothingIsCapturedAfterCodeWhoseEndMightNotBeReached() throws Exception {
+        // A capture after these would be unreachable and fail to compile
+        for (String original : List.of("int s = 0; for (;;) { s = s + 1; }",
+                                       "int s = 0; if (n > 0) { return s; } else { return 1; }")) {
+            StubAnalyses analyses = new StubAnalyses().set(original, SUM, 1000, "O(n)").set(OPTIMIZED, SUM, 500, "O(1)");
+
+            OptimizationVerifier.Verification verification = verifier(analyses, true).verify(original, OPTIMIZED);
+
+            assertEquals(List.of(), verification.comparedVariables(), original);
+            assertTrue(analyses.probed.containsAll(List.of(original, OPTIMIZED)), String.valueOf(analyses.probed));
+        }
+    }
+
+    @Test
+    void nothingIsCapturedFromCodeOutsideTheGrammar() throws Exception {
+        String original = "int s = 0; do { s++; } while (s < n);";
+        StubAnalyses analyses = new StubAnalyses().set(original, SUM, 1000, "O(n)").set(OPTIMIZED, SUM, 500, "O(1)");
+
+        OptimizationVerifier.Verification verification = verifier(analyses, true).verify(original, OPTIMIZED);
+
+        assertEquals(List.of(), verification.comparedVariables());
+    }
+}
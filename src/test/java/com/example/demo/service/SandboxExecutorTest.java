@@ -0,0 +1,224 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class SandboxExecutorTest {
+
+    private final List<SandboxExecutor> sandboxes = new ArrayList<>();
+
+    // Spins without ever reaching a checkpoint, so only the flag stops it
+    private volatile boolean released;
+
+    private SandboxExecutor sandbox(int threads, long deadlineMillis, long maxOperations, long maxAllocatedBytes,
+                                    long maxQueueMillis) {
+        SandboxExecutor sandbox = new SandboxExecutor(threads, 4, deadlineMillis, maxOperations, maxAllocatedBytes,
+                                                      maxQueueMillis);
+        sandboxes.add(sandbox);
+        return sandbox;
+    }
+
+    private Object ignoreAbort() {
+        while (!released) {
+            Thread.onSpinWait();
+        }
+        return null;
+    }
+
+    @AfterEach
+    void shutdown() {
+        released = true;
+        sandboxes.forEach(SandboxExecutor::shutdown);
+    }
+
+    @Test
+    void completedRunReturnsItsResult() throws Exception {
+        SandboxExecutor sandbox = sandbox(1, 2000, Long.MAX_VALUE, Long.MAX_VALUE, 2000);
+
+        SandboxExecutor.Run run = sandbox.run(() -> {
+            OperationCounter.current().add(5);
+            return 42;
+        });
+
+        assertTrue(run.completed());
+        assertEquals(42, run.result());
+        assertEquals(5, run.operationCount());
+    }
+
+    @Test
+    void runPastItsDeadlineIsAbortedAtTheNextCheckpoint() throws Exception {
+        SandboxExecutor sandbox = sandbox(1, 100, Long.MAX_VALUE, Long.MAX_VALUE, 2000);
+
+        SandboxExecutor.Run run = sandbox.run(() -> {
+            while (true) {
+                SandboxExecutor.checkpoint();
+            }
+        });
+
+        assertEquals(SandboxExecutor.Status.TIMEOUT, run.status());
+        assertTrue(run.elapsedMillis() < 1000, "took " + run.elapsedMillis() + " ms");
+        assertEquals(0, sandbox.getStuckWorkers());
+        // The worker went back to the pool
+        assertTrue(sandbox.run(() -> 1).completed());
+    }
+
+    @Test
+    void runOverTheOperationCeilingIsAborted() throws Exception {
+        SandboxExecutor sandbox = sandbox(1, 5000, 1_000_000, Long.MAX_VALUE, 2000);
+
+        SandboxExecutor.Run run = sandbox.run(() -> {
+            while (true) {
+                OperationCounter.current().add(1000);
+            }
+        });
+
+        assertEquals(SandboxExecutor.Status.OPERATION_LIMIT, run.status());
+        assertTrue(run.operationCount() > 1_000_000);
+    }
+
+    @Test
+    void runOverTheAllocationBudgetIsAborted() throws Exception {
+        SandboxExecutor sandbox = sandbox(1, 5000, Long.MAX_VALUE, 1 << 20, 2000);
+
+        SandboxExecutor.Run run = sandbox.run(() -> {
+            List<byte[]> kept = new ArrayList<>();
+            while (true) {
+                kept.add(new byte[1024]);
+                if (kept.size() > 4096) {
+                    kept.clear();
+                }
+                SandboxExecutor.checkpoint();
+            }
+        });
+
+        assertEquals(SandboxExecutor.Status.MEMORY_LIMIT, run.status());
+        assertTrue(run.allocatedBytes() > 1 << 20);
+    }
+
+    @Test
+    void exceptionInTheRunIsAFailure() throws Exception {
+        SandboxExecutor sandbox = sandbox(1, 2000, Long.MAX_VALUE, Long.MAX_VALUE, 2000);
+
+        SandboxExecutor.Run run = sandbox.run(() -> {
+            throw new ArithmeticException("/ by zero");
+        });
+
+        assertEquals(SandboxExecutor.Status.FAILED, run.status());
+        assertTrue(run.error().contains("/ by zero"), run.error());
+    }
+
+    @Test
+    void runThatIgnoresTheAbortStillReturnsOnTimeButKeepsItsWorker() throws Exception {
+        SandboxExecutor sandbox = sandbox(2, 100, Long.MAX_VALUE, Long.MAX_VALUE, 2000);
+
+        SandboxExecutor.Run run = sandbox.run(this::ignoreAbort);
+
+        assertEquals(SandboxExecutor.Status.TIMEOUT, run.status());
+        assertTrue(run.elapsedMillis() < 1000, "took " + run.elapsedMillis() + " ms");
+        assertEquals(1, sandbox.getStuckWorkers());
+        assertEquals(1, sandbox.stats().get("activeWorkers"));
+    }
+
+    @Test
+    void queuedRunGivesUpWhenNoWorkerComesFree() throws Exception {
+        SandboxExecutor sandbox = sandbox(1, 100, Long.MAX_VALUE, Long.MAX_VALUE, 300);
+        assertEquals(SandboxExecutor.Status.TIMEOUT, sandbox.run(this::ignoreAbort).status());
+
+        // The only worker is stuck, without the queue bound this would wait for good
+        SandboxExecutor.Run queued = sandbox.run(() -> 1);
+
+        assertEquals(SandboxExecutor.Status.QUEUE_TIMEOUT, queued.status());
+        assertTrue(queued.elapsedMillis() >= 300 && queued.elapsedMillis() < 2000, "took " + queued.elapsedMillis() + " ms");
+        assertEquals(1L, sandbox.stats().get("queueTimeouts"));
+        assertEquals(0, sandbox.stats().get("queued"));
+
+        // Once the worker is free again runs go through
+        released = true;
+        assertTrue(sandbox.run(() -> 1).completed());
+    }
+
+    @Test
+    void runIsRejectedWhenTheQueueIsFull() throws Exception {
+        SandboxExecutor sandbox = sandbox(1, 100, Long.MAX_VALUE, Long.MAX_VALUE, 5000);
+        assertEquals(SandboxExecutor.Status.TIMEOUT, sandbox.run(this::ignoreAbort).status());
+        List<SandboxExecutor.Run> waited = new CopyOnWriteArrayList<>();
+        List<Thread> waiting = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            waiting.add(Thread.ofVirtual().start(() -> {
+                try {
+                    waited.add(sandbox.run(() -> 1));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!sandbox.stats().get("queued").equals(4) && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+
+        // The stuck worker and a full queue of 4, the next run isn't even queued
+        SandboxExecutor.Run rejected = sandbox.run(() -> 1);
+
+        assertEquals(SandboxExecutor.Status.REJECTED, rejected.status());
+        assertEquals(1L, sandbox.stats().get("rejected"));
+        released = true;
+        for (Thread thread : waiting) {
+            thread.join();
+        }
+        assertEquals(4, waited.stream().filter(SandboxExecutor.Run::completed).count());
+    }
+
+    private Class<?> snippet(String code) throws Exception {
+        return new CompiledClassCache(10).load(TimeComplexityService.generateFullCode(TimeComplexityService.CLASS_NAME, code),
+                                               TimeComplexityService.CLASS_NAME);
+    }
+
+    @Test
+    void instrumentedSnippetIsStoppedByItsAllocationBudget() throws Exception {
+        SandboxExecutor sandbox = sandbox(1, 5000, Long.MAX_VALUE, 4 << 20, 2000);
+        // No checkpoint by hand, the loop's counting reaches one. consume() keeps the JIT from dropping the arrays
+        Class<?> allocating = snippet("for (int i = 0; i < n; i++) { consume(new int[256]); }");
+
+        SandboxExecutor.Run run = sandbox.run(allocating, Integer.MAX_VALUE);
+
+        assertEquals(SandboxExecutor.Status.MEMORY_LIMIT, run.status());
+        assertTrue(run.allocatedBytes() > 4 << 20);
+        assertTrue(run.elapsedMillis() < 5000, "took " + run.elapsedMillis() + " ms");
+        assertEquals(0, sandbox.getStuckWorkers());
+        assertTrue(sandbox.run(allocating, 10).completed());
+    }
+
+    @Test
+    void instrumentedSnippetIsStoppedByItsOperationCeiling() throws Exception {
+        SandboxExecutor sandbox = sandbox(1, 5000, 1_000_000, Long.MAX_VALUE, 2000);
+
+        SandboxExecutor.Run run = sandbox.run(snippet("long s = 0; for (int i = 0; i < n; i++) { s += i; } consume(s);"),
+                                              Integer.MAX_VALUE);
+
+        assertEquals(SandboxExecutor.Status.OPERATION_LIMIT, run.status());
+        assertEquals(0, sandbox.getStuckWorkers());
+    }
+
+    @Test
+    void runAllKeepsTheOrderOfTheSizes() throws Exception {
+        SandboxExecutor sandbox = sandbox(2, 2000, Long.MAX_VALUE, Long.MAX_VALUE, 2000);
+
+        List<SandboxExecutor.Run> runs = sandbox.runAll(Sized.class, 3, 1, 2);
+
+        assertEquals(List.of(3, 1, 2), runs.stream().map(SandboxExecutor.Run::result).toList());
+    }
+
+    public static class Sized {
+        public static int execute(int n) {
+            return n;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class StaticComplexityEstimatorTest {
+
+    private final StaticComplexityEstimator estimator = new StaticComplexityEstimator(new CodeParser());
+
+    private void assertEstimate(String time, String space, String code) {
+        StaticComplexityEstimator.Estimate estimate = estimator.estimate(code);
+        assertEquals(time, estimate.complexity(), code);
+        assertEquals(space, estimate.spaceComplexity(), code);
+        assertEquals(1.0, estimate.confidence(), estimate.reason());
+    }
+
+    private void assertPenalized(String time, String reason, String code) {
+        StaticComplexityEstimator.Estimate estimate = estimator.estimate(code);
+        assertEquals(time, estimate.complexity(), code);
+        assertTrue(estimate.confidence() < 0.9, String.valueOf(estimate.confidence()));
+        assertTrue(estimate.reason().startsWith(reason), estimate.reason());
+    }
+
+    @Test
+    void straightLineCodeIsConstant() {
+        assertEstimate("O(1)", "O(1)", "int s = 0; s += n; s = s * 2;");
+    }
+
+    @Test
+    void countingLoopsAreLinear() {
+        assertEstimate("O(n)", "O(1)", "int s = 0; for (int i = 0; i < n; i++) { s += i; }");
+        assertEstimate("O(n)", "O(1)", "int s = 0; for (int i = 0; i < n; i += 2) { s += i; }");
+        assertEstimate("O(n)", "O(1)", "int s = 0; for (int i = n; i > 0; i--) { s += i; }");
+        assertEstimate("O(n)", "O(1)", "int s = 0; int i = 0; while (i < n) { s += i; i++; }");
+    }
+
+    @Test
+    void nestedLoopsMultiply() {
+        assertEstimate("O(n^2)", "O(1)", "int s = 0; for (int i = 0; i < n; i++) { for (int j = 0; j < n; j++) { s += j; } }");
+        // The inner bound is the outer counter, still n^2 / 2
+        assertEstimate("O(n^2)", "O(1)", "int s = 0; for (int i = 0; i < n; i++) { for (int j = 0; j < i; j++) { s += j; } }");
+        assertEstimate("O(n^2)", "O(1)", "int s = 0; for (int i = 0; i < n * n; i++) { s += i; }");
+    }
+
+    @Test
+    void sequentialLoopsTakeTheLargest() {
+        assertEstimate("O(n^2)", "O(1)", "int s = 0; for (int i = 0; i < n; i++) { s += i; } "
+                                         + "for (int i = 0; i < n; i++) { for (int j = 0; j < n; j++) { s += j; } }");
+    }
+
+    @Test
+    void geometricLoopsAreLogarithmic() {
+        assertEstimate("O(log n)", "O(1)", "int s = 0; for (int i = 1; i < n; i *= 2) { s += i; }");
+        assertEstimate("O(log n)", "O(1)", "int s = 0; for (int i = n; i > 0; i /= 2) { s += i; }");
+        assertEstimate("O(n log n)", "O(1)", "int s = 0; for (int i = 0; i < n; i++) { for (int j = 1; j < n; j *= 2) { s += j; } }");
+    }
+
+    @Test
+    void arraysCountAsSpaceAndTheirLengthAsABound() {
+        assertEstimate("O(n)", "O(n)", "int[] a = new int[n]; for (int i = 0; i < a.length; i++) { a[i] = i; }");
+        assertEstimate("O(n^2)", "O(n^2)", "int[] a = new int[n * n];");
+        assertEstimate("O(n^2)", "O(n^2)", "int s = 0; for (int i = 0; i < n; i++) { int[] row = new int[n]; s += row.length; }");
+    }
+
+    @Test
+    void multiDimensionalArraysMultiplyTheirSizes() {
+        // new int[n][n] parses as an access into new int[n]
+        assertEstimate("O(n^2)", "O(n^2)", "int[][] g = new int[n][n];");
+        assertEstimate("O(n^2)", "O(n^2)", "int[][] g = new int[n][n]; int s = 0; "
+                                           + "for (int i = 0; i < g.length; i++) { for (int j = 0; j < g.length; j++) { s += g[i][j]; } }");
+        assertEstimate("O(n^2)", "O(n^2)", "int[][][] c = new int[n][n][2];");
+    }
+
+    @Test
+    void recursionIsSolvedFromItsCallsAndHowTheyShrink() {
+        assertEstimate("O(n)", "O(1)", "class R { int down(int k) { if (k == 0) { return 0; } return down(k - 1) + 1; } } "
+                                       + "int r = new R().down(n);");
+        assertEstimate("O(log n)", "O(1)", "class H { int half(int k) { if (k <= 1) { return 0; } return half(k / 2) + 1; } } "
+                                           + "int r = new H().half(n);");
+        assertEstimate("O(2^n)", "O(1)", "class F { int fib(int k) { if (k < 2) { return k; } return fib(k - 1) + fib(k - 2); } } "
+                                         + "int r = new F().fib(n);");
+        assertEstimate("O(n log n)", "O(1)", "class M { int sort(int k) { if (k <= 1) { return 0; } int s = 0; "
+                                             + "for (int i = 0; i < k; i++) { s += i; } return sort(k / 2) + sort(k / 2) + s; } } "
+                                             + "int r = new M().sort(n);");
+    }
+
+    @Test
+    void whatTheWalkCantFollowLowersTheConfidence() {
+        assertPenalized("O(n)", "Loop bound n changes in the body", "int s = 0; for (int i = 0; i < n; i++) { if (i == 3) { n = 5; } }");
+        assertPenalized("O(n)", "Loop variable i also changes in the body", "int s = 0; for (int i = 0; i < n; i++) { i = i + 1; }");
+        assertPenalized("O(n)", "Return inside a loop", "int s = 0; for (int i = 0; i < n; i++) { if (i > 3) { return s; } }");
+        assertPenalized("O(n)", "String concatenation in a loop", "String s = \"\"; for (int i = 0; i < n; i++) { s += i; }");
+    }
+
+    @Test
+    void codeItCantFollowHasNoEstimate() {
+        StaticComplexityEstimator.Estimate outside = estimator.estimate("int s = 0; do { s++; } while (s < n);");
+        assertNull(outside.complexity());
+        assertEquals(0, outside.confidence());
+        assertTrue(outside.reason().startsWith("Outside the parsed subset of Java"), outside.reason());
+
+        StaticComplexityEstimator.Estimate recursion = estimator.estimate(
+                "class B { int search(int lo, int hi) { if (lo >= hi) { return lo; } int mid = (lo + hi) / 2; return search(lo, mid); } } "
+                + "int r = new B().search(0, n);");
+        assertNull(recursion.complexity());
+        assertEquals(0, recursion.confidence());
+    }
+}
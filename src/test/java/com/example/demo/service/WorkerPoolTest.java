@@ -0,0 +1,166 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+// Starts real worker JVMs on the test class path, without warmup so they come up quickly
+class WorkerPoolTest {
+
+    private static final String LINEAR = "int s = 0; for (int i = 0; i < n; i++) s++; consume(s);";
+    private static final ComplexitySweep.Settings SETTINGS =
+            new ComplexitySweep.Settings(1, 4, 4096, 1.5, 1_000_000, 2000, 16L << 20);
+
+    private WorkerPool pool;
+
+    private WorkerPool start(int maxJobs, long recycleHeapBytes, long jobTimeoutMillis, long sandboxDeadlineMillis) {
+        return start(maxJobs, recycleHeapBytes, jobTimeoutMillis, sandboxDeadlineMillis, 100_000_000);
+    }
+
+    private WorkerPool start(int maxJobs, long recycleHeapBytes, long jobTimeoutMillis, long sandboxDeadlineMillis,
+                             long sandboxMaxOperations) {
+        pool = new WorkerPool(true, 1, "128m", maxJobs, recycleHeapBytes, 30_000, jobTimeoutMillis, 0, 2,
+                              16, sandboxDeadlineMillis, sandboxMaxOperations, 256L << 20, 10_000, 50, 5, 1);
+        pool.start();
+        return pool;
+    }
+
+    private ComplexitySweep.Measurement measure(String code) throws Exception {
+        return pool.measure(TimeComplexityService.generateFullCode(TimeComplexityService.CLASS_NAME, code),
+                            TimeComplexityService.CLASS_NAME, SETTINGS);
+    }
+
+    @AfterEach
+    void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void workerMeasuresAndIsReused() throws Exception {
+        start(100, Long.MAX_VALUE, 15_000, 2000);
+
+        ComplexitySweep.Measurement first = measure(LINEAR);
+        ComplexitySweep.Measurement second = measure(LINEAR + " // again");
+
+        assertEquals(SandboxExecutor.Status.COMPLETED, first.status());
+        assertEquals(ComplexityFitter.Model.LINEAR, ComplexityFitter.fit(first.operationCounts()).model());
+        assertEquals(first.operationCounts(), second.operationCounts());
+        assertEquals(2L, pool.stats().get("jobs"));
+        assertEquals(0L, pool.stats().get("recycled"));
+    }
+
+    @Test
+    void workerIsReplacedAfterMaxJobs() throws Exception {
+        start(2, Long.MAX_VALUE, 15_000, 2000);
+
+        measure(LINEAR);
+        measure(LINEAR + " // 2");
+        assertEquals(1L, pool.stats().get("recycled"));
+
+        // Waits for the replacement
+        assertEquals(SandboxExecutor.Status.COMPLETED, measure(LINEAR + " // 3").status());
+        assertEquals(1, pool.stats().get("workers"));
+    }
+
+    @Test
+    void workerIsReplacedOnceItRetainsTooMuchHeap() throws Exception {
+        start(100, 1, 15_000, 2000);
+
+        measure(LINEAR);
+
+        assertEquals(1L, pool.stats().get("recycled"));
+        assertEquals(SandboxExecutor.Status.COMPLETED, measure(LINEAR + " // 2").status());
+    }
+
+    @Test
+    void exitingSnippetOnlyTakesItsWorkerDown() throws Exception {
+        start(100, Long.MAX_VALUE, 15_000, 2000);
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> measure("System.exit(3);"));
+
+        assertTrue(e.getMessage().contains("exited"), e.getMessage());
+        assertEquals(1L, pool.stats().get("crashed"));
+        assertEquals(0L, pool.stats().get("recycled"));
+        assertEquals(SandboxExecutor.Status.COMPLETED, measure(LINEAR).status());
+        assertTrue(pool.isAvailable());
+    }
+
+    @Test
+    void compileErrorKeepsTheWorker() throws Exception {
+        start(100, Long.MAX_VALUE, 15_000, 2000);
+
+        assertThrows(IllegalStateException.class, () -> measure("int x = ;"));
+
+        assertEquals(0L, pool.stats().get("crashed"));
+        assertEquals(0L, pool.stats().get("recycled"));
+        assertEquals(1, pool.stats().get("idle"));
+    }
+
+    @Test
+    void workerOverrunningTheJobTimeoutIsKilled() throws Exception {
+        // The sandbox would let the loop run for a minute, the pool gives up on the worker first.
+        // No operation limit: a JIT-compiled empty loop can pass 100M operations within the second
+        start(100, Long.MAX_VALUE, 1000, 60_000, Long.MAX_VALUE);
+
+        long start = System.nanoTime();
+        ComplexitySweep.Measurement measurement = measure("while (n >= 0) { }");
+
+        assertEquals(SandboxExecutor.Status.TIMEOUT, measurement.status());
+        assertTrue((System.nanoTime() - start) / 1_000_000 < 10_000);
+        assertEquals(1L, pool.stats().get("timedOut"));
+        // A replacement is on its way, a job on it would overrun this short timeout with the cold compile
+        assertTrue(pool.isAvailable());
+    }
+
+    @Test
+    void probeStopsAtTheFirstSizeOverTheLimits() throws Exception {
+        start(100, Long.MAX_VALUE, 15_000, 500);
+        String source = TimeComplexityService.generateVerificationCode(TimeComplexityService.CLASS_NAME,
+                                                                       "if (n > 5) { while (true) { } } consume(n * 2);");
+
+        List<TimeComplexityService.Probe> probes = pool.probe(source, TimeComplexityService.CLASS_NAME, new int[] {10, 0, 1});
+
+        assertEquals(List.of(0, 1, 10), probes.stream().map(TimeComplexityService.Probe::n).toList());
+        assertTrue(probes.get(0).output().contains("consuming 1 values"), probes.get(0).output());
+        assertNotEquals(probes.get(0).output(), probes.get(1).output());
+        assertNotEquals(SandboxExecutor.Status.COMPLETED, probes.get(2).status());
+        assertNull(probes.get(2).output());
+    }
+
+    @Test
+    void benchmarkRunsInAWorker() throws Exception {
+        start(100, Long.MAX_VALUE, 15_000, 2000);
+
+        List<BenchmarkService.SizeResult> results = pool.benchmark(
+                TimeComplexityService.generateFullCode(TimeComplexityService.CLASS_NAME, LINEAR),
+                TimeComplexityService.CLASS_NAME, new int[] {10, 100});
+
+        assertEquals(2, results.size());
+        for (BenchmarkService.SizeResult result : results) {
+            assertEquals(SandboxExecutor.Status.COMPLETED, result.status());
+            assertNotNull(result.timing());
+        }
+        assertTrue(results.get(1).operations() > results.get(0).operations());
+        assertEquals(1L, pool.stats().get("jobs"));
+    }
+
+    @Test
+    void disabledPoolIsNeverAvailable() {
+        pool = new WorkerPool(false, 1, "128m", 100, Long.MAX_VALUE, 30_000, 15_000, 0, 2,
+                              16, 2000, 100_000_000, 256L << 20, 10_000, 50, 5, 1);
+        pool.start();
+
+        assertFalse(pool.isAvailable());
+        assertEquals(0, pool.stats().get("workers"));
+    }
+}